@@ -20,7 +20,8 @@
 
 package network.darkhelmet.prism.api.services.modifications;
 
-import java.util.List;
+import java.util.EnumMap;
+import java.util.Map;
 
 import lombok.Builder;
 import lombok.Getter;
@@ -65,10 +66,10 @@ public final class ModificationQueueResult {
     private int removedDrops = 0;
 
     /**
-     * The modification results.
+     * The count of activities skipped, by skip reason.
      */
-    @NonNull
-    private List<ModificationResult> results;
+    @Builder.Default
+    private Map<ModificationSkipReason, Integer> skipReasons = new EnumMap<>(ModificationSkipReason.class);
 
     /**
      * The count of activities skipped.
@@ -28,12 +28,23 @@ import network.darkhelmet.prism.api.activities.ActivityQuery;
 
 public interface ModificationQueueService {
     /**
-     * Check if the queue is free. Nicer than trying and getting exceptions.
+     * Check if there's room for another queue. Nicer than trying and getting exceptions.
      *
      * @return True if a new queue can be made.
      */
     boolean queueAvailable();
 
+    /**
+     * Find an active queue which a new queue would conflict with. Queues conflict when they
+     * may change the same blocks, or when the owner already has a queue being applied.
+     *
+     * @param owner The owner
+     * @param query The query used
+     * @param modifications A list of activities to make modifications
+     * @return The conflicting queue, if any
+     */
+    Optional<ModificationQueue> conflictingQueue(Object owner, ActivityQuery query, List<Activity> modifications);
+
     /**
      * Cancel an active queue for a given owner.
      *
@@ -50,11 +61,11 @@ public interface ModificationQueueService {
     void clearEverythingForOwner(Object owner);
 
     /**
-     * The current modification queue.
+     * The current modification queues.
      *
-     * @return The queue
+     * @return The queues
      */
-    ModificationQueue currentQueue();
+    List<ModificationQueue> currentQueues();
 
     /**
      * Get the current queue only if it's owned by a given owner.
@@ -72,7 +83,7 @@ public interface ModificationQueueService {
      * @param query The query used
      * @param modifications A list of activities to make modifications
      * @return The rollback queue
-     * @throws IllegalStateException If queue can't be created
+     * @throws IllegalStateException If queue can't be created, or conflicts with another
      */
     ModificationQueue newQueue(
         Class<? extends ModificationQueue> clazz,
@@ -88,7 +99,7 @@ public interface ModificationQueueService {
      * @param query The query used
      * @param modifications A list of activities to make modifications
      * @return The rollback queue
-     * @throws IllegalStateException If queue can't be created
+     * @throws IllegalStateException If queue can't be created, or conflicts with another
      */
     ModificationQueue newRollbackQueue(
         ModificationRuleset modificationRuleset,
@@ -103,7 +114,7 @@ public interface ModificationQueueService {
      * @param query The query used
      * @param modifications A list of activities to make modifications
      * @return The restore queue
-     * @throws IllegalStateException If queue can't be created
+     * @throws IllegalStateException If queue can't be created, or conflicts with another
      */
     ModificationQueue newRestoreQueue(
         ModificationRuleset modificationRuleset,
@@ -29,6 +29,12 @@ import lombok.Getter;
 @Builder
 @Getter
 public class ModificationRuleset {
+    /**
+     * Whether block changes trigger physics and neighbor updates.
+     */
+    @Builder.Default
+    private boolean applyPhysics = true;
+
     /**
      * The block black list.
      */
@@ -44,6 +50,16 @@ public class ModificationRuleset {
      */
     private int maxPerTask;
 
+    /**
+     * Max time (in ms) spent on modifications per task, or 0 to limit by count.
+     */
+    private int maxMillisPerTask;
+
+    /**
+     * The number of chunks to load ahead of modifications.
+     */
+    private int preloadChunks;
+
     /**
      * A list of blocks to remove.
      */
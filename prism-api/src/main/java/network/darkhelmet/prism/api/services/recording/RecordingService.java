@@ -21,6 +21,7 @@
 package network.darkhelmet.prism.api.services.recording;
 
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import network.darkhelmet.prism.api.activities.Activity;
 
@@ -38,6 +39,16 @@ public interface RecordingService {
      */
     void clearTask();
 
+    /**
+     * Get the commit lock.
+     *
+     * <p>The write lock is held while activities are moved from the queue to storage. While
+     * the read lock is held, every activity is either in the queue or in storage, never both.</p>
+     *
+     * @return The commit lock
+     */
+    ReadWriteLock commitLock();
+
     /**
      * Get the queue.
      *
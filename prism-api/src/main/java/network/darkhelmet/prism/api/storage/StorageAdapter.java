@@ -21,6 +21,7 @@
 package network.darkhelmet.prism.api.storage;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 import network.darkhelmet.prism.api.PaginatedResults;
 import network.darkhelmet.prism.api.activities.AbstractActivity;
@@ -29,6 +30,13 @@ import network.darkhelmet.prism.api.activities.ActivityQuery;
 import network.darkhelmet.prism.api.util.Pair;
 
 public interface StorageAdapter {
+    /**
+     * Cancel any queries executing on behalf of a thread. May not be applicable to the chosen storage.
+     *
+     * @param thread The thread the queries were requested on
+     */
+    void cancelQueries(Thread thread);
+
     /**
      * Close any connections. May not be applicable to the chosen storage.
      */
@@ -51,6 +59,15 @@ public interface StorageAdapter {
      */
     int deleteActivities(ActivityQuery query, int cycleMinPrimaryKey, int cycleMaxPrimaryKey);
 
+    /**
+     * Explain how the storage executes the slowest statement of the last slow query.
+     * May not be applicable to the chosen storage.
+     *
+     * @return The execution plan lines, or empty if no slow query has been logged
+     * @throws Exception Storage layer exception
+     */
+    List<String> explainSlowQuery() throws Exception;
+
     /**
      * Get the min/max primary keys for the activities table.
      *
@@ -67,6 +84,16 @@ public interface StorageAdapter {
      */
     void markReversed(List<Long> activityIds, boolean reversed) throws Exception;
 
+    /**
+     * Set the reversed bit for activities in ranges of primary keys.
+     *
+     * @param primaryKeyRanges The inclusive min/max primary key ranges
+     * @param reversed Whether the activities were reversed
+     * @return The number of activities updated
+     * @throws Exception Storage layer exception
+     */
+    int markReversedRanges(List<Pair<Long, Long>> primaryKeyRanges, boolean reversed) throws Exception;
+
     /**
      * Query activities in a non-paginated format (needed for world modification).
      *
@@ -85,6 +112,20 @@ public interface StorageAdapter {
      */
     PaginatedResults<AbstractActivity> queryActivitiesPaginated(ActivityQuery query) throws Exception;
 
+    /**
+     * Stream activities in a non-paginated format.
+     *
+     * <p>Rows are read from the storage layer in chunks as the stream is consumed, so memory use
+     * is bounded regardless of how many activities match. The stream holds storage resources
+     * open and must be closed (e.g. with try-with-resources). Closing the stream early cancels
+     * any remaining reads.</p>
+     *
+     * @param query The activity query
+     * @return Stream of activities
+     * @throws Exception Storage layer exception
+     */
+    Stream<Activity> streamActivities(ActivityQuery query) throws Exception;
+
     /**
      * Check whether this storage system is enabled and ready.
      *
@@ -60,6 +60,7 @@ import network.darkhelmet.prism.bukkit.commands.ReportCommand;
 import network.darkhelmet.prism.bukkit.commands.RestoreCommand;
 import network.darkhelmet.prism.bukkit.commands.RollbackCommand;
 import network.darkhelmet.prism.bukkit.commands.TeleportCommand;
+import network.darkhelmet.prism.bukkit.commands.UndoCommand;
 import network.darkhelmet.prism.bukkit.commands.WandCommand;
 import network.darkhelmet.prism.bukkit.listeners.block.BlockBreakListener;
 import network.darkhelmet.prism.bukkit.listeners.block.BlockBurnListener;
@@ -120,8 +121,10 @@ import network.darkhelmet.prism.bukkit.listeners.vehicle.VehicleEnterListener;
 import network.darkhelmet.prism.bukkit.listeners.vehicle.VehicleExitListener;
 import network.darkhelmet.prism.bukkit.providers.InjectorProvider;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.modifications.ActivityReversalWriter;
 import network.darkhelmet.prism.bukkit.services.recording.BukkitRecordingService;
 import network.darkhelmet.prism.bukkit.services.scheduling.SchedulingService;
+import network.darkhelmet.prism.bukkit.services.scheduling.ServerTickMonitor;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.dependencies.Dependency;
 import network.darkhelmet.prism.loader.services.dependencies.DependencyService;
@@ -161,6 +164,11 @@ public class PrismBukkit implements Prism {
      */
     private RecordingService recordingService;
 
+    /**
+     * The activity reversal writer.
+     */
+    private ActivityReversalWriter activityReversalWriter;
+
     /**
      * Sets a numeric version we can use to handle differences between serialization formats.
      */
@@ -249,6 +257,11 @@ public class PrismBukkit implements Prism {
             // Initialize some classes
             recordingService = injectorProvider.injector().getInstance(BukkitRecordingService.class);
             injectorProvider.injector().getInstance(SchedulingService.class);
+            injectorProvider.injector().getInstance(ServerTickMonitor.class);
+
+            // Finish marking activities reversed, if the server stopped first last time
+            activityReversalWriter = injectorProvider.injector().getInstance(ActivityReversalWriter.class);
+            activityReversalWriter.replayPending();
 
             // Register event listeners
             registerEvent(BlockBreakListener.class);
@@ -481,6 +494,7 @@ public class PrismBukkit implements Prism {
             commandManager.registerCommand(injectorProvider.injector().getInstance(RestoreCommand.class));
             commandManager.registerCommand(injectorProvider.injector().getInstance(RollbackCommand.class));
             commandManager.registerCommand(injectorProvider.injector().getInstance(TeleportCommand.class));
+            commandManager.registerCommand(injectorProvider.injector().getInstance(UndoCommand.class));
             commandManager.registerCommand(injectorProvider.injector().getInstance(WandCommand.class));
         }
     }
@@ -544,6 +558,11 @@ public class PrismBukkit implements Prism {
             recordingService.stop();
         }
 
+        // Finish marking reversals while storage is still open, anything left is retried on startup
+        if (activityReversalWriter != null) {
+            activityReversalWriter.shutdown();
+        }
+
         if (storageAdapter != null) {
             storageAdapter.close();
         }
@@ -52,7 +52,6 @@ import org.bukkit.block.data.BlockData;
 import org.bukkit.block.data.type.Bed;
 import org.bukkit.block.data.type.Stairs;
 import org.bukkit.block.data.type.TrapDoor;
-import org.bukkit.entity.Player;
 import org.jetbrains.annotations.Nullable;
 
 public class BukkitBlockAction extends BukkitMaterialAction implements BlockAction {
@@ -64,7 +63,12 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
     /**
      * The read/write nbt.
      */
-    private final ReadWriteNBT readWriteNbt;
+    private ReadWriteNBT readWriteNbt;
+
+    /**
+     * The stored custom data (SNBT), parsed into nbt when first needed.
+     */
+    private String customData;
 
     /**
      * The replaced material.
@@ -160,7 +164,7 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
      * @param type The action type
      * @param material The material
      * @param blockData The block data
-     * @param teData The custom data
+     * @param customData The custom data (SNBT)
      * @param replacedMaterial The replaced material
      * @param replacedBlockData The replaced block data
      */
@@ -168,14 +172,15 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
             ActionType type,
             Material material,
             BlockData blockData,
-            ReadWriteNBT teData,
+            @Nullable String customData,
             Material replacedMaterial,
             BlockData replacedBlockData,
             String descriptor) {
         super(type, material, descriptor);
 
         this.blockData = blockData;
-        this.readWriteNbt = teData;
+        this.readWriteNbt = null;
+        this.customData = customData;
         this.replacedMaterial = replacedMaterial;
         this.replacedBlockData = replacedBlockData;
     }
@@ -187,7 +192,21 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
 
     @Override
     public boolean hasCustomData() {
-        return this.readWriteNbt != null;
+        return this.readWriteNbt != null || this.customData != null;
+    }
+
+    /**
+     * Get the nbt, parsing the stored custom data on first use.
+     *
+     * @return The nbt, if any
+     */
+    protected @Nullable ReadWriteNBT readWriteNbt() {
+        if (readWriteNbt == null && customData != null) {
+            readWriteNbt = NBT.parseNBT(customData);
+            customData = null;
+        }
+
+        return readWriteNbt;
     }
 
     /**
@@ -196,7 +215,7 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
      * @param nbtString The nbt string
      */
     public void mergeCompound(String nbtString) {
-        if (readWriteNbt != null) {
+        if (readWriteNbt() != null) {
             readWriteNbt.mergeCompound(NBT.parseNBT(nbtString));
         }
     }
@@ -207,7 +226,7 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
             return this.readWriteNbt.toString();
         }
 
-        return null;
+        return this.customData;
     }
 
     @Override
@@ -235,14 +254,9 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
             Activity activityContext,
             ModificationQueueMode mode) {
         // Skip if either material is in the blacklist
-        if (modificationRuleset.blockBlacklistContainsAny(material.toString())) {
-            return ModificationResult.builder()
-                .activity(activityContext).skipReason(ModificationSkipReason.BLACKLISTED).build();
-        }
-
-        if (replacedMaterial != null && modificationRuleset.blockBlacklistContainsAny(replacedMaterial.toString())) {
-            return ModificationResult.builder()
-                .activity(activityContext).skipReason(ModificationSkipReason.BLACKLISTED).build();
+        var blacklisted = checkBlacklist(modificationRuleset, activityContext);
+        if (blacklisted != null) {
+            return blacklisted;
         }
 
         var location = location(activityContext.worldUuid(), activityContext.coordinate());
@@ -259,19 +273,23 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
                 // If rolling back a removal, we need to place the top half of a bisected block
                 // This happens first otherwise the block will break again
                 if (blockData instanceof Bisected bisected) {
-                    setBisectedTop(block, bisected, bisected.getMaterial());
+                    setBisectedTop(block, bisected, bisected.getMaterial(), modificationRuleset.applyPhysics());
                 }
             }
 
+            // Custom data is only parsed when it's applied
+            ReadWriteNBT nbt = mode.equals(ModificationQueueMode.COMPLETING) ? readWriteNbt() : null;
+
             // If the action type removes a block, rollback means we re-set it
             stateChange = setBlock(
                 block,
                 location,
                 blockData,
                 replacedBlockData,
-                readWriteNbt,
+                nbt,
                 owner,
-                mode);
+                mode,
+                modificationRuleset.applyPhysics());
         } else if (type().resultType().equals(ActionResultType.CREATES)) {
             var canSet = canSet(block, replacedBlockData, modificationRuleset, activityContext);
             if (canSet != null) {
@@ -279,7 +297,8 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
             }
 
             // If the action type creates a block, rollback means we remove it
-            stateChange = setBlock(block, location, replacedBlockData, blockData, null, owner, mode);
+            stateChange = setBlock(
+                block, location, replacedBlockData, blockData, null, owner, mode, modificationRuleset.applyPhysics());
         }
 
         return ModificationResult.builder()
@@ -293,14 +312,9 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
             Activity activityContext,
             ModificationQueueMode mode) {
         // Skip if either material is in the blacklist
-        if (modificationRuleset.blockBlacklistContainsAny(material.toString())) {
-            return ModificationResult.builder()
-                .activity(activityContext).skipReason(ModificationSkipReason.BLACKLISTED).build();
-        }
-
-        if (replacedMaterial != null && modificationRuleset.blockBlacklistContainsAny(replacedMaterial.toString())) {
-            return ModificationResult.builder()
-                .activity(activityContext).skipReason(ModificationSkipReason.BLACKLISTED).build();
+        var blacklisted = checkBlacklist(modificationRuleset, activityContext);
+        if (blacklisted != null) {
+            return blacklisted;
         }
 
         var location = location(activityContext.worldUuid(), activityContext.coordinate());
@@ -317,12 +331,16 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
                 // If rolling back a removal, we need to place the top half of a bisected block
                 // This happens first otherwise the block will break again
                 if (blockData instanceof Bisected bisected) {
-                    setBisectedTop(block, bisected, bisected.getMaterial());
+                    setBisectedTop(block, bisected, bisected.getMaterial(), modificationRuleset.applyPhysics());
                 }
             }
 
+            // Custom data is only parsed when it's applied
+            ReadWriteNBT nbt = mode.equals(ModificationQueueMode.COMPLETING) ? readWriteNbt() : null;
+
             // If the action type creates a block, restore means we re-set it
-            stateChange = setBlock(block, location, blockData, replacedBlockData, readWriteNbt, owner, mode);
+            stateChange = setBlock(
+                block, location, blockData, replacedBlockData, nbt, owner, mode, modificationRuleset.applyPhysics());
         } else if (type().resultType().equals(ActionResultType.REMOVES)) {
             var canSet = canSet(block, replacedBlockData, modificationRuleset, activityContext);
             if (canSet != null) {
@@ -330,13 +348,86 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
             }
 
             // If the action type removes a block, restore means we remove it again
-            stateChange = setBlock(block, location, replacedBlockData, blockData, null, owner, mode);
+            stateChange = setBlock(
+                block, location, replacedBlockData, blockData, null, owner, mode, modificationRuleset.applyPhysics());
         }
 
         return ModificationResult.builder()
             .activity(activityContext).statusFromMode(mode).stateChange(stateChange).build();
     }
 
+    /**
+     * Check whether rolling back would change a block, using a snapshot of it.
+     * This is safe to call off the main thread.
+     *
+     * @param liveBlockData The block data of the block, as it currently is
+     * @param modificationRuleset The modification ruleset
+     * @param activityContext The activity context
+     * @return A skipped result if no change is needed, otherwise null
+     */
+    public @Nullable ModificationResult precheckRollback(
+            BlockData liveBlockData, ModificationRuleset modificationRuleset, Activity activityContext) {
+        var blacklisted = checkBlacklist(modificationRuleset, activityContext);
+        if (blacklisted != null) {
+            return blacklisted;
+        }
+
+        if (type().resultType().equals(ActionResultType.REMOVES)) {
+            return canSet(liveBlockData, blockData, modificationRuleset, activityContext);
+        } else if (type().resultType().equals(ActionResultType.CREATES)) {
+            return canSet(liveBlockData, replacedBlockData, modificationRuleset, activityContext);
+        }
+
+        return null;
+    }
+
+    /**
+     * Check whether restoring would change a block, using a snapshot of it.
+     * This is safe to call off the main thread.
+     *
+     * @param liveBlockData The block data of the block, as it currently is
+     * @param modificationRuleset The modification ruleset
+     * @param activityContext The activity context
+     * @return A skipped result if no change is needed, otherwise null
+     */
+    public @Nullable ModificationResult precheckRestore(
+            BlockData liveBlockData, ModificationRuleset modificationRuleset, Activity activityContext) {
+        var blacklisted = checkBlacklist(modificationRuleset, activityContext);
+        if (blacklisted != null) {
+            return blacklisted;
+        }
+
+        if (type().resultType().equals(ActionResultType.CREATES)) {
+            return canSet(liveBlockData, blockData, modificationRuleset, activityContext);
+        } else if (type().resultType().equals(ActionResultType.REMOVES)) {
+            return canSet(liveBlockData, replacedBlockData, modificationRuleset, activityContext);
+        }
+
+        return null;
+    }
+
+    /**
+     * Check whether either material is in the blacklist.
+     *
+     * @param modificationRuleset The modification ruleset
+     * @param activityContext The activity context
+     * @return A skipped result if blacklisted, otherwise null
+     */
+    protected @Nullable ModificationResult checkBlacklist(
+            ModificationRuleset modificationRuleset, Activity activityContext) {
+        if (modificationRuleset.blockBlacklistContainsAny(material.toString())) {
+            return ModificationResult.builder()
+                .activity(activityContext).skipReason(ModificationSkipReason.BLACKLISTED).build();
+        }
+
+        if (replacedMaterial != null && modificationRuleset.blockBlacklistContainsAny(replacedMaterial.toString())) {
+            return ModificationResult.builder()
+                .activity(activityContext).skipReason(ModificationSkipReason.BLACKLISTED).build();
+        }
+
+        return null;
+    }
+
     /**
      * A convenience method for getting a location.
      *
@@ -360,8 +451,25 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
      */
     protected ModificationResult canSet(
             Block block, BlockData newBlockData, ModificationRuleset modificationRuleset, Activity activityContext) {
-        if (!modificationRuleset.overwrite() && (TagLib.REQUIRES_OVERWRITE.isTagged(block.getType())
-                || block.getBlockData().matches(newBlockData))) {
+        return canSet(block.getBlockData(), newBlockData, modificationRuleset, activityContext);
+    }
+
+    /**
+     * Compare the current block data to our planned change and determine if a change is warranted.
+     *
+     * @param liveBlockData The current block data
+     * @param newBlockData The new block data
+     * @param modificationRuleset The modification ruleset
+     * @param activityContext The activity context
+     * @return True if already set
+     */
+    protected ModificationResult canSet(
+            BlockData liveBlockData,
+            BlockData newBlockData,
+            ModificationRuleset modificationRuleset,
+            Activity activityContext) {
+        if (!modificationRuleset.overwrite() && (TagLib.REQUIRES_OVERWRITE.isTagged(liveBlockData.getMaterial())
+                || liveBlockData.matches(newBlockData))) {
             return ModificationResult.builder()
                 .activity(activityContext).skipReason(ModificationSkipReason.ALREADY_SET).build();
         }
@@ -371,6 +479,16 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
 
     /**
      * Sets an in-world block to this block data.
+     *
+     * @param block The block
+     * @param location The location
+     * @param newBlockData The new block data
+     * @param oldBlockData The old block data
+     * @param readWriteNbt The NBT to apply, if any
+     * @param owner The owner
+     * @param mode The modification queue mode
+     * @param applyPhysics Whether to apply physics
+     * @return The state change
      */
     protected StateChange<BlockState> setBlock(
         Block block,
@@ -379,7 +497,8 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
         BlockData oldBlockData,
         ReadWriteNBT readWriteNbt,
         Object owner,
-        ModificationQueueMode mode
+        ModificationQueueMode mode,
+        boolean applyPhysics
     ) {
         // Capture existing state for reporting/reversing needs
         final BlockState oldState = block.getState();
@@ -388,17 +507,20 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
             // Set the bed head part before applying the root block change
             // otherwise the bed will just re-break.
             if (newBlockData instanceof Bed bed) {
-                setBedHead(block, bed);
+                setBedHead(block, bed, applyPhysics);
             } else if (oldBlockData instanceof Bed bed) {
-                setBedHead(block, bed);
+                setBedHead(block, bed, applyPhysics);
             }
         }
 
-        // Send block change or change world
-        if (mode.equals(ModificationQueueMode.PLANNING) && owner instanceof Player player) {
-            player.sendBlockChange(location, newBlockData);
+        // Plan the block change, the queue sends previews in batches
+        if (mode.equals(ModificationQueueMode.PLANNING)) {
+            final BlockState previewState = block.getState();
+            previewState.setBlockData(newBlockData);
+
+            return new BlockStateChange(oldState, previewState);
         } else if (mode.equals(ModificationQueueMode.COMPLETING)) {
-            block.setBlockData(newBlockData);
+            block.setBlockData(newBlockData, applyPhysics);
         }
 
         // Set NBT
@@ -416,19 +538,20 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
      *
      * @param block The block being changed
      * @param bed The bed block data
+     * @param applyPhysics Whether to apply physics
      */
-    protected void setBedHead(Block block, Bed bed) {
+    protected void setBedHead(Block block, Bed bed, boolean applyPhysics) {
         // Bed activities will always be the FOOT part
         Block relative = block.getRelative(bed.getFacing());
 
         if (type().resultType().equals(ActionResultType.CREATES)) {
-            relative.setType(Material.AIR);
+            relative.setType(Material.AIR, applyPhysics);
         } else {
-            relative.setType(bed.getMaterial());
+            relative.setType(bed.getMaterial(), applyPhysics);
 
             if (bed.clone() instanceof Bed siblingBed) {
                 siblingBed.setPart(Bed.Part.HEAD);
-                relative.setBlockData(siblingBed);
+                relative.setBlockData(siblingBed, applyPhysics);
             }
         }
     }
@@ -439,8 +562,9 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
      * @param block The block being changed
      * @param bisected The bisected block data
      * @param material The material
+     * @param applyPhysics Whether to apply physics
      */
-    protected void setBisectedTop(Block block, Bisected bisected, Material material) {
+    protected void setBisectedTop(Block block, Bisected bisected, Material material, boolean applyPhysics) {
         // Some bisected blocks don't need help
         if (bisected instanceof Stairs || bisected instanceof TrapDoor) {
             return;
@@ -449,10 +573,10 @@ public class BukkitBlockAction extends BukkitMaterialAction implements BlockActi
         // Bisected activities will always be the BOTTOM part
         Block relative = block.getRelative(BlockFace.UP);
 
-        relative.setType(material);
+        relative.setType(material, applyPhysics);
         if (relative.getBlockData().clone() instanceof Bisected siblingBisected) {
             siblingBisected.setHalf(Bisected.Half.TOP);
-            relative.setBlockData(siblingBisected);
+            relative.setBlockData(siblingBisected, applyPhysics);
         }
     }
 
@@ -35,6 +35,7 @@ import network.darkhelmet.prism.api.services.modifications.ModificationResult;
 import network.darkhelmet.prism.api.services.modifications.ModificationRuleset;
 import network.darkhelmet.prism.api.util.Coordinate;
 import network.darkhelmet.prism.bukkit.PrismBukkit;
+import network.darkhelmet.prism.bukkit.services.modifications.state.EntityStateChange;
 import network.darkhelmet.prism.bukkit.services.nbt.NbtService;
 
 import org.bukkit.Bukkit;
@@ -170,29 +171,43 @@ public class BukkitEntityAction extends BukkitAction implements EntityAction {
             if (entityType.getEntityClass() != null) {
                 Location loc = new Location(world, coordinate.x(), coordinate.y(), coordinate.z());
 
-                world.spawn(loc, entityType.getEntityClass(), entity -> {
+                Entity spawned = world.spawn(loc, entityType.getEntityClass(), entity -> {
                     NBT.modify(entity, nbt -> {
                         nbt.mergeCompound(readWriteNbt);
                     });
                 });
 
-                return ModificationResult.builder().activity(activityContext).applied().build();
+                EntityStateChange stateChange = new EntityStateChange(
+                    entityType, loc, spawned.getUniqueId(), null, snapshotNbt(spawned));
+
+                return ModificationResult.builder()
+                    .activity(activityContext).applied().stateChange(stateChange).build();
             }
         } else {
             UUID uuid = readWriteNbt.getUUID("UUID");
             if (uuid != null) {
                 for (var entity : world.getEntities()) {
                     if (entity.getUniqueId().equals(uuid)) {
+                        ReadWriteNBT oldState = snapshotNbt(entity);
+
                         if (type().resultType().equals(ActionResultType.CREATES)) {
                             entity.remove();
 
-                            return ModificationResult.builder().activity(activityContext).applied().build();
+                            EntityStateChange stateChange = new EntityStateChange(
+                                entityType, entity.getLocation(), uuid, oldState, null);
+
+                            return ModificationResult.builder()
+                                .activity(activityContext).applied().stateChange(stateChange).build();
                         } else if (type().resultType().equals(ActionResultType.REPLACES)) {
                             NBT.modify(entity, nbt -> {
                                 nbt.mergeCompound(readWriteNbt);
                             });
 
-                            return ModificationResult.builder().activity(activityContext).applied().build();
+                            EntityStateChange stateChange = new EntityStateChange(
+                                entityType, entity.getLocation(), uuid, oldState, snapshotNbt(entity));
+
+                            return ModificationResult.builder()
+                                .activity(activityContext).applied().stateChange(stateChange).build();
                         }
                     }
                 }
@@ -202,6 +217,22 @@ public class BukkitEntityAction extends BukkitAction implements EntityAction {
         return ModificationResult.builder().activity(activityContext).build();
     }
 
+    /**
+     * Copy an entity's nbt, without its uuid and position so it can be used to spawn a copy.
+     *
+     * @param entity The entity
+     * @return The nbt
+     */
+    protected ReadWriteNBT snapshotNbt(Entity entity) {
+        ReadWriteNBT snapshot = NBT.createNBTObject();
+        NBT.get(entity, snapshot::mergeCompound);
+
+        snapshot.removeKey("UUID");
+        snapshot.removeKey("Pos");
+
+        return snapshot;
+    }
+
     @Override
     public String toString() {
         return String.format("EntityAction{type=%s}", type);
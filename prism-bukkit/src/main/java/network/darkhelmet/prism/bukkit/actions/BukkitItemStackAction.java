@@ -117,7 +117,8 @@ public class BukkitItemStackAction extends BukkitMaterialAction implements ItemA
             Player player = (Player) offlinePlayer;
             player.getInventory().addItem(itemStack.clone());
 
-            ItemStackStateChange stateChange = new ItemStackStateChange(itemStack.clone(), null);
+            ItemStackStateChange stateChange = new ItemStackStateChange(
+                itemStack.clone(), null, player.getUniqueId(), null);
 
             return ModificationResult.builder().activity(activityContext).applied().stateChange(stateChange).build();
         } else if (type().resultType().equals(ActionResultType.REMOVES)) {
@@ -130,7 +131,7 @@ public class BukkitItemStackAction extends BukkitMaterialAction implements ItemA
             if (location.getBlock().getState() instanceof InventoryHolder holder) {
                 holder.getInventory().addItem(itemStack);
 
-                ItemStackStateChange stateChange = new ItemStackStateChange(itemStack.clone(), null);
+                ItemStackStateChange stateChange = new ItemStackStateChange(itemStack.clone(), null, null, location);
 
                 return ModificationResult.builder()
                         .activity(activityContext).applied().stateChange(stateChange).build();
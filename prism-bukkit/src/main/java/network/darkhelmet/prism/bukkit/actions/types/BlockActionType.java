@@ -20,8 +20,8 @@
 
 package network.darkhelmet.prism.bukkit.actions.types;
 
-import de.tr7zw.nbtapi.NBT;
-import de.tr7zw.nbtapi.iface.ReadWriteNBT;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 import java.util.Locale;
 
@@ -36,6 +36,14 @@ import org.bukkit.Material;
 import org.bukkit.block.data.BlockData;
 
 public class BlockActionType extends ActionType {
+    /**
+     * Parsed block data, by block data string. Most activities share a small set of block states.
+     * Cached instances are shared so must be cloned before being changed.
+     */
+    private static final Cache<String, BlockData> blockDataCache = Caffeine.newBuilder()
+        .maximumSize(10000)
+        .build();
+
     /**
      * Construct a new block action type.
      *
@@ -49,40 +57,39 @@ public class BlockActionType extends ActionType {
 
     @Override
     public Action createAction(ActionData actionData) {
-        BlockData blockData = null;
-        if (actionData.material() != null) {
-            String replacedBlockDataStr = actionData.material().toLowerCase(Locale.ENGLISH);
-
-            if (actionData.materialData() != null) {
-                replacedBlockDataStr += actionData.materialData();
-            }
-
-            blockData = Bukkit.createBlockData(replacedBlockDataStr);
-        }
+        BlockData blockData = blockData(actionData.material(), actionData.materialData());
+        BlockData replacedBlockData = blockData(actionData.replacedMaterial(), actionData.replacedMaterialData());
 
-        ReadWriteNBT readWriteNbt = null;
+        // Custom data is parsed by the action when it's applied
+        String customData = null;
         if (actionData.customData() != null && actionData.customDataVersion() > 0) {
-            readWriteNbt = NBT.parseNBT(actionData.customData());
+            customData = actionData.customData();
         }
 
-        BlockData replacedBlockData = null;
-        if (actionData.replacedMaterial() != null) {
-            String replacedBlockDataStr = actionData.replacedMaterial().toLowerCase(Locale.ENGLISH);
+        Material material = blockData != null ? blockData.getMaterial() : null;
+        Material replaced = replacedBlockData != null ? replacedBlockData.getMaterial() : null;
 
-            if (actionData.replacedMaterialData() != null) {
-                replacedBlockDataStr += actionData.replacedMaterialData();
-            }
+        return new BukkitBlockAction(
+            this, material, blockData, customData, replaced, replacedBlockData, actionData.descriptor());
+    }
 
-            replacedBlockData = Bukkit.createBlockData(replacedBlockDataStr);
+    /**
+     * Get the block data for a material and its data, parsing it if it's not cached.
+     *
+     * @param material The material
+     * @param materialData The material data
+     * @return The block data, or null if no material
+     */
+    protected BlockData blockData(String material, String materialData) {
+        if (material == null) {
+            return null;
         }
 
-        Material material = Material.valueOf(actionData.material());
-        Material replaced = null;
-        if (actionData.replacedMaterial() != null) {
-            replaced = Material.valueOf(actionData.replacedMaterial());
+        String blockDataStr = material.toLowerCase(Locale.ENGLISH);
+        if (materialData != null) {
+            blockDataStr += materialData;
         }
 
-        return new BukkitBlockAction(
-            this, material, blockData, readWriteNbt, replaced, replacedBlockData, actionData.descriptor());
+        return blockDataCache.get(blockDataStr, Bukkit::createBlockData);
     }
 }
@@ -33,18 +33,20 @@ import java.util.Optional;
 import network.darkhelmet.prism.api.actions.Action;
 import network.darkhelmet.prism.api.activities.ActivityQuery;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueue;
-import network.darkhelmet.prism.api.services.modifications.ModificationQueueService;
 import network.darkhelmet.prism.api.services.modifications.ModificationRuleset;
 import network.darkhelmet.prism.api.services.modifications.Previewable;
 import network.darkhelmet.prism.api.storage.StorageAdapter;
 import network.darkhelmet.prism.bukkit.providers.TaskChainProvider;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.modifications.BukkitModificationQueueService;
 import network.darkhelmet.prism.bukkit.services.modifications.BukkitRestore;
 import network.darkhelmet.prism.bukkit.services.modifications.BukkitRollback;
 import network.darkhelmet.prism.bukkit.services.query.QueryService;
+import network.darkhelmet.prism.bukkit.services.recording.BukkitRecordingService;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
+import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
 @Command(value = "prism", alias = {"pr"})
@@ -67,7 +69,7 @@ public class PreviewCommand {
     /**
      * The modification queue service.
      */
-    private final ModificationQueueService modificationQueueService;
+    private final BukkitModificationQueueService modificationQueueService;
 
     /**
      * The query service.
@@ -84,6 +86,11 @@ public class PreviewCommand {
      */
     private final LoggingService loggingService;
 
+    /**
+     * The recording service.
+     */
+    private final BukkitRecordingService recordingService;
+
     /**
      * Construct the rollback command.
      *
@@ -94,16 +101,18 @@ public class PreviewCommand {
      * @param queryService The query service
      * @param taskChainProvider The taskchain provider
      * @param loggingService The logging service
+     * @param recordingService The recording service
      */
     @Inject
     public PreviewCommand(
             ConfigurationService configurationService,
             StorageAdapter storageAdapter,
             MessageService messageService,
-            ModificationQueueService modificationQueueService,
+            BukkitModificationQueueService modificationQueueService,
             QueryService queryService,
             TaskChainProvider taskChainProvider,
-            LoggingService loggingService) {
+            LoggingService loggingService,
+            BukkitRecordingService recordingService) {
         this.configurationService = configurationService;
         this.storageAdapter = storageAdapter;
         this.messageService = messageService;
@@ -111,6 +120,7 @@ public class PreviewCommand {
         this.queryService = queryService;
         this.taskChainProvider = taskChainProvider;
         this.loggingService = loggingService;
+        this.recordingService = recordingService;
     }
 
     /**
@@ -216,8 +226,12 @@ public class PreviewCommand {
         }
 
         taskChainProvider.newChain().asyncFirst(() -> {
-            try {
-                return storageAdapter.queryActivities(query);
+            // Save anything still queued, so fresh activity can be modified too
+            recordingService.flush();
+
+            // Collapse activities as they're read, so only those deciding each block's state are kept
+            try (var stream = storageAdapter.streamActivities(query)) {
+                return modificationQueueService.collapse(clazz, stream);
             } catch (Exception e) {
                 messageService.errorQueryExec(player);
                 loggingService.handleException(e);
@@ -225,12 +239,23 @@ public class PreviewCommand {
 
             return null;
         }).abortIfNull().<List<Action>>sync(results -> {
-            if (results.isEmpty()) {
+            if (results.activities().isEmpty()) {
                 messageService.noResults(player);
 
                 return null;
             }
 
+            // Ensure no other queue is changing the same blocks
+            var conflict = modificationQueueService.conflictingQueue(player, query, results.activities());
+            if (conflict.isPresent()) {
+                Object conflictOwner = conflict.get().owner();
+                String ownerName = conflictOwner instanceof CommandSender conflictSender
+                    ? conflictSender.getName() : String.valueOf(conflictOwner);
+                messageService.errorQueueConflict(player, ownerName);
+
+                return null;
+            }
+
             ModificationQueue queue = modificationQueueService
                 .newQueue(clazz, modificationRuleset, player, query, results);
             if (queue instanceof Previewable previewable) {
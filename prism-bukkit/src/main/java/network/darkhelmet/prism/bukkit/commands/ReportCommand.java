@@ -25,19 +25,32 @@ import com.google.inject.Inject;
 import dev.triumphteam.cmd.bukkit.annotation.Permission;
 import dev.triumphteam.cmd.core.annotations.Command;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.activities.ActivityQuery;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueueResult;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueueService;
-import network.darkhelmet.prism.api.services.modifications.ModificationResult;
-import network.darkhelmet.prism.api.services.modifications.ModificationResultStatus;
+import network.darkhelmet.prism.api.services.modifications.ModificationSkipReason;
+import network.darkhelmet.prism.api.storage.StorageAdapter;
+import network.darkhelmet.prism.bukkit.providers.TaskChainProvider;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.modifications.AbstractWorldModificationQueue;
+import network.darkhelmet.prism.bukkit.services.modifications.ModificationResultStore;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
 import org.bukkit.command.CommandSender;
 
 @Command(value = "prism", alias = {"pr"})
 public class ReportCommand {
+    /**
+     * The number of spilled skipped activities loaded per query.
+     */
+    private static final int SPILLED_PAGE_SIZE = 500;
+
     /**
      * The message service.
      */
@@ -48,18 +61,42 @@ public class ReportCommand {
      */
     private final ModificationQueueService modificationQueueService;
 
+    /**
+     * The storage adapter.
+     */
+    private final StorageAdapter storageAdapter;
+
+    /**
+     * The task chain provider.
+     */
+    private final TaskChainProvider taskChainProvider;
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
     /**
      * Construct the about command.
      *
      * @param messageService The message service
      * @param modificationQueueService The modification queue service
+     * @param storageAdapter The storage adapter
+     * @param taskChainProvider The task chain provider
+     * @param loggingService The logging service
      */
     @Inject
     public ReportCommand(
             MessageService messageService,
-            ModificationQueueService modificationQueueService) {
+            ModificationQueueService modificationQueueService,
+            StorageAdapter storageAdapter,
+            TaskChainProvider taskChainProvider,
+            LoggingService loggingService) {
         this.messageService = messageService;
         this.modificationQueueService = modificationQueueService;
+        this.storageAdapter = storageAdapter;
+        this.taskChainProvider = taskChainProvider;
+        this.loggingService = loggingService;
     }
 
     @Command("report")
@@ -80,16 +117,93 @@ public class ReportCommand {
             }
 
             ModificationQueueResult queueResult = resultOptional.get();
+            if (!(queueResult.queue() instanceof AbstractWorldModificationQueue worldModificationQueue)) {
+                messageService.errorQueueResultMissing(sender);
+
+                return;
+            }
+
+            ModificationResultStore resultStore = worldModificationQueue.resultStore();
 
             messageService.modificationsReportSkippedHeader(sender);
 
-            for (ModificationResult result : queueResult.results()) {
-                if (result.status().equals(ModificationResultStatus.SKIPPED)) {
-                    messageService.modificationsReportSkippedActivity(
-                        sender, result.activity(), result.skipReason().toString()
-                            .replaceAll("_", " ").toLowerCase(Locale.ROOT));
-                }
+            for (ModificationResultStore.SkippedActivity skipped : resultStore.skipped()) {
+                messageService.modificationsReportSkippedActivity(
+                    sender, skipped.activity(), skipReason(skipped.reason()));
             }
+
+            if (resultStore.spilledCount() == 0) {
+                return;
+            }
+
+            // Any more were spilled to disk as primary keys, so load their activities a page at a time
+            taskChainProvider.newChain().async(() -> {
+                try {
+                    resultStore.readSpilled(SPILLED_PAGE_SIZE, page -> {
+                        List<Integer> activityIds = new ArrayList<>(page.size());
+                        for (long primaryKey : page.keySet()) {
+                            activityIds.add((int) primaryKey);
+                        }
+
+                        ActivityQuery query = ActivityQuery.builder()
+                            .activityIds(activityIds).modification().build();
+
+                        try {
+                            for (Activity activity : storageAdapter.queryActivities(query)) {
+                                messageService.modificationsReportSkippedActivity(
+                                    sender, activity, skipReason(page.get((long) activity.primaryKey())));
+                            }
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                } catch (Exception e) {
+                    messageService.errorQueryExec(sender);
+                    loggingService.handleException(e);
+                }
+            }).execute();
+        }
+
+        /**
+         * Format a skip reason for display.
+         *
+         * @param skipReason The skip reason
+         * @return The formatted skip reason
+         */
+        private String skipReason(ModificationSkipReason skipReason) {
+            return skipReason.toString().replaceAll("_", " ").toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Run the slow query explain report command.
+         *
+         * @param sender The command sender
+         */
+        @Command("slow-query")
+        @Permission("prism.admin")
+        public void onSlowQuery(final CommandSender sender) {
+            taskChainProvider.newChain().asyncFirst(() -> {
+                try {
+                    return storageAdapter.explainSlowQuery();
+                } catch (Exception e) {
+                    messageService.errorQueryExec(sender);
+                    loggingService.handleException(e);
+                }
+
+                return null;
+            }).abortIfNull().syncLast(plan -> {
+                if (plan.isEmpty()) {
+                    messageService.errorNoSlowQuery(sender);
+
+                    return;
+                }
+
+                messageService.slowQueryPlanHeader(sender);
+
+                for (String line : plan) {
+                    messageService.slowQueryPlanLine(sender, line);
+                }
+            }).execute();
         }
     }
 }
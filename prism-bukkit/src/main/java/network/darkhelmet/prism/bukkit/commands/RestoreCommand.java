@@ -29,11 +29,13 @@ import dev.triumphteam.cmd.core.annotations.NamedArguments;
 import dev.triumphteam.cmd.core.argument.keyed.Arguments;
 
 import network.darkhelmet.prism.api.activities.ActivityQuery;
-import network.darkhelmet.prism.api.services.modifications.ModificationQueueService;
 import network.darkhelmet.prism.api.storage.StorageAdapter;
 import network.darkhelmet.prism.bukkit.providers.TaskChainProvider;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.modifications.BukkitModificationQueueService;
+import network.darkhelmet.prism.bukkit.services.modifications.BukkitRestore;
 import network.darkhelmet.prism.bukkit.services.query.QueryService;
+import network.darkhelmet.prism.bukkit.services.recording.BukkitRecordingService;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
@@ -59,7 +61,7 @@ public class RestoreCommand {
     /**
      * The modification queue service.
      */
-    private final ModificationQueueService modificationQueueService;
+    private final BukkitModificationQueueService modificationQueueService;
 
     /**
      * The query service.
@@ -76,6 +78,11 @@ public class RestoreCommand {
      */
     private final LoggingService loggingService;
 
+    /**
+     * The recording service.
+     */
+    private final BukkitRecordingService recordingService;
+
     /**
      * Construct the restore command.
      *
@@ -86,16 +93,18 @@ public class RestoreCommand {
      * @param queryService The query service
      * @param taskChainProvider The task chain provider
      * @param loggingService The logging service
+     * @param recordingService The recording service
      */
     @Inject
     public RestoreCommand(
             ConfigurationService configurationService,
             StorageAdapter storageAdapter,
             MessageService messageService,
-            ModificationQueueService modificationQueueService,
+            BukkitModificationQueueService modificationQueueService,
             QueryService queryService,
             TaskChainProvider taskChainProvider,
-            LoggingService loggingService) {
+            LoggingService loggingService,
+            BukkitRecordingService recordingService) {
         this.configurationService = configurationService;
         this.storageAdapter = storageAdapter;
         this.messageService = messageService;
@@ -103,6 +112,7 @@ public class RestoreCommand {
         this.queryService = queryService;
         this.taskChainProvider = taskChainProvider;
         this.loggingService = loggingService;
+        this.recordingService = recordingService;
     }
 
     /**
@@ -126,8 +136,12 @@ public class RestoreCommand {
         if (builder.isPresent()) {
             final ActivityQuery query = builder.get().restore().build();
             taskChainProvider.newChain().asyncFirst(() -> {
-                try {
-                    return storageAdapter.queryActivities(query);
+                // Save anything still queued, so fresh activity can be modified too
+                recordingService.flush();
+
+                // Collapse activities as they're read, so only those deciding each block's state are kept
+                try (var stream = storageAdapter.streamActivities(query)) {
+                    return modificationQueueService.collapse(BukkitRestore.class, stream);
                 } catch (Exception e) {
                     messageService.errorQueryExec(sender);
                     loggingService.handleException(e);
@@ -135,7 +149,7 @@ public class RestoreCommand {
 
                 return null;
             }).abortIfNull().syncLast(modifications -> {
-                if (modifications.isEmpty()) {
+                if (modifications.activities().isEmpty()) {
                     messageService.noResults(sender);
 
                     return;
@@ -145,6 +159,17 @@ public class RestoreCommand {
                     messageService.defaultsUsed(sender, String.join(" ", query.defaultsUsed()));
                 }
 
+                // Ensure no other queue is changing the same blocks
+                var conflict = modificationQueueService.conflictingQueue(sender, query, modifications.activities());
+                if (conflict.isPresent()) {
+                    Object conflictOwner = conflict.get().owner();
+                    String ownerName = conflictOwner instanceof CommandSender conflictSender
+                        ? conflictSender.getName() : String.valueOf(conflictOwner);
+                    messageService.errorQueueConflict(sender, ownerName);
+
+                    return;
+                }
+
                 var modificationRuleset = configurationService.prismConfig().modifications().toRulesetBuilder()
                     .overwrite(arguments.hasFlag("overwrite")).build();
 
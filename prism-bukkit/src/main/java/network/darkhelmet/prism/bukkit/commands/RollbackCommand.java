@@ -29,11 +29,13 @@ import dev.triumphteam.cmd.core.annotations.NamedArguments;
 import dev.triumphteam.cmd.core.argument.keyed.Arguments;
 
 import network.darkhelmet.prism.api.activities.ActivityQuery;
-import network.darkhelmet.prism.api.services.modifications.ModificationQueueService;
 import network.darkhelmet.prism.api.storage.StorageAdapter;
 import network.darkhelmet.prism.bukkit.providers.TaskChainProvider;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.modifications.BukkitModificationQueueService;
+import network.darkhelmet.prism.bukkit.services.modifications.BukkitRollback;
 import network.darkhelmet.prism.bukkit.services.query.QueryService;
+import network.darkhelmet.prism.bukkit.services.recording.BukkitRecordingService;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
@@ -59,7 +61,7 @@ public class RollbackCommand {
     /**
      * The modification queue service.
      */
-    private final ModificationQueueService modificationQueueService;
+    private final BukkitModificationQueueService modificationQueueService;
 
     /**
      * The query service.
@@ -76,6 +78,11 @@ public class RollbackCommand {
      */
     private final LoggingService loggingService;
 
+    /**
+     * The recording service.
+     */
+    private final BukkitRecordingService recordingService;
+
     /**
      * Construct the rollback command.
      *
@@ -86,16 +93,18 @@ public class RollbackCommand {
      * @param queryService The query service
      * @param taskChainProvider The task chain provider
      * @param loggingService The logging service
+     * @param recordingService The recording service
      */
     @Inject
     public RollbackCommand(
             ConfigurationService configurationService,
             StorageAdapter storageAdapter,
             MessageService messageService,
-            ModificationQueueService modificationQueueService,
+            BukkitModificationQueueService modificationQueueService,
             QueryService queryService,
             TaskChainProvider taskChainProvider,
-            LoggingService loggingService) {
+            LoggingService loggingService,
+            BukkitRecordingService recordingService) {
         this.configurationService = configurationService;
         this.storageAdapter = storageAdapter;
         this.messageService = messageService;
@@ -103,6 +112,7 @@ public class RollbackCommand {
         this.queryService = queryService;
         this.taskChainProvider = taskChainProvider;
         this.loggingService = loggingService;
+        this.recordingService = recordingService;
     }
 
     /**
@@ -127,8 +137,12 @@ public class RollbackCommand {
         if (builder.isPresent()) {
             final ActivityQuery query = builder.get().rollback().build();
             taskChainProvider.newChain().asyncFirst(() -> {
-                try {
-                    return storageAdapter.queryActivities(query);
+                // Save anything still queued, so fresh activity can be modified too
+                recordingService.flush();
+
+                // Collapse activities as they're read, so only those deciding each block's state are kept
+                try (var stream = storageAdapter.streamActivities(query)) {
+                    return modificationQueueService.collapse(BukkitRollback.class, stream);
                 } catch (Exception e) {
                     messageService.errorQueryExec(sender);
                     loggingService.handleException(e);
@@ -136,7 +150,7 @@ public class RollbackCommand {
 
                 return null;
             }).abortIfNull().syncLast(modifications -> {
-                if (modifications.isEmpty()) {
+                if (modifications.activities().isEmpty()) {
                     messageService.noResults(sender);
 
                     return;
@@ -146,6 +160,17 @@ public class RollbackCommand {
                     messageService.defaultsUsed(sender, String.join(" ", query.defaultsUsed()));
                 }
 
+                // Ensure no other queue is changing the same blocks
+                var conflict = modificationQueueService.conflictingQueue(sender, query, modifications.activities());
+                if (conflict.isPresent()) {
+                    Object conflictOwner = conflict.get().owner();
+                    String ownerName = conflictOwner instanceof CommandSender conflictSender
+                        ? conflictSender.getName() : String.valueOf(conflictOwner);
+                    messageService.errorQueueConflict(sender, ownerName);
+
+                    return;
+                }
+
                 var modificationRuleset = configurationService.prismConfig().modifications().toRulesetBuilder()
                     .overwrite(arguments.hasFlag("overwrite")).build();
 
@@ -0,0 +1,156 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.commands;
+
+import com.google.inject.Inject;
+
+import dev.triumphteam.cmd.bukkit.annotation.Permission;
+import dev.triumphteam.cmd.core.annotations.Command;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+import network.darkhelmet.prism.bukkit.providers.TaskChainProvider;
+import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.modifications.ActivityReversalWriter;
+import network.darkhelmet.prism.bukkit.services.modifications.BukkitModificationQueueService;
+import network.darkhelmet.prism.bukkit.services.undo.UndoJournalService;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.bukkit.command.CommandSender;
+
+@Command(value = "prism", alias = {"pr"})
+public class UndoCommand {
+    /**
+     * The message service.
+     */
+    private final MessageService messageService;
+
+    /**
+     * The modification queue service.
+     */
+    private final BukkitModificationQueueService modificationQueueService;
+
+    /**
+     * The undo journal service.
+     */
+    private final UndoJournalService undoJournalService;
+
+    /**
+     * The activity reversal writer.
+     */
+    private final ActivityReversalWriter activityReversalWriter;
+
+    /**
+     * The task chain provider.
+     */
+    private final TaskChainProvider taskChainProvider;
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * Construct the undo command.
+     *
+     * @param messageService The message service
+     * @param modificationQueueService The modification queue service
+     * @param undoJournalService The undo journal service
+     * @param activityReversalWriter The activity reversal writer
+     * @param taskChainProvider The task chain provider
+     * @param loggingService The logging service
+     */
+    @Inject
+    public UndoCommand(
+            MessageService messageService,
+            BukkitModificationQueueService modificationQueueService,
+            UndoJournalService undoJournalService,
+            ActivityReversalWriter activityReversalWriter,
+            TaskChainProvider taskChainProvider,
+            LoggingService loggingService) {
+        this.messageService = messageService;
+        this.modificationQueueService = modificationQueueService;
+        this.undoJournalService = undoJournalService;
+        this.activityReversalWriter = activityReversalWriter;
+        this.taskChainProvider = taskChainProvider;
+        this.loggingService = loggingService;
+    }
+
+    /**
+     * Run the undo command.
+     *
+     * @param sender The command sender
+     */
+    @Command("undo")
+    @Permission("prism.modify")
+    public void onUndo(final CommandSender sender) {
+        Optional<Path> latest = undoJournalService.latest(sender);
+        if (latest.isEmpty()) {
+            messageService.errorUndoMissing(sender);
+
+            return;
+        }
+
+        Path file = latest.get();
+
+        taskChainProvider.newChain().asyncFirst(() -> {
+            try {
+                return undoJournalService.read(file);
+            } catch (Exception e) {
+                // An unreadable journal can't be undone
+                loggingService.handleException(e);
+                file.toFile().delete();
+
+                messageService.errorUndoMissing(sender);
+            }
+
+            return null;
+        }).abortIfNull().syncLast(journal -> {
+            // Ensure no queue is changing the same blocks
+            var conflict = modificationQueueService.conflictingQueue(sender, journal.region());
+            if (conflict.isPresent()) {
+                Object conflictOwner = conflict.get().owner();
+                String ownerName = conflictOwner instanceof CommandSender conflictSender
+                    ? conflictSender.getName() : String.valueOf(conflictOwner);
+                messageService.errorQueueConflict(sender, ownerName);
+
+                return;
+            }
+
+            if (!modificationQueueService.queueAvailable()) {
+                messageService.errorQueueNotFree(sender);
+
+                return;
+            }
+
+            messageService.undoStarting(sender);
+
+            // The replay is registered as a queue, so nothing else changes its blocks until it's done
+            modificationQueueService.newUndoQueue(sender, file, journal, count -> {
+                // The activities are back to how they were before the modification
+                activityReversalWriter.submit(sender, journal.primaryKeys(), !journal.reversed());
+
+                messageService.undoComplete(sender, count);
+            }).apply();
+        }).execute();
+    }
+}
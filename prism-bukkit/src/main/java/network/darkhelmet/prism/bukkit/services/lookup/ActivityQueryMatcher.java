@@ -0,0 +1,138 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.lookup;
+
+import lombok.experimental.UtilityClass;
+
+import network.darkhelmet.prism.api.actions.Action;
+import network.darkhelmet.prism.api.actions.EntityAction;
+import network.darkhelmet.prism.api.actions.MaterialAction;
+import network.darkhelmet.prism.api.actions.types.ActionType;
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+import network.darkhelmet.prism.api.util.Coordinate;
+
+@UtilityClass
+public class ActivityQueryMatcher {
+    /**
+     * Check if a not-yet-stored activity matches a query. Mirrors the storage query conditions.
+     *
+     * @param query The activity query
+     * @param activity The activity
+     * @return True if the activity matches
+     */
+    public static boolean matches(ActivityQuery query, Activity activity) {
+        Action action = activity.action();
+
+        // Action Types
+        if (!query.actionTypes().isEmpty()) {
+            boolean matched = false;
+            for (ActionType actionType : query.actionTypes()) {
+                if ((query.lookup() || actionType.reversible()) && actionType.key().equals(action.type().key())) {
+                    matched = true;
+                    break;
+                }
+            }
+
+            if (!matched) {
+                return false;
+            }
+        }
+
+        // Action Type Keys
+        if (!query.actionTypeKeys().isEmpty() && !query.actionTypeKeys().contains(action.type().key())) {
+            return false;
+        }
+
+        // Activity IDs, which queued activities don't have yet
+        if (query.activityIds() != null && !query.activityIds().isEmpty()) {
+            return false;
+        }
+
+        // Cause
+        if (query.cause() != null && !query.cause().equals(activity.cause())) {
+            return false;
+        }
+
+        // Entity Types
+        if (!query.entityTypes().isEmpty() && !(action instanceof EntityAction entityAction
+                && query.entityTypes().contains(entityAction.serializeEntityType()))) {
+            return false;
+        }
+
+        // Locations
+        Coordinate coordinate = activity.coordinate();
+        if (query.coordinate() != null) {
+            if (coordinate == null || coordinate.intX() != query.coordinate().intX()
+                    || coordinate.intY() != query.coordinate().intY()
+                    || coordinate.intZ() != query.coordinate().intZ()) {
+                return false;
+            }
+        } else if (query.minCoordinate() != null && query.maxCoordinate() != null) {
+            Coordinate min = query.minCoordinate();
+            Coordinate max = query.maxCoordinate();
+            if (coordinate == null || coordinate.intX() < min.intX() || coordinate.intX() > max.intX()
+                    || coordinate.intY() < min.intY() || coordinate.intY() > max.intY()
+                    || coordinate.intZ() < min.intZ() || coordinate.intZ() > max.intZ()) {
+                return false;
+            }
+        }
+
+        // Materials
+        if (!query.materials().isEmpty() && !(action instanceof MaterialAction materialAction
+                && query.materials().contains(materialAction.serializeMaterial()))) {
+            return false;
+        }
+
+        // Players by name
+        if (!query.playerNames().isEmpty()) {
+            if (activity.player() == null || query.playerNames().stream()
+                    .noneMatch(name -> name.equalsIgnoreCase(activity.player().value()))) {
+                return false;
+            }
+        }
+
+        // Reversed, which queued activities never are
+        if (Boolean.TRUE.equals(query.reversed())) {
+            return false;
+        }
+
+        // Timestamps, which are stored in seconds
+        long timestamp = activity.timestamp() / 1000;
+        if (query.after() != null && query.before() != null) {
+            if (timestamp < query.after() || timestamp > query.before()) {
+                return false;
+            }
+        } else if (query.after() != null) {
+            if (timestamp <= query.after()) {
+                return false;
+            }
+        } else if (query.before() != null) {
+            if (timestamp >= query.before()) {
+                return false;
+            }
+        }
+
+        // World
+        return query.worldUuid() == null
+            || (activity.world() != null && query.worldUuid().equals(activity.worldUuid()));
+    }
+}
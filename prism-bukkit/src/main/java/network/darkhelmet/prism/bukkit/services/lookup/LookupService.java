@@ -25,8 +25,16 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
 
 import net.kyori.adventure.platform.bukkit.BukkitAudiences;
@@ -42,8 +50,10 @@ import network.darkhelmet.prism.api.activities.ActivityQuery;
 import network.darkhelmet.prism.api.storage.StorageAdapter;
 import network.darkhelmet.prism.bukkit.providers.TaskChainProvider;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.recording.BukkitRecordingService;
 import network.darkhelmet.prism.bukkit.services.translation.BukkitTranslationService;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
+import network.darkhelmet.prism.loader.services.configuration.LookupConfiguration;
 import network.darkhelmet.prism.loader.services.configuration.cache.CacheConfiguration;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
@@ -51,6 +61,11 @@ import org.bukkit.command.CommandSender;
 
 @Singleton
 public class LookupService {
+    /**
+     * The number of times a lookup merging queued activities is tried without holding the commit lock.
+     */
+    private static final int MAX_UNLOCKED_ATTEMPTS = 3;
+
     /**
      * The bukkit audiences.
      */
@@ -81,11 +96,77 @@ public class LookupService {
      */
     private final LoggingService loggingService;
 
+    /**
+     * The recent activity index.
+     */
+    private final RecentActivityIndex recentActivityIndex;
+
+    /**
+     * The recording service.
+     */
+    private final BukkitRecordingService recordingService;
+
+    /**
+     * The lookup configuration.
+     */
+    private final LookupConfiguration lookupConfiguration;
+
     /**
      * Cache recent queries.
      */
     private final Cache<CommandSender, ActivityQuery> recentQueries;
 
+    /**
+     * Running and queued lookups, by sender, oldest first.
+     */
+    private final Map<CommandSender, Deque<PendingLookup>> lookupsBySender = new HashMap<>();
+
+    /**
+     * Lookups waiting for a free slot.
+     */
+    private final Deque<PendingLookup> waitingLookups = new ArrayDeque<>();
+
+    /**
+     * The number of running lookups.
+     */
+    private int runningLookups = 0;
+
+    /**
+     * A lookup that's running or waiting to run.
+     */
+    private static class PendingLookup {
+        /**
+         * The command sender.
+         */
+        private final CommandSender sender;
+
+        /**
+         * Queries storage and returns the step that displays the results.
+         */
+        private final Callable<Runnable> work;
+
+        /**
+         * Whether this lookup was cancelled.
+         */
+        private volatile boolean cancelled = false;
+
+        /**
+         * The thread running this lookup, if running.
+         */
+        private Thread thread;
+
+        /**
+         * Construct a pending lookup.
+         *
+         * @param sender The command sender
+         * @param work The work
+         */
+        PendingLookup(CommandSender sender, Callable<Runnable> work) {
+            this.sender = sender;
+            this.work = work;
+        }
+    }
+
     /**
      * Construct the lookup service.
      *
@@ -96,6 +177,8 @@ public class LookupService {
      * @param translationService The translation service
      * @param taskChainProvider The task chain provider
      * @param loggingService The logging service
+     * @param recentActivityIndex The recent activity index
+     * @param recordingService The recording service
      */
     @Inject
     public LookupService(
@@ -105,13 +188,18 @@ public class LookupService {
             StorageAdapter storageAdapter,
             BukkitTranslationService translationService,
             TaskChainProvider taskChainProvider,
-            LoggingService loggingService) {
+            LoggingService loggingService,
+            RecentActivityIndex recentActivityIndex,
+            BukkitRecordingService recordingService) {
         this.audiences = audiences;
         this.messageService = messageService;
         this.storageAdapter = storageAdapter;
         this.translationService = translationService;
         this.taskChainProvider = taskChainProvider;
         this.loggingService = loggingService;
+        this.recentActivityIndex = recentActivityIndex;
+        this.recordingService = recordingService;
+        this.lookupConfiguration = configurationService.prismConfig().lookups();
 
         CacheConfiguration cacheConfiguration = configurationService.prismConfig().cache();
 
@@ -146,17 +234,16 @@ public class LookupService {
      * @param query The activity query
      */
     public void lookup(CommandSender sender, ActivityQuery query) {
-        taskChainProvider.newChain().async(() -> {
-            try {
-                show(sender, storageAdapter.queryActivitiesPaginated(query), query);
+        submit(sender, () -> {
+            PaginatedResults<AbstractActivity> results = queryActivitiesPaginated(query);
+
+            return () -> {
+                show(sender, results, query);
 
                 // Cache this senders' most recent query
                 recentQueries.put(sender, query);
-            } catch (Exception ex) {
-                messageService.errorQueryExec(sender);
-                loggingService.handleException(ex);
-            }
-        }).execute();
+            };
+        });
     }
 
     /**
@@ -183,19 +270,307 @@ public class LookupService {
      * @param consumer The result consumer
      */
     public void lookup(CommandSender sender, ActivityQuery query, Consumer<List<Activity>> consumer) {
-        taskChainProvider.newChain().async(() -> {
-            try {
-                consumer.accept(storageAdapter.queryActivities(query));
+        submit(sender, () -> {
+            List<Activity> results = storageAdapter.queryActivities(query);
+
+            return () -> {
+                consumer.accept(results);
 
                 // Cache this senders' most recent query
                 recentQueries.put(sender, query);
+            };
+        });
+    }
+
+    /**
+     * Admit a sender's lookup, running it now if there's a free slot or queueing it.
+     *
+     * <p>If the sender already has too many lookups, their oldest is cancelled.</p>
+     *
+     * @param sender The command sender
+     * @param work Queries storage and returns the step that displays the results
+     */
+    private void submit(CommandSender sender, Callable<Runnable> work) {
+        PendingLookup lookup = new PendingLookup(sender, work);
+        List<PendingLookup> superseded = new ArrayList<>();
+        boolean start = false;
+        int position = 0;
+
+        synchronized (this) {
+            Deque<PendingLookup> senderLookups = lookupsBySender.computeIfAbsent(sender, key -> new ArrayDeque<>());
+            while (!senderLookups.isEmpty()
+                    && senderLookups.size() >= Math.max(1, lookupConfiguration.maxConcurrentPerSender())) {
+                PendingLookup oldest = senderLookups.pollFirst();
+                oldest.cancelled = true;
+
+                // Queued lookups can just be dropped, running ones need their statements cancelled
+                if (!waitingLookups.remove(oldest)) {
+                    superseded.add(oldest);
+                }
+            }
+
+            if (runningLookups < lookupConfiguration.maxConcurrent()) {
+                runningLookups++;
+                start = true;
+            } else if (waitingLookups.size() < lookupConfiguration.maxQueued()) {
+                waitingLookups.add(lookup);
+                position = waitingLookups.size();
+            } else {
+                if (senderLookups.isEmpty()) {
+                    lookupsBySender.remove(sender);
+                }
+
+                messageService.errorLookupQueueFull(sender);
+
+                return;
+            }
+
+            senderLookups.add(lookup);
+        }
+
+        for (PendingLookup pendingLookup : superseded) {
+            cancel(pendingLookup);
+        }
+
+        if (start) {
+            start(lookup);
+        } else {
+            messageService.lookupQueued(sender, position);
+        }
+    }
+
+    /**
+     * Run a lookup async, then start the next waiting lookup.
+     *
+     * @param lookup The lookup
+     */
+    private void start(PendingLookup lookup) {
+        taskChainProvider.newChain().async(() -> {
+            synchronized (lookup) {
+                lookup.thread = Thread.currentThread();
+            }
+
+            try {
+                if (!lookup.cancelled) {
+                    Runnable display = lookup.work.call();
+
+                    // Superseded lookups are dropped silently
+                    if (!lookup.cancelled) {
+                        display.run();
+                    }
+                }
             } catch (Exception ex) {
-                messageService.errorQueryExec(sender);
-                loggingService.handleException(ex);
+                if (!lookup.cancelled) {
+                    if (timedOut(ex)) {
+                        messageService.errorQueryTimeout(lookup.sender);
+                    } else {
+                        messageService.errorQueryExec(lookup.sender);
+                        loggingService.handleException(ex);
+                    }
+                }
+            } finally {
+                synchronized (lookup) {
+                    lookup.thread = null;
+                }
+
+                finish(lookup);
             }
         }).execute();
     }
 
+    /**
+     * Release a finished lookup's slot, handing it to the next waiting lookup.
+     *
+     * @param lookup The finished lookup
+     */
+    private void finish(PendingLookup lookup) {
+        PendingLookup next;
+
+        synchronized (this) {
+            Deque<PendingLookup> senderLookups = lookupsBySender.get(lookup.sender);
+            if (senderLookups != null) {
+                senderLookups.remove(lookup);
+
+                if (senderLookups.isEmpty()) {
+                    lookupsBySender.remove(lookup.sender);
+                }
+            }
+
+            next = waitingLookups.poll();
+            if (next == null) {
+                runningLookups--;
+            }
+        }
+
+        if (next != null) {
+            start(next);
+        }
+    }
+
+    /**
+     * Cancel a running lookup's storage queries.
+     *
+     * @param lookup The lookup
+     */
+    private void cancel(PendingLookup lookup) {
+        // The thread is only cleared under this lock, so we can't cancel whatever it runs next
+        synchronized (lookup) {
+            if (lookup.thread != null) {
+                storageAdapter.cancelQueries(lookup.thread);
+            }
+        }
+    }
+
+    /**
+     * Check if an exception was caused by a statement timeout.
+     *
+     * @param ex The exception
+     * @return True if the statement timed out
+     */
+    private boolean timedOut(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTimeoutException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Query paginated activities, including those not yet saved to storage.
+     *
+     * <p>Waiting activities matching the query are found with the recent activity index when
+     * possible, otherwise by scanning the recording queue, and are merged with storage results.</p>
+     *
+     * <p>Storage is read without the commit lock, and the merge is retried if a batch was committed
+     * meanwhile, since it may have been counted in both. After a few tries, the lock is held throughout.</p>
+     *
+     * @param query The activity query
+     * @return The paginated results
+     * @throws Exception Storage exception
+     */
+    private PaginatedResults<AbstractActivity> queryActivitiesPaginated(ActivityQuery query) throws Exception {
+        Lock lock = recordingService.commitLock().readLock();
+
+        for (int attempt = 1; ; attempt++) {
+            List<Activity> queued;
+            long version;
+
+            // Nothing is committed while the commit lock is held, so every activity is in the queue or storage
+            lock.lock();
+            try {
+                version = recentActivityIndex.version();
+                queued = queuedActivities(query);
+
+                // Recording keeps committing, so stop retrying and hold the lock through the storage query
+                if (attempt >= MAX_UNLOCKED_ATTEMPTS && !queued.isEmpty()) {
+                    return mergeQueuedActivities(query, queued);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            PaginatedResults<AbstractActivity> results = mergeQueuedActivities(query, queued);
+
+            // A batch committed before storage was read would be counted twice, so try again
+            if (queued.isEmpty() || version == recentActivityIndex.version()) {
+                return results;
+            }
+        }
+    }
+
+    /**
+     * Query storage and merge in the queued activities.
+     *
+     * @param query The activity query
+     * @param queued The matching queued activities
+     * @return The paginated results
+     * @throws Exception Storage exception
+     */
+    private PaginatedResults<AbstractActivity> mergeQueuedActivities(
+            ActivityQuery query, List<Activity> queued) throws Exception {
+        if (queued.isEmpty()) {
+            return storageAdapter.queryActivitiesPaginated(query);
+        }
+
+        if (query.grouped()) {
+            return queryGroupedActivitiesPaginated(query, queued);
+        }
+
+        ActivityQuery storedQuery = query.toBuilder()
+            .offset(0).limit(query.offset() + query.limit()).build();
+
+        return RecentActivityMerger.mergeUngrouped(
+            query, storageAdapter.queryActivitiesPaginated(storedQuery), queued);
+    }
+
+    /**
+     * Find the queued activities matching a query.
+     *
+     * @param query The activity query
+     * @return The matching queued activities
+     */
+    private List<Activity> queuedActivities(ActivityQuery query) {
+        if (recentActivityIndex.accepts(query)) {
+            return recentActivityIndex.query(query);
+        }
+
+        List<Activity> queued = new ArrayList<>();
+        for (Activity activity : recordingService.queue()) {
+            if (ActivityQueryMatcher.matches(query, activity)) {
+                queued.add(activity);
+            }
+        }
+
+        return queued;
+    }
+
+    /**
+     * Query paginated, grouped activities, with queued activities grouped at the newest end.
+     *
+     * <p>Queued groups aren't merged into stored ones, so storage is still paginated. Queued
+     * groups head the results when sorted newest first, and push stored groups back.</p>
+     *
+     * @param query The activity query
+     * @param queued The matching queued activities
+     * @return The paginated results
+     * @throws Exception Storage exception
+     */
+    private PaginatedResults<AbstractActivity> queryGroupedActivitiesPaginated(
+            ActivityQuery query, List<Activity> queued) throws Exception {
+        List<AbstractActivity> queuedGroups = RecentActivityMerger.group(query, queued);
+        int queuedCount = queuedGroups.size();
+        int offset = query.offset();
+        int limit = query.limit();
+
+        if (query.sort().equals(ActivityQuery.Sort.DESCENDING)) {
+            List<AbstractActivity> head = queuedGroups.subList(
+                Math.min(offset, queuedCount), Math.min(offset + limit, queuedCount));
+
+            // Still ask for a row when the head fills the page, so storage counts its groups
+            ActivityQuery storedQuery = query.toBuilder()
+                .offset(Math.max(0, offset - queuedCount)).limit(Math.max(1, limit - head.size())).build();
+            PaginatedResults<AbstractActivity> stored = storageAdapter.queryActivitiesPaginated(storedQuery);
+
+            return RecentActivityMerger.join(query, head, stored.results(), stored.totalResults() + queuedCount);
+        }
+
+        PaginatedResults<AbstractActivity> stored = storageAdapter.queryActivitiesPaginated(query);
+        int storedCount = stored.totalResults();
+        if (stored.isEmpty() && offset > 0) {
+            // Paged past the stored groups, which an empty page can't count
+            storedCount = storageAdapter.queryActivitiesPaginated(
+                query.toBuilder().offset(0).limit(1).build()).totalResults();
+        }
+
+        List<AbstractActivity> tail = queuedGroups.subList(
+            Math.min(Math.max(0, offset - storedCount), queuedCount),
+            Math.min(Math.max(0, offset + limit - storedCount), queuedCount));
+
+        return RecentActivityMerger.join(query, stored.results(), tail, storedCount + queuedCount);
+    }
+
     /**
      * Display paginated results to a command sender.
      *
@@ -0,0 +1,275 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.lookup;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+import network.darkhelmet.prism.api.util.Coordinate;
+import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
+
+/**
+ * A bounded, in-memory index of activities waiting to be saved.
+ *
+ * <p>Activities are bucketed by world, chunk, and block so that inspection wand and near
+ * lookups can find fresh activity without scanning the recording queue. Activities are
+ * removed once their batch is committed, so the index never overlaps storage and storage
+ * alone answers for everything else.</p>
+ */
+@Singleton
+public class RecentActivityIndex {
+    /**
+     * The max number of activities indexed.
+     */
+    private final int maxSize;
+
+    /**
+     * Activities by world uuid, chunk key, and packed in-chunk block coordinate.
+     */
+    private final Map<UUID, Map<Long, Map<Integer, List<Activity>>>> worlds = new HashMap<>();
+
+    /**
+     * The number of indexed activities.
+     */
+    private int size = 0;
+
+    /**
+     * The number of waiting activities that weren't indexed because the index was full.
+     */
+    private int missed = 0;
+
+    /**
+     * The number of times activities were removed.
+     */
+    private long version = 0;
+
+    /**
+     * Construct the recent activity index.
+     *
+     * @param configurationService The configuration service
+     */
+    @Inject
+    public RecentActivityIndex(ConfigurationService configurationService) {
+        this.maxSize = configurationService.prismConfig().recording().recentActivityMaxSize();
+    }
+
+    /**
+     * Add an activity waiting to be saved.
+     *
+     * <p>This must be called before the activity is queued, so it can't be saved before it's indexed.</p>
+     *
+     * @param activity The activity
+     */
+    public synchronized void add(Activity activity) {
+        if (!indexable(activity)) {
+            return;
+        }
+
+        if (size >= maxSize) {
+            missed++;
+
+            return;
+        }
+
+        Coordinate coordinate = activity.coordinate();
+        worlds.computeIfAbsent(activity.worldUuid(), uuid -> new HashMap<>())
+            .computeIfAbsent(chunkKey(coordinate.intX() >> 4, coordinate.intZ() >> 4), key -> new HashMap<>())
+            .computeIfAbsent(blockKey(coordinate), key -> new ArrayList<>())
+            .add(activity);
+        size++;
+    }
+
+    /**
+     * Remove activities taken from the recording queue, whether they were saved or not.
+     *
+     * @param activities The activities
+     */
+    public synchronized void remove(Collection<Activity> activities) {
+        if (!activities.isEmpty()) {
+            version++;
+        }
+
+        for (Activity activity : activities) {
+            if (!indexable(activity)) {
+                continue;
+            }
+
+            Coordinate coordinate = activity.coordinate();
+            long chunkKey = chunkKey(coordinate.intX() >> 4, coordinate.intZ() >> 4);
+            Map<Long, Map<Integer, List<Activity>>> chunks = worlds.get(activity.worldUuid());
+            Map<Integer, List<Activity>> blocks = chunks != null ? chunks.get(chunkKey) : null;
+            List<Activity> bucket = blocks != null ? blocks.get(blockKey(coordinate)) : null;
+
+            // Activities are never equal to one another, so this only finds this one
+            if (bucket == null || !bucket.remove(activity)) {
+                missed = Math.max(0, missed - 1);
+
+                continue;
+            }
+
+            size--;
+
+            if (bucket.isEmpty()) {
+                blocks.remove(blockKey(coordinate));
+
+                if (blocks.isEmpty()) {
+                    chunks.remove(chunkKey);
+
+                    if (chunks.isEmpty()) {
+                        worlds.remove(activity.worldUuid());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the version, which changes whenever activities are taken from the recording queue.
+     *
+     * @return The version
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Check if a query's waiting activities can be found with this index.
+     *
+     * <p>Only location lookups are supported, like those made by the inspection wand and
+     * near command, and only while every waiting activity is indexed.</p>
+     *
+     * @param query The activity query
+     * @return True if the query is supported
+     */
+    public synchronized boolean accepts(ActivityQuery query) {
+        if (maxSize <= 0 || missed > 0 || !query.lookup() || query.worldUuid() == null) {
+            return false;
+        }
+
+        return query.coordinate() != null || (query.minCoordinate() != null && query.maxCoordinate() != null);
+    }
+
+    /**
+     * Find the waiting activities matching a query.
+     *
+     * @param query The activity query
+     * @return The matching activities
+     */
+    public synchronized List<Activity> query(ActivityQuery query) {
+        List<Activity> results = new ArrayList<>();
+        Map<Long, Map<Integer, List<Activity>>> chunks = worlds.get(query.worldUuid());
+        if (chunks == null) {
+            return results;
+        }
+
+        List<List<Activity>> buckets = new ArrayList<>();
+        if (query.coordinate() != null) {
+            Coordinate coordinate = query.coordinate();
+            Map<Integer, List<Activity>> blocks = chunks.get(
+                chunkKey(coordinate.intX() >> 4, coordinate.intZ() >> 4));
+            if (blocks != null && blocks.containsKey(blockKey(coordinate))) {
+                buckets.add(blocks.get(blockKey(coordinate)));
+            }
+        } else {
+            Coordinate min = query.minCoordinate();
+            Coordinate max = query.maxCoordinate();
+            int minChunkX = min.intX() >> 4;
+            int maxChunkX = max.intX() >> 4;
+            int minChunkZ = min.intZ() >> 4;
+            int maxChunkZ = max.intZ() >> 4;
+
+            // Walk whichever is smaller: the chunks in the box, or the chunks we have
+            List<Map<Integer, List<Activity>>> candidates = new ArrayList<>();
+            if ((long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1) <= chunks.size()) {
+                for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                    for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                        Map<Integer, List<Activity>> blocks = chunks.get(chunkKey(chunkX, chunkZ));
+                        if (blocks != null) {
+                            candidates.add(blocks);
+                        }
+                    }
+                }
+            } else {
+                for (var entry : chunks.entrySet()) {
+                    int chunkX = (int) (entry.getKey() >> 32);
+                    int chunkZ = (int) (long) entry.getKey();
+                    if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                        candidates.add(entry.getValue());
+                    }
+                }
+            }
+
+            for (Map<Integer, List<Activity>> blocks : candidates) {
+                buckets.addAll(blocks.values());
+            }
+        }
+
+        // Buckets only narrow by location, the query decides the rest
+        for (List<Activity> bucket : buckets) {
+            for (Activity activity : bucket) {
+                if (ActivityQueryMatcher.matches(query, activity)) {
+                    results.add(activity);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Check if an activity can be indexed.
+     *
+     * @param activity The activity
+     * @return True if it has a world and coordinate
+     */
+    private boolean indexable(Activity activity) {
+        return maxSize > 0 && activity.world() != null && activity.coordinate() != null;
+    }
+
+    /**
+     * Pack chunk coordinates into a key.
+     *
+     * @param chunkX The chunk x
+     * @param chunkZ The chunk z
+     * @return The chunk key
+     */
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Pack a block coordinate into a key relative to its chunk.
+     *
+     * @param coordinate The coordinate
+     * @return The block key
+     */
+    private static int blockKey(Coordinate coordinate) {
+        return (coordinate.intY() << 8) | ((coordinate.intX() & 15) << 4) | (coordinate.intZ() & 15);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.lookup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import lombok.experimental.UtilityClass;
+
+import network.darkhelmet.prism.api.PaginatedResults;
+import network.darkhelmet.prism.api.actions.Action;
+import network.darkhelmet.prism.api.actions.EntityAction;
+import network.darkhelmet.prism.api.actions.MaterialAction;
+import network.darkhelmet.prism.api.activities.AbstractActivity;
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+import network.darkhelmet.prism.api.activities.GroupedActivity;
+import network.darkhelmet.prism.api.util.Coordinate;
+
+@UtilityClass
+public class RecentActivityMerger {
+    /**
+     * The fields activities are grouped by. Mirrors the storage group by clause.
+     *
+     * @param actionType The action type key
+     * @param world The world uuid
+     * @param material The serialized material
+     * @param entityType The serialized entity type
+     * @param cause The cause
+     * @param player The player uuid
+     * @param descriptor The descriptor
+     * @param metadata The metadata
+     */
+    private record GroupKey(
+        String actionType,
+        UUID world,
+        String material,
+        String entityType,
+        String cause,
+        UUID player,
+        String descriptor,
+        Object metadata) {}
+
+    /**
+     * Accumulates a group's count and averages.
+     */
+    private static class Group {
+        /**
+         * The first activity seen, used for the action, world, cause, and player.
+         */
+        private final AbstractActivity first;
+
+        /**
+         * The count.
+         */
+        private long count = 0;
+
+        /**
+         * The sum of x coordinates, weighted by count.
+         */
+        private double sumX = 0;
+
+        /**
+         * The sum of y coordinates, weighted by count.
+         */
+        private double sumY = 0;
+
+        /**
+         * The sum of z coordinates, weighted by count.
+         */
+        private double sumZ = 0;
+
+        /**
+         * The sum of timestamps (in seconds), weighted by count.
+         */
+        private double sumTimestamp = 0;
+
+        /**
+         * Construct a group.
+         *
+         * @param first The first activity
+         */
+        Group(AbstractActivity first) {
+            this.first = first;
+        }
+
+        /**
+         * Add to this group.
+         *
+         * @param coordinate The (average) coordinate
+         * @param timestamp The (average) timestamp, in seconds
+         * @param count The count
+         */
+        void add(Coordinate coordinate, double timestamp, int count) {
+            this.count += count;
+            this.sumTimestamp += timestamp * count;
+
+            if (coordinate != null) {
+                this.sumX += coordinate.x() * count;
+                this.sumY += coordinate.y() * count;
+                this.sumZ += coordinate.z() * count;
+            }
+        }
+
+        /**
+         * Build the grouped activity.
+         *
+         * @return The grouped activity
+         */
+        GroupedActivity build() {
+            Coordinate coordinate = new Coordinate(sumX / count, sumY / count, sumZ / count);
+
+            return new GroupedActivity(first.action(), first.world(), coordinate, first.cause(),
+                first.player(), Math.round(sumTimestamp / count), (int) count);
+        }
+    }
+
+    /**
+     * Group recent activities the way storage would, sorted like the query.
+     *
+     * @param query The original query
+     * @param recent The recent activities
+     * @return The grouped activities
+     */
+    public static List<AbstractActivity> group(ActivityQuery query, List<Activity> recent) {
+        Map<GroupKey, Group> groups = new LinkedHashMap<>();
+
+        // Recorded activity timestamps are in milliseconds, storage uses seconds
+        for (Activity activity : recent) {
+            groups.computeIfAbsent(groupKey(activity), key -> new Group(activity))
+                .add(activity.coordinate(), activity.timestamp() / 1000d, 1);
+        }
+
+        List<AbstractActivity> grouped = new ArrayList<>(groups.size());
+        for (Group group : groups.values()) {
+            grouped.add(group.build());
+        }
+
+        grouped.sort(comparator(query));
+
+        return grouped;
+    }
+
+    /**
+     * Join two parts of a page, in order, up to the query limit.
+     *
+     * @param query The original query
+     * @param first The first part
+     * @param second The second part
+     * @param totalResults The total number of results
+     * @return The paginated results
+     */
+    public static PaginatedResults<AbstractActivity> join(
+            ActivityQuery query, List<AbstractActivity> first, List<AbstractActivity> second, int totalResults) {
+        List<AbstractActivity> results = new ArrayList<>(first);
+        for (AbstractActivity activity : second) {
+            if (results.size() >= query.limit()) {
+                break;
+            }
+
+            results.add(activity);
+        }
+
+        int currentPage = (query.offset() / query.limit()) + 1;
+
+        return new PaginatedResults<>(results, query.limit(), totalResults, currentPage);
+    }
+
+    /**
+     * Merge ungrouped storage results with recent activities and paginate.
+     *
+     * <p>Stored results must be the first offset + limit activities not among the recent ones.</p>
+     *
+     * @param query The original query
+     * @param stored The storage results
+     * @param recent The recent activities
+     * @return The paginated results
+     */
+    public static PaginatedResults<AbstractActivity> mergeUngrouped(
+            ActivityQuery query, PaginatedResults<AbstractActivity> stored, List<Activity> recent) {
+        List<AbstractActivity> merged = new ArrayList<>(stored.results());
+
+        // Recorded activity timestamps are in milliseconds, storage uses seconds
+        for (Activity activity : recent) {
+            merged.add(new Activity(activity.primaryKey(), activity.action(), activity.world(),
+                activity.coordinate(), activity.cause(), activity.player(), activity.timestamp() / 1000));
+        }
+
+        return paginate(query, merged, stored.totalResults() + recent.size());
+    }
+
+    /**
+     * Sort and paginate merged results.
+     *
+     * @param query The original query
+     * @param merged The merged results
+     * @param totalResults The total number of results
+     * @return The paginated results
+     */
+    private static PaginatedResults<AbstractActivity> paginate(
+            ActivityQuery query, List<AbstractActivity> merged, int totalResults) {
+        merged.sort(comparator(query));
+
+        int start = Math.min(query.offset(), merged.size());
+        int end = Math.min(query.offset() + query.limit(), merged.size());
+        int currentPage = (query.offset() / query.limit()) + 1;
+
+        return new PaginatedResults<>(
+            new ArrayList<>(merged.subList(start, end)), query.limit(), totalResults, currentPage);
+    }
+
+    /**
+     * Build the comparator for a query's sort.
+     *
+     * @param query The query
+     * @return The comparator
+     */
+    private static Comparator<AbstractActivity> comparator(ActivityQuery query) {
+        Comparator<AbstractActivity> comparator = Comparator.comparingLong(AbstractActivity::timestamp);
+        if (query.sort().equals(ActivityQuery.Sort.DESCENDING)) {
+            comparator = comparator.reversed();
+        }
+
+        return comparator;
+    }
+
+    /**
+     * Build the group key for an activity.
+     *
+     * @param activity The activity
+     * @return The group key
+     */
+    private static GroupKey groupKey(AbstractActivity activity) {
+        Action action = activity.action();
+
+        String material = action instanceof MaterialAction materialAction ? materialAction.serializeMaterial() : null;
+        String entityType = action instanceof EntityAction entityAction ? entityAction.serializeEntityType() : null;
+        UUID player = activity.player() != null ? activity.player().key() : null;
+
+        return new GroupKey(action.type().key(), activity.worldUuid(), material, entityType,
+            activity.cause(), player, action.descriptor(), action.metadata());
+    }
+}
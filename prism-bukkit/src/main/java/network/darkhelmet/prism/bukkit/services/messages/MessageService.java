@@ -58,12 +58,18 @@ public interface MessageService {
     @Message("rich.error.invalid-parameter")
     void errorInvalidParameter(CommandSender receiver);
 
+    @Message("rich.error.lookup-queue-full")
+    void errorLookupQueueFull(CommandSender receiver);
+
     @Message("rich.error.no-blocks-removed")
     void errorNoBlocksRemoved(CommandSender receiver);
 
     @Message("rich.error.no-last-query")
     void errorNoLastQuery(CommandSender receiver);
 
+    @Message("rich.error.no-slow-query")
+    void errorNoSlowQuery(CommandSender receiver);
+
     @Message("rich.error.not-previewable")
     void errorNotPreviewable(CommandSender receiver);
 
@@ -112,6 +118,9 @@ public interface MessageService {
     @Message("rich.error.purge-queue-not-free")
     void errorPurgeQueryNotFree(CommandSender receiver);
 
+    @Message("rich.error.queue-conflict")
+    void errorQueueConflict(CommandSender receiver, @Placeholder String owner);
+
     @Message("rich.error.queue-missing")
     void errorQueueMissing(CommandSender receiver);
 
@@ -124,9 +133,21 @@ public interface MessageService {
     @Message("rich.error.query-exec")
     void errorQueryExec(CommandSender receiver);
 
+    @Message("rich.error.query-timeout")
+    void errorQueryTimeout(CommandSender receiver);
+
+    @Message("rich.error.reversals-failed")
+    void errorReversalsFailed(CommandSender receiver);
+
     @Message("rich.error.reload-locale")
     void errorReloadLocale(CommandSender receiver);
 
+    @Message("rich.error.undo-missing")
+    void errorUndoMissing(CommandSender receiver);
+
+    @Message("rich.error.undo-unavailable")
+    void errorUndoUnavailable(CommandSender receiver);
+
     @Message("rich.error.unknown-command")
     void errorUnknownCommand(CommandSender receiver);
 
@@ -148,6 +169,9 @@ public interface MessageService {
     @Message("rich.activity-row-single-no-descriptor")
     void listActivityRowSingleNoDescriptor(CommandSender receiver, @Placeholder AbstractActivity activity);
 
+    @Message("rich.lookup-queued")
+    void lookupQueued(CommandSender receiver, @Placeholder Integer count);
+
     @Message("rich.modifications-applied")
     void modificationsApplied(CommandSender receiver, @Placeholder Integer count);
 
@@ -164,6 +188,9 @@ public interface MessageService {
     void modificationsReportSkippedActivity(
         CommandSender receiver, @Placeholder AbstractActivity activity, @Placeholder String skipreason);
 
+    @Message("rich.modifications-reversals-saved")
+    void modificationsReversalsSaved(CommandSender receiver, @Placeholder Integer count);
+
     @Message("rich.modifications-skipped")
     void modificationsSkipped(CommandSender receiver, @Placeholder ModificationQueueResult result);
 
@@ -200,6 +227,12 @@ public interface MessageService {
     @Message("rich.reloaded-locales")
     void reloadedLocales(CommandSender receiver);
 
+    @Message("rich.slow-query-plan-header")
+    void slowQueryPlanHeader(CommandSender receiver);
+
+    @Message("rich.slow-query-plan-line")
+    void slowQueryPlanLine(CommandSender receiver, @Placeholder String line);
+
     @Message("rich.teleporting-to-activity")
     void teleportingToActivity(CommandSender receiver, @Placeholder AbstractActivity activity);
 
@@ -207,6 +240,12 @@ public interface MessageService {
     void teleportingTo(CommandSender receiver,
         @Placeholder String worldname, @Placeholder Integer x, @Placeholder Integer y, @Placeholder Integer z);
 
+    @Message("rich.undo-complete")
+    void undoComplete(CommandSender receiver, @Placeholder Integer count);
+
+    @Message("rich.undo-starting")
+    void undoStarting(CommandSender receiver);
+
     @Message("rich.wand-activated")
     void wandActivated(Player player, @Placeholder WandMode wandmode);
 
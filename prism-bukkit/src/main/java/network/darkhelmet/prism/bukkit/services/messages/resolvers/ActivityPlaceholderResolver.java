@@ -95,7 +95,7 @@ public class ActivityPlaceholderResolver implements IPlaceholderResolver<Command
         }
 
         Component activityId = Component.empty();
-        if (value instanceof Activity activity) {
+        if (value instanceof Activity activity && activity.primaryKey() != null) {
             activityId = Component.text(activity.primaryKey().toString());
         }
 
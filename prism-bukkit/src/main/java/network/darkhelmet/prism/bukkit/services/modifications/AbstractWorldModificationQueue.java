@@ -21,10 +21,10 @@
 package network.darkhelmet.prism.bukkit.services.modifications;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import lombok.Getter;
@@ -37,16 +37,20 @@ import network.darkhelmet.prism.api.services.modifications.ModificationQueueResu
 import network.darkhelmet.prism.api.services.modifications.ModificationResult;
 import network.darkhelmet.prism.api.services.modifications.ModificationResultStatus;
 import network.darkhelmet.prism.api.services.modifications.ModificationRuleset;
+import network.darkhelmet.prism.api.services.modifications.ModificationSkipReason;
 import network.darkhelmet.prism.bukkit.PrismBukkit;
-import network.darkhelmet.prism.bukkit.utils.BlockUtils;
-import network.darkhelmet.prism.bukkit.utils.EntityUtils;
+import network.darkhelmet.prism.bukkit.services.modifications.state.BlockStateChange;
+import network.darkhelmet.prism.bukkit.services.scheduling.ServerTickMonitor;
+import network.darkhelmet.prism.bukkit.services.undo.UndoJournalService;
+import network.darkhelmet.prism.bukkit.services.undo.UndoJournalWriter;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
 import org.bukkit.Bukkit;
-import org.bukkit.Material;
-import org.bukkit.World;
+import org.bukkit.Location;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.util.BoundingBox;
 
 public abstract class AbstractWorldModificationQueue implements ModificationQueue {
     /**
@@ -54,15 +58,66 @@ public abstract class AbstractWorldModificationQueue implements ModificationQueu
      */
     protected LoggingService loggingService;
 
+    /**
+     * The server tick monitor.
+     */
+    protected final ServerTickMonitor serverTickMonitor;
+
+    /**
+     * The task budget, shared with other running queues.
+     */
+    protected final ModificationTaskBudget modificationTaskBudget;
+
+    /**
+     * The undo journal service.
+     */
+    protected final UndoJournalService undoJournalService;
+
+    /**
+     * The undo journal for changes being applied, if any.
+     */
+    protected UndoJournalWriter undoJournal;
+
+    /**
+     * The area this queue may change.
+     */
+    @Getter
+    protected final ModificationRegion region;
+
     /**
      * The modification ruleset.
      */
     protected ModificationRuleset modificationRuleset;
 
     /**
-     * Manage a queue of pending modifications.
+     * The modifications, in the order they're applied. Entries are released once applied.
+     */
+    protected final Activity[] modifications;
+
+    /**
+     * The primary keys of activities which don't need to be applied, by the modification which supersedes them.
+     */
+    protected final Map<Activity, long[]> superseded;
+
+    /**
+     * The chunk preloader.
+     */
+    protected final ModificationChunkPreloader chunkPreloader;
+
+    /**
+     * The chunk differ.
+     */
+    protected final ModificationChunkDiffer chunkDiffer;
+
+    /**
+     * The chunk cleaner.
+     */
+    protected final ModificationChunkCleaner chunkCleaner;
+
+    /**
+     * The chunk modifications are currently being applied in.
      */
-    protected final List<Activity> modificationsQueue = Collections.synchronizedList(new LinkedList<>());
+    protected ModificationChunkPlan.PlannedChunk currentChunk;
 
     /**
      * The onEnd handler.
@@ -90,9 +145,14 @@ public abstract class AbstractWorldModificationQueue implements ModificationQueu
     protected int taskId;
 
     /**
-     * Count how many were read from the queue.
+     * The index of the next modification to read.
+     */
+    protected int cursor = 0;
+
+    /**
+     * The current time budget (in ms) for each task, adjusted to server load.
      */
-    protected int countModificationsRead;
+    protected int budgetMillis;
 
     /**
      * Count how many were applied.
@@ -110,28 +170,61 @@ public abstract class AbstractWorldModificationQueue implements ModificationQueu
     protected int countSkipped = 0;
 
     /**
-     * A list of all modification results.
+     * Count how many were skipped, by skip reason.
+     */
+    protected final Map<ModificationSkipReason, Integer> skipReasons = new EnumMap<>(ModificationSkipReason.class);
+
+    /**
+     * The details of modification results.
+     */
+    @Getter
+    protected final ModificationResultStore resultStore = new ModificationResultStore();
+
+    /**
+     * Preview block changes waiting to be sent, by location so only the latest change is sent.
      */
-    protected final List<ModificationResult> results = new ArrayList<>();
+    protected final Map<Location, BlockState> pendingPreviews = new LinkedHashMap<>();
 
     /**
      * Construct a new world modification.
      *
      * @param loggingService The logging service
+     * @param serverTickMonitor The server tick monitor
+     * @param modificationTaskBudget The modification task budget
+     * @param undoJournalService The undo journal service
+     * @param modificationRuleset The ruleset
      * @param owner The owner
      * @param query The query
-     * @param modifications A list of all modifications
+     * @param modifications A list of all modifications, collapsed to one per block
+     * @param superseded The primary keys of superseded activities, by the modification which supersedes them
      * @param onEndCallback The ended callback
      */
     public AbstractWorldModificationQueue(
             LoggingService loggingService,
+            ServerTickMonitor serverTickMonitor,
+            ModificationTaskBudget modificationTaskBudget,
+            UndoJournalService undoJournalService,
             ModificationRuleset modificationRuleset,
             Object owner,
             ActivityQuery query,
             final List<Activity> modifications,
+            Map<Activity, long[]> superseded,
             Consumer<ModificationQueueResult> onEndCallback) {
-        modificationsQueue.addAll(modifications);
+        this.region = ModificationRegion.of(query, modifications);
+        this.superseded = superseded;
+
+        ModificationChunkPlan plan = ModificationChunkPlan.of(modifications);
+        this.modifications = plan.activities().toArray(new Activity[0]);
+        this.chunkPreloader = new ModificationChunkPreloader(
+            loggingService, serverTickMonitor, plan.chunks(), modificationRuleset.preloadChunks());
+        this.chunkDiffer = new ModificationChunkDiffer(
+            loggingService, this.modifications, plan.chunks(), plan.offsets(), this::precheckModification);
+        this.chunkCleaner = new ModificationChunkCleaner(query, modificationRuleset);
         this.loggingService = loggingService;
+        this.serverTickMonitor = serverTickMonitor;
+        this.modificationTaskBudget = modificationTaskBudget;
+        this.undoJournalService = undoJournalService;
+        this.budgetMillis = modificationRuleset.maxMillisPerTask();
         this.modificationRuleset = modificationRuleset;
         this.owner = owner;
         this.query = query;
@@ -149,99 +242,160 @@ public abstract class AbstractWorldModificationQueue implements ModificationQueu
     }
 
     /**
-     * Apply any pre-modification tasks.
+     * Check whether a modification would change its block, using a snapshot of the block.
+     * This is called off the main thread.
+     *
+     * @param activity The activity
+     * @param liveBlockData The block data of the block, as it currently is
+     * @return A skipped result if no change is needed, otherwise null
      */
-    protected void preProcess(ModificationQueueResult.ModificationQueueResultBuilder builder) {
-        if (mode.equals(ModificationQueueMode.COMPLETING)) {
-            if (modificationRuleset.removeDrops()
-                    && query.worldUuid() != null
-                    && query.minCoordinate() != null
-                    && query.maxCoordinate() != null) {
-                double x1 = query.minCoordinate().x();
-                double y1 = query.minCoordinate().y();
-                double z1 = query.minCoordinate().z();
-                double x2 = query.maxCoordinate().x();
-                double y2 = query.maxCoordinate().y();
-                double z2 = query.maxCoordinate().z();
-                BoundingBox boundingBox = new BoundingBox(x1, y1, z1, x2, y2, z2);
-
-                World world = Bukkit.getWorld(query.worldUuid());
-                int count = EntityUtils.removeDropsInRange(world, boundingBox);
-
-                builder.removedDrops(count);
-            }
+    protected ModificationResult precheckModification(Activity activity, BlockData liveBlockData) {
+        return null;
+    }
 
-            if (!modificationRuleset.removeBlocks().isEmpty()
-                    && query.worldUuid() != null
-                    && query.minCoordinate() != null
-                    && query.maxCoordinate() != null) {
-                double x1 = query.minCoordinate().x();
-                double y1 = query.minCoordinate().y();
-                double z1 = query.minCoordinate().z();
-                double x2 = query.maxCoordinate().x();
-                double y2 = query.maxCoordinate().y();
-                double z2 = query.maxCoordinate().z();
-                BoundingBox boundingBox = new BoundingBox(x1, y1, z1, x2, y2, z2);
-
-                List<Material> materials = modificationRuleset.removeBlocks().stream().map(m ->
-                    Material.valueOf(m.toUpperCase())).toList();
-
-                World world = Bukkit.getWorld(query.worldUuid());
-                int count = BlockUtils.removeBlocksByMaterial(world, boundingBox, materials).size();
-
-                builder.removedBlocks(count);
-            }
+    /**
+     * Get the primary keys of applied activities, and of the activities they superseded.
+     *
+     * @return The primary keys
+     */
+    protected List<Long> appliedPrimaryKeys() {
+        long[] appliedKeys = resultStore.appliedKeys();
+        List<Long> primaryKeys = new ArrayList<>(appliedKeys.length);
+        for (long appliedKey : appliedKeys) {
+            primaryKeys.add(appliedKey);
+        }
+
+        return primaryKeys;
+    }
+
+    /**
+     * Finish the undo journal, once the modification has been applied.
+     *
+     * @param primaryKeys The primary keys of applied activities
+     * @param reversed Whether the activities were marked as reversed
+     */
+    protected void finishUndoJournal(List<Long> primaryKeys, boolean reversed) {
+        if (undoJournal != null) {
+            undoJournalService.finish(undoJournal, primaryKeys, reversed);
+            undoJournal = null;
         }
     }
 
+    /**
+     * Apply any pre-modification tasks.
+     *
+     * <p>Drops and unsafe blocks are cleared one chunk at a time, as the modification reaches each chunk.</p>
+     */
+    protected void preProcess(ModificationQueueResult.ModificationQueueResultBuilder builder) {}
+
     /**
      * Apply any post-modification tasks.
      */
     protected void postProcess(ModificationQueueResult.ModificationQueueResultBuilder builder) {}
 
+    /**
+     * Adjust the time budget to the server's load. It's halved while the server is lagging,
+     * then recovers gradually, so one slow tick doesn't stall the modification. The budget
+     * is shared with any other running queues.
+     *
+     * @return The deadline (in nanoseconds) for this task
+     */
+    protected long nextDeadline() {
+        int maxMillis = modificationRuleset.maxMillisPerTask();
+        if (serverTickMonitor.lagging()) {
+            budgetMillis = Math.max(1, budgetMillis / 2);
+        } else {
+            // Idle servers can spare more than the configured budget
+            int limit = serverTickMonitor.idle() ? maxMillis * 2 : maxMillis;
+            budgetMillis = Math.min(limit, budgetMillis + 1);
+        }
+
+        return System.nanoTime() + modificationTaskBudget.share(budgetMillis) * 1_000_000L;
+    }
+
+    /**
+     * Send pending preview block changes to the owner. Changes are sent together,
+     * so the client gets one packet per chunk section rather than one per block.
+     */
+    protected void flushPreviews() {
+        if (!pendingPreviews.isEmpty() && owner instanceof Player player) {
+            player.sendBlockChanges(pendingPreviews.values());
+        }
+
+        pendingPreviews.clear();
+    }
+
     @Override
     public void apply() {
-        countModificationsRead = 0;
+        // Start over, only the applied results matter now
+        cursor = 0;
+        countApplied = 0;
+        countPlanned = 0;
+        countSkipped = 0;
+        skipReasons.clear();
+        resultStore.clear();
+        chunkCleaner.reset();
+
+        // Record what's overwritten, so it can be undone
+        undoJournal = undoJournalService.open(owner);
+
         this.mode = ModificationQueueMode.COMPLETING;
         execute();
     }
 
     protected void execute() {
         String queueSizeMsg = "Modification queue beginning application. Queue size: {0}";
-        loggingService.debug(queueSizeMsg, modificationsQueue.size());
+        loggingService.debug(queueSizeMsg, modifications.length - cursor);
 
-        if (!modificationsQueue.isEmpty()) {
+        if (cursor < modifications.length) {
             ModificationQueueResult.ModificationQueueResultBuilder builder = ModificationQueueResult.builder()
                 .queue(this);
 
-            if (countModificationsRead == 0) {
+            if (cursor == 0) {
                 preProcess(builder);
             }
 
+            modificationTaskBudget.start(this);
+
             // Schedule a new sync task
             JavaPlugin plugin = PrismBukkit.instance().loaderPlugin();
             taskId = Bukkit.getServer().getScheduler().scheduleSyncRepeatingTask(plugin, () -> {
                 loggingService.debug("New modification run beginning...");
 
+                // Limit each execution of this task by time, or by the absolute max number of steps
+                boolean timed = modificationRuleset.maxMillisPerTask() > 0;
+                long deadline = timed ? nextDeadline() : 0;
                 int iterationCount = 0;
-                final int currentQueueOffset = countModificationsRead;
+                while (cursor < modifications.length) {
+                    if (timed ? iterationCount > 0 && System.nanoTime() >= deadline
+                            : iterationCount >= modificationTaskBudget.share(modificationRuleset.maxPerTask())) {
+                        break;
+                    }
 
-                if (currentQueueOffset < modificationsQueue.size()) {
-                    for (final Iterator<Activity> iterator = modificationsQueue.listIterator(currentQueueOffset);
-                         iterator.hasNext();) {
-                        final Activity activity = iterator.next();
+                    final Activity activity = modifications[cursor];
 
-                        // Simulate queue pointer advancement for previews
-                        if (mode.equals(ModificationQueueMode.PLANNING)) {
-                            countModificationsRead++;
+                    // Wait for the next chunk to finish loading, rather than loading it on the main thread,
+                    // then for it to be diffed
+                    ModificationChunkPlan.PlannedChunk chunk = ModificationChunkPlan.PlannedChunk.of(activity);
+                    if (!chunk.equals(currentChunk)) {
+                        if (!chunkPreloader.enter(chunk) || !chunkDiffer.enter(chunk)) {
+                            break;
                         }
 
-                        // Limit the absolute max number of steps per execution of this task
-                        if (++iterationCount >= modificationRuleset.maxPerTask()) {
-                            break;
+                        currentChunk = chunk;
+
+                        // Clear drops and unsafe blocks from the chunk before changing it
+                        if (mode.equals(ModificationQueueMode.COMPLETING)) {
+                            chunkCleaner.clean(chunk);
                         }
+                    }
+
+                    iterationCount++;
 
-                        ModificationResult result = ModificationResult.builder().activity(activity).build();
+                    // Use the diff's result if it found nothing to change, unless the block was since cleared
+                    ModificationResult result = chunkCleaner.removed(activity) ? null : chunkDiffer.skipped(cursor);
+                    if (result == null) {
+                        result = ModificationResult.builder().activity(activity).build();
 
                         // Delegate reversible modifications to the actions
                         if (activity.action().type().reversible()) {
@@ -252,36 +406,75 @@ public abstract class AbstractWorldModificationQueue implements ModificationQueu
                                 loggingService.handleException(e);
                             }
                         }
+                    }
+
+                    if (mode.equals(ModificationQueueMode.PLANNING)
+                            && result.stateChange() instanceof BlockStateChange blockStateChange) {
+                        BlockState previewState = blockStateChange.newState();
+                        pendingPreviews.put(previewState.getLocation(), previewState);
+                        resultStore.addPreview(blockStateChange.oldState());
+                    }
 
-                        results.add(result);
+                    if (result.status().equals(ModificationResultStatus.PLANNED)) {
+                        countPlanned++;
+                    } else if (result.status().equals(ModificationResultStatus.APPLIED)) {
+                        countApplied++;
 
-                        if (result.status().equals(ModificationResultStatus.PLANNED)) {
-                            countPlanned++;
-                        } else if (result.status().equals(ModificationResultStatus.APPLIED)) {
-                            countApplied++;
-                        } else {
-                            countSkipped++;
+                        if (undoJournal != null && result.stateChange() != null) {
+                            undoJournal.append(result.stateChange());
                         }
 
-                        // Remove from the queue if we're not previewing
-                        if (mode.equals(ModificationQueueMode.COMPLETING)) {
-                            iterator.remove();
+                        resultStore.addApplied((long) activity.primaryKey());
+                        for (long supersededKey : superseded.getOrDefault(activity, new long[0])) {
+                            resultStore.addApplied(supersededKey);
+                        }
+                    } else {
+                        countSkipped++;
+
+                        if (result.status().equals(ModificationResultStatus.SKIPPED)) {
+                            skipReasons.merge(result.skipReason(), 1, Integer::sum);
+                            resultStore.addSkipped(activity, result.skipReason());
+
+                            // The block is already as the superseded activities would've left it too
+                            if (mode.equals(ModificationQueueMode.COMPLETING)
+                                    && result.skipReason().equals(ModificationSkipReason.ALREADY_SET)) {
+                                for (long supersededKey : superseded.getOrDefault(activity, new long[0])) {
+                                    resultStore.addApplied(supersededKey);
+                                }
+                            }
                         }
                     }
+
+                    // Release applied modifications. Previews keep them, they may be applied later.
+                    if (mode.equals(ModificationQueueMode.COMPLETING)) {
+                        modifications[cursor] = null;
+                    }
+
+                    cursor++;
                 }
 
+                flushPreviews();
+
                 // The task for this action is done being used
-                if (modificationsQueue.isEmpty() || countModificationsRead >= modificationsQueue.size()) {
+                if (cursor >= modifications.length) {
                     loggingService.debug("Modification queue fully processed, finishing up.");
 
                     // Cancel the repeating task
                     Bukkit.getServer().getScheduler().cancelTask(taskId);
+                    modificationTaskBudget.stop(this);
+
+                    // Release any chunks still held, a preview may be applied later
+                    chunkPreloader.reset();
+                    chunkDiffer.reset();
+                    currentChunk = null;
 
                     // Post process
                     postProcess(builder);
 
                     ModificationQueueResult result = builder.mode(mode)
-                        .results(results)
+                        .skipReasons(new EnumMap<>(skipReasons))
+                        .removedDrops(chunkCleaner.removedDrops())
+                        .removedBlocks(chunkCleaner.removedBlocks())
                         .applied(countApplied)
                         .planned(countPlanned)
                         .skipped(countSkipped)
@@ -296,6 +489,15 @@ public abstract class AbstractWorldModificationQueue implements ModificationQueu
     @Override
     public void destroy() {
         Bukkit.getServer().getScheduler().cancelTask(taskId);
+        modificationTaskBudget.stop(this);
+        chunkPreloader.reset();
+        chunkDiffer.reset();
+
+        // An incomplete journal can't be undone
+        if (undoJournal != null) {
+            undoJournal.abort();
+            undoJournal = null;
+        }
     }
 
     /**
@@ -0,0 +1,425 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import network.darkhelmet.prism.api.storage.StorageAdapter;
+import network.darkhelmet.prism.api.util.Pair;
+import network.darkhelmet.prism.bukkit.PrismBukkit;
+import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Marks activities as reversed in the background, once a rollback/restore finishes.
+ *
+ * <p>Primary keys are compressed into contiguous ranges and written to a pending file off the main
+ * thread, before any updates run, so they can be retried on startup if the server stops first. Updates
+ * run one batch at a time on a single thread, so rollbacks and restores of the same activities land in
+ * order. Failed batches are retried with a backoff until they succeed, or the writer is shut down.</p>
+ */
+@Singleton
+public class ActivityReversalWriter {
+    /**
+     * The directory pending reversals are kept in, under the plugin data path.
+     */
+    private static final String PENDING_DIRECTORY = "pending-reversals";
+
+    /**
+     * The delay (in ms) before the first retry of a failed batch.
+     */
+    private static final long MIN_RETRY_DELAY = 1000;
+
+    /**
+     * The max delay (in ms) between retries of a failed batch.
+     */
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    /**
+     * The configuration service.
+     */
+    private final ConfigurationService configurationService;
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The message service.
+     */
+    private final MessageService messageService;
+
+    /**
+     * The storage adapter.
+     */
+    private final StorageAdapter storageAdapter;
+
+    /**
+     * The pending reversals directory.
+     */
+    private final Path pendingDirectory;
+
+    /**
+     * The thread which prepares ranges and writes pending files.
+     */
+    private final ExecutorService pendingExecutor;
+
+    /**
+     * The single writer thread.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * A counter used to keep pending file names unique and in order.
+     */
+    private final AtomicInteger sequence = new AtomicInteger(0);
+
+    /**
+     * Whether the writer is shutting down, after which failed batches aren't retried.
+     */
+    private volatile boolean stopping = false;
+
+    /**
+     * Constructor.
+     *
+     * @param configurationService The configuration service
+     * @param loggingService The logging service
+     * @param messageService The message service
+     * @param storageAdapter The storage adapter
+     * @param dataPath The plugin data path
+     */
+    @Inject
+    public ActivityReversalWriter(
+            ConfigurationService configurationService,
+            LoggingService loggingService,
+            MessageService messageService,
+            StorageAdapter storageAdapter,
+            Path dataPath) {
+        this.configurationService = configurationService;
+        this.loggingService = loggingService;
+        this.messageService = messageService;
+        this.storageAdapter = storageAdapter;
+        this.pendingDirectory = dataPath.resolve(PENDING_DIRECTORY);
+
+        this.pendingExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(true);
+            thread.setName("prism-reversal-pending");
+            return thread;
+        });
+
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(true);
+            thread.setName("prism-reversal-writer");
+            return thread;
+        });
+    }
+
+    /**
+     * Mark activities as reversed (or not) in the background.
+     *
+     * @param owner The owner of the modification, messaged when finished
+     * @param primaryKeys The activity primary keys
+     * @param reversed Whether the activities were reversed
+     */
+    public void submit(Object owner, List<Long> primaryKeys, boolean reversed) {
+        if (primaryKeys.isEmpty()) {
+            return;
+        }
+
+        // Pending files are written on their own thread, so they're saved even while updates are retried
+        pendingExecutor.execute(() -> {
+            List<Pair<Long, Long>> ranges = ranges(primaryKeys);
+
+            Path pendingFile;
+            try {
+                pendingFile = writePending(ranges, reversed);
+            } catch (IOException e) {
+                // Still update them, they just can't be retried on startup
+                loggingService.handleException(e);
+                pendingFile = null;
+            }
+
+            Path finalPendingFile = pendingFile;
+            executor.execute(() -> write(owner, finalPendingFile, ranges, reversed));
+        });
+    }
+
+    /**
+     * Retry any reversals left pending when the server last stopped.
+     */
+    public void replayPending() {
+        if (!Files.isDirectory(pendingDirectory)) {
+            return;
+        }
+
+        List<Path> pendingFiles;
+        try (Stream<Path> stream = Files.list(pendingDirectory)) {
+            pendingFiles = stream.sorted().toList();
+        } catch (IOException e) {
+            loggingService.handleException(e);
+
+            return;
+        }
+
+        for (Path pendingFile : pendingFiles) {
+            try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(pendingFile)))) {
+                boolean reversed = input.readBoolean();
+                int count = input.readInt();
+
+                List<Pair<Long, Long>> ranges = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ranges.add(new Pair<>(input.readLong(), input.readLong()));
+                }
+
+                loggingService.info("Retrying {0} pending reversed activity ranges...", count);
+
+                executor.execute(() -> write(null, pendingFile, ranges, reversed));
+            } catch (IOException e) {
+                loggingService.handleException(e);
+            }
+        }
+    }
+
+    /**
+     * Stop the writer, waiting briefly for updates already submitted. Must be called
+     * before storage is closed.
+     *
+     * <p>Anything unfinished stays pending and is retried on startup.</p>
+     */
+    public void shutdown() {
+        stopping = true;
+
+        // Let every submission reach the writer (and its pending file) before the writer stops taking them
+        pendingExecutor.shutdown();
+
+        try {
+            if (!pendingExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                pendingExecutor.shutdownNow();
+            }
+
+            executor.shutdown();
+
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                loggingService.warn("Reversed activity updates are still running, they'll be retried on startup.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pendingExecutor.shutdownNow();
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mark the ranges as reversed, one batch at a time. Runs on the writer thread.
+     *
+     * @param owner The owner to message, if any
+     * @param pendingFile The pending file to delete once finished, if any
+     * @param ranges The primary key ranges
+     * @param reversed Whether the activities were reversed
+     */
+    private void write(Object owner, Path pendingFile, List<Pair<Long, Long>> ranges, boolean reversed) {
+        int batchSize = Math.max(1, configurationService.prismConfig().modifications().reversalBatchSize());
+
+        int updated = 0;
+        long retryDelay = MIN_RETRY_DELAY;
+        for (List<Pair<Long, Long>> batch : batches(ranges, batchSize)) {
+            // Retry here rather than moving on, so later reversals aren't applied ahead of this one
+            while (true) {
+                try {
+                    updated += storageAdapter.markReversedRanges(batch, reversed);
+                    retryDelay = MIN_RETRY_DELAY;
+
+                    break;
+                } catch (Exception e) {
+                    loggingService.handleException(e);
+
+                    if (stopping) {
+                        notify(owner, -1);
+
+                        return;
+                    }
+
+                    loggingService.warn("Failed to mark activities as reversed, retrying in {0}ms.", retryDelay);
+
+                    try {
+                        Thread.sleep(retryDelay);
+                    } catch (InterruptedException ex) {
+                        // Shut down, whatever's left stays pending
+                        Thread.currentThread().interrupt();
+                        notify(owner, -1);
+
+                        return;
+                    }
+
+                    retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+                }
+            }
+        }
+
+        if (pendingFile != null) {
+            try {
+                Files.deleteIfExists(pendingFile);
+            } catch (IOException e) {
+                loggingService.handleException(e);
+            }
+        }
+
+        loggingService.debug("Marked {0} activities as reversed: {1}", updated, reversed);
+
+        notify(owner, updated);
+    }
+
+    /**
+     * Message the owner (on the main thread) once their reversals finish.
+     *
+     * @param owner The owner
+     * @param updated The number of activities updated, or -1 if they failed
+     */
+    private void notify(Object owner, int updated) {
+        // Nothing can be scheduled once the plugin is disabling
+        if (!(owner instanceof CommandSender sender) || !PrismBukkit.instance().loaderPlugin().isEnabled()) {
+            return;
+        }
+
+        Bukkit.getServer().getScheduler().runTask(PrismBukkit.instance().loaderPlugin(), () -> {
+            if (updated < 0) {
+                messageService.errorReversalsFailed(sender);
+            } else {
+                messageService.modificationsReversalsSaved(sender, updated);
+            }
+        });
+    }
+
+    /**
+     * Write ranges to a new pending file.
+     *
+     * @param ranges The primary key ranges
+     * @param reversed Whether the activities were reversed
+     * @return The pending file
+     * @throws IOException If the file can't be written
+     */
+    private Path writePending(List<Pair<Long, Long>> ranges, boolean reversed) throws IOException {
+        Files.createDirectories(pendingDirectory);
+
+        // Names sort in the order reversals were submitted
+        String name = String.format("%013d-%06d.bin", System.currentTimeMillis(), sequence.getAndIncrement());
+        Path pendingFile = pendingDirectory.resolve(name);
+
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pendingFile)))) {
+            output.writeBoolean(reversed);
+            output.writeInt(ranges.size());
+
+            for (Pair<Long, Long> range : ranges) {
+                output.writeLong(range.key());
+                output.writeLong(range.value());
+            }
+        }
+
+        return pendingFile;
+    }
+
+    /**
+     * Compress primary keys into sorted, contiguous, inclusive ranges.
+     *
+     * @param primaryKeys The primary keys
+     * @return The ranges
+     */
+    private static List<Pair<Long, Long>> ranges(List<Long> primaryKeys) {
+        long[] keys = primaryKeys.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+
+        List<Pair<Long, Long>> ranges = new ArrayList<>();
+        long start = keys[0];
+        long end = keys[0];
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i] != end + 1) {
+                ranges.add(new Pair<>(start, end));
+                start = keys[i];
+            }
+
+            end = keys[i];
+        }
+
+        ranges.add(new Pair<>(start, end));
+
+        return ranges;
+    }
+
+    /**
+     * Split ranges into batches covering at most batchSize primary keys each.
+     *
+     * @param ranges The ranges
+     * @param batchSize The max primary keys per batch
+     * @return The batches
+     */
+    private static List<List<Pair<Long, Long>>> batches(List<Pair<Long, Long>> ranges, int batchSize) {
+        List<List<Pair<Long, Long>>> batches = new ArrayList<>();
+        List<Pair<Long, Long>> batch = new ArrayList<>();
+        long batchKeys = 0;
+
+        for (Pair<Long, Long> range : ranges) {
+            long start = range.key();
+            while (start <= range.value()) {
+                // Split ranges too big for what's left of the batch
+                long end = Math.min(range.value(), start + (batchSize - batchKeys) - 1);
+                batch.add(new Pair<>(start, end));
+                batchKeys += end - start + 1;
+
+                if (batchKeys >= batchSize) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                    batchKeys = 0;
+                }
+
+                start = end + 1;
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+
+        return batches;
+    }
+}
@@ -22,13 +22,19 @@ package network.darkhelmet.prism.bukkit.services.modifications;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
-import java.util.Iterator;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import network.darkhelmet.prism.api.activities.Activity;
 import network.darkhelmet.prism.api.activities.ActivityQuery;
@@ -36,31 +42,37 @@ import network.darkhelmet.prism.api.services.modifications.ModificationQueue;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueueMode;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueueResult;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueueService;
-import network.darkhelmet.prism.api.services.modifications.ModificationResult;
 import network.darkhelmet.prism.api.services.modifications.ModificationRuleset;
 import network.darkhelmet.prism.api.services.modifications.Previewable;
+import network.darkhelmet.prism.api.services.modifications.Rollback;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
-import network.darkhelmet.prism.bukkit.services.modifications.state.BlockStateChange;
+import network.darkhelmet.prism.bukkit.services.undo.UndoJournal;
+import network.darkhelmet.prism.bukkit.services.undo.UndoJournalService;
+import network.darkhelmet.prism.bukkit.services.undo.UndoReplayQueue;
 import network.darkhelmet.prism.core.injection.factories.RestoreFactory;
 import network.darkhelmet.prism.core.injection.factories.RollbackFactory;
+import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
-import org.bukkit.Location;
-import org.bukkit.block.data.BlockData;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
 @Singleton
 public class BukkitModificationQueueService implements ModificationQueueService {
+    /**
+     * The configuration service.
+     */
+    private final ConfigurationService configurationService;
+
     /**
      * The message service.
      */
     private final MessageService messageService;
 
     /**
-     * Cache the current queue, if any.
+     * The current queues, by owner.
      */
-    private ModificationQueue currentQueue = null;
+    private final Map<Object, ModificationQueue> queues = new LinkedHashMap<>();
 
     /**
      * The restore factory.
@@ -72,6 +84,11 @@ public class BukkitModificationQueueService implements ModificationQueueService
      */
     private final RollbackFactory rollbackFactory;
 
+    /**
+     * The undo journal service.
+     */
+    private final UndoJournalService undoJournalService;
+
     /**
      * A cache of recently used queues.
      */
@@ -80,20 +97,26 @@ public class BukkitModificationQueueService implements ModificationQueueService
     /**
      * Constructor.
      *
+     * @param configurationService The configuration service
      * @param loggingService The logging service
      * @param messageService The message service
      * @param restoreFactory The restore factory
      * @param rollbackFactory The rollback factory.
+     * @param undoJournalService The undo journal service
      */
     @Inject
     public BukkitModificationQueueService(
+            ConfigurationService configurationService,
             LoggingService loggingService,
             MessageService messageService,
             RestoreFactory restoreFactory,
-            RollbackFactory rollbackFactory) {
+            RollbackFactory rollbackFactory,
+            UndoJournalService undoJournalService) {
+        this.configurationService = configurationService;
         this.messageService = messageService;
         this.restoreFactory = restoreFactory;
         this.rollbackFactory = rollbackFactory;
+        this.undoJournalService = undoJournalService;
 
         queueResults = Caffeine.newBuilder()
             .expireAfterAccess(10, TimeUnit.MINUTES)
@@ -105,20 +128,60 @@ public class BukkitModificationQueueService implements ModificationQueueService
             .removalListener((key, value, cause) -> {
                 String msg = "Removing queue result cache: Key: {0}, Value: {1}, Removal Cause: {2}";
                 loggingService.debug(msg, key, value, cause);
+
+                // Replaced results are handled when replacing them
+                if (!cause.equals(RemovalCause.REPLACED) && value != null) {
+                    closeResultStore(value);
+                }
             })
             .build();
     }
 
     @Override
     public boolean queueAvailable() {
-        return currentQueue == null;
+        return queues.size() < configurationService.prismConfig().modifications().maxConcurrentQueues();
+    }
+
+    @Override
+    public Optional<ModificationQueue> conflictingQueue(
+            Object owner, ActivityQuery query, List<Activity> modifications) {
+        return conflictingQueue(owner, ModificationRegion.of(query, modifications));
+    }
+
+    /**
+     * Find a queue changing blocks in a region.
+     *
+     * @param owner The owner of the new modification
+     * @param region The region the new modification changes
+     * @return The conflicting queue, if any
+     */
+    public Optional<ModificationQueue> conflictingQueue(Object owner, ModificationRegion region) {
+        for (ModificationQueue queue : queues.values()) {
+            // Owners may replace their own previews, but not queues being applied
+            if (queue.owner().equals(owner)) {
+                if (queue instanceof AbstractWorldModificationQueue worldQueue
+                        && worldQueue.mode().equals(ModificationQueueMode.PLANNING)) {
+                    continue;
+                }
+
+                return Optional.of(queue);
+            }
+
+            // Queues which don't know where they make changes conflict with everything
+            ModificationRegion queueRegion = region(queue);
+            if (queueRegion == null || queueRegion.overlaps(region)) {
+                return Optional.of(queue);
+            }
+        }
+
+        return Optional.empty();
     }
 
     @Override
     public boolean cancelQueueForOwner(Object owner) {
-        if (currentQueue != null && currentQueue.owner().equals(owner)) {
-            this.currentQueue.destroy();
-            this.currentQueue = null;
+        ModificationQueue queue = queues.remove(owner);
+        if (queue != null) {
+            queue.destroy();
 
             return true;
         }
@@ -152,34 +215,23 @@ public class BukkitModificationQueueService implements ModificationQueueService
             return;
         }
 
-        if (owner instanceof Player player) {
-            for (final Iterator<ModificationResult> iterator = queueResult.results().listIterator();
-                 iterator.hasNext(); ) {
-                final ModificationResult result = iterator.next();
+        if (owner instanceof Player player
+                && queueResult.queue() instanceof AbstractWorldModificationQueue worldModificationQueue) {
+            // Resend the block data captured when previewing, the world wasn't changed.
+            player.sendBlockChanges(worldModificationQueue.resultStore().previewOriginals());
 
-                if (result.stateChange() instanceof BlockStateChange blockStateChange) {
-                    Location loc = blockStateChange.oldState().getLocation();
-                    BlockData liveBlockData = loc.getWorld().getBlockData(loc);
-                    player.sendBlockChange(loc, liveBlockData);
-                }
-
-                iterator.remove();
-            }
+            worldModificationQueue.resultStore().clear();
         }
     }
 
     @Override
-    public ModificationQueue currentQueue() {
-        return currentQueue;
+    public List<ModificationQueue> currentQueues() {
+        return new ArrayList<>(queues.values());
     }
 
     @Override
     public Optional<ModificationQueue> currentQueueForOwner(Object owner) {
-        if (currentQueue != null && currentQueue.owner().equals(owner)) {
-            return Optional.of(currentQueue);
-        }
-
-        return Optional.empty();
+        return Optional.ofNullable(queues.get(owner));
     }
 
     @Override
@@ -189,31 +241,81 @@ public class BukkitModificationQueueService implements ModificationQueueService
             Object owner,
             ActivityQuery query,
             List<Activity> modifications) {
+        return newQueue(clazz, modificationRuleset, owner, query, collapse(clazz, modifications.stream()));
+    }
+
+    /**
+     * Create a new queue from collapsed modifications.
+     *
+     * @param clazz The modification queue class
+     * @param modificationRuleset The ruleset
+     * @param owner The owner
+     * @param query The query used
+     * @param plan The collapsed modifications
+     * @return The modification queue
+     */
+    public ModificationQueue newQueue(
+            Class<? extends ModificationQueue> clazz,
+            ModificationRuleset modificationRuleset,
+            Object owner,
+            ActivityQuery query,
+            ModificationCollapsePlan plan) {
         if (clazz.equals(BukkitRollback.class)) {
-            return newRollbackQueue(modificationRuleset, owner, query, modifications);
+            return newRollbackQueue(modificationRuleset, owner, query, plan);
         } else if (clazz.equals(BukkitRestore.class)) {
-            return newRestoreQueue(modificationRuleset, owner, query, modifications);
+            return newRestoreQueue(modificationRuleset, owner, query, plan);
         }
 
         throw new IllegalArgumentException("Invalid modification queue.");
     }
 
+    /**
+     * Collapse modifications for a queue as they're read, so only the activity deciding
+     * each block's state is held in memory. This may be called off the main thread.
+     *
+     * @param clazz The modification queue class
+     * @param modifications The modifications, in query order
+     * @return The collapsed modifications
+     */
+    public ModificationCollapsePlan collapse(Class<? extends ModificationQueue> clazz, Stream<Activity> modifications) {
+        // Rollbacks leave blocks as they were before their earliest activity, restores after their latest
+        return ModificationCollapsePlan.of(modifications, Rollback.class.isAssignableFrom(clazz));
+    }
+
     @Override
     public ModificationQueue newRollbackQueue(
             ModificationRuleset modificationRuleset,
             Object owner,
             ActivityQuery query,
             List<Activity> modifications) {
-        if (!queueAvailable()) {
-            throw new IllegalStateException("No queue available until current queue finished.");
-        }
+        return newRollbackQueue(
+            modificationRuleset, owner, query, collapse(BukkitRollback.class, modifications.stream()));
+    }
+
+    /**
+     * Create a new rollback queue from collapsed modifications.
+     *
+     * @param modificationRuleset The ruleset
+     * @param owner The owner
+     * @param query The query used
+     * @param plan The collapsed modifications
+     * @return The modification queue
+     */
+    public ModificationQueue newRollbackQueue(
+            ModificationRuleset modificationRuleset,
+            Object owner,
+            ActivityQuery query,
+            ModificationCollapsePlan plan) {
+        checkAvailable(owner, query, plan.activities());
 
         // Cancel any existing queues/results
         clearEverythingForOwner(owner);
 
-        this.currentQueue = rollbackFactory.create(modificationRuleset, owner, query, modifications, this::onEnd);
+        ModificationQueue queue = rollbackFactory.create(
+            modificationRuleset, owner, query, plan.activities(), plan.superseded(), this::onEnd);
+        queues.put(owner, queue);
 
-        return this.currentQueue;
+        return queue;
     }
 
     @Override
@@ -222,16 +324,118 @@ public class BukkitModificationQueueService implements ModificationQueueService
             Object owner,
             ActivityQuery query,
             List<Activity> modifications) {
-        if (!queueAvailable()) {
-            throw new IllegalStateException("No queue available until current queue finished.");
-        }
+        return newRestoreQueue(
+            modificationRuleset, owner, query, collapse(BukkitRestore.class, modifications.stream()));
+    }
+
+    /**
+     * Create a new restore queue from collapsed modifications.
+     *
+     * @param modificationRuleset The ruleset
+     * @param owner The owner
+     * @param query The query used
+     * @param plan The collapsed modifications
+     * @return The modification queue
+     */
+    public ModificationQueue newRestoreQueue(
+            ModificationRuleset modificationRuleset,
+            Object owner,
+            ActivityQuery query,
+            ModificationCollapsePlan plan) {
+        checkAvailable(owner, query, plan.activities());
+
+        // Cancel any existing queues/results
+        clearEverythingForOwner(owner);
+
+        ModificationQueue queue = restoreFactory.create(
+            modificationRuleset, owner, query, plan.activities(), plan.superseded(), this::onEnd);
+        queues.put(owner, queue);
+
+        return queue;
+    }
+
+    /**
+     * Create a queue which replays an undo journal. The journal's region is held until
+     * the replay finishes, so no other modification changes the same blocks meanwhile.
+     *
+     * @param owner The owner
+     * @param file The journal file
+     * @param journal The journal
+     * @param onEnd The end callback, given the count of entries undone
+     * @return The modification queue
+     */
+    public ModificationQueue newUndoQueue(Object owner, Path file, UndoJournal journal, Consumer<Integer> onEnd) {
+        ModificationRegion region = journal.region();
+        checkAvailable(owner, region);
 
         // Cancel any existing queues/results
         clearEverythingForOwner(owner);
 
-        this.currentQueue = restoreFactory.create(modificationRuleset, owner, query, modifications, this::onEnd);
+        ModificationQueue queue = new UndoReplayQueue(undoJournalService, owner, file, journal, count -> {
+            queues.remove(owner);
 
-        return this.currentQueue;
+            onEnd.accept(count);
+        });
+        queues.put(owner, queue);
+
+        return queue;
+    }
+
+    /**
+     * Ensure a new queue can be made.
+     *
+     * @param owner The owner
+     * @param query The query used
+     * @param modifications A list of activities to make modifications
+     * @throws IllegalStateException If queue can't be created, or conflicts with another
+     */
+    protected void checkAvailable(Object owner, ActivityQuery query, List<Activity> modifications) {
+        checkAvailable(owner, ModificationRegion.of(query, modifications));
+    }
+
+    /**
+     * Ensure a new queue can be made.
+     *
+     * @param owner The owner
+     * @param region The region the queue changes
+     * @throws IllegalStateException If queue can't be created, or conflicts with another
+     */
+    protected void checkAvailable(Object owner, ModificationRegion region) {
+        // The owner's own queue is replaced, so it doesn't count against the limit
+        if (!queues.containsKey(owner) && !queueAvailable()) {
+            throw new IllegalStateException("No queue available until a current queue finishes.");
+        }
+
+        if (conflictingQueue(owner, region).isPresent()) {
+            throw new IllegalStateException("No queue available until conflicting queues finish.");
+        }
+    }
+
+    /**
+     * Get the region a queue changes.
+     *
+     * @param queue The queue
+     * @return The region, or null if unknown
+     */
+    protected ModificationRegion region(ModificationQueue queue) {
+        if (queue instanceof AbstractWorldModificationQueue worldQueue) {
+            return worldQueue.region();
+        } else if (queue instanceof UndoReplayQueue undoQueue) {
+            return undoQueue.region();
+        }
+
+        return null;
+    }
+
+    /**
+     * Release the result details held by a queue result.
+     *
+     * @param queueResult Modification queue result
+     */
+    protected void closeResultStore(ModificationQueueResult queueResult) {
+        if (queueResult.queue() instanceof AbstractWorldModificationQueue worldModificationQueue) {
+            worldModificationQueue.resultStore().close();
+        }
     }
 
     /**
@@ -240,11 +444,19 @@ public class BukkitModificationQueueService implements ModificationQueueService
      * @param result Modification queue result
      */
     protected void onEnd(ModificationQueueResult result) {
-        queueResults.put(currentQueue.owner(), result);
+        Object owner = result.queue().owner();
+
+        // A replaced result from another queue won't be used again
+        ModificationQueueResult previous = queueResults.getIfPresent(owner);
+        if (previous != null && previous.queue() != result.queue()) {
+            closeResultStore(previous);
+        }
+
+        queueResults.put(owner, result);
 
         if (result.mode().equals(ModificationQueueMode.COMPLETING)) {
             // Message the user with results
-            if (currentQueue.owner() instanceof CommandSender sender) {
+            if (owner instanceof CommandSender sender) {
                 messageService.modificationsAppliedSuccess(sender);
                 messageService.modificationsApplied(sender, result.applied());
                 messageService.modificationsSkipped(sender, result);
@@ -259,10 +471,10 @@ public class BukkitModificationQueueService implements ModificationQueueService
             }
 
             // Clear and destroy the queue if completing
-            cancelQueueForOwner(currentQueue.owner());
+            cancelQueueForOwner(owner);
         } else if (result.mode().equals(ModificationQueueMode.PLANNING)) {
             // Message the user with results
-            if (currentQueue.owner() instanceof CommandSender sender) {
+            if (owner instanceof CommandSender sender) {
                 messageService.modificationsAppliedSuccess(sender, result.planned());
             }
         }
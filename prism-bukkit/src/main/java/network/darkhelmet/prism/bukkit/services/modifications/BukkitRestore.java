@@ -24,6 +24,7 @@ import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import network.darkhelmet.prism.api.activities.Activity;
@@ -31,42 +32,63 @@ import network.darkhelmet.prism.api.activities.ActivityQuery;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueueMode;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueueResult;
 import network.darkhelmet.prism.api.services.modifications.ModificationResult;
-import network.darkhelmet.prism.api.services.modifications.ModificationResultStatus;
 import network.darkhelmet.prism.api.services.modifications.ModificationRuleset;
 import network.darkhelmet.prism.api.services.modifications.Restore;
-import network.darkhelmet.prism.api.storage.StorageAdapter;
+import network.darkhelmet.prism.bukkit.actions.BukkitBlockAction;
+import network.darkhelmet.prism.bukkit.services.scheduling.ServerTickMonitor;
+import network.darkhelmet.prism.bukkit.services.undo.UndoJournalService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
+import org.bukkit.block.data.BlockData;
+
 public class BukkitRestore extends AbstractWorldModificationQueue implements Restore {
     /**
-     * The storage adapter.
+     * The activity reversal writer.
      */
-    private final StorageAdapter storageAdapter;
+    private final ActivityReversalWriter activityReversalWriter;
 
     /**
      * Construct a new restore.
      *
      * @param loggingService The logging service
-     * @param storageAdapter The storage adapter
+     * @param serverTickMonitor The server tick monitor
+     * @param modificationTaskBudget The modification task budget
+     * @param undoJournalService The undo journal service
+     * @param activityReversalWriter The activity reversal writer
      * @param modificationRuleset The ruleset
      * @param owner The owner
      * @param query The query used
-     * @param modifications A list of modifications
+     * @param modifications A list of modifications, collapsed to one per block
+     * @param superseded The primary keys of superseded activities, by the modification which supersedes them
      * @param onEnd The end callback
      */
     @Inject
     public BukkitRestore(
         LoggingService loggingService,
-        StorageAdapter storageAdapter,
+        ServerTickMonitor serverTickMonitor,
+        ModificationTaskBudget modificationTaskBudget,
+        UndoJournalService undoJournalService,
+        ActivityReversalWriter activityReversalWriter,
         @Assisted ModificationRuleset modificationRuleset,
         @Assisted Object owner,
         @Assisted ActivityQuery query,
         @Assisted final List<Activity> modifications,
+        @Assisted Map<Activity, long[]> superseded,
         @Assisted Consumer<ModificationQueueResult> onEnd
     ) {
-        super(loggingService, modificationRuleset, owner, query, modifications, onEnd);
+        super(
+            loggingService,
+            serverTickMonitor,
+            modificationTaskBudget,
+            undoJournalService,
+            modificationRuleset,
+            owner,
+            query,
+            modifications,
+            superseded,
+            onEnd);
 
-        this.storageAdapter = storageAdapter;
+        this.activityReversalWriter = activityReversalWriter;
     }
 
     @Override
@@ -74,19 +96,22 @@ public class BukkitRestore extends AbstractWorldModificationQueue implements Res
         return activity.action().applyRestore(modificationRuleset, owner(), activity, mode);
     }
 
+    @Override
+    protected ModificationResult precheckModification(Activity activity, BlockData liveBlockData) {
+        if (activity.action() instanceof BukkitBlockAction blockAction) {
+            return blockAction.precheckRestore(liveBlockData, modificationRuleset, activity);
+        }
+
+        return null;
+    }
+
     @Override
     protected void onEnd(ModificationQueueResult result) {
         if (result.mode().equals(ModificationQueueMode.COMPLETING)) {
-            // Get PKs of all applied activities
-            List<Long> primarykeys = result.results().stream().filter(
-                r -> r.status().equals(ModificationResultStatus.APPLIED)).map(
-                    r -> (long) ((Activity) r.activity()).primaryKey()).toList();
-
-            try {
-                storageAdapter.markReversed(primarykeys, false);
-            } catch (Exception e) {
-                loggingService.handleException(e);
-            }
+            // Mark all applied activities, including those superseded by them, in the background
+            List<Long> primaryKeys = appliedPrimaryKeys();
+            activityReversalWriter.submit(owner(), primaryKeys, false);
+            finishUndoJournal(primaryKeys, false);
         }
 
         super.onEnd(result);
@@ -0,0 +1,190 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import lombok.Getter;
+
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+import network.darkhelmet.prism.api.services.modifications.ModificationRuleset;
+import network.darkhelmet.prism.bukkit.services.modifications.ModificationChunkPlan.PlannedChunk;
+import network.darkhelmet.prism.bukkit.services.modifications.state.BlockStateChange;
+import network.darkhelmet.prism.bukkit.utils.BlockUtils;
+import network.darkhelmet.prism.bukkit.utils.EntityUtils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.util.BoundingBox;
+
+/**
+ * Clears drops and unsafe blocks from the query area, one chunk at a time as a modification
+ * enters each chunk, so only chunks with modifications are visited and no single tick has to
+ * clear the whole area.
+ */
+public class ModificationChunkCleaner {
+    /**
+     * The query's bounding box, or null if the query has no area to clear.
+     */
+    private final BoundingBox boundingBox;
+
+    /**
+     * The query's world uuid.
+     */
+    private final UUID worldUuid;
+
+    /**
+     * Whether to remove drops.
+     */
+    private final boolean removeDrops;
+
+    /**
+     * The materials of blocks to remove.
+     */
+    private final List<Material> removeBlocks;
+
+    /**
+     * Whether block removals apply physics.
+     */
+    private final boolean applyPhysics;
+
+    /**
+     * The packed positions of blocks removed from the current chunk.
+     */
+    private final Set<Long> removedPositions = new HashSet<>();
+
+    /**
+     * The count of drops removed.
+     */
+    @Getter
+    private int removedDrops = 0;
+
+    /**
+     * The count of blocks removed.
+     */
+    @Getter
+    private int removedBlocks = 0;
+
+    /**
+     * Construct a new chunk cleaner.
+     *
+     * @param query The query
+     * @param modificationRuleset The ruleset
+     */
+    public ModificationChunkCleaner(ActivityQuery query, ModificationRuleset modificationRuleset) {
+        if (query.worldUuid() != null && query.minCoordinate() != null && query.maxCoordinate() != null) {
+            this.boundingBox = new BoundingBox(
+                query.minCoordinate().x(), query.minCoordinate().y(), query.minCoordinate().z(),
+                query.maxCoordinate().x(), query.maxCoordinate().y(), query.maxCoordinate().z());
+        } else {
+            this.boundingBox = null;
+        }
+
+        this.worldUuid = query.worldUuid();
+        this.removeDrops = modificationRuleset.removeDrops();
+        this.removeBlocks = modificationRuleset.removeBlocks().stream().map(m ->
+            Material.valueOf(m.toUpperCase())).toList();
+        this.applyPhysics = modificationRuleset.applyPhysics();
+    }
+
+    /**
+     * Clear a chunk the modification is entering. The chunk must be loaded.
+     *
+     * @param plannedChunk The chunk
+     */
+    public void clean(PlannedChunk plannedChunk) {
+        removedPositions.clear();
+
+        if (boundingBox == null || !plannedChunk.worldUuid().equals(worldUuid)) {
+            return;
+        }
+
+        // Skip chunks outside the query area
+        int chunkMinX = plannedChunk.x() << 4;
+        int chunkMinZ = plannedChunk.z() << 4;
+        if (boundingBox.getMaxX() <= chunkMinX || boundingBox.getMinX() >= chunkMinX + 16
+                || boundingBox.getMaxZ() <= chunkMinZ || boundingBox.getMinZ() >= chunkMinZ + 16) {
+            return;
+        }
+
+        World world = Bukkit.getWorld(worldUuid);
+        if (world == null) {
+            return;
+        }
+
+        Chunk chunk = world.getChunkAt(plannedChunk.x(), plannedChunk.z());
+
+        if (removeDrops) {
+            removedDrops += EntityUtils.removeDropsInChunk(chunk, boundingBox);
+        }
+
+        if (!removeBlocks.isEmpty()) {
+            List<BlockStateChange> stateChanges = BlockUtils.removeBlocksByMaterial(
+                chunk, boundingBox, removeBlocks, applyPhysics);
+            for (BlockStateChange stateChange : stateChanges) {
+                Location location = stateChange.oldState().getLocation();
+                removedPositions.add(pack(location.getBlockX(), location.getBlockY(), location.getBlockZ()));
+            }
+
+            removedBlocks += stateChanges.size();
+        }
+    }
+
+    /**
+     * Check whether an activity's block (in the current chunk) was removed. Diffs taken
+     * before the removal no longer apply to it.
+     *
+     * @param activity The activity
+     * @return True if the activity's block was removed
+     */
+    public boolean removed(Activity activity) {
+        return !removedPositions.isEmpty() && removedPositions.contains(pack(
+            activity.coordinate().intX(), activity.coordinate().intY(), activity.coordinate().intZ()));
+    }
+
+    /**
+     * Reset the counts, so chunks are cleared again if the modification runs again.
+     */
+    public void reset() {
+        removedPositions.clear();
+        removedDrops = 0;
+        removedBlocks = 0;
+    }
+
+    /**
+     * Pack a block position into a long.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return The packed position
+     */
+    private static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+}
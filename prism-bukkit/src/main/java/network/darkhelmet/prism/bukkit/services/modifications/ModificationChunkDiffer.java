@@ -0,0 +1,256 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.services.modifications.ModificationResult;
+import network.darkhelmet.prism.bukkit.PrismBukkit;
+import network.darkhelmet.prism.bukkit.actions.BukkitBlockAction;
+import network.darkhelmet.prism.bukkit.services.modifications.ModificationChunkPlan.PlannedChunk;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * Finds block modifications which wouldn't change anything, before they're applied.
+ *
+ * <p>Each chunk is snapshotted on the main thread once it's reached, never before, because changes
+ * made in earlier chunks (physics, beds and doors crossing chunk borders, players) can still change
+ * it. The snapshot is compared to the modifications on an async thread, so only the modifications
+ * which are needed are applied on the main thread.</p>
+ *
+ * <p>Modifications applied earlier in the same chunk can still change blocks the snapshot saw (physics,
+ * bed heads, door tops), so each skip is re-checked against the live block before it's trusted.</p>
+ */
+public class ModificationChunkDiffer {
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The modifications, grouped by chunk.
+     */
+    private final Activity[] modifications;
+
+    /**
+     * The chunks, in the order they're visited.
+     */
+    private final List<PlannedChunk> chunks;
+
+    /**
+     * The index of each chunk's first modification.
+     */
+    private final int[] offsets;
+
+    /**
+     * Checks a modification against a snapshot of its block.
+     */
+    private final BiFunction<Activity, BlockData, ModificationResult> precheck;
+
+    /**
+     * The skipped results for each chunk, once diffed.
+     */
+    private final CompletableFuture<ModificationResult[]>[] diffs;
+
+    /**
+     * The index of the current chunk.
+     */
+    private int index = 0;
+
+    /**
+     * The skipped results for the current chunk.
+     */
+    private ModificationResult[] skipped = new ModificationResult[0];
+
+    /**
+     * The world of the current chunk.
+     */
+    private World currentWorld;
+
+    /**
+     * Construct a new chunk differ.
+     *
+     * @param loggingService The logging service
+     * @param modifications The modifications, grouped by chunk
+     * @param chunks The chunks, in the order they're visited
+     * @param offsets The index of each chunk's first modification
+     * @param precheck Checks a modification against a snapshot of its block, returning a skipped result or null
+     */
+    @SuppressWarnings("unchecked")
+    public ModificationChunkDiffer(
+            LoggingService loggingService,
+            Activity[] modifications,
+            List<PlannedChunk> chunks,
+            int[] offsets,
+            BiFunction<Activity, BlockData, ModificationResult> precheck) {
+        this.loggingService = loggingService;
+        this.modifications = modifications;
+        this.chunks = chunks;
+        this.offsets = offsets;
+        this.precheck = precheck;
+        this.diffs = new CompletableFuture[chunks.size()];
+    }
+
+    /**
+     * Move to a chunk, diffing it if it hasn't been yet.
+     *
+     * @param chunk The chunk
+     * @return True if the chunk has been diffed
+     */
+    public boolean enter(PlannedChunk chunk) {
+        while (index < chunks.size() - 1 && !chunks.get(index).equals(chunk)) {
+            diffs[index] = null;
+            index++;
+        }
+
+        if (diffs[index] == null) {
+            diffs[index] = diffAsync(index);
+        }
+
+        if (!diffs[index].isDone()) {
+            return false;
+        }
+
+        skipped = diffs[index].join();
+        currentWorld = Bukkit.getWorld(chunk.worldUuid());
+
+        return true;
+    }
+
+    /**
+     * Get the skipped result for a modification in the current chunk, if it doesn't need to be applied.
+     * This must be called on the main thread.
+     *
+     * @param cursor The modification index
+     * @return The skipped result, or null if the modification should be applied
+     */
+    public ModificationResult skipped(int cursor) {
+        int offset = cursor - offsets[index];
+        if (offset < 0 || offset >= skipped.length || skipped[offset] == null || currentWorld == null) {
+            return null;
+        }
+
+        // Re-check against the live block, in case an earlier modification in this chunk changed it
+        Activity activity = modifications[cursor];
+        BlockData liveBlockData = currentWorld.getBlockAt(
+            activity.coordinate().intX(), activity.coordinate().intY(), activity.coordinate().intZ()).getBlockData();
+
+        return precheck.apply(activity, liveBlockData);
+    }
+
+    /**
+     * Discard all diffs and start over from the first chunk.
+     */
+    public void reset() {
+        for (int i = 0; i < diffs.length; i++) {
+            if (diffs[i] != null) {
+                diffs[i].cancel(false);
+                diffs[i] = null;
+            }
+        }
+
+        index = 0;
+        skipped = new ModificationResult[0];
+        currentWorld = null;
+    }
+
+    /**
+     * Snapshot a chunk and diff it asynchronously.
+     *
+     * @param chunkIndex The chunk index
+     * @return The diff
+     */
+    private CompletableFuture<ModificationResult[]> diffAsync(int chunkIndex) {
+        PlannedChunk chunk = chunks.get(chunkIndex);
+        World world = Bukkit.getWorld(chunk.worldUuid());
+        if (world == null) {
+            return CompletableFuture.completedFuture(new ModificationResult[0]);
+        }
+
+        if (!world.isChunkLoaded(chunk.x(), chunk.z())) {
+            // The preloader gave up waiting, so let the modifications check the world themselves
+            return CompletableFuture.completedFuture(new ModificationResult[0]);
+        }
+
+        ChunkSnapshot snapshot = world.getChunkAt(chunk.x(), chunk.z()).getChunkSnapshot(false, false, false);
+        int minHeight = world.getMinHeight();
+        int maxHeight = world.getMaxHeight();
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return diff(chunkIndex, snapshot, minHeight, maxHeight);
+            } catch (Exception e) {
+                // Fall back to checking the world on the main thread
+                loggingService.handleException(e);
+
+                return new ModificationResult[0];
+            }
+        }, async());
+    }
+
+    /**
+     * Compare a chunk's modifications to a snapshot of it.
+     *
+     * @param chunkIndex The chunk index
+     * @param snapshot The chunk snapshot
+     * @param minHeight The world's min height
+     * @param maxHeight The world's max height
+     * @return The skipped results, by modification
+     */
+    private ModificationResult[] diff(int chunkIndex, ChunkSnapshot snapshot, int minHeight, int maxHeight) {
+        int start = offsets[chunkIndex];
+        ModificationResult[] results = new ModificationResult[offsets[chunkIndex + 1] - start];
+        for (int i = 0; i < results.length; i++) {
+            Activity activity = modifications[start + i];
+            if (activity == null
+                    || !(activity.action() instanceof BukkitBlockAction)
+                    || !activity.action().type().reversible()) {
+                continue;
+            }
+
+            int y = activity.coordinate().intY();
+            if (y >= minHeight && y < maxHeight) {
+                BlockData liveBlockData = snapshot.getBlockData(
+                    activity.coordinate().intX() & 15, y, activity.coordinate().intZ() & 15);
+                results[i] = precheck.apply(activity, liveBlockData);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Get an executor which runs tasks on the server's async scheduler.
+     *
+     * @return The executor
+     */
+    private Executor async() {
+        return runnable -> Bukkit.getScheduler().runTaskAsynchronously(PrismBukkit.instance().loaderPlugin(), runnable);
+    }
+}
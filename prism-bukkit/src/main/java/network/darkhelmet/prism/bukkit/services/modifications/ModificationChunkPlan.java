@@ -0,0 +1,90 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import network.darkhelmet.prism.api.activities.Activity;
+
+/**
+ * Orders a queue's activities one chunk at a time, so a modification doesn't jump between chunks.
+ *
+ * <p>Chunks are visited in world, x, then z order. Activities keep their query order within
+ * each chunk, which preserves the ordering rules for hanging and vine blocks.</p>
+ *
+ * @param activities The activities, grouped by chunk
+ * @param chunks The chunks, in the order they're visited
+ * @param offsets The index of each chunk's first activity, followed by the number of activities
+ */
+public record ModificationChunkPlan(List<Activity> activities, List<PlannedChunk> chunks, int[] offsets) {
+    /**
+     * Plan the order of activities.
+     *
+     * @param activities The activities, in query order
+     * @return The plan
+     */
+    public static ModificationChunkPlan of(List<Activity> activities) {
+        Map<PlannedChunk, List<Activity>> byChunk = new LinkedHashMap<>();
+        for (Activity activity : activities) {
+            byChunk.computeIfAbsent(PlannedChunk.of(activity), chunk -> new ArrayList<>()).add(activity);
+        }
+
+        List<PlannedChunk> chunks = new ArrayList<>(byChunk.keySet());
+        chunks.sort(Comparator.comparing(PlannedChunk::worldUuid)
+            .thenComparingInt(PlannedChunk::x)
+            .thenComparingInt(PlannedChunk::z));
+
+        List<Activity> ordered = new ArrayList<>(activities.size());
+        int[] offsets = new int[chunks.size() + 1];
+        for (int i = 0; i < chunks.size(); i++) {
+            offsets[i] = ordered.size();
+            ordered.addAll(byChunk.get(chunks.get(i)));
+        }
+
+        offsets[chunks.size()] = ordered.size();
+
+        return new ModificationChunkPlan(ordered, chunks, offsets);
+    }
+
+    /**
+     * A chunk holding one or more activities.
+     *
+     * @param worldUuid The world uuid
+     * @param x The chunk x
+     * @param z The chunk z
+     */
+    public record PlannedChunk(UUID worldUuid, int x, int z) {
+        /**
+         * Get the chunk an activity is in.
+         *
+         * @param activity The activity
+         * @return The chunk
+         */
+        public static PlannedChunk of(Activity activity) {
+            return new PlannedChunk(
+                activity.worldUuid(), activity.coordinate().intX() >> 4, activity.coordinate().intZ() >> 4);
+        }
+    }
+}
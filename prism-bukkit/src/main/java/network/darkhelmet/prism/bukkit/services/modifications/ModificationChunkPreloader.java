@@ -0,0 +1,264 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import network.darkhelmet.prism.bukkit.PrismBukkit;
+import network.darkhelmet.prism.bukkit.services.modifications.ModificationChunkPlan.PlannedChunk;
+import network.darkhelmet.prism.bukkit.services.scheduling.ServerTickMonitor;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Loads the chunks a modification will visit ahead of time and holds them with plugin chunk tickets.
+ *
+ * <p>Servers which load chunks asynchronously (like Paper) load them off the main thread before
+ * they're ticketed. Otherwise a ticket loads its chunk synchronously, so only one is added per tick.
+ * Tickets are released once a modification moves past a chunk.</p>
+ */
+public class ModificationChunkPreloader {
+    /**
+     * The max time to wait for a chunk to load before it's loaded synchronously.
+     */
+    private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * The server's async chunk load method, if it has one.
+     */
+    private static final Method CHUNK_AT_ASYNC = chunkAtAsync();
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The server tick monitor.
+     */
+    private final ServerTickMonitor serverTickMonitor;
+
+    /**
+     * The chunks, in the order they're visited.
+     */
+    private final List<PlannedChunk> chunks;
+
+    /**
+     * The number of chunks to load ahead.
+     */
+    private final int preloadChunks;
+
+    /**
+     * The indexes of the ticketed chunks, in the order they're visited.
+     */
+    private final NavigableSet<Integer> ticketed = new TreeSet<>();
+
+    /**
+     * The index of the current chunk.
+     */
+    private int index = 0;
+
+    /**
+     * The index of the next chunk to load.
+     */
+    private int nextTicket = 0;
+
+    /**
+     * The tick a chunk was last ticketed synchronously.
+     */
+    private long lastTicketTick = -1;
+
+    /**
+     * Changes on reset, so loads requested before then aren't ticketed.
+     */
+    private int generation = 0;
+
+    /**
+     * When we started waiting for the current chunk to load, or 0 if not waiting.
+     */
+    private long waitingSince = 0;
+
+    /**
+     * Construct a new chunk preloader.
+     *
+     * @param loggingService The logging service
+     * @param serverTickMonitor The server tick monitor
+     * @param chunks The chunks, in the order they're visited
+     * @param preloadChunks The number of chunks to load ahead
+     */
+    public ModificationChunkPreloader(
+            LoggingService loggingService,
+            ServerTickMonitor serverTickMonitor,
+            List<PlannedChunk> chunks,
+            int preloadChunks) {
+        this.loggingService = loggingService;
+        this.serverTickMonitor = serverTickMonitor;
+        this.chunks = chunks;
+        this.preloadChunks = preloadChunks;
+    }
+
+    /**
+     * Move to a chunk, loading upcoming chunks and releasing any already passed.
+     *
+     * @param chunk The chunk
+     * @return True if the chunk is loaded, or has been waited on long enough that it should be loaded now
+     */
+    public boolean enter(PlannedChunk chunk) {
+        while (index < chunks.size() - 1 && !chunks.get(index).equals(chunk)) {
+            index++;
+        }
+
+        if (preloadChunks <= 0) {
+            return true;
+        }
+
+        // Release anything we've moved past
+        while (!ticketed.isEmpty() && ticketed.first() < index) {
+            release(chunks.get(ticketed.pollFirst()));
+        }
+
+        // Load the current chunk and those after it
+        nextTicket = Math.max(nextTicket, index);
+        while (nextTicket < chunks.size() && nextTicket <= index + preloadChunks) {
+            if (CHUNK_AT_ASYNC != null) {
+                load(nextTicket);
+            } else if (serverTickMonitor.ticks() != lastTicketTick) {
+                lastTicketTick = serverTickMonitor.ticks();
+                ticket(nextTicket);
+            } else {
+                break;
+            }
+
+            nextTicket++;
+        }
+
+        World world = Bukkit.getWorld(chunk.worldUuid());
+        if (world == null || world.isChunkLoaded(chunk.x(), chunk.z())) {
+            waitingSince = 0;
+
+            return true;
+        }
+
+        if (waitingSince == 0) {
+            waitingSince = System.nanoTime();
+        } else if (System.nanoTime() - waitingSince > MAX_WAIT_NANOS) {
+            waitingSince = 0;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Release all tickets and start over from the first chunk.
+     */
+    public void reset() {
+        while (!ticketed.isEmpty()) {
+            release(chunks.get(ticketed.pollFirst()));
+        }
+
+        index = 0;
+        nextTicket = 0;
+        waitingSince = 0;
+        generation++;
+    }
+
+    /**
+     * Load a chunk asynchronously, and ticket it once loaded.
+     *
+     * @param chunkIndex The chunk index
+     */
+    private void load(int chunkIndex) {
+        PlannedChunk chunk = chunks.get(chunkIndex);
+        World world = Bukkit.getWorld(chunk.worldUuid());
+        if (world == null) {
+            return;
+        }
+
+        int loadGeneration = generation;
+
+        try {
+            // Completed on the main thread, where we can hold it unless we've moved past it since
+            ((CompletableFuture<?>) CHUNK_AT_ASYNC.invoke(world, chunk.x(), chunk.z())).thenRun(() -> {
+                if (loadGeneration == generation && chunkIndex >= index) {
+                    ticket(chunkIndex);
+                }
+            });
+        } catch (ReflectiveOperationException e) {
+            loggingService.handleException(e);
+        }
+    }
+
+    /**
+     * Hold a chunk with a ticket, which loads it if it isn't already.
+     *
+     * @param chunkIndex The chunk index
+     */
+    private void ticket(int chunkIndex) {
+        PlannedChunk chunk = chunks.get(chunkIndex);
+        World world = Bukkit.getWorld(chunk.worldUuid());
+        if (world != null && world.addPluginChunkTicket(chunk.x(), chunk.z(), plugin())) {
+            ticketed.add(chunkIndex);
+        }
+    }
+
+    /**
+     * Release a chunk's ticket.
+     *
+     * @param chunk The chunk
+     */
+    private void release(PlannedChunk chunk) {
+        World world = Bukkit.getWorld(chunk.worldUuid());
+        if (world != null) {
+            world.removePluginChunkTicket(chunk.x(), chunk.z(), plugin());
+        }
+    }
+
+    /**
+     * Get the plugin tickets are held for.
+     *
+     * @return The plugin
+     */
+    private Plugin plugin() {
+        return PrismBukkit.instance().loaderPlugin();
+    }
+
+    /**
+     * Find the server's async chunk load method.
+     *
+     * @return The method, or null if the server doesn't have one
+     */
+    private static Method chunkAtAsync() {
+        try {
+            return World.class.getMethod("getChunkAtAsync", int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import network.darkhelmet.prism.api.actions.BlockAction;
+import network.darkhelmet.prism.api.activities.Activity;
+
+/**
+ * Collapses block activities which change the same block into the one that decides its final state.
+ *
+ * <p>Rolling back a block leaves it as it was before its earliest activity, and restoring it leaves
+ * it as it was after its latest. The other activities for that block are superseded and don't
+ * need to be applied, only their primary keys are kept so they can be marked as reversed.</p>
+ *
+ * @param activities The activities to apply, in their original order
+ * @param superseded The primary keys of superseded activities, by the activity which supersedes them
+ */
+public record ModificationCollapsePlan(List<Activity> activities, Map<Activity, long[]> superseded) {
+    /**
+     * Collapse activities.
+     *
+     * @param activities The activities, in query order
+     * @param earliest Whether the earliest activity for a block decides its state (rollbacks), or the latest
+     * @return The plan
+     */
+    public static ModificationCollapsePlan of(List<Activity> activities, boolean earliest) {
+        return of(activities.stream(), earliest);
+    }
+
+    /**
+     * Collapse activities as they're read, so superseded activities are released right away.
+     *
+     * @param activities The activities, in query order
+     * @param earliest Whether the earliest activity for a block decides its state (rollbacks), or the latest
+     * @return The plan
+     */
+    public static ModificationCollapsePlan of(Stream<Activity> activities, boolean earliest) {
+        // Deciding activities keep the position they were read at. Replaced ones leave a gap.
+        List<Activity> effective = new ArrayList<>();
+        Map<BlockLocation, Deciding> decidingByLocation = new HashMap<>();
+        activities.forEachOrdered(activity -> {
+            if (!collapsible(activity)) {
+                effective.add(activity);
+
+                return;
+            }
+
+            BlockLocation location = BlockLocation.of(activity);
+            Deciding deciding = decidingByLocation.get(location);
+            if (deciding == null) {
+                decidingByLocation.put(location, new Deciding(effective.size(), activity));
+                effective.add(activity);
+            } else if (decides(activity, deciding.activity, earliest)) {
+                deciding.supersede(deciding.activity);
+                effective.set(deciding.index, null);
+
+                deciding.index = effective.size();
+                deciding.activity = activity;
+                effective.add(activity);
+            } else {
+                deciding.supersede(activity);
+            }
+        });
+
+        Map<Activity, long[]> superseded = new IdentityHashMap<>();
+        for (Deciding deciding : decidingByLocation.values()) {
+            if (deciding.supersededCount > 0) {
+                superseded.put(deciding.activity, Arrays.copyOf(deciding.supersededKeys, deciding.supersededCount));
+            }
+        }
+
+        if (!superseded.isEmpty()) {
+            effective.removeIf(Objects::isNull);
+        }
+
+        return new ModificationCollapsePlan(effective, superseded);
+    }
+
+    /**
+     * Get whether an activity decides a block's state instead of the current deciding activity.
+     * Timestamp ties are broken by primary key, so the outcome doesn't depend on query order.
+     *
+     * @param next The activity
+     * @param current The current deciding activity
+     * @param earliest Whether the earliest activity decides
+     * @return True if the activity decides
+     */
+    private static boolean decides(Activity next, Activity current, boolean earliest) {
+        int compared = Long.compare(next.timestamp(), current.timestamp());
+        if (compared == 0) {
+            compared = Long.compare(primaryKey(next), primaryKey(current));
+        }
+
+        return earliest ? compared < 0 : compared > 0;
+    }
+
+    /**
+     * Get an activity's primary key, for ordering.
+     *
+     * @param activity The activity
+     * @return The primary key, or 0 if it has none
+     */
+    private static long primaryKey(Activity activity) {
+        return activity.primaryKey() instanceof Number number ? number.longValue() : 0;
+    }
+
+    /**
+     * Get whether an activity only changes a single block, so it may be collapsed.
+     *
+     * @param activity The activity
+     * @return True if collapsible
+     */
+    private static boolean collapsible(Activity activity) {
+        return activity.action() instanceof BlockAction && activity.action().type().reversible();
+    }
+
+    /**
+     * The block an activity changes.
+     *
+     * @param worldUuid The world uuid
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     */
+    private record BlockLocation(UUID worldUuid, int x, int y, int z) {
+        /**
+         * Get the block an activity changes.
+         *
+         * @param activity The activity
+         * @return The block location
+         */
+        static BlockLocation of(Activity activity) {
+            return new BlockLocation(activity.worldUuid(),
+                activity.coordinate().intX(), activity.coordinate().intY(), activity.coordinate().intZ());
+        }
+    }
+
+    /**
+     * The deciding activity for a block, and the primary keys of those it supersedes.
+     */
+    private static final class Deciding {
+        /**
+         * The index of the deciding activity in the effective activities.
+         */
+        private int index;
+
+        /**
+         * The deciding activity.
+         */
+        private Activity activity;
+
+        /**
+         * The primary keys of superseded activities.
+         */
+        private long[] supersededKeys = new long[0];
+
+        /**
+         * The number of superseded activities.
+         */
+        private int supersededCount = 0;
+
+        /**
+         * Construct a deciding activity.
+         *
+         * @param index The index in the effective activities
+         * @param activity The activity
+         */
+        private Deciding(int index, Activity activity) {
+            this.index = index;
+            this.activity = activity;
+        }
+
+        /**
+         * Record a superseded activity.
+         *
+         * @param superseded The superseded activity
+         */
+        private void supersede(Activity superseded) {
+            if (supersededCount == supersededKeys.length) {
+                supersededKeys = Arrays.copyOf(supersededKeys, Math.max(4, supersededCount * 2));
+            }
+
+            supersededKeys[supersededCount++] = (long) superseded.primaryKey();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+
+import org.bukkit.util.BoundingBox;
+
+/**
+ * The area a modification queue may change, in each world.
+ *
+ * <p>Areas include the query's bounds, which are cleared of drops and blocks before modifying,
+ * and a block around each activity, since beds, doors and physics reach neighboring blocks.</p>
+ *
+ * @param bounds The bounds, by world uuid
+ */
+public record ModificationRegion(Map<UUID, BoundingBox> bounds) {
+    /**
+     * Get the region a query and its activities may change.
+     *
+     * @param query The query
+     * @param activities The activities
+     * @return The region
+     */
+    public static ModificationRegion of(ActivityQuery query, List<Activity> activities) {
+        Map<UUID, BoundingBox> bounds = new HashMap<>();
+        if (query.worldUuid() != null && query.minCoordinate() != null && query.maxCoordinate() != null) {
+            bounds.put(query.worldUuid(), new BoundingBox(
+                query.minCoordinate().x(), query.minCoordinate().y(), query.minCoordinate().z(),
+                query.maxCoordinate().x(), query.maxCoordinate().y(), query.maxCoordinate().z()));
+        }
+
+        for (Activity activity : activities) {
+            int x = activity.coordinate().intX();
+            int y = activity.coordinate().intY();
+            int z = activity.coordinate().intZ();
+
+            BoundingBox box = bounds.get(activity.worldUuid());
+            if (box == null) {
+                bounds.put(activity.worldUuid(), new BoundingBox(x, y, z, x + 1, y + 1, z + 1));
+            } else if (!box.contains(x + 0.5, y + 0.5, z + 0.5)) {
+                box.union(x, y, z);
+                box.union(x + 1, y + 1, z + 1);
+            }
+        }
+
+        for (BoundingBox box : bounds.values()) {
+            box.expand(1);
+        }
+
+        return new ModificationRegion(bounds);
+    }
+
+    /**
+     * Check whether this region shares any blocks with another.
+     *
+     * @param other The other region
+     * @return True if they overlap
+     */
+    public boolean overlaps(ModificationRegion other) {
+        for (Map.Entry<UUID, BoundingBox> entry : bounds.entrySet()) {
+            BoundingBox otherBox = other.bounds().get(entry.getKey());
+            if (otherBox != null && entry.getValue().overlaps(otherBox)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.services.modifications.ModificationSkipReason;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * Compactly stores the details of a modification queue's results.
+ *
+ * <p>Applied activities are kept as primary keys, and previewed blocks as packed positions and
+ * palette ids for their original block data. The first skipped activities are kept for reports,
+ * and any more are spilled to a temp file as primary keys and skip reasons.</p>
+ */
+public class ModificationResultStore implements Closeable {
+    /**
+     * The number of skipped activities kept in memory.
+     */
+    private static final int SKIPPED_IN_MEMORY = 1000;
+
+    /**
+     * The primary keys of applied activities.
+     */
+    private long[] appliedKeys = new long[64];
+
+    /**
+     * The number of applied keys.
+     */
+    private int appliedCount = 0;
+
+    /**
+     * The worlds of previewed blocks.
+     */
+    private final List<UUID> worlds = new ArrayList<>();
+
+    /**
+     * The distinct original block data of previewed blocks.
+     */
+    private final List<BlockData> palette = new ArrayList<>();
+
+    /**
+     * The palette id of each block data.
+     */
+    private final Map<BlockData, Integer> paletteIds = new HashMap<>();
+
+    /**
+     * The packed positions of previewed blocks.
+     */
+    private long[] previewPositions = new long[64];
+
+    /**
+     * The world index of each previewed block.
+     */
+    private int[] previewWorlds = new int[64];
+
+    /**
+     * The palette id of each previewed block's original block data.
+     */
+    private int[] previewStates = new int[64];
+
+    /**
+     * The number of previewed blocks.
+     */
+    private int previewCount = 0;
+
+    /**
+     * The skipped activities kept in memory.
+     */
+    private final List<SkippedActivity> skipped = new ArrayList<>();
+
+    /**
+     * The file skipped activities are spilled to, once there are too many to keep in memory.
+     */
+    private Path spillFile;
+
+    /**
+     * The spill file output.
+     */
+    private DataOutputStream spillOutput;
+
+    /**
+     * The number of spilled skipped activities.
+     */
+    private int spilledCount = 0;
+
+    /**
+     * Record an applied activity.
+     *
+     * @param primaryKey The primary key
+     */
+    public void addApplied(long primaryKey) {
+        if (appliedCount == appliedKeys.length) {
+            appliedKeys = Arrays.copyOf(appliedKeys, appliedCount * 2);
+        }
+
+        appliedKeys[appliedCount++] = primaryKey;
+    }
+
+    /**
+     * Record the original state of a previewed block.
+     *
+     * @param originalState The original block state
+     */
+    public void addPreview(BlockState originalState) {
+        if (previewCount == previewPositions.length) {
+            previewPositions = Arrays.copyOf(previewPositions, previewCount * 2);
+            previewWorlds = Arrays.copyOf(previewWorlds, previewCount * 2);
+            previewStates = Arrays.copyOf(previewStates, previewCount * 2);
+        }
+
+        UUID worldUuid = originalState.getWorld().getUID();
+        int worldIndex = worlds.indexOf(worldUuid);
+        if (worldIndex == -1) {
+            worldIndex = worlds.size();
+            worlds.add(worldUuid);
+        }
+
+        BlockData blockData = originalState.getBlockData();
+        Integer stateId = paletteIds.get(blockData);
+        if (stateId == null) {
+            stateId = palette.size();
+            palette.add(blockData);
+            paletteIds.put(blockData, stateId);
+        }
+
+        previewPositions[previewCount] = pack(originalState.getX(), originalState.getY(), originalState.getZ());
+        previewWorlds[previewCount] = worldIndex;
+        previewStates[previewCount] = stateId;
+        previewCount++;
+    }
+
+    /**
+     * Record a skipped activity.
+     *
+     * @param activity The activity
+     * @param reason The skip reason
+     */
+    public synchronized void addSkipped(Activity activity, ModificationSkipReason reason) {
+        if (skipped.size() < SKIPPED_IN_MEMORY) {
+            skipped.add(new SkippedActivity(activity, reason));
+
+            return;
+        }
+
+        try {
+            if (spillOutput == null) {
+                spillFile = Files.createTempFile("prism-skipped-", ".bin");
+                spillFile.toFile().deleteOnExit();
+                spillOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile)));
+            }
+
+            spillOutput.writeLong((long) activity.primaryKey());
+            spillOutput.writeByte(reason.ordinal());
+            spilledCount++;
+        } catch (IOException e) {
+            // Spilling is only for reports, don't fail the modification over it
+            closeSpill();
+        }
+    }
+
+    /**
+     * Get the primary keys of applied activities.
+     *
+     * @return The primary keys
+     */
+    public long[] appliedKeys() {
+        return Arrays.copyOf(appliedKeys, appliedCount);
+    }
+
+    /**
+     * Get the original states of previewed blocks which are loaded, so they can be re-sent in one batch.
+     * When a block was previewed more than once, the first block data recorded is the one the world had.
+     *
+     * <p>Each state is taken from its block for its location, then given the recorded block data,
+     * so the world's blocks are never changed.</p>
+     *
+     * @return The original block states
+     */
+    public List<BlockState> previewOriginals() {
+        List<Map<Long, BlockState>> statesByWorld = new ArrayList<>();
+        for (int i = 0; i < worlds.size(); i++) {
+            statesByWorld.add(new HashMap<>());
+        }
+
+        List<BlockState> originals = new ArrayList<>();
+        for (int i = 0; i < previewCount; i++) {
+            World world = Bukkit.getWorld(worlds.get(previewWorlds[i]));
+            long position = previewPositions[i];
+            int x = unpackX(position);
+            int z = unpackZ(position);
+            if (world == null || !world.isChunkLoaded(x >> 4, z >> 4)) {
+                continue;
+            }
+
+            Map<Long, BlockState> worldStates = statesByWorld.get(previewWorlds[i]);
+            if (!worldStates.containsKey(position)) {
+                BlockState state = world.getBlockAt(x, unpackY(position), z).getState();
+                state.setBlockData(palette.get(previewStates[i]));
+                worldStates.put(position, state);
+                originals.add(state);
+            }
+        }
+
+        return originals;
+    }
+
+    /**
+     * Get the skipped activities kept in memory.
+     *
+     * @return The skipped activities
+     */
+    public List<SkippedActivity> skipped() {
+        return skipped;
+    }
+
+    /**
+     * Get the number of skipped activities spilled to disk.
+     *
+     * @return The spilled count
+     */
+    public int spilledCount() {
+        return spilledCount;
+    }
+
+    /**
+     * Read the spilled skipped activities, a page at a time.
+     *
+     * @param pageSize The max number of skipped activities per page
+     * @param consumer The page consumer, given skip reasons by primary key
+     * @throws IOException If the spill file can't be read
+     */
+    public synchronized void readSpilled(
+            int pageSize, Consumer<Map<Long, ModificationSkipReason>> consumer) throws IOException {
+        if (spillOutput == null) {
+            return;
+        }
+
+        spillOutput.flush();
+
+        ModificationSkipReason[] reasons = ModificationSkipReason.values();
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)))) {
+            Map<Long, ModificationSkipReason> page = new LinkedHashMap<>();
+            for (int i = 0; i < spilledCount; i++) {
+                page.put(input.readLong(), reasons[input.readByte()]);
+
+                if (page.size() == pageSize) {
+                    consumer.accept(page);
+                    page = new LinkedHashMap<>();
+                }
+            }
+
+            if (!page.isEmpty()) {
+                consumer.accept(page);
+            }
+        } catch (EOFException e) {
+            // The spill file was cut short by a failed write, report what we have
+        }
+    }
+
+    /**
+     * Discard everything stored.
+     */
+    public synchronized void clear() {
+        appliedKeys = new long[64];
+        appliedCount = 0;
+        worlds.clear();
+        palette.clear();
+        paletteIds.clear();
+        previewPositions = new long[64];
+        previewWorlds = new int[64];
+        previewStates = new int[64];
+        previewCount = 0;
+        skipped.clear();
+        closeSpill();
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /**
+     * Close and delete the spill file.
+     */
+    private synchronized void closeSpill() {
+        try {
+            if (spillOutput != null) {
+                spillOutput.close();
+            }
+
+            if (spillFile != null) {
+                Files.deleteIfExists(spillFile);
+            }
+        } catch (IOException e) {
+            // The file is also deleted on exit
+        }
+
+        spillOutput = null;
+        spillFile = null;
+        spilledCount = 0;
+    }
+
+    /**
+     * Pack a block position into a long, the same way the server does.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param z The z coordinate
+     * @return The packed position
+     */
+    private static long pack(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFF) << 38 | ((long) z & 0x3FFFFFF) << 12 | ((long) y & 0xFFF);
+    }
+
+    /**
+     * Unpack the x coordinate.
+     *
+     * @param packed The packed position
+     * @return The x coordinate
+     */
+    private static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    /**
+     * Unpack the y coordinate.
+     *
+     * @param packed The packed position
+     * @return The y coordinate
+     */
+    private static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    /**
+     * Unpack the z coordinate.
+     *
+     * @param packed The packed position
+     * @return The z coordinate
+     */
+    private static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    /**
+     * A skipped activity.
+     *
+     * @param activity The activity
+     * @param reason The skip reason
+     */
+    public record SkippedActivity(Activity activity, ModificationSkipReason reason) {}
+}
@@ -0,0 +1,68 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.modifications;
+
+import com.google.inject.Singleton;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import network.darkhelmet.prism.api.services.modifications.ModificationQueue;
+
+/**
+ * Shares the per-task modification limits between the queues currently running,
+ * so running several queues at once costs no more each tick than running one.
+ */
+@Singleton
+public class ModificationTaskBudget {
+    /**
+     * The running queues.
+     */
+    private final Set<ModificationQueue> running = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Mark a queue as running.
+     *
+     * @param queue The queue
+     */
+    public void start(ModificationQueue queue) {
+        running.add(queue);
+    }
+
+    /**
+     * Mark a queue as no longer running.
+     *
+     * @param queue The queue
+     */
+    public void stop(ModificationQueue queue) {
+        running.remove(queue);
+    }
+
+    /**
+     * Get one running queue's share of a limit.
+     *
+     * @param limit The limit
+     * @return The share, at least 1
+     */
+    public int share(int limit) {
+        return Math.max(1, limit / Math.max(1, running.size()));
+    }
+}
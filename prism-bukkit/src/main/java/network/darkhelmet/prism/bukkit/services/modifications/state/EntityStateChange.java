@@ -0,0 +1,76 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.modifications.state;
+
+import de.tr7zw.nbtapi.iface.ReadWriteNBT;
+
+import java.util.UUID;
+
+import lombok.Getter;
+
+import network.darkhelmet.prism.api.services.modifications.StateChange;
+
+import org.bukkit.Location;
+import org.bukkit.entity.EntityType;
+
+/**
+ * An entity state change. States are entity nbt, and are null when the entity
+ * didn't exist before (it was spawned) or after (it was removed).
+ */
+@Getter
+public class EntityStateChange extends StateChange<ReadWriteNBT> {
+    /**
+     * The entity type.
+     */
+    private final EntityType entityType;
+
+    /**
+     * The entity location.
+     */
+    private final Location location;
+
+    /**
+     * The entity uuid.
+     */
+    private final UUID entityUuid;
+
+    /**
+     * Construct a new entity state change.
+     *
+     * @param entityType The entity type
+     * @param location The entity location
+     * @param entityUuid The entity uuid
+     * @param oldState The old state
+     * @param newState The new state
+     */
+    public EntityStateChange(
+            EntityType entityType,
+            Location location,
+            UUID entityUuid,
+            ReadWriteNBT oldState,
+            ReadWriteNBT newState) {
+        super(oldState, newState);
+
+        this.entityType = entityType;
+        this.location = location;
+        this.entityUuid = entityUuid;
+    }
+}
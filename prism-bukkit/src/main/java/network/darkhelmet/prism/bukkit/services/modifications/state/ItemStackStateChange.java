@@ -20,11 +20,28 @@
 
 package network.darkhelmet.prism.bukkit.services.modifications.state;
 
+import java.util.UUID;
+
+import lombok.Getter;
+
 import network.darkhelmet.prism.api.services.modifications.StateChange;
 
+import org.bukkit.Location;
 import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.Nullable;
 
+@Getter
 public class ItemStackStateChange extends StateChange<ItemStack> {
+    /**
+     * The uuid of the player whose inventory changed, if any.
+     */
+    private final UUID playerUuid;
+
+    /**
+     * The location of the container whose inventory changed, if any.
+     */
+    private final Location location;
+
     /**
      * Construct a new item stack state change.
      *
@@ -32,6 +49,22 @@ public class ItemStackStateChange extends StateChange<ItemStack> {
      * @param newState The new state
      */
     public ItemStackStateChange(ItemStack oldState, ItemStack newState) {
+        this(oldState, newState, null, null);
+    }
+
+    /**
+     * Construct a new item stack state change.
+     *
+     * @param oldState The old state
+     * @param newState The new state
+     * @param playerUuid The uuid of the player whose inventory changed, if any
+     * @param location The location of the container whose inventory changed, if any
+     */
+    public ItemStackStateChange(
+            ItemStack oldState, ItemStack newState, @Nullable UUID playerUuid, @Nullable Location location) {
         super(oldState, newState);
+
+        this.playerUuid = playerUuid;
+        this.location = location;
     }
 }
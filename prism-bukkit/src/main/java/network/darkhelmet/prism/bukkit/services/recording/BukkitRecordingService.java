@@ -24,11 +24,14 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import network.darkhelmet.prism.api.activities.Activity;
 import network.darkhelmet.prism.api.services.recording.RecordingService;
 import network.darkhelmet.prism.bukkit.PrismBukkit;
 import network.darkhelmet.prism.bukkit.services.filters.BukkitFilterService;
+import network.darkhelmet.prism.bukkit.services.lookup.RecentActivityIndex;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 
 import org.bukkit.Bukkit;
@@ -51,6 +54,11 @@ public class BukkitRecordingService implements RecordingService {
      */
     private final RecordingTask recordingTask;
 
+    /**
+     * The recent activity index.
+     */
+    private final RecentActivityIndex recentActivityIndex;
+
     /**
      * Set the recording mode.
      */
@@ -61,6 +69,11 @@ public class BukkitRecordingService implements RecordingService {
      */
     private final LinkedBlockingQueue<Activity> queue = new LinkedBlockingQueue<>();
 
+    /**
+     * The lock held while queued activities are committed to storage.
+     */
+    private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+
     /**
      * Cache the scheduled task.
      */
@@ -79,15 +92,18 @@ public class BukkitRecordingService implements RecordingService {
      * @param configurationService The configuration service
      * @param filterService The filter service
      * @param recordingTask The recording task
+     * @param recentActivityIndex The recent activity index
      */
     @Inject
     public BukkitRecordingService(
             ConfigurationService configurationService,
             BukkitFilterService filterService,
-            RecordingTask recordingTask) {
+            RecordingTask recordingTask,
+            RecentActivityIndex recentActivityIndex) {
         this.configurationService = configurationService;
         this.filterService = filterService;
         this.recordingTask = recordingTask;
+        this.recentActivityIndex = recentActivityIndex;
 
         queueNextRecording(recordingTask);
     }
@@ -102,6 +118,8 @@ public class BukkitRecordingService implements RecordingService {
             return false;
         }
 
+        // Indexed first, so it can't be saved (and removed from the index) before it's added
+        recentActivityIndex.add(activity);
         queue.add(activity);
 
         return true;
@@ -115,6 +133,32 @@ public class BukkitRecordingService implements RecordingService {
         }
     }
 
+    @Override
+    public ReadWriteLock commitLock() {
+        return commitLock;
+    }
+
+    /**
+     * Saves everything queued so far, on the calling thread.
+     *
+     * <p>Unlike {@link #drainSync()} this leaves the scheduled recording task alone, so
+     * it's safe to call from async tasks that need storage to be caught up.</p>
+     */
+    public void flush() {
+        RecordingTask recordingTask = this.recordingTask.toNew();
+
+        // Only flush what's already queued, so constant recording can't keep us here forever
+        int remaining = queue.size();
+        while (remaining > 0) {
+            int saved = recordingTask.saveBatch();
+            if (saved == 0) {
+                break;
+            }
+
+            remaining -= saved;
+        }
+    }
+
     /**
      * Drains the queue sync.
      */
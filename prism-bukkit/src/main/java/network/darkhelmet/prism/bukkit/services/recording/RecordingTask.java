@@ -22,9 +22,14 @@ package network.darkhelmet.prism.bukkit.services.recording;
 
 import com.google.inject.Inject;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import network.darkhelmet.prism.api.activities.Activity;
 import network.darkhelmet.prism.api.services.recording.RecordingService;
 import network.darkhelmet.prism.api.storage.ActivityBatch;
 import network.darkhelmet.prism.api.storage.StorageAdapter;
+import network.darkhelmet.prism.bukkit.services.lookup.RecentActivityIndex;
 import network.darkhelmet.prism.loader.services.configuration.storage.StorageConfiguration;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
@@ -49,6 +54,11 @@ public class RecordingTask implements Runnable {
      */
     private final LoggingService loggingService;
 
+    /**
+     * The recent activity index.
+     */
+    private final RecentActivityIndex recentActivityIndex;
+
     /**
      * Construct a new recording task.
      *
@@ -56,17 +66,20 @@ public class RecordingTask implements Runnable {
      * @param storageAdapter The storage adapter
      * @param recordingService The recording service
      * @param loggingService The logging service
+     * @param recentActivityIndex The recent activity index
      */
     @Inject
     public RecordingTask(
             StorageConfiguration storageConfig,
             StorageAdapter storageAdapter,
             RecordingService recordingService,
-            LoggingService loggingService) {
+            LoggingService loggingService,
+            RecentActivityIndex recentActivityIndex) {
         this.storageConfig = storageConfig;
         this.storageAdapter = storageAdapter;
         this.recordingService = recordingService;
         this.loggingService = loggingService;
+        this.recentActivityIndex = recentActivityIndex;
     }
 
     @Override
@@ -74,17 +87,31 @@ public class RecordingTask implements Runnable {
         save();
 
         // Schedule the next recording
-        recordingService.queueNextRecording(
-            new RecordingTask(storageConfig, storageAdapter, recordingService, loggingService));
+        recordingService.queueNextRecording(toNew());
     }
 
     /**
      * Saves anything in the queue, or as many as we can.
      */
     public void save() {
-        if (!recordingService.queue().isEmpty()) {
-            try {
-                int batchCount = 0;
+        saveBatch();
+
+        recordingService.clearTask();
+    }
+
+    /**
+     * Saves a single batch from the queue.
+     *
+     * @return The number of activities taken from the queue
+     */
+    public int saveBatch() {
+        int batchCount = 0;
+        List<Activity> taken = new ArrayList<>();
+
+        // Lookups merging queued activities must never see an activity in both places, or neither
+        recordingService.commitLock().writeLock().lock();
+        try {
+            if (!recordingService.queue().isEmpty()) {
                 int batchMax = storageConfig.primaryDataSource().batchMax();
 
                 ActivityBatch batch = storageAdapter.createActivityBatch();
@@ -92,7 +119,10 @@ public class RecordingTask implements Runnable {
 
                 while (!recordingService.queue().isEmpty()) {
                     batchCount++;
-                    batch.add(recordingService.queue().poll());
+
+                    Activity activity = recordingService.queue().poll();
+                    taken.add(activity);
+                    batch.add(activity);
 
                     // Batch max exceeded, break
                     if (batchCount > batchMax) {
@@ -104,12 +134,17 @@ public class RecordingTask implements Runnable {
                 }
 
                 batch.commitBatch();
-            } catch (Exception e) {
-                loggingService.handleException(e);
             }
+        } catch (Exception e) {
+            loggingService.handleException(e);
+        } finally {
+            // Taken activities are in storage now, or lost, either way they're no longer waiting
+            recentActivityIndex.remove(taken);
+
+            recordingService.commitLock().writeLock().unlock();
         }
 
-        recordingService.clearTask();
+        return batchCount;
     }
 
     /**
@@ -118,6 +153,7 @@ public class RecordingTask implements Runnable {
      * @return The recording task
      */
     public RecordingTask toNew() {
-        return new RecordingTask(storageConfig, storageAdapter, recordingService, loggingService);
+        return new RecordingTask(
+            storageConfig, storageAdapter, recordingService, loggingService, recentActivityIndex);
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.bukkit.services.scheduling;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.lang.reflect.Method;
+
+import network.darkhelmet.prism.bukkit.PrismBukkit;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+
+/**
+ * Tracks how loaded the server is, so work spread across ticks can back off under load.
+ *
+ * <p>Spigot doesn't expose tick times, so the time between ticks is measured instead. Servers
+ * which offer an average tick time (like Paper) report it, which also shows when they're idle.</p>
+ */
+@Singleton
+public class ServerTickMonitor {
+    /**
+     * The length (in ms) of a tick at 20 TPS.
+     */
+    private static final double TICK_MILLIS = 50;
+
+    /**
+     * The weight of each new tick interval in the moving average.
+     */
+    private static final double SMOOTHING = 0.1;
+
+    /**
+     * The average tick time (in ms) below which the server is considered idle.
+     */
+    private static final double IDLE_MILLIS = 25;
+
+    /**
+     * The average tick time (in ms) above which the server is considered lagging.
+     */
+    private static final double LAGGING_MILLIS = 45;
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The server's average tick time method, if it has one.
+     */
+    private final Method averageTickTime;
+
+    /**
+     * The time of the last tick (in nanoseconds).
+     */
+    private long lastTick = 0;
+
+    /**
+     * The moving average time between ticks (in ms).
+     */
+    private double tickInterval = TICK_MILLIS;
+
+    /**
+     * The number of ticks seen.
+     */
+    private long ticks = 0;
+
+    /**
+     * Construct the server tick monitor.
+     *
+     * @param loggingService The logging service
+     */
+    @Inject
+    public ServerTickMonitor(LoggingService loggingService) {
+        this.loggingService = loggingService;
+
+        Method method = null;
+        try {
+            method = Server.class.getMethod("getAverageTickTime");
+        } catch (NoSuchMethodException e) {
+            loggingService.debug("Server doesn't report tick times, measuring tick intervals instead.");
+        }
+
+        this.averageTickTime = method;
+
+        Bukkit.getServer().getScheduler().runTaskTimer(PrismBukkit.instance().loaderPlugin(), this::tick, 1, 1);
+    }
+
+    /**
+     * Record a tick.
+     */
+    private void tick() {
+        long now = System.nanoTime();
+        if (lastTick > 0) {
+            double interval = (now - lastTick) / 1_000_000d;
+            tickInterval += (interval - tickInterval) * SMOOTHING;
+        }
+
+        lastTick = now;
+        ticks++;
+    }
+
+    /**
+     * Get the number of ticks seen, which tells main thread work whether it's still in the same tick.
+     *
+     * @return The tick count
+     */
+    public long ticks() {
+        return ticks;
+    }
+
+    /**
+     * Get whether the server is running behind.
+     *
+     * @return True if lagging
+     */
+    public boolean lagging() {
+        double tickTime = averageTickTime();
+
+        return tickInterval > TICK_MILLIS * 1.05 || tickTime > LAGGING_MILLIS;
+    }
+
+    /**
+     * Get whether the server has plenty of spare time each tick. Only known
+     * when the server reports its tick times.
+     *
+     * @return True if idle
+     */
+    public boolean idle() {
+        double tickTime = averageTickTime();
+
+        return tickTime >= 0 && tickTime < IDLE_MILLIS && !lagging();
+    }
+
+    /**
+     * Get the server's average tick time.
+     *
+     * @return The average tick time (in ms), or -1 if unknown
+     */
+    private double averageTickTime() {
+        if (averageTickTime == null) {
+            return -1;
+        }
+
+        try {
+            return ((Number) averageTickTime.invoke(Bukkit.getServer())).doubleValue();
+        } catch (ReflectiveOperationException e) {
+            loggingService.handleException(e);
+
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.undo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import network.darkhelmet.prism.api.util.Coordinate;
+import network.darkhelmet.prism.bukkit.services.modifications.ModificationRegion;
+
+import org.bukkit.entity.EntityType;
+import org.bukkit.util.BoundingBox;
+
+/**
+ * An undo journal, read from disk.
+ *
+ * @param entries The entries, in the order they were written
+ * @param primaryKeys The primary keys of the activities the modification applied
+ * @param reversed Whether the modification marked its activities as reversed
+ */
+public record UndoJournal(List<Entry> entries, List<Long> primaryKeys, boolean reversed) {
+    /**
+     * A journal entry, for something the modification changed.
+     */
+    public sealed interface Entry permits BlockEntry, EntityEntry, ItemEntry {
+        /**
+         * Get the world.
+         *
+         * @return The world uuid
+         */
+        UUID worldUuid();
+
+        /**
+         * Get the coordinate.
+         *
+         * @return The coordinate
+         */
+        Coordinate coordinate();
+    }
+
+    /**
+     * A block's prior state.
+     *
+     * @param worldUuid The world uuid
+     * @param coordinate The coordinate
+     * @param blockData The prior block data
+     * @param tileNbt The prior tile entity nbt, or null
+     */
+    public record BlockEntry(UUID worldUuid, Coordinate coordinate, String blockData, String tileNbt)
+        implements Entry {}
+
+    /**
+     * An entity's prior state.
+     *
+     * @param worldUuid The world uuid
+     * @param coordinate The coordinate
+     * @param entityType The entity type
+     * @param entityUuid The entity uuid
+     * @param oldNbt The prior nbt, or null if the modification spawned the entity
+     * @param removed Whether the modification removed the entity
+     */
+    public record EntityEntry(
+            UUID worldUuid,
+            Coordinate coordinate,
+            EntityType entityType,
+            UUID entityUuid,
+            String oldNbt,
+            boolean removed) implements Entry {}
+
+    /**
+     * An item the modification added to an inventory.
+     *
+     * @param worldUuid The world uuid of the container, or null for a player inventory
+     * @param coordinate The coordinate of the container, or null for a player inventory
+     * @param playerUuid The player uuid, or null for a container
+     * @param itemNbt The item nbt
+     */
+    public record ItemEntry(UUID worldUuid, Coordinate coordinate, UUID playerUuid, String itemNbt)
+        implements Entry {}
+
+    /**
+     * Get the region the journal changes, so conflicting modifications can be found.
+     *
+     * <p>Like modification regions, this includes a block around each entry, since physics
+     * reaches neighboring blocks.</p>
+     *
+     * @return The region
+     */
+    public ModificationRegion region() {
+        Map<UUID, BoundingBox> bounds = new HashMap<>();
+        for (Entry entry : entries) {
+            if (entry.worldUuid() == null) {
+                continue;
+            }
+
+            int x = entry.coordinate().intX();
+            int y = entry.coordinate().intY();
+            int z = entry.coordinate().intZ();
+
+            BoundingBox box = bounds.get(entry.worldUuid());
+            if (box == null) {
+                bounds.put(entry.worldUuid(), new BoundingBox(x, y, z, x + 1, y + 1, z + 1));
+            } else {
+                box.union(x, y, z);
+                box.union(x + 1, y + 1, z + 1);
+            }
+        }
+
+        for (BoundingBox box : bounds.values()) {
+            box.expand(1);
+        }
+
+        return new ModificationRegion(bounds);
+    }
+}
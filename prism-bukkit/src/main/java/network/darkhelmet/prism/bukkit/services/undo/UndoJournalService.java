@@ -0,0 +1,488 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.undo;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import de.tr7zw.nbtapi.NBT;
+import de.tr7zw.nbtapi.iface.ReadWriteNBT;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import network.darkhelmet.prism.api.util.Coordinate;
+import network.darkhelmet.prism.bukkit.PrismBukkit;
+import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
+import network.darkhelmet.prism.loader.services.configuration.ModificationConfiguration;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Keeps undo journals of what rollbacks/restores changed, so they can be undone
+ * straight from disk.
+ */
+@Singleton
+public class UndoJournalService {
+    /**
+     * The directory journals are kept in, under the plugin data path.
+     */
+    private static final String JOURNAL_DIRECTORY = "undo";
+
+    /**
+     * The configuration service.
+     */
+    private final ConfigurationService configurationService;
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The message service.
+     */
+    private final MessageService messageService;
+
+    /**
+     * The journal directory.
+     */
+    private final Path journalDirectory;
+
+    /**
+     * A counter used to keep journal file names unique and in order.
+     */
+    private final AtomicInteger sequence = new AtomicInteger(0);
+
+    /**
+     * Constructor.
+     *
+     * @param configurationService The configuration service
+     * @param loggingService The logging service
+     * @param messageService The message service
+     * @param dataPath The plugin data path
+     */
+    @Inject
+    public UndoJournalService(
+            ConfigurationService configurationService,
+            LoggingService loggingService,
+            MessageService messageService,
+            Path dataPath) {
+        this.configurationService = configurationService;
+        this.loggingService = loggingService;
+        this.messageService = messageService;
+        this.journalDirectory = dataPath.resolve(JOURNAL_DIRECTORY);
+    }
+
+    /**
+     * Start a new journal for a modification.
+     *
+     * @param owner The owner of the modification
+     * @return The journal writer, or null if undo is disabled or the journal can't be created
+     */
+    public UndoJournalWriter open(Object owner) {
+        long maxBytes = configurationService.prismConfig().modifications().undoMaxSizeMegabytes() * 1024L * 1024L;
+        if (maxBytes <= 0) {
+            return null;
+        }
+
+        // Names sort in the order journals were started
+        String name = String.format("%013d-%06d.bin.gz", System.currentTimeMillis(), sequence.getAndIncrement());
+
+        // Journals are written on the main thread, so the owner can be told right away
+        Runnable onFailed = () -> {
+            if (owner instanceof CommandSender sender) {
+                messageService.errorUndoUnavailable(sender);
+            }
+        };
+
+        try {
+            return new UndoJournalWriter(loggingService, ownerDirectory(owner).resolve(name), maxBytes, onFailed);
+        } catch (IOException e) {
+            loggingService.handleException(e);
+            onFailed.run();
+
+            return null;
+        }
+    }
+
+    /**
+     * Finish a journal, and delete any journals over the age/size limits.
+     *
+     * @param writer The journal writer
+     * @param primaryKeys The primary keys of the applied activities
+     * @param reversed Whether the activities were marked as reversed
+     */
+    public void finish(UndoJournalWriter writer, List<Long> primaryKeys, boolean reversed) {
+        if (writer.finish(primaryKeys, reversed)) {
+            prune();
+        }
+    }
+
+    /**
+     * Get an owner's latest journal.
+     *
+     * @param owner The owner
+     * @return The journal file, if any
+     */
+    public Optional<Path> latest(Object owner) {
+        prune();
+
+        Path directory = ownerDirectory(owner);
+        if (!Files.isDirectory(directory)) {
+            return Optional.empty();
+        }
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.max(Comparator.comparing(Path::getFileName));
+        } catch (IOException e) {
+            loggingService.handleException(e);
+
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Read a journal.
+     *
+     * @param file The journal file
+     * @return The journal
+     * @throws IOException If the journal can't be read
+     */
+    public UndoJournal read(Path file) throws IOException {
+        try (var input = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (input.readInt() != UndoJournalWriter.VERSION) {
+                throw new IOException("Unsupported undo journal version: " + file);
+            }
+
+            List<UndoJournal.Entry> entries = new ArrayList<>();
+            byte type;
+            while ((type = input.readByte()) != UndoJournalWriter.END) {
+                switch (type) {
+                    case UndoJournalWriter.BLOCK -> entries.add(new UndoJournal.BlockEntry(
+                        readUuid(input), readCoordinate(input), readString(input), readString(input)));
+                    case UndoJournalWriter.ENTITY -> entries.add(new UndoJournal.EntityEntry(
+                        readUuid(input),
+                        readCoordinate(input),
+                        EntityType.valueOf(readString(input)),
+                        readUuid(input),
+                        readString(input),
+                        input.readBoolean()));
+                    case UndoJournalWriter.ITEM -> {
+                        if (input.readBoolean()) {
+                            entries.add(new UndoJournal.ItemEntry(null, null, readUuid(input), readString(input)));
+                        } else {
+                            entries.add(new UndoJournal.ItemEntry(
+                                readUuid(input), readCoordinate(input), null, readString(input)));
+                        }
+                    }
+                    default -> throw new IOException("Invalid undo journal entry: " + file);
+                }
+            }
+
+            boolean reversed = input.readBoolean();
+            int count = input.readInt();
+            List<Long> primaryKeys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                primaryKeys.add(input.readLong());
+            }
+
+            return new UndoJournal(entries, primaryKeys, reversed);
+        }
+    }
+
+    /**
+     * Replay a journal, in reverse, on the main thread. Entries are applied over as many
+     * tasks as needed to stay within the modification time budget.
+     *
+     * @param file The journal file, deleted once replayed
+     * @param journal The journal
+     * @param onEnd The end callback, given the count of entries undone
+     * @return The replay task id
+     */
+    public int replay(Path file, UndoJournal journal, Consumer<Integer> onEnd) {
+        ModificationConfiguration modifications = configurationService.prismConfig().modifications();
+
+        // The journal can't be replayed twice
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            loggingService.handleException(e);
+        }
+
+        List<UndoJournal.Entry> entries = journal.entries();
+        AtomicInteger cursor = new AtomicInteger(entries.size() - 1);
+        AtomicInteger undone = new AtomicInteger(0);
+        AtomicInteger taskId = new AtomicInteger(-1);
+
+        taskId.set(Bukkit.getServer().getScheduler().scheduleSyncRepeatingTask(
+            PrismBukkit.instance().loaderPlugin(), () -> {
+                boolean timed = modifications.maxMillisPerTask() > 0;
+                long deadline = System.nanoTime() + modifications.maxMillisPerTask() * 1_000_000L;
+                int iterationCount = 0;
+
+                while (cursor.get() >= 0) {
+                    if (timed ? iterationCount > 0 && System.nanoTime() >= deadline
+                            : iterationCount >= modifications.maxPerTask()) {
+                        break;
+                    }
+
+                    try {
+                        if (undo(entries.get(cursor.getAndDecrement()), modifications.applyPhysics())) {
+                            undone.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        loggingService.handleException(e);
+                    }
+
+                    iterationCount++;
+                }
+
+                if (cursor.get() < 0) {
+                    Bukkit.getServer().getScheduler().cancelTask(taskId.get());
+
+                    onEnd.accept(undone.get());
+                }
+            }, 0, modifications.taskDelay()));
+
+        return taskId.get();
+    }
+
+    /**
+     * Undo a single entry.
+     *
+     * @param entry The entry
+     * @param applyPhysics Whether block changes apply physics
+     * @return True if the entry was undone
+     */
+    protected boolean undo(UndoJournal.Entry entry, boolean applyPhysics) {
+        if (entry instanceof UndoJournal.ItemEntry itemEntry && itemEntry.playerUuid() != null) {
+            Player player = Bukkit.getPlayer(itemEntry.playerUuid());
+            if (player == null) {
+                return false;
+            }
+
+            ItemStack itemStack = NBT.itemStackFromNBT(NBT.parseNBT(itemEntry.itemNbt()));
+
+            return player.getInventory().removeItem(itemStack).isEmpty();
+        }
+
+        World world = Bukkit.getWorld(entry.worldUuid());
+        if (world == null) {
+            return false;
+        }
+
+        Coordinate coordinate = entry.coordinate();
+        Location location = new Location(world, coordinate.x(), coordinate.y(), coordinate.z());
+
+        if (entry instanceof UndoJournal.BlockEntry blockEntry) {
+            Block block = world.getBlockAt(location);
+            block.setBlockData(Bukkit.createBlockData(blockEntry.blockData()), applyPhysics);
+
+            if (blockEntry.tileNbt() != null) {
+                ReadWriteNBT tileNbt = NBT.parseNBT(blockEntry.tileNbt());
+                NBT.modify(block.getState(), nbt -> {
+                    nbt.mergeCompound(tileNbt);
+                });
+            }
+
+            return true;
+        } else if (entry instanceof UndoJournal.EntityEntry entityEntry) {
+            if (entityEntry.removed()) {
+                // Spawn the removed entity again
+                if (entityEntry.entityType().getEntityClass() == null) {
+                    return false;
+                }
+
+                ReadWriteNBT oldNbt = NBT.parseNBT(entityEntry.oldNbt());
+                world.spawn(location, entityEntry.entityType().getEntityClass(), entity -> {
+                    NBT.modify(entity, nbt -> {
+                        nbt.mergeCompound(oldNbt);
+                    });
+                });
+
+                return true;
+            }
+
+            Entity entity = Bukkit.getEntity(entityEntry.entityUuid());
+            if (entity == null) {
+                return false;
+            }
+
+            if (entityEntry.oldNbt() == null) {
+                // Remove the spawned entity
+                entity.remove();
+            } else {
+                ReadWriteNBT oldNbt = NBT.parseNBT(entityEntry.oldNbt());
+                NBT.modify(entity, nbt -> {
+                    nbt.mergeCompound(oldNbt);
+                });
+            }
+
+            return true;
+        } else if (entry instanceof UndoJournal.ItemEntry itemEntry
+                && world.getBlockAt(location).getState() instanceof InventoryHolder holder) {
+            ItemStack itemStack = NBT.itemStackFromNBT(NBT.parseNBT(itemEntry.itemNbt()));
+
+            return holder.getInventory().removeItem(itemStack).isEmpty();
+        }
+
+        return false;
+    }
+
+    /**
+     * Delete journals older than the max age, then the oldest journals until
+     * the rest fit in the max size.
+     */
+    protected void prune() {
+        if (!Files.isDirectory(journalDirectory)) {
+            return;
+        }
+
+        ModificationConfiguration modifications = configurationService.prismConfig().modifications();
+        long maxBytes = modifications.undoMaxSizeMegabytes() * 1024L * 1024L;
+        long maxAge = modifications.undoMaxAge().timeUnit().toMillis(modifications.undoMaxAge().duration());
+        long now = System.currentTimeMillis();
+
+        List<Path> journals;
+        try (Stream<Path> stream = Files.walk(journalDirectory, 2)) {
+            journals = stream.filter(Files::isRegularFile).toList();
+        } catch (IOException e) {
+            loggingService.handleException(e);
+
+            return;
+        }
+
+        try {
+            // Newest first, so the oldest are deleted once over the size limit
+            List<Path> sorted = new ArrayList<>(journals);
+            sorted.sort(Comparator.comparing(this::lastModified).reversed());
+
+            long totalBytes = 0;
+            for (Path journal : sorted) {
+                totalBytes += Files.size(journal);
+
+                if (totalBytes > maxBytes || now - lastModified(journal) > maxAge) {
+                    Files.deleteIfExists(journal);
+                }
+            }
+        } catch (IOException e) {
+            loggingService.handleException(e);
+        }
+    }
+
+    /**
+     * Get an owner's journal directory.
+     *
+     * @param owner The owner
+     * @return The directory
+     */
+    private Path ownerDirectory(Object owner) {
+        String key;
+        if (owner instanceof Player player) {
+            key = player.getUniqueId().toString();
+        } else if (owner instanceof CommandSender sender) {
+            key = sender.getName().toLowerCase(Locale.ROOT);
+        } else {
+            key = "other";
+        }
+
+        return journalDirectory.resolve(key);
+    }
+
+    /**
+     * Get when a journal was last modified.
+     *
+     * @param journal The journal file
+     * @return The last modified time in milliseconds, or 0 if unknown
+     */
+    private long lastModified(Path journal) {
+        try {
+            return Files.getLastModifiedTime(journal).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Read a uuid.
+     *
+     * @param input The journal input
+     * @return The uuid
+     * @throws IOException If the journal can't be read
+     */
+    private UUID readUuid(DataInputStream input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+    /**
+     * Read a coordinate.
+     *
+     * @param input The journal input
+     * @return The coordinate
+     * @throws IOException If the journal can't be read
+     */
+    private Coordinate readCoordinate(DataInputStream input) throws IOException {
+        return new Coordinate(input.readDouble(), input.readDouble(), input.readDouble());
+    }
+
+    /**
+     * Read a nullable string.
+     *
+     * @param input The journal input
+     * @return The string
+     * @throws IOException If the journal can't be read
+     */
+    private String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        return new String(input.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.undo;
+
+import de.tr7zw.nbtapi.NBT;
+import de.tr7zw.nbtapi.iface.ReadWriteNBT;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import lombok.Getter;
+
+import network.darkhelmet.prism.api.services.modifications.StateChange;
+import network.darkhelmet.prism.bukkit.services.modifications.state.BlockStateChange;
+import network.darkhelmet.prism.bukkit.services.modifications.state.EntityStateChange;
+import network.darkhelmet.prism.bukkit.services.modifications.state.ItemStackStateChange;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.bukkit.Location;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.TileState;
+
+/**
+ * Writes what a modification changed to an undo journal, as it's applied.
+ *
+ * <p>Journals are gzipped streams of entries, followed by the primary keys of the applied
+ * activities. If writing fails, or the journal grows past the max size, it's discarded rather
+ * than left incomplete.</p>
+ */
+public class UndoJournalWriter {
+    /**
+     * The journal format version.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Marks the end of the entries.
+     */
+    static final byte END = 0;
+
+    /**
+     * Marks a block entry.
+     */
+    static final byte BLOCK = 1;
+
+    /**
+     * Marks an entity entry.
+     */
+    static final byte ENTITY = 2;
+
+    /**
+     * Marks an item entry.
+     */
+    static final byte ITEM = 3;
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The journal file.
+     */
+    @Getter
+    private final Path file;
+
+    /**
+     * The max size (in bytes) of the journal file.
+     */
+    private final long maxBytes;
+
+    /**
+     * Called if the journal is discarded because it can't be written or grew too large.
+     */
+    private final Runnable onFailed;
+
+    /**
+     * Counts the bytes written to the journal file.
+     */
+    private final CountingOutputStream fileOutput;
+
+    /**
+     * The journal output, or null once closed.
+     */
+    private DataOutputStream output;
+
+    /**
+     * Construct a new undo journal writer.
+     *
+     * @param loggingService The logging service
+     * @param file The journal file
+     * @param maxBytes The max size (in bytes) of the journal file
+     * @param onFailed Called if the journal is discarded because it can't be written or grew too large
+     * @throws IOException If the journal can't be created
+     */
+    UndoJournalWriter(LoggingService loggingService, Path file, long maxBytes, Runnable onFailed) throws IOException {
+        this.loggingService = loggingService;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.onFailed = onFailed;
+
+        Files.createDirectories(file.getParent());
+        this.fileOutput = new CountingOutputStream(Files.newOutputStream(file));
+        this.output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fileOutput)));
+        this.output.writeInt(VERSION);
+    }
+
+    /**
+     * Record the prior state from a state change.
+     *
+     * @param stateChange The state change
+     */
+    public void append(StateChange<?> stateChange) {
+        if (output == null) {
+            return;
+        }
+
+        try {
+            if (stateChange instanceof BlockStateChange blockStateChange) {
+                appendBlock(blockStateChange.oldState());
+            } else if (stateChange instanceof EntityStateChange entityStateChange) {
+                appendEntity(entityStateChange);
+            } else if (stateChange instanceof ItemStackStateChange itemStackStateChange
+                    && itemStackStateChange.oldState() != null) {
+                appendItem(itemStackStateChange);
+            }
+        } catch (IOException e) {
+            loggingService.handleException(e);
+            fail();
+
+            return;
+        }
+
+        // Journals over the max size would only be pruned once finished, so stop writing now
+        if (fileOutput.count() > maxBytes) {
+            loggingService.debug("Undo journal exceeded the max size, discarding: {0}", file);
+            fail();
+        }
+    }
+
+    /**
+     * Finish the journal.
+     *
+     * @param primaryKeys The primary keys of the applied activities
+     * @param reversed Whether the activities were marked as reversed
+     * @return True if the journal was written
+     */
+    boolean finish(List<Long> primaryKeys, boolean reversed) {
+        if (output == null) {
+            return false;
+        }
+
+        try {
+            output.writeByte(END);
+            output.writeBoolean(reversed);
+            output.writeInt(primaryKeys.size());
+            for (long primaryKey : primaryKeys) {
+                output.writeLong(primaryKey);
+            }
+
+            output.close();
+            output = null;
+
+            return true;
+        } catch (IOException e) {
+            loggingService.handleException(e);
+            fail();
+
+            return false;
+        }
+    }
+
+    /**
+     * Discard the journal.
+     */
+    public void abort() {
+        try {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            loggingService.handleException(e);
+        }
+    }
+
+    /**
+     * Discard the journal, because it can't be written or grew too large.
+     */
+    private void fail() {
+        abort();
+        onFailed.run();
+    }
+
+    /**
+     * Write a block's prior state.
+     *
+     * @param oldState The old block state
+     * @throws IOException If the journal can't be written
+     */
+    private void appendBlock(BlockState oldState) throws IOException {
+        output.writeByte(BLOCK);
+        writeLocation(oldState.getLocation());
+        writeString(oldState.getBlockData().getAsString());
+
+        if (oldState instanceof TileState) {
+            ReadWriteNBT tileNbt = NBT.createNBTObject();
+            NBT.get(oldState, tileNbt::mergeCompound);
+            writeString(tileNbt.toString());
+        } else {
+            writeString(null);
+        }
+    }
+
+    /**
+     * Write an entity's prior state.
+     *
+     * @param stateChange The entity state change
+     * @throws IOException If the journal can't be written
+     */
+    private void appendEntity(EntityStateChange stateChange) throws IOException {
+        output.writeByte(ENTITY);
+        writeLocation(stateChange.location());
+        writeString(stateChange.entityType().name());
+        writeUuid(stateChange.entityUuid());
+        writeString(stateChange.oldState() != null ? stateChange.oldState().toString() : null);
+        output.writeBoolean(stateChange.newState() == null);
+    }
+
+    /**
+     * Write an item added to an inventory.
+     *
+     * @param stateChange The item stack state change
+     * @throws IOException If the journal can't be written
+     */
+    private void appendItem(ItemStackStateChange stateChange) throws IOException {
+        output.writeByte(ITEM);
+        output.writeBoolean(stateChange.playerUuid() != null);
+        if (stateChange.playerUuid() != null) {
+            writeUuid(stateChange.playerUuid());
+        } else {
+            writeLocation(stateChange.location());
+        }
+
+        writeString(NBT.itemStackToNBT(stateChange.oldState()).toString());
+    }
+
+    /**
+     * Write a location.
+     *
+     * @param location The location
+     * @throws IOException If the journal can't be written
+     */
+    private void writeLocation(Location location) throws IOException {
+        writeUuid(location.getWorld().getUID());
+        output.writeDouble(location.getX());
+        output.writeDouble(location.getY());
+        output.writeDouble(location.getZ());
+    }
+
+    /**
+     * Write a uuid.
+     *
+     * @param uuid The uuid
+     * @throws IOException If the journal can't be written
+     */
+    private void writeUuid(UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Write a nullable string. Unlike writeUTF, this has no length limit, which nbt can exceed.
+     *
+     * @param value The string
+     * @throws IOException If the journal can't be written
+     */
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Counts the bytes written to an output stream.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        /**
+         * The number of bytes written.
+         */
+        private long count = 0;
+
+        /**
+         * Construct a new counting output stream.
+         *
+         * @param out The output stream
+         */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        /**
+         * Get the number of bytes written.
+         *
+         * @return The byte count
+         */
+        long count() {
+            return count;
+        }
+    }
+}
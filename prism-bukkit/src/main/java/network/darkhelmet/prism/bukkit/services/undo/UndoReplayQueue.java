@@ -0,0 +1,111 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.bukkit.services.undo;
+
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+
+import network.darkhelmet.prism.api.services.modifications.ModificationQueue;
+import network.darkhelmet.prism.bukkit.services.modifications.ModificationRegion;
+
+import org.bukkit.Bukkit;
+
+/**
+ * Replays an undo journal as a modification queue, so no other modification
+ * can change the same blocks until it's finished.
+ */
+public class UndoReplayQueue implements ModificationQueue {
+    /**
+     * The undo journal service.
+     */
+    private final UndoJournalService undoJournalService;
+
+    /**
+     * The owner.
+     */
+    @Getter
+    private final Object owner;
+
+    /**
+     * The journal file.
+     */
+    private final Path file;
+
+    /**
+     * The journal.
+     */
+    private final UndoJournal journal;
+
+    /**
+     * The area this replay changes.
+     */
+    @Getter
+    private final ModificationRegion region;
+
+    /**
+     * The end callback, given the count of entries undone.
+     */
+    private final Consumer<Integer> onEnd;
+
+    /**
+     * The replay task id, or -1 if not started.
+     */
+    private int taskId = -1;
+
+    /**
+     * Construct a new undo replay queue.
+     *
+     * @param undoJournalService The undo journal service
+     * @param owner The owner
+     * @param file The journal file
+     * @param journal The journal
+     * @param onEnd The end callback, given the count of entries undone
+     */
+    public UndoReplayQueue(
+            UndoJournalService undoJournalService,
+            Object owner,
+            Path file,
+            UndoJournal journal,
+            Consumer<Integer> onEnd) {
+        this.undoJournalService = undoJournalService;
+        this.owner = owner;
+        this.file = file;
+        this.journal = journal;
+        this.region = journal.region();
+        this.onEnd = onEnd;
+    }
+
+    @Override
+    public void apply() {
+        if (taskId == -1) {
+            taskId = undoJournalService.replay(file, journal, onEnd);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (taskId != -1) {
+            Bukkit.getServer().getScheduler().cancelTask(taskId);
+        }
+    }
+}
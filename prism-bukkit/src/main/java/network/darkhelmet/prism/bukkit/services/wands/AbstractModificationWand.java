@@ -24,11 +24,12 @@ import com.google.inject.Inject;
 
 import network.darkhelmet.prism.api.activities.ActivityQuery;
 import network.darkhelmet.prism.api.services.modifications.ModificationQueue;
-import network.darkhelmet.prism.api.services.modifications.ModificationQueueService;
 import network.darkhelmet.prism.api.services.modifications.ModificationRuleset;
 import network.darkhelmet.prism.api.storage.StorageAdapter;
 import network.darkhelmet.prism.bukkit.providers.TaskChainProvider;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.modifications.BukkitModificationQueueService;
+import network.darkhelmet.prism.bukkit.services.recording.BukkitRecordingService;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
@@ -54,7 +55,7 @@ public abstract class AbstractModificationWand {
     /**
      * The modification queue service.
      */
-    protected final ModificationQueueService modificationQueueService;
+    protected final BukkitModificationQueueService modificationQueueService;
 
     /**
      * The task chain provider.
@@ -66,6 +67,11 @@ public abstract class AbstractModificationWand {
      */
     protected final LoggingService loggingService;
 
+    /**
+     * The recording service.
+     */
+    protected final BukkitRecordingService recordingService;
+
     /**
      * The owner.
      */
@@ -80,21 +86,24 @@ public abstract class AbstractModificationWand {
      * @param modificationQueueService The modification queue service
      * @param taskChainProvider The task chain provider
      * @param loggingService The logging service
+     * @param recordingService The recording service
      */
     @Inject
     public AbstractModificationWand(
             ConfigurationService configurationService,
             StorageAdapter storageAdapter,
             MessageService messageService,
-            ModificationQueueService modificationQueueService,
+            BukkitModificationQueueService modificationQueueService,
             TaskChainProvider taskChainProvider,
-            LoggingService loggingService) {
+            LoggingService loggingService,
+            BukkitRecordingService recordingService) {
         this.configurationService = configurationService;
         this.storageAdapter = storageAdapter;
         this.messageService = messageService;
         this.modificationQueueService = modificationQueueService;
         this.taskChainProvider = taskChainProvider;
         this.loggingService = loggingService;
+        this.recordingService = recordingService;
     }
 
     /**
@@ -112,8 +121,12 @@ public abstract class AbstractModificationWand {
         }
 
         taskChainProvider.newChain().asyncFirst(() -> {
-            try {
-                return storageAdapter.queryActivities(query);
+            // Save anything still queued, so fresh activity can be modified too
+            recordingService.flush();
+
+            // Collapse activities as they're read, so only those deciding each block's state are kept
+            try (var stream = storageAdapter.streamActivities(query)) {
+                return modificationQueueService.collapse(clazz, stream);
             } catch (Exception e) {
                 messageService.errorQueryExec((CommandSender) owner);
                 loggingService.handleException(e);
@@ -121,12 +134,23 @@ public abstract class AbstractModificationWand {
 
             return null;
         }).abortIfNull().syncLast(modifications -> {
-            if (modifications.isEmpty()) {
+            if (modifications.activities().isEmpty()) {
                 messageService.noResults((Player) owner);
 
                 return;
             }
 
+            // Ensure no other queue is changing the same blocks
+            var conflict = modificationQueueService.conflictingQueue(owner, query, modifications.activities());
+            if (conflict.isPresent()) {
+                Object conflictOwner = conflict.get().owner();
+                String ownerName = conflictOwner instanceof CommandSender conflictSender
+                    ? conflictSender.getName() : String.valueOf(conflictOwner);
+                messageService.errorQueueConflict((CommandSender) owner, ownerName);
+
+                return;
+            }
+
             ModificationRuleset modificationRuleset = configurationService
                 .prismConfig().modifications().toRulesetBuilder().build();
 
@@ -25,14 +25,15 @@ import com.google.inject.Inject;
 import java.util.UUID;
 
 import network.darkhelmet.prism.api.activities.ActivityQuery;
-import network.darkhelmet.prism.api.services.modifications.ModificationQueueService;
 import network.darkhelmet.prism.api.services.wands.Wand;
 import network.darkhelmet.prism.api.services.wands.WandMode;
 import network.darkhelmet.prism.api.storage.StorageAdapter;
 import network.darkhelmet.prism.api.util.Coordinate;
 import network.darkhelmet.prism.bukkit.providers.TaskChainProvider;
 import network.darkhelmet.prism.bukkit.services.messages.MessageService;
+import network.darkhelmet.prism.bukkit.services.modifications.BukkitModificationQueueService;
 import network.darkhelmet.prism.bukkit.services.modifications.BukkitRestore;
+import network.darkhelmet.prism.bukkit.services.recording.BukkitRecordingService;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
@@ -46,22 +47,25 @@ public class RestoreWand extends AbstractModificationWand implements Wand {
      * @param modificationQueueService The modification queue service
      * @param taskChainProvider The task chain provider
      * @param loggingService The logging service
+     * @param recordingService The recording service
      */
     @Inject
     public RestoreWand(
             ConfigurationService configurationService,
             StorageAdapter storageAdapter,
             MessageService messageService,
-            ModificationQueueService modificationQueueService,
+            BukkitModificationQueueService modificationQueueService,
             TaskChainProvider taskChainProvider,
-            LoggingService loggingService) {
+            LoggingService loggingService,
+            BukkitRecordingService recordingService) {
         super(
             configurationService,
             storageAdapter,
             messageService,
             modificationQueueService,
             taskChainProvider,
-            loggingService);
+            loggingService,
+            recordingService);
     }
 
     @Override
@@ -27,6 +27,8 @@ import lombok.experimental.UtilityClass;
 
 import network.darkhelmet.prism.bukkit.services.modifications.state.BlockStateChange;
 
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
@@ -98,6 +100,20 @@ public class BlockUtils {
      */
     public static List<BlockStateChange> removeBlocksByMaterial(
             World world, BoundingBox boundingBox, List<Material> materials) {
+        return removeBlocksByMaterial(world, boundingBox, materials, true);
+    }
+
+    /**
+     * Remove blocks matching a list of materials.
+     *
+     * @param world The world
+     * @param boundingBox The bounding box
+     * @param materials The materials
+     * @param applyPhysics Whether to apply physics to the removals
+     * @return A list of block state changes
+     */
+    public static List<BlockStateChange> removeBlocksByMaterial(
+            World world, BoundingBox boundingBox, List<Material> materials, boolean applyPhysics) {
         List<BlockStateChange> stateChanges = new ArrayList<>();
         for (int x = (int) boundingBox.getMinX(); x < boundingBox.getMaxX(); x++) {
             for (int y = (int) boundingBox.getMinY(); y < boundingBox.getMaxY(); y++) {
@@ -108,7 +124,63 @@ public class BlockUtils {
                         BlockState oldState = block.getState();
 
                         // Set to air
-                        block.setType(Material.AIR);
+                        block.setType(Material.AIR, applyPhysics);
+
+                        // Capture the new state
+                        BlockState newState = block.getState();
+
+                        stateChanges.add(new BlockStateChange(oldState, newState));
+                    }
+                }
+            }
+        }
+
+        return stateChanges;
+    }
+
+    /**
+     * Remove blocks matching a list of materials from a loaded chunk, within a bounding box.
+     *
+     * <p>Blocks are found using a snapshot of the chunk, which is much cheaper to read
+     * than the world, so only matching blocks are read from the world.</p>
+     *
+     * @param chunk The chunk
+     * @param boundingBox The bounding box
+     * @param materials The materials
+     * @param applyPhysics Whether to apply physics to the removals
+     * @return A list of block state changes
+     */
+    public static List<BlockStateChange> removeBlocksByMaterial(
+            Chunk chunk, BoundingBox boundingBox, List<Material> materials, boolean applyPhysics) {
+        List<BlockStateChange> stateChanges = new ArrayList<>();
+
+        // Limit the bounding box to this chunk, and the world's height
+        int chunkMinX = chunk.getX() << 4;
+        int chunkMinZ = chunk.getZ() << 4;
+        int minX = Math.max((int) boundingBox.getMinX(), chunkMinX);
+        int minY = Math.max((int) boundingBox.getMinY(), chunk.getWorld().getMinHeight());
+        int minZ = Math.max((int) boundingBox.getMinZ(), chunkMinZ);
+        double maxX = Math.min(boundingBox.getMaxX(), chunkMinX + 16);
+        double maxY = Math.min(boundingBox.getMaxY(), chunk.getWorld().getMaxHeight());
+        double maxZ = Math.min(boundingBox.getMaxZ(), chunkMinZ + 16);
+
+        ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+        for (int y = minY; y < maxY; y++) {
+            // Empty sections can't have anything to remove
+            if (snapshot.isSectionEmpty((y - chunk.getWorld().getMinHeight()) >> 4)) {
+                continue;
+            }
+
+            for (int x = minX; x < maxX; x++) {
+                for (int z = minZ; z < maxZ; z++) {
+                    if (materials.contains(snapshot.getBlockType(x & 15, y, z & 15))) {
+                        Block block = chunk.getBlock(x & 15, y, z & 15);
+
+                        // Capture the old state
+                        BlockState oldState = block.getState();
+
+                        // Set to air
+                        block.setType(Material.AIR, applyPhysics);
 
                         // Capture the new state
                         BlockState newState = block.getState();
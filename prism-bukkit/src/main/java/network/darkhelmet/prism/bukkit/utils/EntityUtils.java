@@ -27,6 +27,7 @@ import java.util.stream.Collectors;
 
 import lombok.experimental.UtilityClass;
 
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
@@ -82,6 +83,26 @@ public class EntityUtils {
         return nearbyDrops.size();
     }
 
+    /**
+     * Remove drops (items + experience orbs) from a loaded chunk, within a bounding box.
+     *
+     * @param chunk The chunk
+     * @param boundingBox The bounding box
+     * @return The count of drops removed
+     */
+    public static int removeDropsInChunk(Chunk chunk, BoundingBox boundingBox) {
+        int count = 0;
+        for (Entity entity : chunk.getEntities()) {
+            if ((entity instanceof Item || entity instanceof ExperienceOrb)
+                    && boundingBox.overlaps(entity.getBoundingBox())) {
+                entity.remove();
+                count++;
+            }
+        }
+
+        return count;
+    }
+
     /**
      * Find all entities within a bounding box by their class.
      *
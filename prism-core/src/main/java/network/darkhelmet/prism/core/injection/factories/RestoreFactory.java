@@ -21,6 +21,7 @@
 package network.darkhelmet.prism.core.injection.factories;
 
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 import network.darkhelmet.prism.api.activities.Activity;
@@ -36,7 +37,8 @@ public interface RestoreFactory {
      * @param modificationRuleset The ruleset
      * @param owner The owner
      * @param query The query
-     * @param modifications The modifications
+     * @param modifications The modifications, collapsed to one per block
+     * @param superseded The primary keys of superseded activities, by the modification which supersedes them
      * @param onEnd The on end callback
      * @return A restore instance
      */
@@ -45,5 +47,6 @@ public interface RestoreFactory {
         Object owner,
         ActivityQuery query,
         List<Activity> modifications,
+        Map<Activity, long[]> superseded,
         Consumer<ModificationQueueResult> onEnd);
 }
@@ -22,6 +22,7 @@ package network.darkhelmet.prism.core.services.cache;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
@@ -29,7 +30,9 @@ import java.util.UUID;
 
 import lombok.Getter;
 
+import network.darkhelmet.prism.api.util.Pair;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
+import network.darkhelmet.prism.loader.services.configuration.cache.CacheBuilderConfiguration;
 import network.darkhelmet.prism.loader.services.configuration.cache.CacheConfiguration;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
@@ -71,6 +74,31 @@ public class CacheService {
      */
     private final Cache<UUID, Byte> worldUuidPkMap;
 
+    /**
+     * A cache of action primary keys to action keys.
+     */
+    private final Cache<Byte, String> pkActionKeyMap;
+
+    /**
+     * A cache of cause primary keys to causes.
+     */
+    private final Cache<Long, CachedCause> pkCauseMap;
+
+    /**
+     * A cache of entity type primary keys to (uppercase) entity types.
+     */
+    private final Cache<Integer, String> pkEntityTypeMap;
+
+    /**
+     * A cache of material primary keys to (uppercase) materials and data.
+     */
+    private final Cache<Integer, Pair<String, String>> pkMaterialDataMap;
+
+    /**
+     * A cache of world primary keys to world uuids/names.
+     */
+    private final Cache<Byte, Pair<UUID, String>> pkWorldMap;
+
     /**
      * Constructor.
      *
@@ -220,5 +248,71 @@ public class CacheService {
         }
 
         worldUuidPkMap = worldBuilder.build();
+
+        // Build the reverse (primary key to value) caches used to decode query results
+        pkActionKeyMap = buildReverseCache("action key", cacheConfiguration.pkCacheActionKey(), loggingService);
+        pkCauseMap = buildReverseCache("cause", cacheConfiguration.pkCachePlayer(), loggingService);
+        pkEntityTypeMap = buildReverseCache("entity type", cacheConfiguration.pkCacheEntityType(), loggingService);
+        pkMaterialDataMap = buildReverseCache(
+            "material data", cacheConfiguration.pkCacheMaterialData(), loggingService);
+        pkWorldMap = buildReverseCache("world", cacheConfiguration.pkCacheWorld(), loggingService);
+    }
+
+    /**
+     * Remove decoded causes for a player, whose name may have changed.
+     *
+     * @param playerUuid The player uuid
+     */
+    public void invalidatePlayer(UUID playerUuid) {
+        pkCauseMap.asMap().values().removeIf(cause -> cause.player() != null
+            && cause.player().key().equals(playerUuid));
+    }
+
+    /**
+     * Remove a decoded world, whose name or primary key may have changed.
+     *
+     * @param worldUuid The world uuid
+     * @param primaryKey The world's current primary key
+     */
+    public void invalidateWorld(UUID worldUuid, byte primaryKey) {
+        pkWorldMap.invalidate(primaryKey);
+        invalidateWorld(worldUuid);
+    }
+
+    /**
+     * Remove a decoded world, whose name may have changed, when its primary key isn't known.
+     *
+     * @param worldUuid The world uuid
+     */
+    public void invalidateWorld(UUID worldUuid) {
+        pkWorldMap.asMap().values().removeIf(world -> world.key().equals(worldUuid));
+    }
+
+    /**
+     * Build a primary key to value cache.
+     *
+     * @param name The name used in debug messages
+     * @param configuration The cache configuration
+     * @param loggingService The logging service
+     * @param <K> The primary key type
+     * @param <V> The value type
+     * @return The cache
+     */
+    private <K, V> Cache<K, V> buildReverseCache(
+            String name, CacheBuilderConfiguration configuration, LoggingService loggingService) {
+        Caffeine<K, V> builder = Caffeine.newBuilder()
+            .maximumSize(configuration.maxSize())
+            .evictionListener((K key, V value, RemovalCause cause) -> {
+                String msg = "Evicting {0} from reverse PK cache: Key: {1}, Value: {2}, Removal Cause: {3}";
+                loggingService.debug(msg, name, key, value, cause);
+            });
+
+        if (configuration.expiresAfterAccess() != null
+                && configuration.expiresAfterAccess().duration() != null) {
+            builder.expireAfterAccess(configuration.expiresAfterAccess().duration(),
+                configuration.expiresAfterAccess().timeUnit());
+        }
+
+        return builder.build();
     }
 }
@@ -0,0 +1,33 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.services.cache;
+
+import java.util.UUID;
+
+import network.darkhelmet.prism.api.util.Pair;
+
+/**
+ * A cause decoded from its primary key.
+ *
+ * @param cause The named cause, if any
+ * @param player The player uuid/name, if any
+ */
+public record CachedCause(String cause, Pair<UUID, String> player) {}
@@ -226,7 +226,10 @@ public class HikariConfigFactory {
 
         hikariConfig.setConnectionTestQuery("SELECT 1");
         hikariConfig.setMinimumIdle(3);
-        hikariConfig.setMaximumPoolSize(5);
+
+        // Leave room for sliced queries, which each borrow a connection
+        int maxQuerySlices = storageConfiguration.primaryDataSource().maxQuerySlices();
+        hikariConfig.setMaximumPoolSize(Math.max(5, maxQuerySlices + 2));
 
         return hikariConfig;
     }
@@ -205,7 +205,8 @@ public class MariaDbStorageAdapter extends AbstractSqlStorageAdapter {
     @Override
     public ActivityBatch createActivityBatch() {
         if (configurationService.storageConfig().mariadb().useStoredProcedures()) {
-            return new SqlActivityProcedureBatch(loggingService, dataSource, serializerVersion, prefix);
+            return withRollups(new SqlActivityProcedureBatch(
+                loggingService, dataSource, serializerVersion, prefix, cacheService));
         }
 
         return super.createActivityBatch();
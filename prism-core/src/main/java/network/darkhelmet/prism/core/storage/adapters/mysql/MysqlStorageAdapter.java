@@ -206,7 +206,8 @@ public class MysqlStorageAdapter extends AbstractSqlStorageAdapter {
     @Override
     public ActivityBatch createActivityBatch() {
         if (configurationService.storageConfig().mysql().useStoredProcedures()) {
-            return new SqlActivityProcedureBatch(loggingService, dataSource, serializerVersion, prefix);
+            return withRollups(new SqlActivityProcedureBatch(
+                loggingService, dataSource, serializerVersion, prefix, cacheService));
         }
 
         return super.createActivityBatch();
@@ -177,7 +177,8 @@ public class PostgresStorageAdapter extends AbstractSqlStorageAdapter {
     @Override
     public ActivityBatch createActivityBatch() {
         if (configurationService.storageConfig().postgres().useStoredProcedures()) {
-            return new SqlActivityProcedureBatch(loggingService, dataSource, serializerVersion, prefix);
+            return withRollups(new SqlActivityProcedureBatch(
+                loggingService, dataSource, serializerVersion, prefix, cacheService));
         }
 
         return super.createActivityBatch();
@@ -36,13 +36,25 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.StringJoiner;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import network.darkhelmet.prism.api.PaginatedResults;
 import network.darkhelmet.prism.api.actions.ActionData;
+import network.darkhelmet.prism.api.actions.types.ActionType;
 import network.darkhelmet.prism.api.actions.types.ActionTypeRegistry;
 import network.darkhelmet.prism.api.activities.AbstractActivity;
 import network.darkhelmet.prism.api.activities.Activity;
@@ -54,6 +66,7 @@ import network.darkhelmet.prism.api.util.Coordinate;
 import network.darkhelmet.prism.api.util.Pair;
 import network.darkhelmet.prism.core.injection.factories.SqlActivityQueryBuilderFactory;
 import network.darkhelmet.prism.core.services.cache.CacheService;
+import network.darkhelmet.prism.core.services.cache.CachedCause;
 import network.darkhelmet.prism.core.storage.HikariConfigFactory;
 import network.darkhelmet.prism.core.storage.dbo.DefaultCatalog;
 import network.darkhelmet.prism.core.storage.dbo.Indexes;
@@ -64,6 +77,7 @@ import network.darkhelmet.prism.core.storage.dbo.records.PrismMaterialsRecord;
 import network.darkhelmet.prism.core.storage.dbo.records.PrismWorldsRecord;
 import network.darkhelmet.prism.core.storage.dbo.tables.PrismActions;
 import network.darkhelmet.prism.core.storage.dbo.tables.PrismActivities;
+import network.darkhelmet.prism.core.storage.dbo.tables.PrismActivityRollups;
 import network.darkhelmet.prism.core.storage.dbo.tables.PrismCauses;
 import network.darkhelmet.prism.core.storage.dbo.tables.PrismEntityTypes;
 import network.darkhelmet.prism.core.storage.dbo.tables.PrismMaterials;
@@ -73,22 +87,36 @@ import network.darkhelmet.prism.core.storage.dbo.tables.PrismWorlds;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
+import org.jooq.Condition;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
 import org.jooq.Index;
 import org.jooq.Record2;
 import org.jooq.Result;
 import org.jooq.SQLDialect;
+import org.jooq.SelectQuery;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
 import org.jooq.types.UInteger;
-import org.jooq.types.UShort;
 
-import static org.jooq.impl.DSL.avg;
+import static network.darkhelmet.prism.core.storage.adapters.sql.SqlActivityColumns.number;
+import static network.darkhelmet.prism.core.storage.adapters.sql.SqlActivityColumns.string;
 import static org.jooq.impl.DSL.coalesce;
 import static org.jooq.impl.DSL.constraint;
 import static org.jooq.impl.DSL.max;
 import static org.jooq.impl.DSL.min;
 
 public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
+    /**
+     * The number of rows each mapping task creates actions for.
+     */
+    protected static final int MAPPING_CHUNK_SIZE = 2048;
+
+    /**
+     * The min number of rows before a modification's actions are created in parallel.
+     */
+    protected static final int MIN_ROWS_TO_MAP_IN_PARALLEL = MAPPING_CHUNK_SIZE * 2;
+
     /**
      * The prism database object model.
      */
@@ -104,6 +132,11 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
      */
     public static PrismActivities PRISM_ACTIVITIES;
 
+    /**
+     * The activity rollups dbo.
+     */
+    public static PrismActivityRollups PRISM_ACTIVITY_ROLLUPS;
+
     /**
      * The causes dbo.
      */
@@ -185,9 +218,34 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
     protected DSLContext create;
 
     /**
-     * The aliases materials table.
+     * The dimension resolver.
+     */
+    protected SqlDimensionResolver dimensionResolver;
+
+    /**
+     * The query governor, which applies timeouts and cancels statements.
+     */
+    protected SqlQueryGovernor queryGovernor;
+
+    /**
+     * The slow query log.
      */
-    protected final PrismMaterials OLD_MATERIALS;
+    protected SqlSlowQueryLog slowQueryLog;
+
+    /**
+     * The sliced query executor, if enabled.
+     */
+    protected SqlSlicedActivityQuery slicedQuery;
+
+    /**
+     * The executor creating actions for large results, if more than one core is available.
+     */
+    protected ExecutorService mappingExecutor;
+
+    /**
+     * The activity rollups, if enabled.
+     */
+    protected SqlActivityRollups rollups;
 
     /**
      * The schema/table prefix.
@@ -238,6 +296,7 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
         // Initialize all of our DBOs
         PRISM_ACTIONS = new PrismActions(prefix);
         PRISM_ACTIVITIES = new PrismActivities(prefix);
+        PRISM_ACTIVITY_ROLLUPS = new PrismActivityRollups(prefix);
         PRISM_CAUSES = new PrismCauses(prefix);
         PRISM_ENTITY_TYPES = new PrismEntityTypes(prefix);
         PRISM_MATERIALS = new PrismMaterials(prefix);
@@ -250,6 +309,7 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
                 Arrays.asList(
             PRISM_ACTIONS,
             PRISM_ACTIVITIES,
+            PRISM_ACTIVITY_ROLLUPS,
             PRISM_CAUSES,
             PRISM_ENTITY_TYPES,
             PRISM_MATERIALS,
@@ -258,9 +318,6 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
             PRISM_WORLDS
         ));
 
-        // Table aliases
-        OLD_MATERIALS = PRISM_MATERIALS.as("old_materials");
-
         // Turn off jooq crap. Lame
         System.setProperty("org.jooq.no-logo", "true");
         System.setProperty("org.jooq.no-tips", "true");
@@ -286,9 +343,33 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
         try {
             dataSource = new HikariDataSource(hikariConfig);
 
-            create = DSL.using(dataSource.getConnection(), sqlDialect);
+            var dataSourceConfiguration = configurationService.storageConfig().primaryDataSource();
+            queryGovernor = new SqlQueryGovernor(loggingService, dataSourceConfiguration);
+            slowQueryLog = new SqlSlowQueryLog(
+                loggingService, dataSourceConfiguration, queryGovernor, configurationService.dataPath());
+            create = DSL.using(new DefaultConfiguration()
+                .set(dataSource.getConnection()).set(sqlDialect).set(queryGovernor, slowQueryLog));
+            dimensionResolver = new SqlDimensionResolver(cacheService, create);
             if (queryBuilderFactory != null) {
                 this.queryBuilder = queryBuilderFactory.create(create);
+
+                int maxQuerySlices = configurationService.storageConfig().primaryDataSource().maxQuerySlices();
+                if (maxQuerySlices > 1) {
+                    slicedQuery = new SqlSlicedActivityQuery(
+                        dataSource, create, queryBuilder, dimensionResolver, queryGovernor, maxQuerySlices);
+                }
+            }
+
+            // Leave a core for the server's main thread
+            int mappingThreads = Runtime.getRuntime().availableProcessors() - 1;
+            if (mappingThreads > 1) {
+                AtomicInteger count = new AtomicInteger(0);
+                mappingExecutor = Executors.newFixedThreadPool(mappingThreads, r -> {
+                    Thread thread = Executors.defaultThreadFactory().newThread(r);
+                    thread.setDaemon(true);
+                    thread.setName("prism-activity-mapper-" + count.getAndIncrement());
+                    return thread;
+                });
             }
 
             return true;
@@ -464,11 +545,20 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
             create.createIndex("coordinate")
                 .on(PRISM_ACTIVITIES, PRISM_ACTIVITIES.X, PRISM_ACTIVITIES.Y, PRISM_ACTIVITIES.Z).execute();
         }
+
+        // Create the rollups table, if enabled
+        if (configurationService.storageConfig().primaryDataSource().useRollups() && queryBuilder != null) {
+            rollups = new SqlActivityRollups(dataSource, create, queryBuilder, dimensionResolver);
+            rollups.prepareSchema();
+        }
     }
 
     /**
      * Caching often-used object->primary-key lookups greatly reduce the number of queries/network requests.
      *
+     * <p>The reverse (primary-key->object) lookups are cached too, so query results can be decoded
+     * without joining these tables.</p>
+     *
      * <p>Note: Player UUIDs are cached as needed and removed on disconnect.</p>
      */
     protected void prepareCache() {
@@ -481,6 +571,7 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
         for (PrismActionsRecord actionsRecord : actions) {
             byte actionId = actionsRecord.getActionId().byteValue();
             cacheService.actionKeyPkMap().put(actionsRecord.getAction(), actionId);
+            cacheService.pkActionKeyMap().put(actionId, actionsRecord.getAction());
         }
 
         // Entity Types
@@ -492,6 +583,8 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
         for (PrismEntityTypesRecord entityTypesRecord : entityTypes) {
             int entityTypeId = entityTypesRecord.getEntityTypeId().intValue();
             cacheService.entityTypePkMap().put(entityTypesRecord.getEntityType(), entityTypeId);
+            cacheService.pkEntityTypeMap().put(
+                entityTypeId, entityTypesRecord.getEntityType().toUpperCase(Locale.ENGLISH));
         }
 
         // Materials (base, no data)
@@ -504,11 +597,13 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
         for (PrismMaterialsRecord material : materials) {
             int materialId = material.getMaterialId().intValue();
             cacheService.materialDataPkMap().put(material.getMaterial(), materialId);
+            cacheService.pkMaterialDataMap().put(
+                materialId, new Pair<>(material.getMaterial().toUpperCase(Locale.ENGLISH), null));
         }
 
         // World
         List<PrismWorldsRecord> worlds = create
-            .select(PRISM_WORLDS.WORLD_UUID, PRISM_WORLDS.WORLD_ID)
+            .select(PRISM_WORLDS.WORLD_UUID, PRISM_WORLDS.WORLD_ID, PRISM_WORLDS.WORLD)
             .from(PRISM_WORLDS)
             .fetchInto(PrismWorldsRecord.class);
 
@@ -516,6 +611,7 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
             byte worldId = worldsRecord.getWorldId().byteValue();
             UUID worldUuid = UUID.fromString(worldsRecord.getWorldUuid());
             cacheService.worldUuidPkMap().put(worldUuid, worldId);
+            cacheService.pkWorldMap().put(worldId, new Pair<>(worldUuid, worldsRecord.getWorld()));
         }
     }
 
@@ -528,44 +624,190 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
 
     @Override
     public List<Activity> queryActivities(ActivityQuery query) throws Exception {
-        var results = activityMapper(queryBuilder.queryActivities(query), query);
+        SqlSlowQueryLog.Trace trace = slowQueryLog.start(query);
 
-        List<Activity> activities = new ArrayList<>();
-        for (var result : results) {
-            if (result instanceof Activity activity) {
-                activities.add(activity);
+        try {
+            Result<org.jooq.Record> result = fetchActivities(query);
+
+            return trace.map(() -> activities(result, query));
+        } finally {
+            slowQueryLog.finish(trace);
+        }
+    }
+
+    /**
+     * Fetch activity records, using the rollups or splitting broad queries into parallel
+     * time slices when enabled.
+     *
+     * @param query The activity query
+     * @return The activity records
+     * @throws Exception Storage layer exception
+     */
+    protected Result<org.jooq.Record> fetchActivities(ActivityQuery query) throws Exception {
+        return queryGovernor.run(queryClass(query), () -> {
+            if (rollups != null && rollups.accepts(query)) {
+                Result<org.jooq.Record> result = rollups.fetch(query);
+                if (result != null) {
+                    return result;
+                }
+            }
+
+            if (slicedQuery != null && slicedQuery.accepts(query)) {
+                return slicedQuery.fetch(query);
+            }
+
+            return queryBuilder.queryActivities(query);
+        });
+    }
+
+    /**
+     * Get the query class for an activity query, which decides its statement timeout.
+     *
+     * @param query The activity query
+     * @return The query class
+     */
+    protected SqlQueryGovernor.QueryClass queryClass(ActivityQuery query) {
+        return query.lookup() ? SqlQueryGovernor.QueryClass.LOOKUP : SqlQueryGovernor.QueryClass.MODIFICATION;
+    }
+
+    @Override
+    public Stream<Activity> streamActivities(ActivityQuery query) throws Exception {
+        int fetchSize = configurationService.storageConfig().primaryDataSource().fetchSize();
+
+        // Streams borrow their own connection so a long-lived cursor doesn't block other queries
+        Connection connection = dataSource.getConnection();
+
+        SqlSlowQueryLog.Trace trace = slowQueryLog.start(query);
+
+        Cursor<org.jooq.Record> cursor;
+        try {
+            // Postgres only uses a server-side cursor inside of a transaction
+            if (create.dialect().family() == SQLDialect.POSTGRES) {
+                connection.setAutoCommit(false);
             }
+
+            // MySQL's driver ignores fetch sizes unless cursor fetching is enabled for the whole connection,
+            // but streams rows one at a time for this statement alone when given Integer.MIN_VALUE
+            int statementFetchSize = create.dialect().family() == SQLDialect.MYSQL ? Integer.MIN_VALUE : fetchSize;
+
+            SelectQuery<org.jooq.Record> selectQuery = queryBuilder.activitiesQuery(query);
+            selectQuery.attach(create.configuration().derive(connection));
+            cursor = queryGovernor.run(
+                queryClass(query), () -> selectQuery.fetchSize(statementFetchSize).fetchLazy());
+        } catch (Exception e) {
+            slowQueryLog.finish(trace);
+            connection.close();
+
+            throw e;
+        } finally {
+            // Only the cursor's own statement belongs to the trace, which is finished when the stream closes
+            slowQueryLog.release(trace);
         }
 
-        return activities;
+        // Map rows one chunk at a time so only a single chunk is ever held in memory
+        Iterator<Activity> iterator = new Iterator<>() {
+            private Iterator<Activity> chunk;
+
+            @Override
+            public boolean hasNext() {
+                while (chunk == null || !chunk.hasNext()) {
+                    if (!cursor.hasNext()) {
+                        return false;
+                    }
+
+                    Result<org.jooq.Record> result = cursor.fetchNext(fetchSize);
+                    chunk = trace.map(() -> activities(result, query)).iterator();
+                }
+
+                return true;
+            }
+
+            @Override
+            public Activity next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return chunk.next();
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+            .onClose(() -> {
+                cursor.close();
+                slowQueryLog.finish(trace);
+
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    loggingService.handleException(e);
+                }
+            });
     }
 
     @Override
     public PaginatedResults<AbstractActivity> queryActivitiesPaginated(ActivityQuery query) throws Exception {
-        Result<org.jooq.Record> result = queryBuilder.queryActivities(query);
+        SqlSlowQueryLog.Trace trace = slowQueryLog.start(query);
+
+        try {
+            Result<org.jooq.Record> result = fetchActivities(query);
 
-        int totalResults = result.size();
-        if (!result.isEmpty()) {
-            totalResults = result.get(0).getValue("totalrows", Integer.class);
+            int totalResults = result.size();
+            if (!result.isEmpty()) {
+                totalResults = result.get(0).getValue(SqlActivityColumns.TOTAL_ROWS, Integer.class);
+            }
+
+            int currentPage = (query.offset() / query.limit()) + 1;
+
+            return new PaginatedResults<>(
+                trace.map(() -> activityMapper(result, query)), query.limit(), totalResults, currentPage);
+        } finally {
+            slowQueryLog.finish(trace);
         }
+    }
 
-        int currentPage = (query.offset() / query.limit()) + 1;
+    /**
+     * Maps results to activities, skipping any grouped results.
+     *
+     * @param result The result
+     * @param query The original query
+     * @return The activity list
+     */
+    protected List<Activity> activities(Result<org.jooq.Record> result, ActivityQuery query) {
+        List<Activity> activities = new ArrayList<>();
+        for (var activity : activityMapper(result, query)) {
+            if (activity instanceof Activity a) {
+                activities.add(a);
+            }
+        }
 
-        return new PaginatedResults<>(activityMapper(result, query), query.limit(), totalResults, currentPage);
+        return activities;
     }
 
     /**
      * Maps activity data to an action and activity record.
      *
+     * <p>Rows are decoded on the calling thread, because resolving an uncached relationship
+     * uses the shared connection. Actions are then created in ordered chunks on the mapping
+     * executor, when the result is large enough to benefit.</p>
+     *
      * @param result The result
      * @param query The original query
      * @return The activity list
      */
     protected List<AbstractActivity> activityMapper(Result<org.jooq.Record> result, ActivityQuery query) {
-        List<AbstractActivity> activities = new ArrayList<>();
+        List<MappedRow> rows = new ArrayList<>(result.size());
+
+        // Resolve column positions once, so each row is read by index
+        var columns = SqlActivityColumns.of(result);
+
+        // Decode any relationships not yet cached in as few queries as possible
+        dimensionResolver.resolve(result, columns);
 
         for (org.jooq.Record r : result) {
-            String actionKey = r.getValue(PRISM_ACTIONS.ACTION);
+            // Action. Decoded values (world, cause, materials, etc.) are shared instances from the cache
+            byte actionId = number(r, columns.actionId()).byteValue();
+            String actionKey = dimensionResolver.actionKey(actionId);
             var optionalActionType = actionRegistry.actionType(actionKey);
             if (optionalActionType.isEmpty()) {
                 loggingService.warn("Failed to find action type: {0}", actionKey);
@@ -575,110 +817,79 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
             var actionType = optionalActionType.get();
 
             // World
-            UUID worldUuid = UUID.fromString(r.getValue(PRISM_WORLDS.WORLD_UUID));
-            var world = new Pair<>(worldUuid, r.getValue(PRISM_WORLDS.WORLD));
-
-            // Location
-            int x = 0;
-            int y = 0;
-            int z = 0;
-            if (query.grouped()) {
-                x = r.getValue(avg(PRISM_ACTIVITIES.X)).intValue();
-                y = r.getValue(avg(PRISM_ACTIVITIES.Y)).intValue();
-                z = r.getValue(avg(PRISM_ACTIVITIES.Z)).intValue();
-            } else {
-                x = r.getValue(PRISM_ACTIVITIES.X);
-                y = r.getValue(PRISM_ACTIVITIES.Y);
-                z = r.getValue(PRISM_ACTIVITIES.Z);
+            byte worldId = number(r, columns.worldId()).byteValue();
+            var world = dimensionResolver.world(worldId);
+            if (world == null) {
+                loggingService.warn("Failed to find world: {0}", worldId);
+                continue;
             }
 
-            var coordinate = new Coordinate(x, y, z);
+            // Location (averages for grouped results)
+            var coordinate = new Coordinate(
+                number(r, columns.x()).intValue(),
+                number(r, columns.y()).intValue(),
+                number(r, columns.z()).intValue());
 
             // Entity type
             String entityType = null;
-            String entityTypeName = r.getValue(PRISM_ENTITY_TYPES.ENTITY_TYPE);
-            if (entityTypeName != null) {
-                entityType = entityTypeName.toUpperCase(Locale.ENGLISH);
+            Number entityTypeId = number(r, columns.entityTypeId());
+            if (entityTypeId != null) {
+                entityType = dimensionResolver.entityType(entityTypeId.intValue());
             }
 
             // Material
-            String material = null;
-            String materialName = r.getValue(PRISM_MATERIALS.MATERIAL);
-            if (materialName != null) {
-                material = materialName.toUpperCase(Locale.ENGLISH);
+            Pair<String, String> materialData = null;
+            Number materialId = number(r, columns.materialId());
+            if (materialId != null) {
+                materialData = dimensionResolver.materialData(materialId.intValue());
             }
 
-            // Cause
-            String cause = r.getValue(PRISM_CAUSES.CAUSE);
-            Pair<UUID, String> player = null;
+            String material = materialData != null ? materialData.key() : null;
 
-            // Player
-            if (r.getValue(PRISM_PLAYERS.PLAYER_UUID) != null) {
-                String playerName = r.getValue(PRISM_PLAYERS.PLAYER);
-                UUID playerUuid = UUID.fromString(r.getValue(PRISM_PLAYERS.PLAYER_UUID));
-
-                player = new Pair<>(playerUuid, playerName);
+            // Cause/player
+            long causeId = number(r, columns.causeId()).longValue();
+            var cause = dimensionResolver.cause(causeId);
+            if (cause == null) {
+                loggingService.warn("Failed to find cause: {0}", causeId);
+                continue;
             }
 
-            String descriptor = query.lookup() ? r.getValue(PRISM_ACTIVITIES.DESCRIPTOR) : null;
-            String metadata = query.lookup() ? r.getValue(PRISM_ACTIVITIES.METADATA) : null;
+            String descriptor = query.lookup() ? string(r, columns.descriptor()) : null;
+            String metadata = query.lookup() ? string(r, columns.metadata()) : null;
 
-            long timestamp;
-            if (query.grouped()) {
-                timestamp = r.getValue(avg(PRISM_ACTIVITIES.TIMESTAMP)).longValue();
-            } else {
-                timestamp = r.getValue(PRISM_ACTIVITIES.TIMESTAMP).longValue();
-            }
+            // Timestamp (average for grouped results)
+            long timestamp = number(r, columns.timestamp()).longValue();
 
             if (!query.grouped() && query.modification()) {
-                long activityId = r.getValue(PRISM_ACTIVITIES.ACTIVITY_ID).longValue();
+                long activityId = number(r, columns.activityId()).longValue();
 
-                String materialData = r.getValue(PRISM_MATERIALS.DATA);
-                String customData = r.getValue(PRISM_ACTIVITIES.SERIALIZED_DATA);
-                UShort customDataVersion = r.getValue(PRISM_ACTIVITIES.SERIALIZER_VERSION);
+                String customData = string(r, columns.serializedData());
+                short customDataVersion = number(r, columns.serializerVersion()).shortValue();
 
                 // Material/serialization data
-                String replacedMaterial = null;
-                String replacedMaterialName = r.getValue(OLD_MATERIALS.MATERIAL);
-                if (replacedMaterialName != null) {
-                    replacedMaterial = replacedMaterialName.toUpperCase(Locale.ENGLISH);
+                Pair<String, String> replacedMaterialData = null;
+                Number replacedMaterialId = number(r, columns.oldMaterialId());
+                if (replacedMaterialId != null) {
+                    replacedMaterialData = dimensionResolver.materialData(replacedMaterialId.intValue());
                 }
 
-                String replacedMaterialData = r.getValue(OLD_MATERIALS.DATA);
-
                 // Build the action data
                 ActionData actionData = new ActionData(
-                    material, materialData, replacedMaterial, replacedMaterialData,
-                    entityType, customData, descriptor, metadata, customDataVersion.shortValue());
+                    material, materialData != null ? materialData.value() : null,
+                    replacedMaterialData != null ? replacedMaterialData.key() : null,
+                    replacedMaterialData != null ? replacedMaterialData.value() : null,
+                    entityType, customData, descriptor, metadata, customDataVersion);
 
-                // Build the activity
-                try {
-                    var activity = new Activity(activityId, actionType.createAction(actionData),
-                        world, coordinate, cause, player, timestamp);
-
-                    // Add to result list
-                    activities.add(activity);
-                } catch (Exception e) {
-                    loggingService.handleException(e);
-                }
+                rows.add(new MappedRow(actionType, actionData, world, coordinate, cause, timestamp, activityId, 0));
             } else if (!query.grouped()) {
-                long activityId = r.getValue(PRISM_ACTIVITIES.ACTIVITY_ID).longValue();
+                long activityId = number(r, columns.activityId()).longValue();
 
                 // Build the action data
                 ActionData actionData = new ActionData(
                     material, null, null, null,
                     entityType, null, descriptor, metadata, (short) 0);
 
-                // Build the activity
-                try {
-                    var activity = new Activity(activityId, actionType.createAction(actionData),
-                        world, coordinate, cause, player, timestamp);
-
-                    // Add to result list
-                    activities.add(activity);
-                } catch (Exception e) {
-                    loggingService.handleException(e);
-                }
+                rows.add(new MappedRow(actionType, actionData, world, coordinate, cause, timestamp, activityId, 0));
             } else {
                 // Build the action data
                 ActionData actionData = new ActionData(
@@ -686,32 +897,145 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
                     entityType, null, descriptor, metadata, (short) 0);
 
                 // Count
-                int count = r.getValue("groupcount", Integer.class);
+                int count = number(r, columns.groupCount()).intValue();
 
-                // Build the grouped activity
-                try {
-                    var activity = new GroupedActivity(
-                        actionType.createAction(actionData), world, coordinate, cause, player, timestamp, count);
+                rows.add(new MappedRow(actionType, actionData, world, coordinate, cause, timestamp, null, count));
+            }
+        }
 
-                    // Add to result list
-                    activities.add(activity);
-                } catch (Exception e) {
-                    loggingService.handleException(e);
+        // Only modifications are worth the pool, lookups are paginated and shouldn't compete with them
+        if (mappingExecutor == null || !query.modification() || rows.size() < MIN_ROWS_TO_MAP_IN_PARALLEL) {
+            return createActivities(rows);
+        }
+
+        // Create actions in chunks on the mapping executor, then join them in their original order
+        List<CompletableFuture<List<AbstractActivity>>> futures = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i += MAPPING_CHUNK_SIZE) {
+            var chunk = rows.subList(i, Math.min(i + MAPPING_CHUNK_SIZE, rows.size()));
+            futures.add(CompletableFuture.supplyAsync(() -> createActivities(chunk), mappingExecutor));
+        }
+
+        List<AbstractActivity> activities = new ArrayList<>(rows.size());
+        for (var future : futures) {
+            activities.addAll(future.join());
+        }
+
+        return activities;
+    }
+
+    /**
+     * Create the actions for decoded rows and build their activities.
+     *
+     * <p>Rows whose action can't be created are logged and skipped.</p>
+     *
+     * @param rows The decoded rows
+     * @return The activities, in row order
+     */
+    protected List<AbstractActivity> createActivities(List<MappedRow> rows) {
+        List<AbstractActivity> activities = new ArrayList<>(rows.size());
+        for (var row : rows) {
+            try {
+                var action = row.actionType().createAction(row.actionData());
+                var cause = row.cause();
+
+                if (row.activityId() != null) {
+                    // Build the activity
+                    activities.add(new Activity(row.activityId(), action,
+                        row.world(), row.coordinate(), cause.cause(), cause.player(), row.timestamp()));
+                } else {
+                    // Build the grouped activity
+                    activities.add(new GroupedActivity(action,
+                        row.world(), row.coordinate(), cause.cause(), cause.player(), row.timestamp(), row.count()));
                 }
+            } catch (Exception e) {
+                loggingService.handleException(e);
             }
         }
 
         return activities;
     }
 
+    /**
+     * A decoded row, waiting for its action to be created.
+     *
+     * @param actionType The action type
+     * @param actionData The action data
+     * @param world The world
+     * @param coordinate The coordinate
+     * @param cause The cause
+     * @param timestamp The timestamp
+     * @param activityId The activity primary key, or null for grouped results
+     * @param count The grouped count
+     */
+    protected record MappedRow(
+        ActionType actionType,
+        ActionData actionData,
+        Pair<UUID, String> world,
+        Coordinate coordinate,
+        CachedCause cause,
+        long timestamp,
+        Long activityId,
+        int count) {}
+
     @Override
     public ActivityBatch createActivityBatch() {
-        return new SqlActivityBatch(loggingService, create, serializerVersion, cacheService);
+        return withRollups(new SqlActivityBatch(loggingService, create, serializerVersion, cacheService));
+    }
+
+    /**
+     * Wrap a batch so that the rollups are updated after it's committed, if enabled.
+     *
+     * @param batch The batch
+     * @return The batch
+     */
+    protected ActivityBatch withRollups(ActivityBatch batch) {
+        return rollups != null ? new SqlActivityRollupBatch(loggingService, batch, rollups) : batch;
     }
 
     @Override
     public int deleteActivities(ActivityQuery query, int cycleMinPrimaryKey, int cycleMaxPrimaryKey) {
-        return queryBuilder.deleteActivities(query, cycleMinPrimaryKey, cycleMaxPrimaryKey);
+        SqlSlowQueryLog.Trace trace = slowQueryLog.start(query);
+
+        try {
+            return queryGovernor.run(SqlQueryGovernor.QueryClass.PURGE, () -> {
+                if (rollups != null) {
+                    return rollups.deleteActivities(query, cycleMinPrimaryKey, cycleMaxPrimaryKey);
+                }
+
+                return queryBuilder.deleteActivities(query, cycleMinPrimaryKey, cycleMaxPrimaryKey);
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            slowQueryLog.finish(trace);
+        }
+    }
+
+    @Override
+    public List<String> explainSlowQuery() throws Exception {
+        SqlSlowQueryLog.TracedStatement statement = slowQueryLog.slowestStatement();
+        if (statement == null) {
+            return List.of();
+        }
+
+        // SQLite's plain explain lists virtual machine opcodes rather than a query plan
+        String explain = create.dialect().family() == SQLDialect.SQLITE ? "explain query plan " : "explain ";
+        Result<org.jooq.Record> plan = queryGovernor.run(SqlQueryGovernor.QueryClass.LOOKUP,
+            () -> create.fetch(explain + statement.sql(), statement.binds().toArray()));
+
+        List<String> lines = new ArrayList<>();
+        for (org.jooq.Record record : plan) {
+            StringJoiner joiner = new StringJoiner(" | ");
+            for (Object value : record.intoArray()) {
+                joiner.add(String.valueOf(value));
+            }
+
+            lines.addAll(Arrays.asList(joiner.toString().split("\\R")));
+        }
+
+        return lines;
     }
 
     @Override
@@ -739,8 +1063,55 @@ public abstract class AbstractSqlStorageAdapter implements StorageAdapter {
             .execute();
     }
 
+    @Override
+    public int markReversedRanges(List<Pair<Long, Long>> primaryKeyRanges, boolean reversed) throws Exception {
+        if (primaryKeyRanges.isEmpty()) {
+            return 0;
+        }
+
+        // Single keys are grouped into one IN, runs use BETWEEN so their keys never need listing
+        List<Long> singleKeys = new ArrayList<>();
+        List<Condition> conditions = new ArrayList<>();
+        for (Pair<Long, Long> range : primaryKeyRanges) {
+            if (range.key().equals(range.value())) {
+                singleKeys.add(range.key());
+            } else {
+                conditions.add(PRISM_ACTIVITIES.ACTIVITY_ID.between(
+                    UInteger.valueOf(range.key()), UInteger.valueOf(range.value())));
+            }
+        }
+
+        if (!singleKeys.isEmpty()) {
+            conditions.add(PRISM_ACTIVITIES.ACTIVITY_ID.in(singleKeys));
+        }
+
+        return create.update(PRISM_ACTIVITIES)
+            .set(PRISM_ACTIVITIES.REVERSED, reversed)
+            .where(DSL.or(conditions))
+            .execute();
+    }
+
+    @Override
+    public void cancelQueries(Thread thread) {
+        if (queryGovernor != null) {
+            queryGovernor.cancel(thread);
+        }
+    }
+
     @Override
     public void close() {
+        if (slicedQuery != null) {
+            slicedQuery.shutdown();
+        }
+
+        if (mappingExecutor != null) {
+            mappingExecutor.shutdownNow();
+        }
+
+        if (slowQueryLog != null) {
+            slowQueryLog.close();
+        }
+
         if (dataSource != null) {
             dataSource.close();
         }
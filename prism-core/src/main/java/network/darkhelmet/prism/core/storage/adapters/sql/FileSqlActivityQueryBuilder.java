@@ -23,126 +23,30 @@ package network.darkhelmet.prism.core.storage.adapters.sql;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
-import network.darkhelmet.prism.api.activities.ActivityQuery;
-import network.darkhelmet.prism.core.storage.dbo.records.PrismActivitiesRecord;
+import network.darkhelmet.prism.core.services.cache.CacheService;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 
 import org.jooq.DSLContext;
-import org.jooq.DeleteQuery;
-import org.jooq.impl.DSL;
-import org.jooq.types.UInteger;
-
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIONS;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITIES;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_CAUSES;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ENTITY_TYPES;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_MATERIALS;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_PLAYERS;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_WORLDS;
 
+/**
+ * Query builder for sqlite and h2.
+ *
+ * <p>Neither support the DELETE USING clause, but because all filters are applied to the
+ * activities table's own keys, the default delete query needs no joins.</p>
+ */
 public class FileSqlActivityQueryBuilder extends SqlActivityQueryBuilder {
     /**
      * Construct a new query builder.
      *
      * @param configurationService The configuration service
+     * @param cacheService The cache service
      * @param create The DSL context
      */
     @Inject
     public FileSqlActivityQueryBuilder(
             ConfigurationService configurationService,
+            CacheService cacheService,
             @Assisted DSLContext create) {
-        super(configurationService, create);
-    }
-
-    /**
-     * Delete records from the activities table.
-     *
-     * <p>Neither sqlite nor h2 support the DELETE USING clause so we use the WHERE EXISTS
-     * with subqueries because those are more performant than WHERE IN subqueries.</p>
-     *
-     * @param query The query
-     * @param cycleMinPrimaryKey The min primary key
-     * @param cycleMaxPrimaryKey The max primary key
-     * @return The number of rows deleted
-     */
-    @Override
-    public int deleteActivities(ActivityQuery query, int cycleMinPrimaryKey, int cycleMaxPrimaryKey) {
-        DeleteQuery<PrismActivitiesRecord> queryBuilder = create.deleteQuery(PRISM_ACTIVITIES);
-
-        // Action Types + Keys
-        var actionTypeKeys = query.allActionTypeKeys();
-        if (!actionTypeKeys.isEmpty()) {
-            queryBuilder.addConditions(DSL.exists(
-                create.selectOne().from(PRISM_ACTIONS).where(PRISM_ACTIONS.ACTION.in(actionTypeKeys))));
-        }
-
-        // Cause
-        if (query.cause() != null) {
-            queryBuilder.addConditions(DSL.exists(
-                create.selectOne().from(PRISM_CAUSES).where(PRISM_CAUSES.CAUSE.equal(query.cause()))));
-        }
-
-        // Entity Types
-        if (!query.entityTypes().isEmpty()) {
-            queryBuilder.addConditions(DSL.exists(
-                create.selectOne().from(PRISM_ENTITY_TYPES)
-                    .where(PRISM_ENTITY_TYPES.ENTITY_TYPE.in(query.entityTypes()))));
-        }
-
-        // Locations
-        if (query.coordinate() != null) {
-            queryBuilder.addConditions(PRISM_ACTIVITIES.X.equal(query.coordinate().intX())
-                .and(PRISM_ACTIVITIES.Y.equal(query.coordinate().intY()))
-                .and(PRISM_ACTIVITIES.Z.equal(query.coordinate().intZ())));
-        } else if (query.minCoordinate() != null && query.maxCoordinate() != null) {
-            queryBuilder.addConditions(
-                    PRISM_ACTIVITIES.X.between(query.minCoordinate().intX(), query.maxCoordinate().intX())
-                .and(PRISM_ACTIVITIES.Y.between(query.minCoordinate().intY(), query.maxCoordinate().intY()))
-                .and(PRISM_ACTIVITIES.Z.between(query.minCoordinate().intZ(), query.maxCoordinate().intZ())));
-        }
-
-        // Materials
-        if (!query.materials().isEmpty()) {
-            queryBuilder.addConditions(DSL.exists(
-                create.selectOne().from(PRISM_MATERIALS).where(PRISM_MATERIALS.MATERIAL.in(query.materials()))));
-        }
-
-        // Players
-        if (!query.playerNames().isEmpty()) {
-            queryBuilder.addConditions(DSL.exists(
-                create.selectOne()
-                    .from(PRISM_CAUSES)
-                    .join(PRISM_PLAYERS).on(PRISM_CAUSES.PLAYER_ID.equal(PRISM_PLAYERS.PLAYER_ID))
-                    .where(PRISM_PLAYERS.PLAYER.in(query.playerNames()))));
-        }
-
-        // Reversed
-        if (query.reversed() != null) {
-            queryBuilder.addConditions(DSL.exists(
-                create.selectOne().from(PRISM_MATERIALS).where(PRISM_ACTIVITIES.REVERSED.eq(query.reversed()))));
-        }
-
-        // Timestamps
-        if (query.after() != null && query.before() != null) {
-            queryBuilder.addConditions(PRISM_ACTIVITIES.TIMESTAMP
-                .between(UInteger.valueOf(query.after()), UInteger.valueOf(query.before())));
-        } else if (query.after() != null) {
-            queryBuilder.addConditions(PRISM_ACTIVITIES.TIMESTAMP.greaterThan(UInteger.valueOf(query.after())));
-        } else if (query.before() != null) {
-            queryBuilder.addConditions(PRISM_ACTIVITIES.TIMESTAMP.lessThan(UInteger.valueOf(query.before())));
-        }
-
-        // World
-        if (query.worldUuid() != null) {
-            queryBuilder.addConditions(DSL.exists(
-                create.selectOne().from(PRISM_WORLDS)
-                    .where(PRISM_WORLDS.WORLD_UUID.equal(query.worldUuid().toString()))));
-        }
-
-        // Limit
-        queryBuilder.addConditions(PRISM_ACTIVITIES.ACTIVITY_ID
-            .between(UInteger.valueOf(cycleMinPrimaryKey), UInteger.valueOf(cycleMaxPrimaryKey)));
-
-        return queryBuilder.execute();
+        super(configurationService, cacheService, create);
     }
 }
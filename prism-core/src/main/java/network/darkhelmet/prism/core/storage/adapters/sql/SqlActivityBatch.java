@@ -212,6 +212,7 @@ public class SqlActivityBatch implements ActivityBatch {
         }
 
         cacheService.actionKeyPkMap().put(actionKey, primaryKey);
+        cacheService.pkActionKeyMap().invalidate(primaryKey);
 
         return primaryKey;
     }
@@ -283,6 +284,8 @@ public class SqlActivityBatch implements ActivityBatch {
             cacheService.playerCausePkMap().put(playerId, primaryKey);
         }
 
+        cacheService.pkCauseMap().invalidate(primaryKey);
+
         return primaryKey;
     }
 
@@ -327,6 +330,7 @@ public class SqlActivityBatch implements ActivityBatch {
         }
 
         cacheService.entityTypePkMap().put(entityType, primaryKey);
+        cacheService.pkEntityTypeMap().invalidate(primaryKey);
 
         return primaryKey;
     }
@@ -375,6 +379,7 @@ public class SqlActivityBatch implements ActivityBatch {
         }
 
         cacheService.materialDataPkMap().put(materialData, primaryKey);
+        cacheService.pkMaterialDataMap().invalidate(primaryKey);
 
         return primaryKey;
     }
@@ -422,6 +427,9 @@ public class SqlActivityBatch implements ActivityBatch {
 
         cacheService.playerUuidPkMap().put(playerUuid, primaryKey);
 
+        // The name was just updated, so decoded causes for this player may be stale
+        cacheService.invalidatePlayer(playerUuid);
+
         return primaryKey;
     }
 
@@ -471,6 +479,7 @@ public class SqlActivityBatch implements ActivityBatch {
         }
 
         cacheService.worldUuidPkMap().put(worldUuid, primaryKey);
+        cacheService.invalidateWorld(worldUuid, primaryKey);
 
         return primaryKey;
     }
@@ -0,0 +1,133 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import org.jooq.Fields;
+import org.jooq.Record;
+
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITIES;
+
+/**
+ * The column indexes of an activity query result.
+ *
+ * <p>Indexes are resolved by name once per result so rows can be read by position rather than
+ * looking up each field on every row. Columns not present in the result have an index of -1.</p>
+ *
+ * @param activityId The activity id index
+ * @param actionId The action id index
+ * @param worldId The world id index
+ * @param materialId The material id index
+ * @param oldMaterialId The old material id index
+ * @param entityTypeId The entity type id index
+ * @param causeId The cause id index
+ * @param x The x (or average x) index
+ * @param y The y (or average y) index
+ * @param z The z (or average z) index
+ * @param timestamp The timestamp (or average timestamp) index
+ * @param descriptor The descriptor index
+ * @param metadata The metadata index
+ * @param serializedData The serialized data index
+ * @param serializerVersion The serializer version index
+ * @param groupCount The group count index
+ * @param totalRows The total rows index
+ */
+public record SqlActivityColumns(
+        int activityId,
+        int actionId,
+        int worldId,
+        int materialId,
+        int oldMaterialId,
+        int entityTypeId,
+        int causeId,
+        int x,
+        int y,
+        int z,
+        int timestamp,
+        int descriptor,
+        int metadata,
+        int serializedData,
+        int serializerVersion,
+        int groupCount,
+        int totalRows) {
+    /**
+     * The alias of the group count column.
+     */
+    public static final String GROUP_COUNT = "groupcount";
+
+    /**
+     * The alias of the total rows column.
+     */
+    public static final String TOTAL_ROWS = "totalrows";
+
+    /**
+     * The alias of the serializer version column.
+     */
+    public static final String SERIALIZER_VERSION = "serializer_version";
+
+    /**
+     * Resolve the column indexes for a result.
+     *
+     * @param fields The result fields
+     * @return The column indexes
+     */
+    public static SqlActivityColumns of(Fields fields) {
+        return new SqlActivityColumns(
+            fields.indexOf(PRISM_ACTIVITIES.ACTIVITY_ID.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.ACTION_ID.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.WORLD_ID.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.MATERIAL_ID.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.OLD_MATERIAL_ID.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.ENTITY_TYPE_ID.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.CAUSE_ID.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.X.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.Y.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.Z.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.TIMESTAMP.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.DESCRIPTOR.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.METADATA.getName()),
+            fields.indexOf(PRISM_ACTIVITIES.SERIALIZED_DATA.getName()),
+            fields.indexOf(SERIALIZER_VERSION),
+            fields.indexOf(GROUP_COUNT),
+            fields.indexOf(TOTAL_ROWS));
+    }
+
+    /**
+     * Read a numeric column, if present.
+     *
+     * @param r The record
+     * @param index The column index
+     * @return The number, or null if the column is missing or null
+     */
+    public static Number number(Record r, int index) {
+        return index > -1 ? (Number) r.get(index) : null;
+    }
+
+    /**
+     * Read a string column, if present.
+     *
+     * @param r The record
+     * @param index The column index
+     * @return The string, or null if the column is missing or null
+     */
+    public static String string(Record r, int index) {
+        return index > -1 ? (String) r.get(index) : null;
+    }
+}
@@ -26,6 +26,9 @@ import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
 
 import network.darkhelmet.prism.api.actions.BlockAction;
 import network.darkhelmet.prism.api.actions.CustomData;
@@ -33,6 +36,7 @@ import network.darkhelmet.prism.api.actions.EntityAction;
 import network.darkhelmet.prism.api.actions.MaterialAction;
 import network.darkhelmet.prism.api.activities.Activity;
 import network.darkhelmet.prism.api.storage.ActivityBatch;
+import network.darkhelmet.prism.core.services.cache.CacheService;
 import network.darkhelmet.prism.loader.services.logging.LoggingService;
 
 public class SqlActivityProcedureBatch implements ActivityBatch {
@@ -66,6 +70,21 @@ public class SqlActivityProcedureBatch implements ActivityBatch {
      */
     private CallableStatement statement;
 
+    /**
+     * The cache service.
+     */
+    private final CacheService cacheService;
+
+    /**
+     * The players in this batch, whose names the procedure may update.
+     */
+    private final Set<UUID> playerUuids = new HashSet<>();
+
+    /**
+     * The worlds in this batch, whose names the procedure may update.
+     */
+    private final Set<UUID> worldUuids = new HashSet<>();
+
     /**
      * Construct a new batch handler.
      *
@@ -73,16 +92,19 @@ public class SqlActivityProcedureBatch implements ActivityBatch {
      * @param hikariDataSource The hikari datasource
      * @param serializerVersion The serializer version
      * @param prefix The schema/table prefix
+     * @param cacheService The cache service
      */
     public SqlActivityProcedureBatch(
             LoggingService loggingService,
             HikariDataSource hikariDataSource,
             short serializerVersion,
-            String prefix) {
+            String prefix,
+            CacheService cacheService) {
         this.loggingService = loggingService;
         this.hikariDataSource = hikariDataSource;
         this.serializerVersion = serializerVersion;
         this.prefix = prefix;
+        this.cacheService = cacheService;
     }
 
     @Override
@@ -106,6 +128,7 @@ public class SqlActivityProcedureBatch implements ActivityBatch {
             statement.setNull(6, Types.VARCHAR);
             statement.setString(7, activity.player().value());
             statement.setString(8, activity.player().key().toString());
+            playerUuids.add(activity.player().key());
         } else {
             if (activity.cause() != null) {
                 statement.setString(6, activity.cause());
@@ -150,6 +173,7 @@ public class SqlActivityProcedureBatch implements ActivityBatch {
         // World
         statement.setString(14, activity.world().value());
         statement.setString(15, activity.world().key().toString());
+        worldUuids.add(activity.world().key());
 
         // Custom data
         if (activity.action() instanceof CustomData) {
@@ -191,5 +215,9 @@ public class SqlActivityProcedureBatch implements ActivityBatch {
         // Close stuff
         statement.close();
         connection.close();
+
+        // The procedure updates names, so decoded causes and worlds may be stale
+        playerUuids.forEach(cacheService::invalidatePlayer);
+        worldUuids.forEach(cacheService::invalidateWorld);
     }
 }
@@ -25,35 +25,46 @@ import com.google.inject.assistedinject.Assisted;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import network.darkhelmet.prism.api.activities.ActivityQuery;
+import network.darkhelmet.prism.core.services.cache.CacheService;
 import network.darkhelmet.prism.core.storage.dbo.records.PrismActivitiesRecord;
-import network.darkhelmet.prism.core.storage.dbo.tables.PrismMaterials;
 import network.darkhelmet.prism.loader.services.configuration.ConfigurationService;
 import network.darkhelmet.prism.loader.services.configuration.storage.StorageConfiguration;
 
 import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.DeleteQuery;
+import org.jooq.Field;
 import org.jooq.JoinType;
 import org.jooq.Record;
 import org.jooq.Result;
 import org.jooq.SelectQuery;
+import org.jooq.Table;
 import org.jooq.impl.DSL;
+import org.jooq.types.UByte;
 import org.jooq.types.UInteger;
+import org.jooq.types.UShort;
 
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIONS;
 import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITIES;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_CAUSES;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ENTITY_TYPES;
 import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_MATERIALS;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_PLAYERS;
-import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_WORLDS;
 import static org.jooq.impl.DSL.avg;
 import static org.jooq.impl.DSL.coalesce;
 import static org.jooq.impl.DSL.count;
+import static org.jooq.impl.DSL.min;
 
 public class SqlActivityQueryBuilder {
+    /**
+     * The alias of the material names table.
+     */
+    private static final String MATERIAL_NAMES = "material_names";
+
+    /**
+     * The alias of the material name id column.
+     */
+    private static final String MATERIAL_NAME_ID = "material_name_id";
+
     /**
      * The configuration service.
      */
@@ -70,24 +81,26 @@ public class SqlActivityQueryBuilder {
     protected final DSLContext create;
 
     /**
-     * The aliased old materials table.
+     * The dimension resolver.
      */
-    protected final PrismMaterials OLD_MATERIALS;
+    protected final SqlDimensionResolver dimensionResolver;
 
     /**
      * Construct a new query builder.
      *
      * @param configurationService The configuration service
+     * @param cacheService The cache service
      * @param create The DSL context
      */
     @Inject
     public SqlActivityQueryBuilder(
             ConfigurationService configurationService,
+            CacheService cacheService,
             @Assisted DSLContext create) {
         this.configurationService = configurationService;
         storageConfiguration = configurationService.storageConfig();
         this.create = create;
-        this.OLD_MATERIALS = PRISM_MATERIALS.as("old_materials");
+        this.dimensionResolver = new SqlDimensionResolver(cacheService, create);
     }
 
     /**
@@ -101,38 +114,6 @@ public class SqlActivityQueryBuilder {
     public int deleteActivities(ActivityQuery query, int cycleMinPrimaryKey, int cycleMaxPrimaryKey) {
         DeleteQuery<PrismActivitiesRecord> queryBuilder = create.deleteQuery(PRISM_ACTIVITIES);
 
-        if (!query.actionTypes().isEmpty() || !query.actionTypeKeys().isEmpty()) {
-            queryBuilder.addUsing(PRISM_ACTIONS);
-            queryBuilder.addConditions(PRISM_ACTIVITIES.ACTION_ID.equal(PRISM_ACTIONS.ACTION_ID));
-        }
-
-        if (query.cause() != null) {
-            queryBuilder.addUsing(PRISM_CAUSES);
-            queryBuilder.addConditions(PRISM_ACTIVITIES.CAUSE_ID.equal(PRISM_CAUSES.CAUSE_ID));
-        }
-
-        if (!query.entityTypes().isEmpty()) {
-            queryBuilder.addUsing(PRISM_ENTITY_TYPES);
-            queryBuilder.addConditions(PRISM_ACTIVITIES.ENTITY_TYPE_ID.equal(PRISM_ENTITY_TYPES.ENTITY_TYPE_ID));
-        }
-
-        if (!query.materials().isEmpty()) {
-            queryBuilder.addUsing(PRISM_MATERIALS);
-            queryBuilder.addConditions(PRISM_ACTIVITIES.MATERIAL_ID.equal(PRISM_MATERIALS.MATERIAL_ID));
-        }
-
-        if (!query.playerNames().isEmpty()) {
-            queryBuilder.addUsing(PRISM_CAUSES);
-            queryBuilder.addUsing(PRISM_PLAYERS);
-            queryBuilder.addConditions(PRISM_ACTIVITIES.CAUSE_ID.equal(PRISM_CAUSES.CAUSE_ID));
-            queryBuilder.addConditions(PRISM_CAUSES.PLAYER_ID.equal(PRISM_PLAYERS.PLAYER_ID));
-        }
-
-        if (query.worldUuid() != null) {
-            queryBuilder.addUsing(PRISM_WORLDS);
-            queryBuilder.addConditions(PRISM_ACTIVITIES.WORLD_ID.equal(PRISM_WORLDS.WORLD_ID));
-        }
-
         // Add conditions
         queryBuilder.addConditions(conditions(query));
 
@@ -150,37 +131,58 @@ public class SqlActivityQueryBuilder {
      * @return A list of DbRow results
      */
     public Result<Record> queryActivities(ActivityQuery query) {
+        return activitiesQuery(query).fetch();
+    }
+
+    /**
+     * Build the select query for a given activity query, without executing it.
+     *
+     * @param query The activity query
+     * @return The select query
+     */
+    public SelectQuery<Record> activitiesQuery(ActivityQuery query) {
         SelectQuery<Record> queryBuilder = create.selectQuery();
 
-        // Add fields useful for all query types
+        // Add fields useful for all query types. Relationships are selected as primary keys
+        // and decoded from the cache, so we avoid joining every dimension table.
         queryBuilder.addSelect(
-            PRISM_WORLDS.WORLD_UUID,
-            PRISM_WORLDS.WORLD,
-            PRISM_MATERIALS.MATERIAL,
-            PRISM_ENTITY_TYPES.ENTITY_TYPE,
-            PRISM_ACTIONS.ACTION,
-            PRISM_CAUSES.CAUSE,
-            PRISM_PLAYERS.PLAYER_UUID,
-            PRISM_PLAYERS.PLAYER);
+            PRISM_ACTIVITIES.ACTION_ID,
+            PRISM_ACTIVITIES.WORLD_ID,
+            PRISM_ACTIVITIES.ENTITY_TYPE_ID,
+            PRISM_ACTIVITIES.CAUSE_ID);
+
+        // Grouped queries are keyed by hashes of the descriptor and metadata when the database has a hash
+        // function, so the strings are carried along as aggregates instead of being hashed or sorted as keys
+        List<Field<?>> descriptorKeys = query.grouped() ? descriptorKeys() : null;
+        boolean hashedDescriptors = descriptorKeys != null;
 
         // Add fields useful only for lookups
         if (query.lookup()) {
-            queryBuilder.addSelect(PRISM_ACTIVITIES.DESCRIPTOR);
-            queryBuilder.addSelect(PRISM_ACTIVITIES.METADATA);
-            queryBuilder.addSelect(count().over().as("totalrows"));
+            if (hashedDescriptors) {
+                queryBuilder.addSelect(min(PRISM_ACTIVITIES.DESCRIPTOR).as(PRISM_ACTIVITIES.DESCRIPTOR.getName()));
+                queryBuilder.addSelect(min(PRISM_ACTIVITIES.METADATA).as(PRISM_ACTIVITIES.METADATA.getName()));
+            } else {
+                queryBuilder.addSelect(PRISM_ACTIVITIES.DESCRIPTOR);
+                queryBuilder.addSelect(PRISM_ACTIVITIES.METADATA);
+            }
+
+            queryBuilder.addSelect(count().over().as(SqlActivityColumns.TOTAL_ROWS));
         }
 
         if (query.grouped()) {
-            // Add fields for grouped queries
+            // Add fields for grouped queries. Groups are by material name, not material data,
+            // so any one of the material ids is enough to decode the name.
             queryBuilder.addSelect(
-                avg(PRISM_ACTIVITIES.X),
-                avg(PRISM_ACTIVITIES.Y),
-                avg(PRISM_ACTIVITIES.Z),
-                avg(PRISM_ACTIVITIES.TIMESTAMP),
-                count().as("groupcount"));
+                min(PRISM_ACTIVITIES.MATERIAL_ID).as(PRISM_ACTIVITIES.MATERIAL_ID.getName()),
+                avg(PRISM_ACTIVITIES.X).as(PRISM_ACTIVITIES.X.getName()),
+                avg(PRISM_ACTIVITIES.Y).as(PRISM_ACTIVITIES.Y.getName()),
+                avg(PRISM_ACTIVITIES.Z).as(PRISM_ACTIVITIES.Z.getName()),
+                avg(PRISM_ACTIVITIES.TIMESTAMP).as(PRISM_ACTIVITIES.TIMESTAMP.getName()),
+                count().as(SqlActivityColumns.GROUP_COUNT));
         } else {
             // Add fields for non-grouped queries
             queryBuilder.addSelect(
+                PRISM_ACTIVITIES.MATERIAL_ID,
                 PRISM_ACTIVITIES.ACTIVITY_ID,
                 PRISM_ACTIVITIES.TIMESTAMP,
                 PRISM_ACTIVITIES.X,
@@ -192,28 +194,28 @@ public class SqlActivityQueryBuilder {
         // Add fields only needed for modifications
         if (query.modification()) {
             queryBuilder.addSelect(
-                PRISM_MATERIALS.DATA,
                 PRISM_ACTIVITIES.SERIALIZED_DATA,
-                coalesce(PRISM_ACTIVITIES.SERIALIZER_VERSION, 1).as("serializer_version"),
-                OLD_MATERIALS.MATERIAL,
-                OLD_MATERIALS.DATA
+                coalesce(PRISM_ACTIVITIES.SERIALIZER_VERSION, 1).as(SqlActivityColumns.SERIALIZER_VERSION),
+                PRISM_ACTIVITIES.OLD_MATERIAL_ID
             );
         }
 
         queryBuilder.addFrom(PRISM_ACTIVITIES);
-        queryBuilder.addJoin(PRISM_ACTIONS, PRISM_ACTIONS.ACTION_ID.equal(PRISM_ACTIVITIES.ACTION_ID));
-        queryBuilder.addJoin(PRISM_WORLDS, PRISM_WORLDS.WORLD_ID.equal(PRISM_ACTIVITIES.WORLD_ID));
-        queryBuilder.addJoin(PRISM_ENTITY_TYPES, JoinType.LEFT_OUTER_JOIN, PRISM_ENTITY_TYPES.ENTITY_TYPE_ID
-            .equal(PRISM_ACTIVITIES.ENTITY_TYPE_ID));
-        queryBuilder.addJoin(PRISM_MATERIALS, JoinType.LEFT_OUTER_JOIN, PRISM_MATERIALS.MATERIAL_ID
-            .equal(PRISM_ACTIVITIES.MATERIAL_ID));
-        queryBuilder.addJoin(PRISM_CAUSES, PRISM_CAUSES.CAUSE_ID.equal(PRISM_ACTIVITIES.CAUSE_ID));
-        queryBuilder.addJoin(PRISM_PLAYERS, JoinType.LEFT_OUTER_JOIN, PRISM_PLAYERS.PLAYER_ID
-            .equal(PRISM_CAUSES.PLAYER_ID));
 
-        if (query.modification()) {
-            queryBuilder.addJoin(OLD_MATERIALS, JoinType.LEFT_OUTER_JOIN, OLD_MATERIALS.MATERIAL_ID
-                .equal(PRISM_ACTIVITIES.OLD_MATERIAL_ID));
+        // Materials are grouped by name (not data). Rather than grouping by the name itself, every material id
+        // is mapped to the lowest id sharing its name, which only scans the (small) materials table.
+        Field<UShort> materialNameId = null;
+        if (query.grouped()) {
+            Table<?> materialNames = create
+                .select(
+                    PRISM_MATERIALS.MATERIAL_ID,
+                    min(PRISM_MATERIALS.MATERIAL_ID).over().partitionBy(PRISM_MATERIALS.MATERIAL).as(MATERIAL_NAME_ID))
+                .from(PRISM_MATERIALS)
+                .asTable(MATERIAL_NAMES);
+            materialNameId = materialNames.field(MATERIAL_NAME_ID, UShort.class);
+
+            queryBuilder.addJoin(materialNames, JoinType.LEFT_OUTER_JOIN,
+                materialNames.field(PRISM_MATERIALS.MATERIAL_ID).equal(PRISM_ACTIVITIES.MATERIAL_ID));
         }
 
         // Add all conditions
@@ -221,17 +223,17 @@ public class SqlActivityQueryBuilder {
 
         if (query.grouped()) {
             queryBuilder.addGroupBy(
-                PRISM_ACTIONS.ACTION,
-                PRISM_WORLDS.WORLD_UUID,
-                PRISM_WORLDS.WORLD,
                 PRISM_ACTIVITIES.ACTION_ID,
-                PRISM_MATERIALS.MATERIAL,
-                PRISM_ENTITY_TYPES.ENTITY_TYPE,
-                PRISM_CAUSES.CAUSE,
-                PRISM_PLAYERS.PLAYER,
-                PRISM_PLAYERS.PLAYER_UUID,
-                PRISM_ACTIVITIES.DESCRIPTOR,
-                PRISM_ACTIVITIES.METADATA);
+                PRISM_ACTIVITIES.WORLD_ID,
+                materialNameId,
+                PRISM_ACTIVITIES.ENTITY_TYPE_ID,
+                PRISM_ACTIVITIES.CAUSE_ID);
+
+            if (hashedDescriptors) {
+                queryBuilder.addGroupBy(descriptorKeys);
+            } else {
+                queryBuilder.addGroupBy(PRISM_ACTIVITIES.DESCRIPTOR, PRISM_ACTIVITIES.METADATA);
+            }
         }
 
         // Order by
@@ -252,34 +254,40 @@ public class SqlActivityQueryBuilder {
             // In order to do this, we tell hanging blocks to sort *after* everything else,
             // then we sort everything by `y asc` and sort these hanging blocks by `y desc`.
             // cave_vines are sorted to come after cave_vines_plant so the plant is rebuilt first.
+            // Materials are matched by primary key so the materials table isn't needed in the join.
+            Map<String, List<UShort>> materialIds = dimensionResolver.materialIds(List.of(
+                "cave_vines", "weeping_vines", "cave_vines_plant", "weeping_vines_plant", "vine", "pointed_dripstone"));
+
             queryBuilder.addOrderBy(DSL.decode()
-                .when(PRISM_MATERIALS.MATERIAL.in("cave_vines", "weeping_vines"), 1)
+                .when(PRISM_ACTIVITIES.MATERIAL_ID.in(
+                    materialIds(materialIds, "cave_vines", "weeping_vines")), 1)
                 .else_(-1).asc());
             queryBuilder.addOrderBy(DSL.decode()
-                .when(PRISM_MATERIALS.MATERIAL.in("cave_vines_plant", "weeping_vines_plant"), 1)
+                .when(PRISM_ACTIVITIES.MATERIAL_ID.in(
+                    materialIds(materialIds, "cave_vines_plant", "weeping_vines_plant")), 1)
                 .else_(-1).asc());
 
             queryBuilder.addOrderBy(DSL.decode()
-                .when(PRISM_MATERIALS.MATERIAL
-                .in("vine", "pointed_dripstone"), 1)
+                .when(PRISM_ACTIVITIES.MATERIAL_ID.in(
+                    materialIds(materialIds, "vine", "pointed_dripstone")), 1)
                 .else_(-1).asc());
 
             queryBuilder.addOrderBy(PRISM_ACTIVITIES.X.asc());
             queryBuilder.addOrderBy(PRISM_ACTIVITIES.Z.asc());
 
-            List<String> materialsToBuildUp = List.of(
+            List<UShort> materialsToBuildUp = materialIds(materialIds,
                 "pointed_dripstone",
                 "cave_vines_plant",
                 "weeping_vines_plant",
                 "vine");
 
             queryBuilder.addOrderBy(DSL.decode()
-                .when(PRISM_MATERIALS.MATERIAL
+                .when(PRISM_ACTIVITIES.MATERIAL_ID
                 .in(materialsToBuildUp), PRISM_ACTIVITIES.Y)
                 .desc());
 
             queryBuilder.addOrderBy(DSL.decode()
-                .when(PRISM_MATERIALS.MATERIAL
+                .when(PRISM_ACTIVITIES.MATERIAL_ID
                 .notIn(materialsToBuildUp), PRISM_ACTIVITIES.Y)
                 .asc());
         }
@@ -289,7 +297,54 @@ public class SqlActivityQueryBuilder {
             queryBuilder.addLimit(query.offset(), query.limit());
         }
 
-        return queryBuilder.fetch();
+        return queryBuilder;
+    }
+
+    /**
+     * Get hashes of the descriptor and metadata to group activities by, if the database can hash them.
+     *
+     * <p>Hashes only need to tell apart activities which share every other group key (the action,
+     * world, material name, entity type and cause), but a collision would silently merge two groups,
+     * so each string is keyed by 64 bits of hash. H2 only has a 32-bit hash, so it's keyed by two
+     * hashes with different seeds.</p>
+     *
+     * @return The hash fields, or null to group by the descriptor and metadata themselves
+     */
+    protected List<Field<?>> descriptorKeys() {
+        List<String> hashes = switch (create.dialect().family()) {
+            case MYSQL, MARIADB -> List.of("cast(conv(left(md5({0}), 16), 16, 10) as unsigned)");
+            case POSTGRES -> List.of("hashtextextended({0}, 0)");
+            case H2 -> List.of("ora_hash({0}, 4294967295, 0)", "ora_hash({0}, 4294967295, 1)");
+            default -> null;
+        };
+
+        if (hashes == null) {
+            return null;
+        }
+
+        List<Field<?>> keys = new ArrayList<>();
+        for (String hash : hashes) {
+            keys.add(DSL.field(hash, Long.class, PRISM_ACTIVITIES.DESCRIPTOR));
+            keys.add(DSL.field(hash, Long.class, PRISM_ACTIVITIES.METADATA));
+        }
+
+        return keys;
+    }
+
+    /**
+     * Collect the primary keys for several materials.
+     *
+     * @param materialIds The primary keys by material
+     * @param materials The materials
+     * @return The primary keys
+     */
+    private List<UShort> materialIds(Map<String, List<UShort>> materialIds, String... materials) {
+        List<UShort> ids = new ArrayList<>();
+        for (String material : materials) {
+            ids.addAll(materialIds.getOrDefault(material, List.of()));
+        }
+
+        return ids;
     }
 
     /**
@@ -301,6 +356,9 @@ public class SqlActivityQueryBuilder {
     protected List<Condition> conditions(ActivityQuery query) {
         List<Condition> conditions = new ArrayList<>();
 
+        // Relationships are filtered by primary key so that the activities table indexes
+        // can be used without joining. Values with no record can't match anything.
+
         // Action Types
         if (!query.actionTypes().isEmpty()) {
             List<String> actionTypeKeys = new ArrayList<>();
@@ -310,12 +368,12 @@ public class SqlActivityQueryBuilder {
                 }
             }
 
-            conditions.add(PRISM_ACTIONS.ACTION.in(actionTypeKeys));
+            conditions.add(PRISM_ACTIVITIES.ACTION_ID.in(dimensionResolver.actionIds(actionTypeKeys)));
         }
 
         // Action Type Keys
         if (!query.actionTypeKeys().isEmpty()) {
-            conditions.add(PRISM_ACTIONS.ACTION.in(query.actionTypeKeys()));
+            conditions.add(PRISM_ACTIVITIES.ACTION_ID.in(dimensionResolver.actionIds(query.actionTypeKeys())));
         }
 
         // Activity IDs
@@ -325,12 +383,13 @@ public class SqlActivityQueryBuilder {
 
         // Cause
         if (query.cause() != null) {
-            conditions.add(PRISM_CAUSES.CAUSE.equal(query.cause()));
+            UInteger causeId = dimensionResolver.causeId(query.cause());
+            conditions.add(causeId != null ? PRISM_ACTIVITIES.CAUSE_ID.equal(causeId) : DSL.falseCondition());
         }
 
         // Entity Types
         if (!query.entityTypes().isEmpty()) {
-            conditions.add(PRISM_ENTITY_TYPES.ENTITY_TYPE.in(query.entityTypes()));
+            conditions.add(PRISM_ACTIVITIES.ENTITY_TYPE_ID.in(dimensionResolver.entityTypeIds(query.entityTypes())));
         }
 
         // Locations
@@ -349,12 +408,15 @@ public class SqlActivityQueryBuilder {
 
         // Materials
         if (!query.materials().isEmpty()) {
-            conditions.add(PRISM_MATERIALS.MATERIAL.in(query.materials()));
+            List<UShort> materialIds = new ArrayList<>();
+            dimensionResolver.materialIds(query.materials()).values().forEach(materialIds::addAll);
+
+            conditions.add(PRISM_ACTIVITIES.MATERIAL_ID.in(materialIds));
         }
 
         // Players by name
         if (!query.playerNames().isEmpty()) {
-            conditions.add(PRISM_PLAYERS.PLAYER.in(query.playerNames()));
+            conditions.add(PRISM_ACTIVITIES.CAUSE_ID.in(dimensionResolver.playerCauseIds(query.playerNames())));
         }
 
         // Reversed
@@ -374,7 +436,8 @@ public class SqlActivityQueryBuilder {
 
         // World
         if (query.worldUuid() != null) {
-            conditions.add(PRISM_WORLDS.WORLD_UUID.equal(query.worldUuid().toString()));
+            UByte worldId = dimensionResolver.worldId(query.worldUuid());
+            conditions.add(worldId != null ? PRISM_ACTIVITIES.WORLD_ID.equal(worldId) : DSL.falseCondition());
         }
 
         return conditions;
@@ -0,0 +1,80 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import network.darkhelmet.prism.api.activities.Activity;
+import network.darkhelmet.prism.api.storage.ActivityBatch;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+/**
+ * Wraps another batch, updating the activity rollups once it's committed.
+ */
+public class SqlActivityRollupBatch implements ActivityBatch {
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The wrapped batch.
+     */
+    private final ActivityBatch batch;
+
+    /**
+     * The rollups.
+     */
+    private final SqlActivityRollups rollups;
+
+    /**
+     * Construct a new rollup batch.
+     *
+     * @param loggingService The logging service
+     * @param batch The wrapped batch
+     * @param rollups The rollups
+     */
+    public SqlActivityRollupBatch(LoggingService loggingService, ActivityBatch batch, SqlActivityRollups rollups) {
+        this.loggingService = loggingService;
+        this.batch = batch;
+        this.rollups = rollups;
+    }
+
+    @Override
+    public void startBatch() throws Exception {
+        batch.startBatch();
+    }
+
+    @Override
+    public void add(Activity activity) throws Exception {
+        batch.add(activity);
+    }
+
+    @Override
+    public void commitBatch() throws Exception {
+        batch.commitBatch();
+
+        // The activities are saved either way, and will be rolled up after the next batch
+        try {
+            rollups.update();
+        } catch (Exception e) {
+            loggingService.handleException(e);
+        }
+    }
+}
@@ -0,0 +1,874 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+import network.darkhelmet.prism.core.storage.dbo.Indexes;
+import network.darkhelmet.prism.core.storage.dbo.records.PrismActivityRollupsRecord;
+
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Index;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.Row4;
+import org.jooq.Result;
+import org.jooq.SelectQuery;
+import org.jooq.impl.DSL;
+import org.jooq.types.UByte;
+import org.jooq.types.UInteger;
+import org.jooq.types.UShort;
+
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITIES;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITY_ROLLUPS;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_DATABASE;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_MATERIALS;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_META;
+import static org.jooq.impl.DSL.greatest;
+import static org.jooq.impl.DSL.least;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.min;
+import static org.jooq.impl.DSL.sum;
+
+/**
+ * Maintains hourly rollups of activities and answers grouped lookups from them.
+ *
+ * <p>Rollups are keyed on the hour, world, chunk, action, material, entity type, cause,
+ * descriptor and metadata, and hold a count, coordinate/timestamp sums (for averages)
+ * and a bounding box. Activities are rolled up in primary key order after each batch
+ * is committed, and the last rolled-up primary key is stored as a high-water mark.</p>
+ *
+ * <p>Primary keys aren't always committed in order, a concurrent writer may commit lower keys
+ * after higher ones. The high-water mark only advances to a max primary key once it was seen
+ * at least {@link #SAFETY_WINDOW_MILLIS} ago, by which time any lower keys have been committed.</p>
+ *
+ * <p>Grouped lookups read whole hours from the rollups and everything else (partial hours
+ * at either end of the range, and activities newer than the high-water mark) from the
+ * activities table, then combine the two.</p>
+ */
+public class SqlActivityRollups {
+    /**
+     * The rollup grain, in seconds.
+     */
+    private static final int HOUR = 3600;
+
+    /**
+     * The max number of activities rolled up at once. This keeps backfilling an
+     * existing database from holding up recording.
+     */
+    private static final int MAX_ACTIVITIES_PER_UPDATE = 10000;
+
+    /**
+     * How long (in ms) a max primary key must have been seen before activities up to it are rolled up.
+     */
+    private static final long SAFETY_WINDOW_MILLIS = 60000;
+
+    /**
+     * The max number of rollup cells looked up at once.
+     */
+    private static final int MAX_CELLS_PER_LOOKUP = 500;
+
+    /**
+     * The meta key for the high-water mark.
+     */
+    private static final String HIGH_WATER_MARK = "rollup_hwm";
+
+    /**
+     * The dsl context.
+     */
+    private final DSLContext create;
+
+    /**
+     * A dsl context for transactions, which borrows its own connection for each.
+     */
+    private final DSLContext transactional;
+
+    /**
+     * The query builder.
+     */
+    private final SqlActivityQueryBuilder queryBuilder;
+
+    /**
+     * The dimension resolver.
+     */
+    private final SqlDimensionResolver dimensionResolver;
+
+    /**
+     * Guards the rollups and high-water mark so lookups see them change together.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The primary key of the last rolled-up activity.
+     */
+    private long highWaterMark = 0;
+
+    /**
+     * The highest primary key seen longer ago than the safety window.
+     */
+    private long safePrimaryKey = 0;
+
+    /**
+     * Max primary keys seen by updates and not yet safe, oldest first.
+     */
+    private final Deque<ObservedPrimaryKey> observedPrimaryKeys = new ArrayDeque<>();
+
+    /**
+     * Construct new rollups.
+     *
+     * @param dataSource The data source
+     * @param create The DSL context
+     * @param queryBuilder The query builder
+     * @param dimensionResolver The dimension resolver
+     */
+    public SqlActivityRollups(
+            HikariDataSource dataSource,
+            DSLContext create,
+            SqlActivityQueryBuilder queryBuilder,
+            SqlDimensionResolver dimensionResolver) {
+        this.create = create;
+        this.transactional = DSL.using(create.configuration().derive(dataSource));
+        this.queryBuilder = queryBuilder;
+        this.dimensionResolver = dimensionResolver;
+    }
+
+    /**
+     * Create the rollups table and load the high-water mark.
+     */
+    public void prepareSchema() {
+        create.createTableIfNotExists(PRISM_ACTIVITY_ROLLUPS)
+            .column(PRISM_ACTIVITY_ROLLUPS.ROLLUP_ID)
+            .column(PRISM_ACTIVITY_ROLLUPS.HOUR)
+            .column(PRISM_ACTIVITY_ROLLUPS.WORLD_ID)
+            .column(PRISM_ACTIVITY_ROLLUPS.CHUNK_X)
+            .column(PRISM_ACTIVITY_ROLLUPS.CHUNK_Z)
+            .column(PRISM_ACTIVITY_ROLLUPS.ACTION_ID)
+            .column(PRISM_ACTIVITY_ROLLUPS.MATERIAL_ID)
+            .column(PRISM_ACTIVITY_ROLLUPS.ENTITY_TYPE_ID)
+            .column(PRISM_ACTIVITY_ROLLUPS.CAUSE_ID)
+            .column(PRISM_ACTIVITY_ROLLUPS.DESCRIPTOR)
+            .column(PRISM_ACTIVITY_ROLLUPS.METADATA)
+            .column(PRISM_ACTIVITY_ROLLUPS.COUNT)
+            .column(PRISM_ACTIVITY_ROLLUPS.SUM_X)
+            .column(PRISM_ACTIVITY_ROLLUPS.SUM_Y)
+            .column(PRISM_ACTIVITY_ROLLUPS.SUM_Z)
+            .column(PRISM_ACTIVITY_ROLLUPS.SUM_TIMESTAMP)
+            .column(PRISM_ACTIVITY_ROLLUPS.MIN_X)
+            .column(PRISM_ACTIVITY_ROLLUPS.MAX_X)
+            .column(PRISM_ACTIVITY_ROLLUPS.MIN_Y)
+            .column(PRISM_ACTIVITY_ROLLUPS.MAX_Y)
+            .column(PRISM_ACTIVITY_ROLLUPS.MIN_Z)
+            .column(PRISM_ACTIVITY_ROLLUPS.MAX_Z)
+            .primaryKey(PRISM_ACTIVITY_ROLLUPS.ROLLUP_ID)
+            .execute();
+
+        List<Index> indexes = create.meta(PRISM_DATABASE).getIndexes();
+        if (!indexes.contains(Indexes.PRISM_ACTIVITY_ROLLUPS_CELL)) {
+            create.createIndex("cell")
+                .on(PRISM_ACTIVITY_ROLLUPS,
+                    PRISM_ACTIVITY_ROLLUPS.HOUR,
+                    PRISM_ACTIVITY_ROLLUPS.WORLD_ID,
+                    PRISM_ACTIVITY_ROLLUPS.CHUNK_X,
+                    PRISM_ACTIVITY_ROLLUPS.CHUNK_Z)
+                .execute();
+        }
+
+        String value = create
+            .select(PRISM_META.V)
+            .from(PRISM_META)
+            .where(PRISM_META.K.eq(HIGH_WATER_MARK))
+            .fetchOne(PRISM_META.V);
+
+        if (value != null) {
+            highWaterMark = Long.parseLong(value);
+        } else {
+            create.insertInto(PRISM_META, PRISM_META.K, PRISM_META.V)
+                .values(HIGH_WATER_MARK, "0")
+                .execute();
+        }
+    }
+
+    /**
+     * Roll up activities recorded since the last update.
+     */
+    public void update() {
+        lock.writeLock().lock();
+
+        try {
+            transactional.transaction(configuration -> {
+                DSLContext ctx = configuration.dsl();
+
+                UInteger maxPrimaryKey = ctx
+                    .select(max(PRISM_ACTIVITIES.ACTIVITY_ID))
+                    .from(PRISM_ACTIVITIES)
+                    .fetchOne(0, UInteger.class);
+
+                long now = System.currentTimeMillis();
+                if (maxPrimaryKey != null && (observedPrimaryKeys.isEmpty()
+                        || observedPrimaryKeys.peekLast().primaryKey() < maxPrimaryKey.longValue())) {
+                    observedPrimaryKeys.addLast(new ObservedPrimaryKey(maxPrimaryKey.longValue(), now));
+                }
+
+                // Any transaction holding a lower key has committed once its max key was seen long enough ago
+                while (!observedPrimaryKeys.isEmpty()
+                        && observedPrimaryKeys.peekFirst().observedAt() <= now - SAFETY_WINDOW_MILLIS) {
+                    safePrimaryKey = Math.max(safePrimaryKey, observedPrimaryKeys.pollFirst().primaryKey());
+                }
+
+                if (safePrimaryKey <= highWaterMark) {
+                    return;
+                }
+
+                long upTo = Math.min(safePrimaryKey, highWaterMark + MAX_ACTIVITIES_PER_UPDATE);
+
+                Map<RollupKey, RollupTotals> rollups = rollup(ctx, PRISM_ACTIVITIES.ACTIVITY_ID
+                    .between(UInteger.valueOf(highWaterMark + 1), UInteger.valueOf(upTo)));
+
+                increment(ctx, rollups);
+
+                ctx.update(PRISM_META)
+                    .set(PRISM_META.V, String.valueOf(upTo))
+                    .where(PRISM_META.K.eq(HIGH_WATER_MARK))
+                    .execute();
+
+                highWaterMark = upTo;
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Delete activities, removing them from the rollups too.
+     *
+     * @param query The query
+     * @param cycleMinPrimaryKey The min primary key
+     * @param cycleMaxPrimaryKey The max primary key
+     * @return The number of rows deleted
+     */
+    public int deleteActivities(ActivityQuery query, int cycleMinPrimaryKey, int cycleMaxPrimaryKey) {
+        lock.writeLock().lock();
+
+        try {
+            return transactional.transactionResult(configuration -> {
+                DSLContext ctx = configuration.dsl();
+
+                List<Condition> conditions = queryBuilder.conditions(query);
+                conditions.add(PRISM_ACTIVITIES.ACTIVITY_ID
+                    .between(UInteger.valueOf(cycleMinPrimaryKey), UInteger.valueOf(cycleMaxPrimaryKey)));
+
+                // Only activities that have been rolled up need to be removed from the rollups
+                List<Condition> rolledUp = new ArrayList<>(conditions);
+                rolledUp.add(PRISM_ACTIVITIES.ACTIVITY_ID.le(UInteger.valueOf(highWaterMark)));
+
+                Map<RollupKey, RollupTotals> rollups = rollup(ctx, DSL.and(rolledUp));
+                if (!rollups.isEmpty()) {
+                    decrement(ctx, rollups);
+
+                    long minHour = Long.MAX_VALUE;
+                    long maxHour = 0;
+                    for (var entry : rollups.entrySet()) {
+                        minHour = Math.min(minHour, entry.getKey().hour().longValue());
+                        maxHour = Math.max(maxHour, entry.getKey().hour().longValue());
+                    }
+
+                    ctx.deleteFrom(PRISM_ACTIVITY_ROLLUPS)
+                        .where(PRISM_ACTIVITY_ROLLUPS.COUNT.eq(UInteger.valueOf(0)))
+                        .and(PRISM_ACTIVITY_ROLLUPS.HOUR
+                            .between(UInteger.valueOf(minHour), UInteger.valueOf(maxHour)))
+                        .execute();
+                }
+
+                return ctx.deleteFrom(PRISM_ACTIVITIES).where(conditions).execute();
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Check whether a query can be answered (in part) from the rollups.
+     *
+     * <p>Only grouped lookups filtered by the dimensions the rollups are keyed on are supported.</p>
+     *
+     * @param query The activity query
+     * @return True if the query can use the rollups
+     */
+    public boolean accepts(ActivityQuery query) {
+        return query.grouped()
+            && query.lookup()
+            && query.coordinate() == null
+            && query.reversed() == null
+            && (query.activityIds() == null || query.activityIds().isEmpty());
+    }
+
+    /**
+     * Fetch grouped activities, reading whole hours from the rollups.
+     *
+     * @param query The activity query
+     * @return The results, or null if the rollups can't be used for this query
+     */
+    public Result<Record> fetch(ActivityQuery query) {
+        // The whole hours in the query's time range. "after" is inclusive when paired
+        // with "before" and exclusive otherwise.
+        long firstHour = 0;
+        if (query.after() != null) {
+            long start = query.before() != null ? query.after() : query.after() + 1;
+            firstHour = Math.ceilDiv(start, HOUR) * HOUR;
+        }
+
+        Long lastHour = null;
+        if (query.before() != null) {
+            long end = query.after() != null ? query.before() + 1 : query.before();
+            lastHour = Math.floorDiv(end, HOUR) * HOUR;
+
+            if (firstHour >= lastHour) {
+                return null;
+            }
+        }
+
+        lock.readLock().lock();
+
+        try {
+            List<Condition> conditions = conditions(query, firstHour, lastHour);
+
+            if (query.minCoordinate() != null && query.maxCoordinate() != null) {
+                Condition contained = contained(query);
+                Condition disjoint = disjoint(query);
+
+                // Rollups only partially inside the bounding box can't be used
+                if (create.fetchExists(PRISM_ACTIVITY_ROLLUPS, DSL.and(conditions), contained.not(), disjoint.not())) {
+                    return null;
+                }
+
+                conditions.add(contained);
+            }
+
+            // Everything not covered by the rollups comes from the activities table
+            ActivityQuery rawQuery = query.toBuilder().offset(0).limit(0).build();
+            SelectQuery<Record> rawSelect = queryBuilder.activitiesQuery(rawQuery);
+
+            Condition uncovered = PRISM_ACTIVITIES.TIMESTAMP.lt(UInteger.valueOf(firstHour))
+                .or(PRISM_ACTIVITIES.ACTIVITY_ID.gt(UInteger.valueOf(highWaterMark)));
+            if (lastHour != null) {
+                uncovered = uncovered.or(PRISM_ACTIVITIES.TIMESTAMP.ge(UInteger.valueOf(lastHour)));
+            }
+
+            rawSelect.addConditions(uncovered);
+
+            var rollups = create
+                .select(
+                    PRISM_ACTIVITY_ROLLUPS.ACTION_ID,
+                    PRISM_ACTIVITY_ROLLUPS.WORLD_ID,
+                    PRISM_ACTIVITY_ROLLUPS.ENTITY_TYPE_ID,
+                    PRISM_ACTIVITY_ROLLUPS.CAUSE_ID,
+                    PRISM_ACTIVITY_ROLLUPS.DESCRIPTOR,
+                    PRISM_ACTIVITY_ROLLUPS.METADATA,
+                    min(PRISM_ACTIVITY_ROLLUPS.MATERIAL_ID).as(PRISM_ACTIVITIES.MATERIAL_ID.getName()),
+                    average(PRISM_ACTIVITY_ROLLUPS.SUM_X).as(PRISM_ACTIVITIES.X.getName()),
+                    average(PRISM_ACTIVITY_ROLLUPS.SUM_Y).as(PRISM_ACTIVITIES.Y.getName()),
+                    average(PRISM_ACTIVITY_ROLLUPS.SUM_Z).as(PRISM_ACTIVITIES.Z.getName()),
+                    average(PRISM_ACTIVITY_ROLLUPS.SUM_TIMESTAMP).as(PRISM_ACTIVITIES.TIMESTAMP.getName()),
+                    sum(PRISM_ACTIVITY_ROLLUPS.COUNT).as(SqlActivityColumns.GROUP_COUNT))
+                .from(PRISM_ACTIVITY_ROLLUPS)
+                .leftJoin(PRISM_MATERIALS)
+                .on(PRISM_MATERIALS.MATERIAL_ID.eq(PRISM_ACTIVITY_ROLLUPS.MATERIAL_ID))
+                .where(conditions)
+                .groupBy(
+                    PRISM_ACTIVITY_ROLLUPS.ACTION_ID,
+                    PRISM_ACTIVITY_ROLLUPS.WORLD_ID,
+                    PRISM_MATERIALS.MATERIAL,
+                    PRISM_ACTIVITY_ROLLUPS.ENTITY_TYPE_ID,
+                    PRISM_ACTIVITY_ROLLUPS.CAUSE_ID,
+                    PRISM_ACTIVITY_ROLLUPS.DESCRIPTOR,
+                    PRISM_ACTIVITY_ROLLUPS.METADATA)
+                .fetch();
+
+            // The raw result goes first, it decides the merged column layout
+            SqlGroupedActivityMerger merger = new SqlGroupedActivityMerger(create, dimensionResolver);
+            merger.add(rawSelect.fetch());
+            merger.add(rollups);
+
+            return merger.result(query);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the rollup conditions for a query.
+     *
+     * @param query The activity query
+     * @param firstHour The first whole hour
+     * @param lastHour The end of the last whole hour, if any
+     * @return The conditions
+     */
+    private List<Condition> conditions(ActivityQuery query, long firstHour, Long lastHour) {
+        List<Condition> conditions = new ArrayList<>();
+
+        conditions.add(PRISM_ACTIVITY_ROLLUPS.HOUR.ge(UInteger.valueOf(firstHour)));
+        if (lastHour != null) {
+            conditions.add(PRISM_ACTIVITY_ROLLUPS.HOUR.lt(UInteger.valueOf(lastHour)));
+        }
+
+        // Action Types
+        if (!query.actionTypes().isEmpty()) {
+            List<String> actionTypeKeys = new ArrayList<>();
+            for (var actionType : query.actionTypes()) {
+                actionTypeKeys.add(actionType.key());
+            }
+
+            conditions.add(PRISM_ACTIVITY_ROLLUPS.ACTION_ID.in(dimensionResolver.actionIds(actionTypeKeys)));
+        }
+
+        // Action Type Keys
+        if (!query.actionTypeKeys().isEmpty()) {
+            conditions.add(PRISM_ACTIVITY_ROLLUPS.ACTION_ID.in(dimensionResolver.actionIds(query.actionTypeKeys())));
+        }
+
+        // Cause
+        if (query.cause() != null) {
+            UInteger causeId = dimensionResolver.causeId(query.cause());
+            conditions.add(causeId != null ? PRISM_ACTIVITY_ROLLUPS.CAUSE_ID.equal(causeId) : DSL.falseCondition());
+        }
+
+        // Entity Types
+        if (!query.entityTypes().isEmpty()) {
+            conditions.add(PRISM_ACTIVITY_ROLLUPS.ENTITY_TYPE_ID
+                .in(dimensionResolver.entityTypeIds(query.entityTypes())));
+        }
+
+        // Chunks overlapping the bounding box
+        if (query.minCoordinate() != null && query.maxCoordinate() != null) {
+            conditions.add(PRISM_ACTIVITY_ROLLUPS.CHUNK_X.between(
+                Math.floorDiv(query.minCoordinate().intX(), 16), Math.floorDiv(query.maxCoordinate().intX(), 16)));
+            conditions.add(PRISM_ACTIVITY_ROLLUPS.CHUNK_Z.between(
+                Math.floorDiv(query.minCoordinate().intZ(), 16), Math.floorDiv(query.maxCoordinate().intZ(), 16)));
+        }
+
+        // Materials
+        if (!query.materials().isEmpty()) {
+            List<UShort> materialIds = new ArrayList<>();
+            dimensionResolver.materialIds(query.materials()).values().forEach(materialIds::addAll);
+
+            conditions.add(PRISM_ACTIVITY_ROLLUPS.MATERIAL_ID.in(materialIds));
+        }
+
+        // Players by name
+        if (!query.playerNames().isEmpty()) {
+            conditions.add(PRISM_ACTIVITY_ROLLUPS.CAUSE_ID
+                .in(dimensionResolver.playerCauseIds(query.playerNames())));
+        }
+
+        // World
+        if (query.worldUuid() != null) {
+            UByte worldId = dimensionResolver.worldId(query.worldUuid());
+            conditions.add(worldId != null ? PRISM_ACTIVITY_ROLLUPS.WORLD_ID.equal(worldId) : DSL.falseCondition());
+        }
+
+        return conditions;
+    }
+
+    /**
+     * Get a condition matching rollups entirely inside the query's bounding box.
+     *
+     * @param query The activity query
+     * @return The condition
+     */
+    private Condition contained(ActivityQuery query) {
+        return PRISM_ACTIVITY_ROLLUPS.MIN_X.ge(query.minCoordinate().intX())
+            .and(PRISM_ACTIVITY_ROLLUPS.MAX_X.le(query.maxCoordinate().intX()))
+            .and(PRISM_ACTIVITY_ROLLUPS.MIN_Y.ge(query.minCoordinate().intY()))
+            .and(PRISM_ACTIVITY_ROLLUPS.MAX_Y.le(query.maxCoordinate().intY()))
+            .and(PRISM_ACTIVITY_ROLLUPS.MIN_Z.ge(query.minCoordinate().intZ()))
+            .and(PRISM_ACTIVITY_ROLLUPS.MAX_Z.le(query.maxCoordinate().intZ()));
+    }
+
+    /**
+     * Get a condition matching rollups entirely outside the query's bounding box.
+     *
+     * @param query The activity query
+     * @return The condition
+     */
+    private Condition disjoint(ActivityQuery query) {
+        return PRISM_ACTIVITY_ROLLUPS.MAX_X.lt(query.minCoordinate().intX())
+            .or(PRISM_ACTIVITY_ROLLUPS.MIN_X.gt(query.maxCoordinate().intX()))
+            .or(PRISM_ACTIVITY_ROLLUPS.MAX_Y.lt(query.minCoordinate().intY()))
+            .or(PRISM_ACTIVITY_ROLLUPS.MIN_Y.gt(query.maxCoordinate().intY()))
+            .or(PRISM_ACTIVITY_ROLLUPS.MAX_Z.lt(query.minCoordinate().intZ()))
+            .or(PRISM_ACTIVITY_ROLLUPS.MIN_Z.gt(query.maxCoordinate().intZ()));
+    }
+
+    /**
+     * Get the average of a summed column across grouped rollups.
+     *
+     * @param sumField The sum column
+     * @return The average field
+     */
+    private static Field<BigDecimal> average(Field<Long> sumField) {
+        return sum(sumField).div(sum(PRISM_ACTIVITY_ROLLUPS.COUNT));
+    }
+
+    /**
+     * Roll up the activities matching a condition.
+     *
+     * @param ctx The DSL context
+     * @param condition The condition
+     * @return The rollup totals by key
+     */
+    private Map<RollupKey, RollupTotals> rollup(DSLContext ctx, Condition condition) {
+        var activities = ctx
+            .select(
+                PRISM_ACTIVITIES.TIMESTAMP,
+                PRISM_ACTIVITIES.WORLD_ID,
+                PRISM_ACTIVITIES.X,
+                PRISM_ACTIVITIES.Y,
+                PRISM_ACTIVITIES.Z,
+                PRISM_ACTIVITIES.ACTION_ID,
+                PRISM_ACTIVITIES.MATERIAL_ID,
+                PRISM_ACTIVITIES.ENTITY_TYPE_ID,
+                PRISM_ACTIVITIES.CAUSE_ID,
+                PRISM_ACTIVITIES.DESCRIPTOR,
+                PRISM_ACTIVITIES.METADATA)
+            .from(PRISM_ACTIVITIES)
+            .where(condition)
+            .fetch();
+
+        Map<RollupKey, RollupTotals> rollups = new HashMap<>();
+        for (var r : activities) {
+            long timestamp = r.value1().longValue();
+            int x = r.value3();
+            int y = r.value4();
+            int z = r.value5();
+
+            RollupKey key = new RollupKey(
+                UInteger.valueOf(Math.floorDiv(timestamp, HOUR) * HOUR),
+                r.value2(),
+                Math.floorDiv(x, 16),
+                Math.floorDiv(z, 16),
+                r.value6(),
+                r.value7(),
+                r.value8(),
+                r.value9(),
+                r.value10(),
+                r.value11());
+
+            rollups.computeIfAbsent(key, k -> new RollupTotals(x, y, z)).add(x, y, z, timestamp);
+        }
+
+        return rollups;
+    }
+
+    /**
+     * Add totals to rollups, creating any that don't exist yet.
+     *
+     * <p>Existing rollups are found with one query per group of cells, then updated in one batch,
+     * and new rollups are inserted in another.</p>
+     *
+     * @param ctx The DSL context
+     * @param rollups The totals by rollup key
+     */
+    private void increment(DSLContext ctx, Map<RollupKey, RollupTotals> rollups) {
+        Map<RollupKey, UInteger> rollupIds = rollupIds(ctx, rollups.keySet());
+
+        List<Query> updates = new ArrayList<>();
+        List<PrismActivityRollupsRecord> inserts = new ArrayList<>();
+        for (var entry : rollups.entrySet()) {
+            RollupKey key = entry.getKey();
+            RollupTotals totals = entry.getValue();
+
+            UInteger rollupId = rollupIds.get(key);
+            if (rollupId != null) {
+                updates.add(ctx.update(PRISM_ACTIVITY_ROLLUPS)
+                    .set(PRISM_ACTIVITY_ROLLUPS.COUNT,
+                        PRISM_ACTIVITY_ROLLUPS.COUNT.plus(UInteger.valueOf(totals.count)))
+                    .set(PRISM_ACTIVITY_ROLLUPS.SUM_X, PRISM_ACTIVITY_ROLLUPS.SUM_X.plus(totals.sumX))
+                    .set(PRISM_ACTIVITY_ROLLUPS.SUM_Y, PRISM_ACTIVITY_ROLLUPS.SUM_Y.plus(totals.sumY))
+                    .set(PRISM_ACTIVITY_ROLLUPS.SUM_Z, PRISM_ACTIVITY_ROLLUPS.SUM_Z.plus(totals.sumZ))
+                    .set(PRISM_ACTIVITY_ROLLUPS.SUM_TIMESTAMP,
+                        PRISM_ACTIVITY_ROLLUPS.SUM_TIMESTAMP.plus(totals.sumTimestamp))
+                    .set(PRISM_ACTIVITY_ROLLUPS.MIN_X, least(PRISM_ACTIVITY_ROLLUPS.MIN_X, DSL.val(totals.minX)))
+                    .set(PRISM_ACTIVITY_ROLLUPS.MAX_X, greatest(PRISM_ACTIVITY_ROLLUPS.MAX_X, DSL.val(totals.maxX)))
+                    .set(PRISM_ACTIVITY_ROLLUPS.MIN_Y, least(PRISM_ACTIVITY_ROLLUPS.MIN_Y, DSL.val(totals.minY)))
+                    .set(PRISM_ACTIVITY_ROLLUPS.MAX_Y, greatest(PRISM_ACTIVITY_ROLLUPS.MAX_Y, DSL.val(totals.maxY)))
+                    .set(PRISM_ACTIVITY_ROLLUPS.MIN_Z, least(PRISM_ACTIVITY_ROLLUPS.MIN_Z, DSL.val(totals.minZ)))
+                    .set(PRISM_ACTIVITY_ROLLUPS.MAX_Z, greatest(PRISM_ACTIVITY_ROLLUPS.MAX_Z, DSL.val(totals.maxZ)))
+                    .where(PRISM_ACTIVITY_ROLLUPS.ROLLUP_ID.eq(rollupId)));
+            } else {
+                PrismActivityRollupsRecord record = ctx.newRecord(PRISM_ACTIVITY_ROLLUPS);
+                record.set(PRISM_ACTIVITY_ROLLUPS.HOUR, key.hour());
+                record.set(PRISM_ACTIVITY_ROLLUPS.WORLD_ID, key.worldId());
+                record.set(PRISM_ACTIVITY_ROLLUPS.CHUNK_X, key.chunkX());
+                record.set(PRISM_ACTIVITY_ROLLUPS.CHUNK_Z, key.chunkZ());
+                record.set(PRISM_ACTIVITY_ROLLUPS.ACTION_ID, key.actionId());
+                record.set(PRISM_ACTIVITY_ROLLUPS.MATERIAL_ID, key.materialId());
+                record.set(PRISM_ACTIVITY_ROLLUPS.ENTITY_TYPE_ID, key.entityTypeId());
+                record.set(PRISM_ACTIVITY_ROLLUPS.CAUSE_ID, key.causeId());
+                record.set(PRISM_ACTIVITY_ROLLUPS.DESCRIPTOR, key.descriptor());
+                record.set(PRISM_ACTIVITY_ROLLUPS.METADATA, key.metadata());
+                record.set(PRISM_ACTIVITY_ROLLUPS.COUNT, UInteger.valueOf(totals.count));
+                record.set(PRISM_ACTIVITY_ROLLUPS.SUM_X, totals.sumX);
+                record.set(PRISM_ACTIVITY_ROLLUPS.SUM_Y, totals.sumY);
+                record.set(PRISM_ACTIVITY_ROLLUPS.SUM_Z, totals.sumZ);
+                record.set(PRISM_ACTIVITY_ROLLUPS.SUM_TIMESTAMP, totals.sumTimestamp);
+                record.set(PRISM_ACTIVITY_ROLLUPS.MIN_X, totals.minX);
+                record.set(PRISM_ACTIVITY_ROLLUPS.MAX_X, totals.maxX);
+                record.set(PRISM_ACTIVITY_ROLLUPS.MIN_Y, totals.minY);
+                record.set(PRISM_ACTIVITY_ROLLUPS.MAX_Y, totals.maxY);
+                record.set(PRISM_ACTIVITY_ROLLUPS.MIN_Z, totals.minZ);
+                record.set(PRISM_ACTIVITY_ROLLUPS.MAX_Z, totals.maxZ);
+                inserts.add(record);
+            }
+        }
+
+        if (!updates.isEmpty()) {
+            ctx.batch(updates).execute();
+        }
+
+        if (!inserts.isEmpty()) {
+            ctx.batchInsert(inserts).execute();
+        }
+    }
+
+    /**
+     * Subtract totals from rollups, in one batch.
+     *
+     * <p>Bounding boxes are left as-is. They may be larger than needed afterwards,
+     * which only means fewer lookups can use the rollups.</p>
+     *
+     * @param ctx The DSL context
+     * @param rollups The totals by rollup key
+     */
+    private void decrement(DSLContext ctx, Map<RollupKey, RollupTotals> rollups) {
+        Map<RollupKey, UInteger> rollupIds = rollupIds(ctx, rollups.keySet());
+
+        List<Query> updates = new ArrayList<>();
+        for (var entry : rollups.entrySet()) {
+            UInteger rollupId = rollupIds.get(entry.getKey());
+            if (rollupId == null) {
+                continue;
+            }
+
+            RollupTotals totals = entry.getValue();
+            updates.add(ctx.update(PRISM_ACTIVITY_ROLLUPS)
+                .set(PRISM_ACTIVITY_ROLLUPS.COUNT, PRISM_ACTIVITY_ROLLUPS.COUNT.minus(UInteger.valueOf(totals.count)))
+                .set(PRISM_ACTIVITY_ROLLUPS.SUM_X, PRISM_ACTIVITY_ROLLUPS.SUM_X.minus(totals.sumX))
+                .set(PRISM_ACTIVITY_ROLLUPS.SUM_Y, PRISM_ACTIVITY_ROLLUPS.SUM_Y.minus(totals.sumY))
+                .set(PRISM_ACTIVITY_ROLLUPS.SUM_Z, PRISM_ACTIVITY_ROLLUPS.SUM_Z.minus(totals.sumZ))
+                .set(PRISM_ACTIVITY_ROLLUPS.SUM_TIMESTAMP,
+                    PRISM_ACTIVITY_ROLLUPS.SUM_TIMESTAMP.minus(totals.sumTimestamp))
+                .where(PRISM_ACTIVITY_ROLLUPS.ROLLUP_ID.eq(rollupId)));
+        }
+
+        if (!updates.isEmpty()) {
+            ctx.batch(updates).execute();
+        }
+    }
+
+    /**
+     * Find the primary keys of existing rollups, reading each cell (hour, world and chunk) through its index.
+     *
+     * @param ctx The DSL context
+     * @param keys The rollup keys
+     * @return The primary keys of rollups that exist, by rollup key
+     */
+    private Map<RollupKey, UInteger> rollupIds(DSLContext ctx, Iterable<RollupKey> keys) {
+        Map<List<Object>, Row4<UInteger, UByte, Integer, Integer>> uniqueCells = new LinkedHashMap<>();
+        for (RollupKey key : keys) {
+            uniqueCells.computeIfAbsent(List.of(key.hour(), key.worldId(), key.chunkX(), key.chunkZ()),
+                cell -> DSL.row(key.hour(), key.worldId(), key.chunkX(), key.chunkZ()));
+        }
+
+        List<Row4<UInteger, UByte, Integer, Integer>> cells = new ArrayList<>(uniqueCells.values());
+
+        Map<RollupKey, UInteger> rollupIds = new HashMap<>();
+        for (int i = 0; i < cells.size(); i += MAX_CELLS_PER_LOOKUP) {
+            ctx.select(
+                    PRISM_ACTIVITY_ROLLUPS.ROLLUP_ID,
+                    PRISM_ACTIVITY_ROLLUPS.HOUR,
+                    PRISM_ACTIVITY_ROLLUPS.WORLD_ID,
+                    PRISM_ACTIVITY_ROLLUPS.CHUNK_X,
+                    PRISM_ACTIVITY_ROLLUPS.CHUNK_Z,
+                    PRISM_ACTIVITY_ROLLUPS.ACTION_ID,
+                    PRISM_ACTIVITY_ROLLUPS.MATERIAL_ID,
+                    PRISM_ACTIVITY_ROLLUPS.ENTITY_TYPE_ID,
+                    PRISM_ACTIVITY_ROLLUPS.CAUSE_ID,
+                    PRISM_ACTIVITY_ROLLUPS.DESCRIPTOR,
+                    PRISM_ACTIVITY_ROLLUPS.METADATA)
+                .from(PRISM_ACTIVITY_ROLLUPS)
+                .where(DSL.row(
+                        PRISM_ACTIVITY_ROLLUPS.HOUR,
+                        PRISM_ACTIVITY_ROLLUPS.WORLD_ID,
+                        PRISM_ACTIVITY_ROLLUPS.CHUNK_X,
+                        PRISM_ACTIVITY_ROLLUPS.CHUNK_Z)
+                    .in(cells.subList(i, Math.min(i + MAX_CELLS_PER_LOOKUP, cells.size()))))
+                .forEach(r -> rollupIds.put(new RollupKey(
+                    r.value2(), r.value3(), r.value4(), r.value5(), r.value6(),
+                    r.value7(), r.value8(), r.value9(), r.value10(), r.value11()), r.value1()));
+        }
+
+        return rollupIds;
+    }
+
+    /**
+     * A max primary key, and when it was seen.
+     *
+     * @param primaryKey The primary key
+     * @param observedAt When it was seen (in ms)
+     */
+    private record ObservedPrimaryKey(long primaryKey, long observedAt) {}
+
+    /**
+     * The key of a rollup.
+     *
+     * @param hour The hour (timestamp, in seconds)
+     * @param worldId The world id
+     * @param chunkX The chunk x
+     * @param chunkZ The chunk z
+     * @param actionId The action id
+     * @param materialId The material id
+     * @param entityTypeId The entity type id
+     * @param causeId The cause id
+     * @param descriptor The descriptor
+     * @param metadata The metadata
+     */
+    private record RollupKey(
+            UInteger hour,
+            UByte worldId,
+            int chunkX,
+            int chunkZ,
+            UByte actionId,
+            UShort materialId,
+            UShort entityTypeId,
+            UInteger causeId,
+            String descriptor,
+            String metadata) {
+    }
+
+    /**
+     * The totals of a rollup.
+     */
+    private static final class RollupTotals {
+        /**
+         * The number of activities.
+         */
+        private long count = 0;
+
+        /**
+         * The sum of x.
+         */
+        private long sumX = 0;
+
+        /**
+         * The sum of y.
+         */
+        private long sumY = 0;
+
+        /**
+         * The sum of z.
+         */
+        private long sumZ = 0;
+
+        /**
+         * The sum of timestamps.
+         */
+        private long sumTimestamp = 0;
+
+        /**
+         * The min x.
+         */
+        private int minX;
+
+        /**
+         * The max x.
+         */
+        private int maxX;
+
+        /**
+         * The min y.
+         */
+        private int minY;
+
+        /**
+         * The max y.
+         */
+        private int maxY;
+
+        /**
+         * The min z.
+         */
+        private int minZ;
+
+        /**
+         * The max z.
+         */
+        private int maxZ;
+
+        /**
+         * Construct new totals.
+         *
+         * @param x The first x
+         * @param y The first y
+         * @param z The first z
+         */
+        RollupTotals(int x, int y, int z) {
+            minX = maxX = x;
+            minY = maxY = y;
+            minZ = maxZ = z;
+        }
+
+        /**
+         * Add an activity.
+         *
+         * @param x The x
+         * @param y The y
+         * @param z The z
+         * @param timestamp The timestamp
+         */
+        void add(int x, int y, int z, long timestamp) {
+            count++;
+            sumX += x;
+            sumY += y;
+            sumZ += z;
+            sumTimestamp += timestamp;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            minZ = Math.min(minZ, z);
+            maxZ = Math.max(maxZ, z);
+        }
+    }
+}
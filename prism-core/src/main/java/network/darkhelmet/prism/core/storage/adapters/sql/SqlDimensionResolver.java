@@ -0,0 +1,486 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import network.darkhelmet.prism.api.util.Pair;
+import network.darkhelmet.prism.core.services.cache.CacheService;
+import network.darkhelmet.prism.core.services.cache.CachedCause;
+
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.types.UByte;
+import org.jooq.types.UInteger;
+import org.jooq.types.UShort;
+
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIONS;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_CAUSES;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ENTITY_TYPES;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_MATERIALS;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_PLAYERS;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_WORLDS;
+import static network.darkhelmet.prism.core.storage.adapters.sql.SqlActivityColumns.number;
+
+/**
+ * Translates between the surrogate keys of the activities table and their values through
+ * the dictionaries in the cache service, so that queries don't have to join every dimension table.
+ *
+ * <p>Any keys or values not yet in the caches are fetched in batches.</p>
+ */
+public class SqlDimensionResolver {
+    /**
+     * The max number of keys per "in" clause. Keeps us under sqlite's bind variable limit.
+     */
+    private static final int MAX_KEYS_PER_QUERY = 500;
+
+    /**
+     * The cache service.
+     */
+    private final CacheService cacheService;
+
+    /**
+     * The dsl context.
+     */
+    private final DSLContext create;
+
+    /**
+     * Construct a new dimension resolver.
+     *
+     * @param cacheService The cache service
+     * @param create The DSL context
+     */
+    public SqlDimensionResolver(CacheService cacheService, DSLContext create) {
+        this.cacheService = cacheService;
+        this.create = create;
+    }
+
+    /**
+     * Ensure every key in a result has been cached, fetching any missing values in batches.
+     *
+     * @param result The result
+     * @param columns The result's column indexes
+     */
+    public void resolve(Result<? extends Record> result, SqlActivityColumns columns) {
+        Set<Byte> actionIds = new HashSet<>();
+        Set<Byte> worldIds = new HashSet<>();
+        Set<Integer> materialIds = new HashSet<>();
+        Set<Integer> entityTypeIds = new HashSet<>();
+        Set<Long> causeIds = new HashSet<>();
+
+        for (Record r : result) {
+            byte actionId = number(r, columns.actionId()).byteValue();
+            if (cacheService.pkActionKeyMap().getIfPresent(actionId) == null) {
+                actionIds.add(actionId);
+            }
+
+            byte worldId = number(r, columns.worldId()).byteValue();
+            if (cacheService.pkWorldMap().getIfPresent(worldId) == null) {
+                worldIds.add(worldId);
+            }
+
+            Number entityTypeId = number(r, columns.entityTypeId());
+            if (entityTypeId != null && cacheService.pkEntityTypeMap().getIfPresent(entityTypeId.intValue()) == null) {
+                entityTypeIds.add(entityTypeId.intValue());
+            }
+
+            long causeId = number(r, columns.causeId()).longValue();
+            if (cacheService.pkCauseMap().getIfPresent(causeId) == null) {
+                causeIds.add(causeId);
+            }
+
+            for (int index : new int[] {columns.materialId(), columns.oldMaterialId()}) {
+                Number materialId = number(r, index);
+                if (materialId != null
+                        && cacheService.pkMaterialDataMap().getIfPresent(materialId.intValue()) == null) {
+                    materialIds.add(materialId.intValue());
+                }
+            }
+        }
+
+        fetchActions(actionIds);
+        fetchWorlds(worldIds);
+        fetchMaterials(materialIds);
+        fetchEntityTypes(entityTypeIds);
+        fetchCauses(causeIds);
+    }
+
+    /**
+     * Get the action key for a primary key.
+     *
+     * @param actionId The primary key
+     * @return The action key, or null if no record exists
+     */
+    public String actionKey(byte actionId) {
+        String actionKey = cacheService.pkActionKeyMap().getIfPresent(actionId);
+        if (actionKey == null) {
+            fetchActions(List.of(actionId));
+            actionKey = cacheService.pkActionKeyMap().getIfPresent(actionId);
+        }
+
+        return actionKey;
+    }
+
+    /**
+     * Get the cause for a primary key.
+     *
+     * @param causeId The primary key
+     * @return The cause, or null if no record exists
+     */
+    public CachedCause cause(long causeId) {
+        CachedCause cause = cacheService.pkCauseMap().getIfPresent(causeId);
+        if (cause == null) {
+            fetchCauses(List.of(causeId));
+            cause = cacheService.pkCauseMap().getIfPresent(causeId);
+        }
+
+        return cause;
+    }
+
+    /**
+     * Get the (uppercase) entity type for a primary key.
+     *
+     * @param entityTypeId The primary key
+     * @return The entity type, or null if no record exists
+     */
+    public String entityType(int entityTypeId) {
+        String entityType = cacheService.pkEntityTypeMap().getIfPresent(entityTypeId);
+        if (entityType == null) {
+            fetchEntityTypes(List.of(entityTypeId));
+            entityType = cacheService.pkEntityTypeMap().getIfPresent(entityTypeId);
+        }
+
+        return entityType;
+    }
+
+    /**
+     * Get the (uppercase) material and data for a primary key.
+     *
+     * @param materialId The primary key
+     * @return The material/data pair, or null if no record exists
+     */
+    public Pair<String, String> materialData(int materialId) {
+        Pair<String, String> materialData = cacheService.pkMaterialDataMap().getIfPresent(materialId);
+        if (materialData == null) {
+            fetchMaterials(List.of(materialId));
+            materialData = cacheService.pkMaterialDataMap().getIfPresent(materialId);
+        }
+
+        return materialData;
+    }
+
+    /**
+     * Get the world uuid/name for a primary key.
+     *
+     * @param worldId The primary key
+     * @return The world uuid/name pair, or null if no record exists
+     */
+    public Pair<UUID, String> world(byte worldId) {
+        Pair<UUID, String> world = cacheService.pkWorldMap().getIfPresent(worldId);
+        if (world == null) {
+            fetchWorlds(List.of(worldId));
+            world = cacheService.pkWorldMap().getIfPresent(worldId);
+        }
+
+        return world;
+    }
+
+    /**
+     * Get the primary keys for the given action keys.
+     *
+     * @param actionKeys The action keys
+     * @return The primary keys of any existing actions
+     */
+    public List<UByte> actionIds(Collection<String> actionKeys) {
+        List<UByte> actionIds = new ArrayList<>();
+
+        List<String> missing = new ArrayList<>();
+        for (String actionKey : actionKeys) {
+            Byte actionId = cacheService.actionKeyPkMap().getIfPresent(actionKey);
+            if (actionId != null) {
+                actionIds.add(UByte.valueOf(actionId));
+            } else {
+                missing.add(actionKey);
+            }
+        }
+
+        for (List<String> chunk : partition(missing)) {
+            create
+                .select(PRISM_ACTIONS.ACTION_ID, PRISM_ACTIONS.ACTION)
+                .from(PRISM_ACTIONS)
+                .where(PRISM_ACTIONS.ACTION.in(chunk))
+                .forEach(r -> {
+                    cacheService.actionKeyPkMap().put(r.value2(), r.value1().byteValue());
+                    cacheService.pkActionKeyMap().invalidate(r.value1().byteValue());
+                    actionIds.add(r.value1());
+                });
+        }
+
+        return actionIds;
+    }
+
+    /**
+     * Get the primary key for a named cause.
+     *
+     * @param cause The cause
+     * @return The primary key, or null if no record exists
+     */
+    public UInteger causeId(String cause) {
+        Long causeId = cacheService.namedCausePkMap().getIfPresent(cause);
+        if (causeId != null) {
+            return UInteger.valueOf(causeId);
+        }
+
+        var record = create
+            .select(PRISM_CAUSES.CAUSE_ID, PRISM_CAUSES.CAUSE)
+            .from(PRISM_CAUSES)
+            .where(PRISM_CAUSES.CAUSE.equal(cause))
+            .fetchAny();
+
+        if (record == null) {
+            return null;
+        }
+
+        cacheService.namedCausePkMap().put(record.value2(), record.value1().longValue());
+        cacheService.pkCauseMap().invalidate(record.value1().longValue());
+
+        return record.value1();
+    }
+
+    /**
+     * Get the cause primary keys for the given player names.
+     *
+     * @param playerNames The player names
+     * @return The primary keys of any existing player causes
+     */
+    public List<UInteger> playerCauseIds(Collection<String> playerNames) {
+        List<UInteger> causeIds = new ArrayList<>();
+        for (List<String> chunk : partition(playerNames)) {
+            causeIds.addAll(create
+                .select(PRISM_CAUSES.CAUSE_ID)
+                .from(PRISM_CAUSES)
+                .join(PRISM_PLAYERS).on(PRISM_PLAYERS.PLAYER_ID.equal(PRISM_CAUSES.PLAYER_ID))
+                .where(PRISM_PLAYERS.PLAYER.in(chunk))
+                .fetch(PRISM_CAUSES.CAUSE_ID));
+        }
+
+        return causeIds;
+    }
+
+    /**
+     * Get the primary keys for the given entity types.
+     *
+     * @param entityTypes The entity types
+     * @return The primary keys of any existing entity types
+     */
+    public List<UShort> entityTypeIds(Collection<String> entityTypes) {
+        List<UShort> entityTypeIds = new ArrayList<>();
+
+        List<String> missing = new ArrayList<>();
+        for (String entityType : entityTypes) {
+            Integer entityTypeId = cacheService.entityTypePkMap().getIfPresent(entityType);
+            if (entityTypeId != null) {
+                entityTypeIds.add(UShort.valueOf(entityTypeId));
+            } else {
+                missing.add(entityType);
+            }
+        }
+
+        for (List<String> chunk : partition(missing)) {
+            create
+                .select(PRISM_ENTITY_TYPES.ENTITY_TYPE_ID, PRISM_ENTITY_TYPES.ENTITY_TYPE)
+                .from(PRISM_ENTITY_TYPES)
+                .where(PRISM_ENTITY_TYPES.ENTITY_TYPE.in(chunk))
+                .forEach(r -> {
+                    cacheService.entityTypePkMap().put(r.value2(), r.value1().intValue());
+                    cacheService.pkEntityTypeMap().invalidate(r.value1().intValue());
+                    entityTypeIds.add(r.value1());
+                });
+        }
+
+        return entityTypeIds;
+    }
+
+    /**
+     * Get the primary key for a world.
+     *
+     * @param worldUuid The world uuid
+     * @return The primary key, or null if no record exists
+     */
+    public UByte worldId(UUID worldUuid) {
+        Byte worldId = cacheService.worldUuidPkMap().getIfPresent(worldUuid);
+        if (worldId != null) {
+            return UByte.valueOf(worldId);
+        }
+
+        UByte primaryKey = create
+            .select(PRISM_WORLDS.WORLD_ID)
+            .from(PRISM_WORLDS)
+            .where(PRISM_WORLDS.WORLD_UUID.equal(worldUuid.toString()))
+            .fetchOne(PRISM_WORLDS.WORLD_ID);
+
+        if (primaryKey != null) {
+            cacheService.worldUuidPkMap().put(worldUuid, primaryKey.byteValue());
+            cacheService.invalidateWorld(worldUuid, primaryKey.byteValue());
+        }
+
+        return primaryKey;
+    }
+
+    /**
+     * Get the primary keys for all material records (of any data) matching the given materials.
+     *
+     * @param materials The materials
+     * @return The primary keys by material
+     */
+    public Map<String, List<UShort>> materialIds(Collection<String> materials) {
+        if (materials.isEmpty()) {
+            return Map.of();
+        }
+
+        return create
+            .select(PRISM_MATERIALS.MATERIAL, PRISM_MATERIALS.MATERIAL_ID)
+            .from(PRISM_MATERIALS)
+            .where(PRISM_MATERIALS.MATERIAL.in(materials))
+            .fetchGroups(PRISM_MATERIALS.MATERIAL, PRISM_MATERIALS.MATERIAL_ID);
+    }
+
+    /**
+     * Fetch and cache action records.
+     *
+     * @param actionIds The primary keys
+     */
+    private void fetchActions(Collection<Byte> actionIds) {
+        for (List<Byte> chunk : partition(actionIds)) {
+            create
+                .select(PRISM_ACTIONS.ACTION_ID, PRISM_ACTIONS.ACTION)
+                .from(PRISM_ACTIONS)
+                .where(PRISM_ACTIONS.ACTION_ID.in(chunk.stream().map(UByte::valueOf).toList()))
+                .forEach(r -> cacheService.pkActionKeyMap().put(r.value1().byteValue(), r.value2()));
+        }
+    }
+
+    /**
+     * Fetch and cache cause records, along with any player.
+     *
+     * @param causeIds The primary keys
+     */
+    private void fetchCauses(Collection<Long> causeIds) {
+        for (List<Long> chunk : partition(causeIds)) {
+            create
+                .select(PRISM_CAUSES.CAUSE_ID, PRISM_CAUSES.CAUSE, PRISM_PLAYERS.PLAYER_UUID, PRISM_PLAYERS.PLAYER)
+                .from(PRISM_CAUSES)
+                .leftJoin(PRISM_PLAYERS).on(PRISM_PLAYERS.PLAYER_ID.equal(PRISM_CAUSES.PLAYER_ID))
+                .where(PRISM_CAUSES.CAUSE_ID.in(chunk.stream().map(UInteger::valueOf).toList()))
+                .forEach(r -> {
+                    Pair<UUID, String> player = null;
+                    if (r.value3() != null) {
+                        player = new Pair<>(UUID.fromString(r.value3()), r.value4());
+                    }
+
+                    cacheService.pkCauseMap().put(r.value1().longValue(), new CachedCause(r.value2(), player));
+                });
+        }
+    }
+
+    /**
+     * Fetch and cache entity type records.
+     *
+     * @param entityTypeIds The primary keys
+     */
+    private void fetchEntityTypes(Collection<Integer> entityTypeIds) {
+        for (List<Integer> chunk : partition(entityTypeIds)) {
+            create
+                .select(PRISM_ENTITY_TYPES.ENTITY_TYPE_ID, PRISM_ENTITY_TYPES.ENTITY_TYPE)
+                .from(PRISM_ENTITY_TYPES)
+                .where(PRISM_ENTITY_TYPES.ENTITY_TYPE_ID.in(chunk.stream().map(UShort::valueOf).toList()))
+                .forEach(r -> cacheService.pkEntityTypeMap().put(
+                    r.value1().intValue(), r.value2().toUpperCase(Locale.ENGLISH)));
+        }
+    }
+
+    /**
+     * Fetch and cache material records.
+     *
+     * @param materialIds The primary keys
+     */
+    private void fetchMaterials(Collection<Integer> materialIds) {
+        for (List<Integer> chunk : partition(materialIds)) {
+            create
+                .select(PRISM_MATERIALS.MATERIAL_ID, PRISM_MATERIALS.MATERIAL, PRISM_MATERIALS.DATA)
+                .from(PRISM_MATERIALS)
+                .where(PRISM_MATERIALS.MATERIAL_ID.in(chunk.stream().map(UShort::valueOf).toList()))
+                .forEach(r -> cacheService.pkMaterialDataMap().put(
+                    r.value1().intValue(), new Pair<>(r.value2().toUpperCase(Locale.ENGLISH), r.value3())));
+        }
+    }
+
+    /**
+     * Fetch and cache world records.
+     *
+     * @param worldIds The primary keys
+     */
+    private void fetchWorlds(Collection<Byte> worldIds) {
+        for (List<Byte> chunk : partition(worldIds)) {
+            create
+                .select(PRISM_WORLDS.WORLD_ID, PRISM_WORLDS.WORLD_UUID, PRISM_WORLDS.WORLD)
+                .from(PRISM_WORLDS)
+                .where(PRISM_WORLDS.WORLD_ID.in(chunk.stream().map(UByte::valueOf).toList()))
+                .forEach(r -> cacheService.pkWorldMap().put(
+                    r.value1().byteValue(), new Pair<>(UUID.fromString(r.value2()), r.value3())));
+        }
+    }
+
+    /**
+     * Split keys into chunks small enough for a single "in" clause.
+     *
+     * @param keys The keys
+     * @param <T> The key type
+     * @return The chunks
+     */
+    private static <T> List<List<T>> partition(Collection<T> keys) {
+        List<List<T>> chunks = new ArrayList<>();
+
+        List<T> chunk = new ArrayList<>();
+        for (T key : keys) {
+            chunk.add(key);
+
+            if (chunk.size() == MAX_KEYS_PER_QUERY) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+}
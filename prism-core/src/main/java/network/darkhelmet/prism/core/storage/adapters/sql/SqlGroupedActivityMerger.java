@@ -0,0 +1,314 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+
+/**
+ * Combines several grouped activity results into one, as if they'd been grouped by a single query.
+ *
+ * <p>Groups found in more than one result are combined, using counts to weight the averages.
+ * The first result added decides the column layout of the merged result.</p>
+ */
+public class SqlGroupedActivityMerger {
+    /**
+     * The dsl context.
+     */
+    private final DSLContext create;
+
+    /**
+     * The dimension resolver.
+     */
+    private final SqlDimensionResolver dimensionResolver;
+
+    /**
+     * The groups, by key.
+     */
+    private final Map<List<Object>, Group> groups = new LinkedHashMap<>();
+
+    /**
+     * The fields of the merged result.
+     */
+    private Field<?>[] fields;
+
+    /**
+     * The column indexes of the merged result.
+     */
+    private SqlActivityColumns columns;
+
+    /**
+     * Construct a new merger.
+     *
+     * @param create The DSL context
+     * @param dimensionResolver The dimension resolver
+     */
+    public SqlGroupedActivityMerger(DSLContext create, SqlDimensionResolver dimensionResolver) {
+        this.create = create;
+        this.dimensionResolver = dimensionResolver;
+    }
+
+    /**
+     * Add a grouped result.
+     *
+     * @param result The result
+     */
+    public void add(Result<? extends Record> result) {
+        SqlActivityColumns resultColumns = SqlActivityColumns.of(result);
+        if (fields == null) {
+            fields = result.fields();
+            columns = resultColumns;
+        }
+
+        // Groups are by material name, and each result may have chosen a different material id
+        dimensionResolver.resolve(result, resultColumns);
+
+        for (Record r : result) {
+            Object[] values = values(r, resultColumns);
+
+            String material = null;
+            Number materialId = (Number) value(values, columns.materialId());
+            if (materialId != null) {
+                var materialData = dimensionResolver.materialData(materialId.intValue());
+                material = materialData != null ? materialData.key() : null;
+            }
+
+            List<Object> key = Arrays.asList(
+                value(values, columns.actionId()),
+                value(values, columns.worldId()),
+                material,
+                value(values, columns.entityTypeId()),
+                value(values, columns.causeId()),
+                value(values, columns.descriptor()),
+                value(values, columns.metadata()));
+
+            groups.computeIfAbsent(key, k -> new Group(values, columns)).add(values);
+        }
+    }
+
+    /**
+     * Get the merged result, sorted and paginated per the query.
+     *
+     * @param query The activity query
+     * @return The merged result
+     */
+    public Result<Record> result(ActivityQuery query) {
+        List<Group> sorted = new ArrayList<>(groups.values());
+        Comparator<Group> comparator = Comparator.comparing(Group::averageTimestamp);
+        sorted.sort(query.sort().equals(ActivityQuery.Sort.ASCENDING) ? comparator : comparator.reversed());
+
+        int start = Math.min(query.offset(), sorted.size());
+        int end = query.limit() > 0 ? Math.min(query.offset() + query.limit(), sorted.size()) : sorted.size();
+
+        Result<Record> merged = create.newResult(fields);
+        for (Group group : sorted.subList(start, end)) {
+            Record record = create.newRecord(fields);
+            record.fromArray(group.values(sorted.size()));
+            merged.add(record);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Copy a record's values into the merged result's column layout.
+     *
+     * @param r The record
+     * @param from The column indexes of the record's result
+     * @return The values
+     */
+    private Object[] values(Record r, SqlActivityColumns from) {
+        if (from.equals(columns)) {
+            return r.intoArray();
+        }
+
+        Object[] values = new Object[fields.length];
+        copy(r, values, from.actionId(), columns.actionId());
+        copy(r, values, from.worldId(), columns.worldId());
+        copy(r, values, from.materialId(), columns.materialId());
+        copy(r, values, from.entityTypeId(), columns.entityTypeId());
+        copy(r, values, from.causeId(), columns.causeId());
+        copy(r, values, from.descriptor(), columns.descriptor());
+        copy(r, values, from.metadata(), columns.metadata());
+        copy(r, values, from.x(), columns.x());
+        copy(r, values, from.y(), columns.y());
+        copy(r, values, from.z(), columns.z());
+        copy(r, values, from.timestamp(), columns.timestamp());
+        copy(r, values, from.groupCount(), columns.groupCount());
+
+        return values;
+    }
+
+    /**
+     * Copy a value, if both columns are present.
+     *
+     * @param r The record
+     * @param values The values
+     * @param from The record's column index
+     * @param to The values' column index
+     */
+    private static void copy(Record r, Object[] values, int from, int to) {
+        if (from > -1 && to > -1) {
+            values[to] = r.get(from);
+        }
+    }
+
+    /**
+     * Read a value, if the column is present.
+     *
+     * @param values The values
+     * @param index The column index
+     * @return The value
+     */
+    private static Object value(Object[] values, int index) {
+        return index > -1 ? values[index] : null;
+    }
+
+    /**
+     * A group of activities combined from one or more results.
+     */
+    private static final class Group {
+        /**
+         * The values of the first row found for this group.
+         */
+        private final Object[] values;
+
+        /**
+         * The column indexes.
+         */
+        private final SqlActivityColumns columns;
+
+        /**
+         * The combined count.
+         */
+        private long count = 0;
+
+        /**
+         * The count-weighted sum of the average x.
+         */
+        private BigDecimal sumX = BigDecimal.ZERO;
+
+        /**
+         * The count-weighted sum of the average y.
+         */
+        private BigDecimal sumY = BigDecimal.ZERO;
+
+        /**
+         * The count-weighted sum of the average z.
+         */
+        private BigDecimal sumZ = BigDecimal.ZERO;
+
+        /**
+         * The count-weighted sum of the average timestamp.
+         */
+        private BigDecimal sumTimestamp = BigDecimal.ZERO;
+
+        /**
+         * Construct a new group.
+         *
+         * @param values The values of the first row
+         * @param columns The column indexes
+         */
+        Group(Object[] values, SqlActivityColumns columns) {
+            this.values = values;
+            this.columns = columns;
+        }
+
+        /**
+         * Add a row to this group.
+         *
+         * @param row The row values
+         */
+        void add(Object[] row) {
+            BigDecimal rowCount = decimal(row, columns.groupCount());
+
+            count += rowCount.longValue();
+            sumX = sumX.add(decimal(row, columns.x()).multiply(rowCount));
+            sumY = sumY.add(decimal(row, columns.y()).multiply(rowCount));
+            sumZ = sumZ.add(decimal(row, columns.z()).multiply(rowCount));
+            sumTimestamp = sumTimestamp.add(decimal(row, columns.timestamp()).multiply(rowCount));
+        }
+
+        /**
+         * Get the combined average timestamp.
+         *
+         * @return The average timestamp
+         */
+        BigDecimal averageTimestamp() {
+            return average(sumTimestamp);
+        }
+
+        /**
+         * Get the combined row values.
+         *
+         * @param totalRows The total number of groups
+         * @return The values
+         */
+        Object[] values(int totalRows) {
+            Object[] combined = values.clone();
+            combined[columns.x()] = average(sumX);
+            combined[columns.y()] = average(sumY);
+            combined[columns.z()] = average(sumZ);
+            combined[columns.timestamp()] = averageTimestamp();
+            combined[columns.groupCount()] = count;
+
+            if (columns.totalRows() > -1) {
+                combined[columns.totalRows()] = totalRows;
+            }
+
+            return combined;
+        }
+
+        /**
+         * Divide a count-weighted sum by the combined count.
+         *
+         * @param sum The sum
+         * @return The average
+         */
+        private BigDecimal average(BigDecimal sum) {
+            return count > 0 ? sum.divide(BigDecimal.valueOf(count), MathContext.DECIMAL64) : BigDecimal.ZERO;
+        }
+
+        /**
+         * Read a numeric value as a decimal.
+         *
+         * @param row The row values
+         * @param index The column index
+         * @return The decimal
+         */
+        private static BigDecimal decimal(Object[] row, int index) {
+            return new BigDecimal(row[index].toString());
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import network.darkhelmet.prism.loader.services.configuration.storage.DataSourceConfiguration;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+
+/**
+ * Applies statement timeouts by query class, and tracks running statements by the thread
+ * that requested them so they can be cancelled.
+ *
+ * <p>Work done on another thread for a requester (like query slices) must be wrapped
+ * with {@link #propagate(Callable)} so its statements are tracked for the requester.</p>
+ */
+public class SqlQueryGovernor implements ExecuteListener {
+    /**
+     * The classes of queries, which have their own timeouts.
+     */
+    public enum QueryClass {
+        LOOKUP, MODIFICATION, PURGE
+    }
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The data source configuration.
+     */
+    private final DataSourceConfiguration dataSourceConfiguration;
+
+    /**
+     * The requesting thread for statements executed on the current thread.
+     */
+    private final ThreadLocal<Thread> requester = new ThreadLocal<>();
+
+    /**
+     * The timeout (in seconds) for statements executed on the current thread.
+     */
+    private final ThreadLocal<Integer> timeout = new ThreadLocal<>();
+
+    /**
+     * Running statements by requesting thread.
+     */
+    private final Map<Thread, Set<Statement>> statements = new ConcurrentHashMap<>();
+
+    /**
+     * Construct a new query governor.
+     *
+     * @param loggingService The logging service
+     * @param dataSourceConfiguration The data source configuration
+     */
+    public SqlQueryGovernor(LoggingService loggingService, DataSourceConfiguration dataSourceConfiguration) {
+        this.loggingService = loggingService;
+        this.dataSourceConfiguration = dataSourceConfiguration;
+    }
+
+    /**
+     * Run work on the current thread with the timeout for a query class.
+     *
+     * @param queryClass The query class
+     * @param work The work
+     * @param <T> The result type
+     * @return The result
+     * @throws Exception Any exception thrown by the work
+     */
+    public <T> T run(QueryClass queryClass, Callable<T> work) throws Exception {
+        Integer previous = timeout.get();
+        timeout.set(timeout(queryClass));
+
+        try {
+            return work.call();
+        } finally {
+            timeout.set(previous);
+        }
+    }
+
+    /**
+     * Wrap work that will run on another thread, so its statements are governed
+     * as if the current thread had executed them.
+     *
+     * @param work The work
+     * @param <T> The result type
+     * @return The wrapped work
+     */
+    public <T> Callable<T> propagate(Callable<T> work) {
+        Thread owner = requester();
+        Integer ownerTimeout = timeout.get();
+
+        return () -> {
+            requester.set(owner);
+            timeout.set(ownerTimeout);
+
+            try {
+                return work.call();
+            } finally {
+                requester.remove();
+                timeout.remove();
+            }
+        };
+    }
+
+    /**
+     * Cancel all statements running on behalf of a thread.
+     *
+     * @param thread The requesting thread
+     */
+    public void cancel(Thread thread) {
+        Set<Statement> running = statements.get(thread);
+        if (running == null) {
+            return;
+        }
+
+        for (Statement statement : running) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                loggingService.debug("Failed to cancel statement: {0}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void prepareEnd(ExecuteContext ctx) {
+        Statement statement = ctx.statement();
+        if (statement == null) {
+            return;
+        }
+
+        Integer seconds = timeout.get();
+        if (seconds != null && seconds > 0) {
+            try {
+                statement.setQueryTimeout(seconds);
+            } catch (SQLException e) {
+                loggingService.debug("Failed to set statement timeout: {0}", e.getMessage());
+            }
+        }
+
+        statements.computeIfAbsent(requester(), thread -> ConcurrentHashMap.newKeySet()).add(statement);
+    }
+
+    @Override
+    public void end(ExecuteContext ctx) {
+        Statement statement = ctx.statement();
+        if (statement == null) {
+            return;
+        }
+
+        Thread thread = requester();
+        statements.computeIfPresent(thread, (key, running) -> {
+            running.remove(statement);
+
+            return running.isEmpty() ? null : running;
+        });
+    }
+
+    /**
+     * Get the thread statements on the current thread are being run for.
+     *
+     * @return The requesting thread
+     */
+    public Thread requester() {
+        Thread thread = requester.get();
+
+        return thread != null ? thread : Thread.currentThread();
+    }
+
+    /**
+     * Get the configured timeout (in seconds) for a query class.
+     *
+     * @param queryClass The query class
+     * @return The timeout
+     */
+    private int timeout(QueryClass queryClass) {
+        return switch (queryClass) {
+            case LOOKUP -> dataSourceConfiguration.lookupTimeout();
+            case MODIFICATION -> dataSourceConfiguration.modificationTimeout();
+            case PURGE -> dataSourceConfiguration.purgeTimeout();
+        };
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SelectQuery;
+
+/**
+ * Splits broad activity queries into time slices which are executed concurrently,
+ * each on their own pooled connection, and merges the results.
+ *
+ * <p>Slices are disjoint time ranges, so ungrouped results are merged by reading the slices
+ * in sort order. Once enough rows have been read to fill the requested page, any slices
+ * still running are cancelled. Grouped results are re-grouped across slices, using counts
+ * to weight the averages.</p>
+ */
+public class SqlSlicedActivityQuery {
+    /**
+     * The min number of (estimated) rows worth giving a slice.
+     */
+    private static final long MIN_ROWS_PER_SLICE = 50000;
+
+    /**
+     * The data source.
+     */
+    private final HikariDataSource dataSource;
+
+    /**
+     * The dsl context.
+     */
+    private final DSLContext create;
+
+    /**
+     * The query builder.
+     */
+    private final SqlActivityQueryBuilder queryBuilder;
+
+    /**
+     * The dimension resolver.
+     */
+    private final SqlDimensionResolver dimensionResolver;
+
+    /**
+     * The query governor.
+     */
+    private final SqlQueryGovernor queryGovernor;
+
+    /**
+     * The timestamp histogram.
+     */
+    private final SqlTimestampHistogram histogram;
+
+    /**
+     * The max number of slices.
+     */
+    private final int maxSlices;
+
+    /**
+     * The executor running slices.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Construct a new sliced query.
+     *
+     * @param dataSource The data source
+     * @param create The DSL context
+     * @param queryBuilder The query builder
+     * @param dimensionResolver The dimension resolver
+     * @param queryGovernor The query governor
+     * @param maxSlices The max number of slices
+     */
+    public SqlSlicedActivityQuery(
+            HikariDataSource dataSource,
+            DSLContext create,
+            SqlActivityQueryBuilder queryBuilder,
+            SqlDimensionResolver dimensionResolver,
+            SqlQueryGovernor queryGovernor,
+            int maxSlices) {
+        this.dataSource = dataSource;
+        this.create = create;
+        this.queryBuilder = queryBuilder;
+        this.dimensionResolver = dimensionResolver;
+        this.queryGovernor = queryGovernor;
+        this.maxSlices = maxSlices;
+        this.histogram = new SqlTimestampHistogram(create);
+
+        AtomicInteger count = new AtomicInteger(0);
+        this.executor = Executors.newFixedThreadPool(maxSlices, r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setDaemon(true);
+            thread.setName("prism-query-slice-" + count.getAndIncrement());
+            return thread;
+        });
+    }
+
+    /**
+     * Check whether a query is broad enough to be worth slicing.
+     *
+     * <p>Queries must have a start time, and no location or player filters.</p>
+     *
+     * @param query The activity query
+     * @return True if the query can be sliced
+     */
+    public boolean accepts(ActivityQuery query) {
+        return query.after() != null
+            && query.coordinate() == null
+            && (query.minCoordinate() == null || query.maxCoordinate() == null)
+            && query.playerNames().isEmpty()
+            && (query.activityIds() == null || query.activityIds().isEmpty());
+    }
+
+    /**
+     * Execute a query, slicing it if the time range holds enough activities.
+     *
+     * @param query The activity query
+     * @return The results, in the same shape as a single query would return
+     * @throws Exception Storage layer exception
+     */
+    public Result<Record> fetch(ActivityQuery query) throws Exception {
+        List<Long> boundaries = histogram.boundaries(query.after(), query.before(), maxSlices, MIN_ROWS_PER_SLICE);
+        if (boundaries.isEmpty()) {
+            return queryBuilder.queryActivities(query);
+        }
+
+        // Build every slice's query up front, so any keys are resolved on this thread
+        List<SelectQuery<Record>> selects = new ArrayList<>();
+        for (ActivityQuery slice : slices(query, boundaries)) {
+            selects.add(queryBuilder.activitiesQuery(slice));
+        }
+
+        List<Future<Result<Record>>> futures = new ArrayList<>();
+        for (SelectQuery<Record> select : selects) {
+            futures.add(executor.submit(queryGovernor.propagate(() -> {
+                try (Connection connection = dataSource.getConnection()) {
+                    select.attach(create.configuration().derive(connection));
+
+                    return select.fetch();
+                }
+            })));
+        }
+
+        try {
+            return query.grouped() ? mergeGroups(query, futures) : mergeRows(query, futures);
+        } finally {
+            // Cancel anything still running, like slices that can't contribute to the requested page
+            for (int i = 0; i < futures.size(); i++) {
+                if (!futures.get(i).isDone()) {
+                    selects.get(i).cancel();
+                    futures.get(i).cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shut down the executor.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Split a query into slice queries, in the query's sort order.
+     *
+     * @param query The activity query
+     * @param boundaries The boundaries between slices, ascending
+     * @return The slice queries
+     */
+    private List<ActivityQuery> slices(ActivityQuery query, List<Long> boundaries) {
+        // Ungrouped slices never need more rows than the requested page ends at
+        int sliceLimit = !query.grouped() && query.limit() > 0 ? query.offset() + query.limit() : 0;
+
+        // "after" is inclusive when paired with "before" and exclusive otherwise
+        long start = query.before() != null ? query.after() : query.after() + 1;
+
+        List<ActivityQuery> slices = new ArrayList<>();
+        for (long boundary : boundaries) {
+            slices.add(query.toBuilder().after(start).before(boundary - 1).offset(0).limit(sliceLimit).build());
+            start = boundary;
+        }
+
+        // The last slice is open-ended if the query was
+        if (query.before() != null) {
+            slices.add(query.toBuilder().after(start).before(query.before()).offset(0).limit(sliceLimit).build());
+        } else {
+            slices.add(query.toBuilder().after(start - 1).offset(0).limit(sliceLimit).build());
+        }
+
+        if (query.sort().equals(ActivityQuery.Sort.DESCENDING)) {
+            slices = slices.reversed();
+        }
+
+        return slices;
+    }
+
+    /**
+     * Merge ungrouped slice results.
+     *
+     * @param query The activity query
+     * @param futures The slice results, in sort order
+     * @return The merged results
+     * @throws Exception Storage layer exception
+     */
+    private Result<Record> mergeRows(
+            ActivityQuery query, List<Future<Result<Record>>> futures) throws Exception {
+        int end = query.limit() > 0 ? query.offset() + query.limit() : Integer.MAX_VALUE;
+
+        Field<?>[] fields = null;
+        List<Record> rows = new ArrayList<>();
+        int totalRows = 0;
+        for (Future<Result<Record>> future : futures) {
+            Result<Record> result = get(future);
+            if (fields == null) {
+                fields = result.fields();
+            }
+
+            if (query.lookup() && !result.isEmpty()) {
+                totalRows += result.get(0).get(SqlActivityColumns.TOTAL_ROWS, Integer.class);
+            }
+
+            rows.addAll(result);
+
+            // Slices are in order, so later slices can't contribute to this page.
+            // Lookups still need every slice for the total row count.
+            if (!query.lookup() && rows.size() >= end) {
+                break;
+            }
+        }
+
+        Result<Record> merged = create.newResult(fields);
+        int totalRowsIndex = merged.indexOf(SqlActivityColumns.TOTAL_ROWS);
+        for (Record row : rows.subList(Math.min(query.offset(), rows.size()), Math.min(end, rows.size()))) {
+            Object[] values = row.intoArray();
+            if (totalRowsIndex > -1) {
+                values[totalRowsIndex] = totalRows;
+            }
+
+            merged.add(newRecord(fields, values));
+        }
+
+        return merged;
+    }
+
+    /**
+     * Merge grouped slice results, combining groups found in multiple slices.
+     *
+     * @param query The activity query
+     * @param futures The slice results
+     * @return The merged results
+     * @throws Exception Storage layer exception
+     */
+    private Result<Record> mergeGroups(
+            ActivityQuery query, List<Future<Result<Record>>> futures) throws Exception {
+        SqlGroupedActivityMerger merger = new SqlGroupedActivityMerger(create, dimensionResolver);
+        for (Future<Result<Record>> future : futures) {
+            merger.add(get(future));
+        }
+
+        return merger.result(query);
+    }
+
+    /**
+     * Create a new record.
+     *
+     * @param fields The fields
+     * @param values The values
+     * @return The record
+     */
+    private Record newRecord(Field<?>[] fields, Object[] values) {
+        Record record = create.newRecord(fields);
+        record.fromArray(values);
+
+        return record;
+    }
+
+    /**
+     * Wait for a slice's results.
+     *
+     * @param future The future
+     * @return The results
+     * @throws Exception The slice's exception
+     */
+    private static Result<Record> get(Future<Result<Record>> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import network.darkhelmet.prism.api.activities.ActivityQuery;
+import network.darkhelmet.prism.loader.services.configuration.storage.DataSourceConfiguration;
+import network.darkhelmet.prism.loader.services.logging.LoggingService;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+
+/**
+ * Times activity queries and the statements they execute, and writes any which take longer
+ * than the configured threshold to a rotating log file.
+ *
+ * <p>Statements are attributed to the trace started by the thread they're requested for
+ * (see {@link SqlQueryGovernor#requester()}), so nothing is measured unless a trace is active.</p>
+ */
+public class SqlSlowQueryLog implements ExecuteListener {
+    /**
+     * The max size (in bytes) of a log file before it's rotated.
+     */
+    private static final int FILE_SIZE = 1024 * 1024;
+
+    /**
+     * The number of log files to keep.
+     */
+    private static final int FILE_COUNT = 5;
+
+    /**
+     * The max number of statements kept for a trace. Only the slowest are kept.
+     */
+    private static final int MAX_STATEMENTS = 10;
+
+    /**
+     * The execute context data key for the trace.
+     */
+    private static final String TRACE = "prism.slow-query.trace";
+
+    /**
+     * The execute context data key for the execute start time.
+     */
+    private static final String EXECUTE_START = "prism.slow-query.execute-start";
+
+    /**
+     * The execute context data key for the execute time.
+     */
+    private static final String EXECUTE_NANOS = "prism.slow-query.execute-nanos";
+
+    /**
+     * The execute context data key for the fetch start time.
+     */
+    private static final String FETCH_START = "prism.slow-query.fetch-start";
+
+    /**
+     * The execute context data key for the fetch time.
+     */
+    private static final String FETCH_NANOS = "prism.slow-query.fetch-nanos";
+
+    /**
+     * The execute context data key for the fetched row count.
+     */
+    private static final String ROWS = "prism.slow-query.rows";
+
+    /**
+     * Orders statements by their execute and fetch time.
+     */
+    private static final Comparator<TracedStatement> SLOWEST =
+        Comparator.comparingLong(statement -> statement.executeNanos() + statement.fetchNanos());
+
+    /**
+     * The logging service.
+     */
+    private final LoggingService loggingService;
+
+    /**
+     * The data source configuration.
+     */
+    private final DataSourceConfiguration dataSourceConfiguration;
+
+    /**
+     * The query governor.
+     */
+    private final SqlQueryGovernor queryGovernor;
+
+    /**
+     * The log file path pattern.
+     */
+    private final String filePattern;
+
+    /**
+     * Active traces by requesting thread.
+     */
+    private final Map<Thread, Trace> traces = new ConcurrentHashMap<>();
+
+    /**
+     * The log file handler, opened when the first slow query is logged.
+     */
+    private FileHandler fileHandler;
+
+    /**
+     * The last slow trace.
+     */
+    private volatile Trace lastSlowTrace;
+
+    /**
+     * Construct a new slow query log.
+     *
+     * @param loggingService The logging service
+     * @param dataSourceConfiguration The data source configuration
+     * @param queryGovernor The query governor
+     * @param dataPath The plugin data path
+     */
+    public SqlSlowQueryLog(
+            LoggingService loggingService,
+            DataSourceConfiguration dataSourceConfiguration,
+            SqlQueryGovernor queryGovernor,
+            Path dataPath) {
+        this.loggingService = loggingService;
+        this.dataSourceConfiguration = dataSourceConfiguration;
+        this.queryGovernor = queryGovernor;
+        this.filePattern = dataPath.resolve("slow-queries.%g.log").toString();
+    }
+
+    /**
+     * Start a trace for an activity query. Statements requested by the current thread are
+     * attributed to it until it's released or finished.
+     *
+     * @param query The activity query
+     * @return The trace
+     */
+    public Trace start(ActivityQuery query) {
+        if (dataSourceConfiguration.slowQueryThreshold() <= 0) {
+            return new Trace(null, null);
+        }
+
+        Thread thread = queryGovernor.requester();
+        Trace trace = new Trace(thread, query);
+        traces.put(thread, trace);
+
+        return trace;
+    }
+
+    /**
+     * Stop attributing new statements to a trace. Statements already started,
+     * like open cursors, are still measured.
+     *
+     * @param trace The trace
+     */
+    public void release(Trace trace) {
+        if (trace.thread != null) {
+            traces.remove(trace.thread, trace);
+        }
+    }
+
+    /**
+     * Finish a trace, and log it if it took longer than the threshold.
+     *
+     * @param trace The trace
+     */
+    public void finish(Trace trace) {
+        if (trace.thread == null) {
+            return;
+        }
+
+        release(trace);
+
+        long elapsed = System.nanoTime() - trace.started;
+        if (elapsed < TimeUnit.MILLISECONDS.toNanos(dataSourceConfiguration.slowQueryThreshold())) {
+            return;
+        }
+
+        lastSlowTrace = trace;
+        write(trace, elapsed);
+    }
+
+    /**
+     * Get the slowest statement of the last slow query.
+     *
+     * @return The statement, or null if no slow query has been logged
+     */
+    public TracedStatement slowestStatement() {
+        Trace trace = lastSlowTrace;
+        if (trace == null) {
+            return null;
+        }
+
+        synchronized (trace.statements) {
+            return trace.statements.stream().max(SLOWEST).orElse(null);
+        }
+    }
+
+    /**
+     * Close the log file.
+     */
+    public synchronized void close() {
+        if (fileHandler != null) {
+            fileHandler.close();
+            fileHandler = null;
+        }
+    }
+
+    @Override
+    public void start(ExecuteContext ctx) {
+        if (traces.isEmpty()) {
+            return;
+        }
+
+        Trace trace = traces.get(queryGovernor.requester());
+        if (trace != null) {
+            ctx.data(TRACE, trace);
+        }
+    }
+
+    @Override
+    public void executeStart(ExecuteContext ctx) {
+        if (ctx.data(TRACE) != null) {
+            ctx.data(EXECUTE_START, System.nanoTime());
+        }
+    }
+
+    @Override
+    public void executeEnd(ExecuteContext ctx) {
+        if (ctx.data(EXECUTE_START) instanceof Long started) {
+            ctx.data(EXECUTE_NANOS, System.nanoTime() - started);
+        }
+    }
+
+    @Override
+    public void fetchStart(ExecuteContext ctx) {
+        if (ctx.data(TRACE) != null) {
+            ctx.data(FETCH_START, System.nanoTime());
+            ctx.data(ROWS, new AtomicLong());
+        }
+    }
+
+    @Override
+    public void recordEnd(ExecuteContext ctx) {
+        if (ctx.data(ROWS) instanceof AtomicLong rows) {
+            rows.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void fetchEnd(ExecuteContext ctx) {
+        if (ctx.data(FETCH_START) instanceof Long started) {
+            ctx.data(FETCH_NANOS, System.nanoTime() - started);
+        }
+    }
+
+    @Override
+    public void end(ExecuteContext ctx) {
+        if (!(ctx.data(TRACE) instanceof Trace trace)) {
+            return;
+        }
+
+        // Statements which don't fetch (deletes, updates) report their affected rows instead
+        long rows = ctx.data(ROWS) instanceof AtomicLong fetched ? fetched.get() : ctx.rows();
+        List<Object> binds = ctx.query() != null ? ctx.query().getBindValues() : List.of();
+
+        trace.add(new TracedStatement(ctx.sql(), binds, rows,
+            ctx.data(EXECUTE_NANOS) instanceof Long nanos ? nanos : 0,
+            ctx.data(FETCH_NANOS) instanceof Long nanos ? nanos : 0));
+    }
+
+    /**
+     * Write a trace to the log file.
+     *
+     * @param trace The trace
+     * @param elapsed The total time (in nanoseconds)
+     */
+    private synchronized void write(Trace trace, long elapsed) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(Instant.now()).append(' ').append(millis(elapsed)).append(" ms ")
+            .append(normalize(trace.query)).append(System.lineSeparator());
+        builder.append("  map: ").append(millis(trace.mapNanos.get())).append(" ms").append(System.lineSeparator());
+
+        synchronized (trace.statements) {
+            builder.append("  statements: ").append(trace.statementCount);
+            if (trace.statementCount > trace.statements.size()) {
+                builder.append(" (showing the slowest ").append(trace.statements.size()).append(')');
+            }
+
+            builder.append(System.lineSeparator());
+
+            List<TracedStatement> statements = new ArrayList<>(trace.statements);
+            statements.sort(SLOWEST.reversed());
+            for (TracedStatement statement : statements) {
+                builder.append("  execute: ").append(millis(statement.executeNanos())).append(" ms; fetch: ")
+                    .append(millis(statement.fetchNanos())).append(" ms; rows: ").append(statement.rows())
+                    .append(System.lineSeparator());
+                builder.append("    sql: ").append(statement.sql()).append(System.lineSeparator());
+                builder.append("    binds: ").append(statement.binds()).append(System.lineSeparator());
+            }
+        }
+
+        try {
+            if (fileHandler == null) {
+                fileHandler = new FileHandler(filePattern, FILE_SIZE, FILE_COUNT, true);
+                fileHandler.setEncoding(StandardCharsets.UTF_8.name());
+                fileHandler.setFormatter(new Formatter() {
+                    @Override
+                    public String format(LogRecord record) {
+                        return record.getMessage();
+                    }
+                });
+            }
+
+            fileHandler.publish(new LogRecord(Level.INFO, builder.toString()));
+            fileHandler.flush();
+        } catch (IOException e) {
+            loggingService.warn("Failed to write the slow query log: {0}", e.getMessage());
+        }
+    }
+
+    /**
+     * Describe the filters of an activity query, skipping anything unset.
+     *
+     * @param query The activity query
+     * @return The normalized query
+     */
+    private String normalize(ActivityQuery query) {
+        StringJoiner joiner = new StringJoiner(", ", "{", "}");
+        joiner.add("lookup=" + query.lookup());
+        joiner.add("grouped=" + query.grouped());
+        append(joiner, "actions", query.allActionTypeKeys());
+        append(joiner, "activityIds", query.activityIds());
+        append(joiner, "after", query.after());
+        append(joiner, "before", query.before());
+        append(joiner, "cause", query.cause());
+        append(joiner, "entityTypes", query.entityTypes());
+        append(joiner, "coordinate", query.coordinate());
+        append(joiner, "materials", query.materials());
+        append(joiner, "minCoordinate", query.minCoordinate());
+        append(joiner, "maxCoordinate", query.maxCoordinate());
+        append(joiner, "players", query.playerNames());
+        append(joiner, "reversed", query.reversed());
+        append(joiner, "world", query.worldUuid());
+        append(joiner, "sort", query.sort());
+        append(joiner, "offset", query.offset());
+        append(joiner, "limit", query.limit());
+
+        return joiner.toString();
+    }
+
+    /**
+     * Append a query filter if it's set.
+     *
+     * @param joiner The joiner
+     * @param name The filter name
+     * @param value The filter value
+     */
+    private void append(StringJoiner joiner, String name, Object value) {
+        if (value == null || (value instanceof Collection<?> collection && collection.isEmpty())) {
+            return;
+        }
+
+        joiner.add(name + "=" + value);
+    }
+
+    /**
+     * Convert nanoseconds to milliseconds.
+     *
+     * @param nanos The nanoseconds
+     * @return The milliseconds
+     */
+    private long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * A statement executed for a trace.
+     *
+     * @param sql The rendered sql
+     * @param binds The bind values
+     * @param rows The rows fetched or affected
+     * @param executeNanos The execute time (in nanoseconds)
+     * @param fetchNanos The fetch time (in nanoseconds)
+     */
+    public record TracedStatement(String sql, List<Object> binds, long rows, long executeNanos, long fetchNanos) {}
+
+    /**
+     * A traced activity query.
+     */
+    public static class Trace {
+        /**
+         * The thread the trace is attributed to, or null if tracing is disabled.
+         */
+        private final Thread thread;
+
+        /**
+         * The activity query.
+         */
+        private final ActivityQuery query;
+
+        /**
+         * The start time (in nanoseconds).
+         */
+        private final long started = System.nanoTime();
+
+        /**
+         * The time spent mapping records (in nanoseconds).
+         */
+        private final AtomicLong mapNanos = new AtomicLong();
+
+        /**
+         * The slowest executed statements.
+         */
+        private final PriorityQueue<TracedStatement> statements = new PriorityQueue<>(SLOWEST);
+
+        /**
+         * The number of executed statements.
+         */
+        private int statementCount = 0;
+
+        /**
+         * Construct a new trace.
+         *
+         * @param thread The thread
+         * @param query The activity query
+         */
+        private Trace(Thread thread, ActivityQuery query) {
+            this.thread = thread;
+            this.query = query;
+        }
+
+        /**
+         * Run and time work which maps records for this trace.
+         *
+         * @param work The work
+         * @param <T> The result type
+         * @return The result
+         */
+        public <T> T map(Supplier<T> work) {
+            if (thread == null) {
+                return work.get();
+            }
+
+            long mapStarted = System.nanoTime();
+            try {
+                return work.get();
+            } finally {
+                mapNanos.addAndGet(System.nanoTime() - mapStarted);
+            }
+        }
+
+        /**
+         * Add an executed statement.
+         *
+         * @param statement The statement
+         */
+        private void add(TracedStatement statement) {
+            synchronized (statements) {
+                statementCount++;
+                statements.add(statement);
+
+                if (statements.size() > MAX_STATEMENTS) {
+                    statements.poll();
+                }
+            }
+        }
+    }
+}
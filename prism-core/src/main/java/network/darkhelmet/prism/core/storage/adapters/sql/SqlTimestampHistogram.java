@@ -0,0 +1,164 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.adapters.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jooq.DSLContext;
+import org.jooq.types.UInteger;
+
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITIES;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.min;
+
+/**
+ * Tracks an approximate distribution of activity timestamps.
+ *
+ * <p>Activity primary keys increase as activities are recorded, so timestamps are sampled at
+ * evenly spaced primary keys. Each sample then represents roughly the same number of rows,
+ * which lets us split a time range into slices of roughly equal size.</p>
+ */
+public class SqlTimestampHistogram {
+    /**
+     * The number of samples to take.
+     */
+    private static final int SAMPLES = 128;
+
+    /**
+     * How often samples are refreshed.
+     */
+    private static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The dsl context.
+     */
+    private final DSLContext create;
+
+    /**
+     * The sampled timestamps, sorted ascending.
+     */
+    private long[] timestamps = new long[0];
+
+    /**
+     * The approximate number of rows each sample represents.
+     */
+    private long rowsPerSample = 0;
+
+    /**
+     * When the samples were last refreshed.
+     */
+    private long refreshedAt = 0;
+
+    /**
+     * Construct a new histogram.
+     *
+     * @param create The DSL context
+     */
+    public SqlTimestampHistogram(DSLContext create) {
+        this.create = create;
+    }
+
+    /**
+     * Split a time range into slices of roughly equal row counts.
+     *
+     * @param after The start of the range (in seconds)
+     * @param before The end of the range (in seconds), if any
+     * @param maxSlices The max number of slices
+     * @param minRowsPerSlice The min (estimated) number of rows worth giving a slice
+     * @return The boundaries between slices, ascending. Empty if the range isn't worth splitting.
+     */
+    public synchronized List<Long> boundaries(long after, Long before, int maxSlices, long minRowsPerSlice) {
+        if (System.currentTimeMillis() - refreshedAt > REFRESH_INTERVAL) {
+            refresh();
+        }
+
+        // Find the samples within the range
+        List<Long> samples = new ArrayList<>();
+        for (long timestamp : timestamps) {
+            if (timestamp > after && (before == null || timestamp <= before)) {
+                samples.add(timestamp);
+            }
+        }
+
+        long estimatedRows = samples.size() * rowsPerSample;
+        int slices = (int) Math.min(Math.min(maxSlices, estimatedRows / Math.max(1, minRowsPerSlice)), samples.size());
+
+        List<Long> boundaries = new ArrayList<>();
+        if (slices < 2) {
+            return boundaries;
+        }
+
+        for (int i = 1; i < slices; i++) {
+            long boundary = samples.get(samples.size() * i / slices);
+
+            // Boundaries must be strictly increasing and leave room for the first slice
+            long previous = boundaries.isEmpty() ? after + 1 : boundaries.get(boundaries.size() - 1);
+            if (boundary > previous) {
+                boundaries.add(boundary);
+            }
+        }
+
+        return boundaries;
+    }
+
+    /**
+     * Re-sample timestamps at evenly spaced primary keys.
+     */
+    private void refresh() {
+        refreshedAt = System.currentTimeMillis();
+
+        var bounds = create
+            .select(min(PRISM_ACTIVITIES.ACTIVITY_ID), max(PRISM_ACTIVITIES.ACTIVITY_ID))
+            .from(PRISM_ACTIVITIES)
+            .fetchOne();
+
+        if (bounds == null || bounds.value1() == null || bounds.value2() == null) {
+            timestamps = new long[0];
+            rowsPerSample = 0;
+
+            return;
+        }
+
+        long minPk = bounds.value1().longValue();
+        long maxPk = bounds.value2().longValue();
+        long step = Math.max(1, (maxPk - minPk) / SAMPLES);
+
+        List<UInteger> primaryKeys = new ArrayList<>();
+        for (long pk = minPk; pk <= maxPk && primaryKeys.size() < SAMPLES; pk += step) {
+            primaryKeys.add(UInteger.valueOf(pk));
+        }
+
+        timestamps = create
+            .select(PRISM_ACTIVITIES.TIMESTAMP)
+            .from(PRISM_ACTIVITIES)
+            .where(PRISM_ACTIVITIES.ACTIVITY_ID.in(primaryKeys))
+            .fetch(PRISM_ACTIVITIES.TIMESTAMP)
+            .stream()
+            .mapToLong(UInteger::longValue)
+            .toArray();
+        Arrays.sort(timestamps);
+
+        rowsPerSample = timestamps.length > 0 ? (maxPk - minPk + 1) / timestamps.length : 0;
+    }
+}
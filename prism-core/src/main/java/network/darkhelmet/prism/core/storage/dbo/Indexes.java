@@ -26,6 +26,7 @@ import org.jooq.impl.DSL;
 import org.jooq.impl.Internal;
 
 import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITIES;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITY_ROLLUPS;
 
 @SuppressWarnings({ "all", "unchecked", "rawtypes" })
 public class Indexes {
@@ -64,4 +65,13 @@ public class Indexes {
         PRISM_ACTIVITIES,
         new OrderField[] { PRISM_ACTIVITIES.WORLD_ID },
         false);
+    public static final Index PRISM_ACTIVITY_ROLLUPS_CELL = Internal.createIndex(
+        DSL.name("cell"),
+        PRISM_ACTIVITY_ROLLUPS,
+        new OrderField[] {
+            PRISM_ACTIVITY_ROLLUPS.HOUR,
+            PRISM_ACTIVITY_ROLLUPS.WORLD_ID,
+            PRISM_ACTIVITY_ROLLUPS.CHUNK_X,
+            PRISM_ACTIVITY_ROLLUPS.CHUNK_Z },
+        false);
 }
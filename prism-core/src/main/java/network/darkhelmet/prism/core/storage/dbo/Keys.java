@@ -22,6 +22,7 @@ package network.darkhelmet.prism.core.storage.dbo;
 
 import network.darkhelmet.prism.core.storage.dbo.records.PrismActionsRecord;
 import network.darkhelmet.prism.core.storage.dbo.records.PrismActivitiesRecord;
+import network.darkhelmet.prism.core.storage.dbo.records.PrismActivityRollupsRecord;
 import network.darkhelmet.prism.core.storage.dbo.records.PrismCausesRecord;
 import network.darkhelmet.prism.core.storage.dbo.records.PrismEntityTypesRecord;
 import network.darkhelmet.prism.core.storage.dbo.records.PrismMaterialsRecord;
@@ -37,6 +38,7 @@ import org.jooq.impl.Internal;
 
 import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIONS;
 import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITIES;
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ACTIVITY_ROLLUPS;
 import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_CAUSES;
 import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_ENTITY_TYPES;
 import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_MATERIALS;
@@ -61,6 +63,12 @@ public class Keys {
         DSL.name("KEY_prism_activities_PRIMARY"),
         new TableField[] { PRISM_ACTIVITIES.ACTIVITY_ID },
         true);
+    public static final UniqueKey<PrismActivityRollupsRecord> KEY_PRISM_ACTIVITY_ROLLUPS_PRIMARY = Internal
+        .createUniqueKey(
+            PRISM_ACTIVITY_ROLLUPS,
+            DSL.name("KEY_prism_activity_rollups_PRIMARY"),
+            new TableField[] { PRISM_ACTIVITY_ROLLUPS.ROLLUP_ID },
+            true);
     public static final UniqueKey<PrismCausesRecord> KEY_PRISM_CAUSES_CAUSE = Internal.createUniqueKey(
         PRISM_CAUSES,
         DSL.name("KEY_prism_causes_cause"),
@@ -0,0 +1,322 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.core.storage.dbo.tables;
+
+import java.util.Arrays;
+import java.util.List;
+
+import network.darkhelmet.prism.core.storage.dbo.Indexes;
+import network.darkhelmet.prism.core.storage.dbo.Keys;
+import network.darkhelmet.prism.core.storage.dbo.records.PrismActivityRollupsRecord;
+
+import org.jooq.Field;
+import org.jooq.Identity;
+import org.jooq.Index;
+import org.jooq.Name;
+import org.jooq.Schema;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.jooq.TableOptions;
+import org.jooq.UniqueKey;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.jooq.impl.TableImpl;
+import org.jooq.types.UByte;
+import org.jooq.types.UInteger;
+import org.jooq.types.UShort;
+
+import static network.darkhelmet.prism.core.storage.adapters.sql.AbstractSqlStorageAdapter.PRISM_DATABASE;
+
+@SuppressWarnings({ "all", "unchecked", "rawtypes" })
+public class PrismActivityRollups extends TableImpl<PrismActivityRollupsRecord> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The table prefix.
+     */
+    private final String prefix;
+
+    /**
+     * The class holding records for this type.
+     */
+    @Override
+    public Class<PrismActivityRollupsRecord> getRecordType() {
+        return PrismActivityRollupsRecord.class;
+    }
+
+    /**
+     * The column <code>prism_activity_rollups.rollup_id</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, UInteger> ROLLUP_ID = createField(
+        DSL.name("rollup_id"),
+        SQLDataType.INTEGERUNSIGNED.nullable(false).identity(true),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.hour</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, UInteger> HOUR = createField(
+        DSL.name("hour"),
+        SQLDataType.INTEGERUNSIGNED.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.world_id</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, UByte> WORLD_ID = createField(
+        DSL.name("world_id"),
+        SQLDataType.TINYINTUNSIGNED.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.chunk_x</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Integer> CHUNK_X = createField(
+        DSL.name("chunk_x"),
+        SQLDataType.INTEGER.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.chunk_z</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Integer> CHUNK_Z = createField(
+        DSL.name("chunk_z"),
+        SQLDataType.INTEGER.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.action_id</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, UByte> ACTION_ID = createField(
+        DSL.name("action_id"),
+        SQLDataType.TINYINTUNSIGNED.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.material_id</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, UShort> MATERIAL_ID = createField(
+        DSL.name("material_id"),
+        SQLDataType.SMALLINTUNSIGNED,
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.entity_type_id</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, UShort> ENTITY_TYPE_ID = createField(
+        DSL.name("entity_type_id"),
+        SQLDataType.SMALLINTUNSIGNED,
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.cause_id</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, UInteger> CAUSE_ID = createField(
+        DSL.name("cause_id"),
+        SQLDataType.INTEGERUNSIGNED.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.descriptor</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, String> DESCRIPTOR = createField(
+        DSL.name("descriptor"),
+        SQLDataType.VARCHAR(155),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.metadata</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, String> METADATA = createField(
+        DSL.name("metadata"),
+        SQLDataType.VARCHAR(255),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.count</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, UInteger> COUNT = createField(
+        DSL.name("count"),
+        SQLDataType.INTEGERUNSIGNED.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.sum_x</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Long> SUM_X = createField(
+        DSL.name("sum_x"),
+        SQLDataType.BIGINT.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.sum_y</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Long> SUM_Y = createField(
+        DSL.name("sum_y"),
+        SQLDataType.BIGINT.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.sum_z</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Long> SUM_Z = createField(
+        DSL.name("sum_z"),
+        SQLDataType.BIGINT.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.sum_timestamp</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Long> SUM_TIMESTAMP = createField(
+        DSL.name("sum_timestamp"),
+        SQLDataType.BIGINT.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.min_x</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Integer> MIN_X = createField(
+        DSL.name("min_x"),
+        SQLDataType.INTEGER.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.max_x</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Integer> MAX_X = createField(
+        DSL.name("max_x"),
+        SQLDataType.INTEGER.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.min_y</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Integer> MIN_Y = createField(
+        DSL.name("min_y"),
+        SQLDataType.INTEGER.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.max_y</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Integer> MAX_Y = createField(
+        DSL.name("max_y"),
+        SQLDataType.INTEGER.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.min_z</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Integer> MIN_Z = createField(
+        DSL.name("min_z"),
+        SQLDataType.INTEGER.nullable(false),
+        this,
+        "");
+
+    /**
+     * The column <code>prism_activity_rollups.max_z</code>.
+     */
+    public final TableField<PrismActivityRollupsRecord, Integer> MAX_Z = createField(
+        DSL.name("max_z"),
+        SQLDataType.INTEGER.nullable(false),
+        this,
+        "");
+
+    private PrismActivityRollups(String prefix, Name alias, Table<PrismActivityRollupsRecord> aliased) {
+        this(prefix, alias, aliased, null);
+    }
+
+    private PrismActivityRollups(
+            String prefix, Name alias, Table<PrismActivityRollupsRecord> aliased, Field<?>[] parameters) {
+        super(alias, null, aliased, parameters, DSL.comment(""), TableOptions.table());
+
+        this.prefix = prefix;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param prefix The prefix
+     */
+    public PrismActivityRollups(String prefix) {
+        this(prefix, DSL.name(prefix + "activity_rollups"), null);
+    }
+
+    @Override
+    public Schema getSchema() {
+        return aliased() ? null : PRISM_DATABASE;
+    }
+
+    @Override
+    public List<Index> getIndexes() {
+        return Arrays.asList(Indexes.PRISM_ACTIVITY_ROLLUPS_CELL);
+    }
+
+    @Override
+    public Identity<PrismActivityRollupsRecord, UInteger> getIdentity() {
+        return (Identity<PrismActivityRollupsRecord, UInteger>) super.getIdentity();
+    }
+
+    @Override
+    public UniqueKey<PrismActivityRollupsRecord> getPrimaryKey() {
+        return Keys.KEY_PRISM_ACTIVITY_ROLLUPS_PRIMARY;
+    }
+
+    @Override
+    public PrismActivityRollups as(String alias) {
+        return new PrismActivityRollups(prefix, DSL.name(alias), this);
+    }
+
+    @Override
+    public PrismActivityRollups as(Name alias) {
+        return new PrismActivityRollups(prefix, alias, this);
+    }
+
+    @Override
+    public PrismActivityRollups rename(String name) {
+        return new PrismActivityRollups(prefix, DSL.name(name), null);
+    }
+
+    @Override
+    public PrismActivityRollups rename(Name name) {
+        return new PrismActivityRollups(prefix, name, null);
+    }
+}
@@ -67,6 +67,15 @@ public class ConfigurationService {
         loadConfigurations();
     }
 
+    /**
+     * Get the plugin data path.
+     *
+     * @return The data path
+     */
+    public Path dataPath() {
+        return dataPath;
+    }
+
     /**
      * Get the prism configuration.
      *
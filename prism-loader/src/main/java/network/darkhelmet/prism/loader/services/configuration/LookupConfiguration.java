@@ -0,0 +1,43 @@
+/*
+ * prism
+ *
+ * Copyright (c) 2022 M Botsko (viveleroi)
+ *                    Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package network.darkhelmet.prism.loader.services.configuration;
+
+import lombok.Getter;
+
+import org.spongepowered.configurate.objectmapping.ConfigSerializable;
+import org.spongepowered.configurate.objectmapping.meta.Comment;
+
+@ConfigSerializable
+@Getter
+public class LookupConfiguration {
+    @Comment("""
+            The max number of lookups run at once, across all players.
+            Lookups beyond this wait in a queue until one finishes.""")
+    private int maxConcurrent = 4;
+
+    @Comment("""
+            The max number of lookups a single player may have running or queued at once.
+            When a player starts another lookup, their oldest is cancelled.""")
+    private int maxConcurrentPerSender = 1;
+
+    @Comment("The max number of lookups waiting in the queue. Lookups beyond this are rejected.")
+    private int maxQueued = 20;
+}
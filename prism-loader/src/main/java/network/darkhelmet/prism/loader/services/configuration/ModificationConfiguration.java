@@ -22,10 +22,12 @@ package network.darkhelmet.prism.loader.services.configuration;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import lombok.Getter;
 
 import network.darkhelmet.prism.api.services.modifications.ModificationRuleset;
+import network.darkhelmet.prism.loader.services.configuration.cache.DurationConfiguration;
 
 import org.spongepowered.configurate.objectmapping.ConfigSerializable;
 import org.spongepowered.configurate.objectmapping.meta.Comment;
@@ -33,27 +35,68 @@ import org.spongepowered.configurate.objectmapping.meta.Comment;
 @ConfigSerializable
 @Getter
 public class ModificationConfiguration {
+    @Comment("""
+            Whether block changes apply physics and update their neighbors. Disabling this writes blocks
+            as they were recorded, which is much faster for large modifications and stops attached blocks
+            (torches, rails, etc) from breaking and dropping while their support is being restored.
+            Lighting is still updated.""")
+    private boolean applyPhysics = true;
+
     @Comment("List materials that should be excluded from modifications.")
     private List<String> blockBlacklist = new ArrayList<>();
 
     @Comment("List entities that should be excluded from modifications.")
     private List<String> entityBlacklist = new ArrayList<>();
 
+    @Comment("""
+            Set how many rollbacks/restores (including pending previews) may run at once. Modifications
+            can only run together if they change blocks in different areas. Running modifications
+            share the per-task limits below, so running several doesn't add lag.""")
+    private int maxConcurrentQueues = 4;
+
     @Comment("""
             Set a maximum number of modifications per task. Splitting up world changes
             can help avoid overloading individual ticks and causing lag.
-            This can also reduce client lag as fewer changes are sent to clients at once.""")
+            This can also reduce client lag as fewer changes are sent to clients at once.
+            Only used when max-millis-per-task is 0.""")
     private int maxPerTask = 1000;
 
+    @Comment("""
+            Set a maximum time (in milliseconds) modifications may take per task. The budget shrinks
+            while the server is lagging and grows while it's idle, so large modifications finish
+            quickly without hurting the tick rate. Set to 0 to only limit by max-per-task.""")
+    private int maxMillisPerTask = 20;
+
+    @Comment("""
+            Set how many chunks ahead of the one being modified should be loaded in the background.
+            Modifications are applied one chunk at a time. Servers that can't load chunks
+            asynchronously (like Spigot) load one per tick instead. Set to 0 to disable.""")
+    private int preloadChunks = 8;
+
     @Comment("A list of (typically unsafe) blocks to remove before a modification occurs.")
     private List<String> removeBlocks = new ArrayList<>();
 
     @Comment("Toggling clearing item/xp drops from a modification area.")
     private boolean removeDrops = true;
 
+    @Comment("""
+            Set how many activities may be marked as reversed per database update, once a rollback/restore
+            finishes. These updates run in the background, in order, and are retried on startup if the
+            server stops before they finish.""")
+    private int reversalBatchSize = 5000;
+
     @Comment("The delay in ticks between modification tasks.")
     private long taskDelay = 5;
 
+    @Comment("""
+            Set how long undo journals are kept. Each rollback/restore writes the blocks, entities
+            and items it changed to a journal file, so /pr undo can put them back without querying
+            the database.""")
+    private DurationConfiguration undoMaxAge = new DurationConfiguration(1, TimeUnit.HOURS);
+
+    @Comment("Set the max total size (in megabytes) of undo journals. The oldest are deleted first. 0 disables undo.")
+    private int undoMaxSizeMegabytes = 64;
+
     /**
      * Constructor.
      */
@@ -76,9 +119,12 @@ public class ModificationConfiguration {
      */
     public ModificationRuleset.ModificationRulesetBuilder toRulesetBuilder() {
         return ModificationRuleset.builder()
+            .applyPhysics(applyPhysics)
             .blockBlacklist(blockBlacklist)
             .entityBlacklist(entityBlacklist)
             .maxPerTask(maxPerTask)
+            .maxMillisPerTask(maxMillisPerTask)
+            .preloadChunks(preloadChunks)
             .removeBlocks(removeBlocks)
             .removeDrops(removeDrops)
             .taskDelay(taskDelay);
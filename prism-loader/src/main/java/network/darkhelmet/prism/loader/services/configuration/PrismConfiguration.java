@@ -68,6 +68,9 @@ public class PrismConfiguration {
             https://prism.readthedocs.io""")
     private List<FilterConfiguration> filters = new ArrayList<>();
 
+    @Comment("Configure limits for lookups.")
+    private LookupConfiguration lookups = new LookupConfiguration();
+
     @Comment("Configure rules for modifications (rollbacks/restores).")
     private ModificationConfiguration modifications = new ModificationConfiguration();
 
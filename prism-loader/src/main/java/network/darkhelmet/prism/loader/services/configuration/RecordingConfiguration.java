@@ -30,4 +30,10 @@ import org.spongepowered.configurate.objectmapping.meta.Comment;
 public class RecordingConfiguration {
     @Comment("The delay (in ticks) between queued data being commit to the DB.")
     private long delay = 10;
+
+    @Comment("""
+            The max number of activities waiting to be saved that are indexed by location, so that
+            inspection wand and near lookups can find them without scanning the whole recording queue.
+            Lookups scan the queue while more than this are waiting. Set to 0 to disable.""")
+    private int recentActivityMaxSize = 50000;
 }
@@ -31,6 +31,43 @@ public class DataSourceConfiguration {
     @Comment("Set the max number of records saved to storage per batch.")
     private int batchMax = 500;
 
+    @Comment("""
+            Set the number of rows fetched from the database per round trip when streaming
+            large results (rollbacks, restores, etc). Higher values are faster but use more memory.""")
+    private int fetchSize = 1000;
+
+    @Comment("""
+            Set the max number of time slices broad lookups (with a time range but no location or player)
+            are split into and queried in parallel. Each slice uses its own database connection.
+            Set to 1 to disable.""")
+    private int maxQuerySlices = 1;
+
+    @Comment("""
+            Maintain hourly summaries of recorded activities, which are used to answer grouped
+            lookups over long time ranges without scanning every activity. Uses some extra storage.""")
+    private boolean useRollups = false;
+
+    @Comment("""
+            Set the max number of seconds a lookup statement may run before it's cancelled.
+            Set to 0 to disable.""")
+    private int lookupTimeout = 30;
+
+    @Comment("""
+            Set the max number of seconds a preview, rollback, or restore statement may run
+            before it's cancelled. Set to 0 to disable.""")
+    private int modificationTimeout = 120;
+
+    @Comment("""
+            Set the max number of seconds a purge statement may run before it's cancelled.
+            Set to 0 to disable.""")
+    private int purgeTimeout = 60;
+
+    @Comment("""
+            Log lookups, previews, rollbacks, restores, and purges which take at least this many
+            milliseconds to slow-queries.log, with their SQL, bind values, row counts, and timings.
+            Use /pr report slow-query to see how the database plans the last one. Set to 0 to disable.""")
+    private int slowQueryThreshold = 0;
+
     @Comment("Configure the database name.")
     private String database = "prism";
 